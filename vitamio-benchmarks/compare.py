@@ -0,0 +1,95 @@
+#!/usr/bin/env python3
+#
+# Copyright (C) 2013 YIXIA.COM
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+"""Compare two JMH JSON results and flag the regressions.
+
+    compare.py [--threshold PERCENT] baseline.json result.json
+
+A benchmark regresses when its score is worse than the baseline by more than
+the threshold and by more than the error margins of both runs. The exit status
+is 1 if anything regressed, so the script can gate a build.
+"""
+
+import argparse
+import json
+import sys
+
+# Modes where a higher score is better, the others report a time per call.
+THROUGHPUT_MODES = ('thrpt',)
+
+
+def load(path):
+    with open(path) as f:
+        results = {}
+        for run in json.load(f):
+            name = run['benchmark']
+            params = run.get('params')
+            if params:
+                name += '(' + ', '.join('%s=%s' % p for p in sorted(params.items())) + ')'
+            metric = run['primaryMetric']
+            error = metric.get('scoreError')
+            if not isinstance(error, (int, float)):
+                error = 0.0
+            results[name] = (run['mode'], metric['score'], error, metric['scoreUnit'])
+        return results
+
+
+def main():
+    parser = argparse.ArgumentParser(description='Flag JMH regressions against a baseline.')
+    parser.add_argument('--threshold', type=float, default=10.0,
+                        help='tolerated slowdown in percent (default 10)')
+    parser.add_argument('baseline')
+    parser.add_argument('result')
+    args = parser.parse_args()
+
+    baseline = load(args.baseline)
+    result = load(args.result)
+    regressions = 0
+    width = max([len(name) for name in result] + [9])
+    print('%-*s %14s %14s %9s' % (width, 'Benchmark', 'Baseline', 'Result', 'Change'))
+    for name in sorted(result):
+        mode, score, error, unit = result[name]
+        if name not in baseline:
+            print('%-*s %14s %14.3f %9s  new' % (width, name, '-', score, ''))
+            continue
+        _, base_score, base_error, base_unit = baseline[name]
+        if unit != base_unit or base_score == 0:
+            print('%-*s %14.3f %14.3f %9s  %s vs %s' % (width, name, base_score, score, '', base_unit, unit))
+            continue
+
+        change = (score - base_score) / base_score * 100
+        if mode in THROUGHPUT_MODES:
+            change = -change
+        noise = abs(score - base_score) <= error + base_error
+        status = ''
+        if change > args.threshold and not noise:
+            status = 'REGRESSION'
+            regressions += 1
+        elif change < -args.threshold and not noise:
+            status = 'improved'
+        print(('%-*s %14.3f %14.3f %+8.1f%%  %s' % (width, name, base_score, score, change, status)).rstrip())
+
+    for name in sorted(set(baseline) - set(result)):
+        print('%-*s %14.3f %14s %9s  missing' % (width, name, baseline[name][1], '-', ''))
+
+    if regressions:
+        print('\n%d benchmark(s) regressed by more than %g%%' % (regressions, args.threshold))
+        return 1
+    return 0
+
+
+if __name__ == '__main__':
+    sys.exit(main())
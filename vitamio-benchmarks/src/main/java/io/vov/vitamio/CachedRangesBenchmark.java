@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link CachedRanges} fed the segments of a stream cached from a few seek
+ * points, the way the caching updates come in, and queried around them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CachedRangesBenchmark {
+  private static final int SEGMENTS = 16;
+  private static final long SPACING = 64L * 1024 * 1024;
+  private final long[][] mUpdates = new long[2][SEGMENTS * 2];
+  private final CachedRanges mRanges = new CachedRanges();
+  private final CachedRanges mAdded = new CachedRanges();
+  private int mNext;
+
+  @Setup
+  public void setUp() {
+    for (int u = 0; u < mUpdates.length; u++) {
+      for (int i = 0; i < SEGMENTS; i++) {
+        mUpdates[u][2 * i] = i * SPACING;
+        mUpdates[u][2 * i + 1] = i * SPACING + (u + 1) * 1024 * 1024;
+      }
+    }
+    mRanges.update(mUpdates[0], null);
+  }
+
+  @Benchmark
+  public CachedRanges update() {
+    mNext ^= 1;
+    mRanges.update(mUpdates[mNext], mAdded);
+    return mAdded;
+  }
+
+  @Benchmark
+  public boolean isCached() {
+    mNext = (mNext + 1) % (SEGMENTS * 2);
+    return mRanges.isCached(mNext * SPACING / 2, 512 * 1024);
+  }
+
+  @Benchmark
+  public long legacyScan() {
+    mNext = (mNext + 1) % (SEGMENTS * 2);
+    long offset = mNext * SPACING / 2;
+    long[] segments = mUpdates[0];
+    for (int i = 0; i + 1 < segments.length; i += 2) {
+      if (segments[i] <= offset && offset < segments[i + 1])
+        return segments[i + 1];
+    }
+    return offset;
+  }
+}
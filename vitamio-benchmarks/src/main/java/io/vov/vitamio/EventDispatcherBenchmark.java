@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio;
+
+import io.vov.vitamio.engine.FakePlayerEngine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The events of ten minutes of a cached network stream with subtitles, from
+ * a {@link FakePlayerEngine} through the {@link EventDispatcher} of
+ * {@link MediaPlayer}, its queue drained every {@link #DRAIN_INTERVAL} like a
+ * busy event looper.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EventDispatcherBenchmark {
+  private static final long DURATION = 10 * 60 * 1000L;
+  private static final long DRAIN_INTERVAL = 100;
+  private final ArrayDeque<Object[]> mQueue = new ArrayDeque<Object[]>();
+  private final EventDispatcher.Queue mPoster = new EventDispatcher.Queue() {
+    @Override
+    public void post(int what, int arg1, int arg2, Object obj) {
+      mQueue.add(new Object[]{what, arg1, arg2, obj});
+    }
+  };
+  private final Sink mSink = new Sink();
+
+  @Benchmark
+  public long playback() throws IOException {
+    FakePlayerEngine engine = new FakePlayerEngine();
+    engine.setDuration(DURATION);
+    engine.setBuffering(10, 1);
+    engine.setCaching(50, 64 * 1024, 512L * 1024 * 1024);
+    for (long t = 1000; t + 2000 < DURATION; t += 3000)
+      engine.addTimedText(t, t + 2000, "Subtitle at " + t);
+    EventDispatcher dispatcher = new EventDispatcher(mPoster, mSink);
+    engine.setListener(dispatcher);
+    engine.setDataSource("fake://stream");
+    engine.prepare();
+    engine.start();
+    while (engine.isPlaying()) {
+      engine.advance(DRAIN_INTERVAL);
+      Object[] m;
+      while ((m = mQueue.poll()) != null)
+        dispatcher.dispatch((Integer) m[0], (Integer) m[1], (Integer) m[2], m[3]);
+    }
+    return dispatcher.getEventsDelivered() + mSink.mCalls;
+  }
+
+  private static class Sink implements EventDispatcher.Target {
+    long mCalls;
+
+    @Override
+    public void onPrepared() {
+      mCalls++;
+    }
+
+    @Override
+    public void onCompletion() {
+      mCalls++;
+    }
+
+    @Override
+    public void onBufferingUpdate(int percent) {
+      mCalls += percent;
+    }
+
+    @Override
+    public boolean acceptSeekComplete() {
+      return true;
+    }
+
+    @Override
+    public void onSeekComplete() {
+      mCalls++;
+    }
+
+    @Override
+    public void onVideoSizeChanged(int width, int height) {
+      mCalls++;
+    }
+
+    @Override
+    public boolean onError(int what, int extra) {
+      return true;
+    }
+
+    @Override
+    public void onInfo(int what, int extra) {
+      mCalls++;
+    }
+
+    @Override
+    public void onTimedText(String text) {
+      mCalls += text.length();
+    }
+
+    @Override
+    public void onTimedTextUpdate(byte[] pixels, int width, int height) {
+      mCalls++;
+    }
+
+    @Override
+    public void onCachingUpdate(int type, int info, long[] segments, CachedRanges ranges, CachedRanges added) {
+      mCalls += ranges.size() + added.size();
+    }
+
+    @Override
+    public void onOtherEvent(int what, int arg1, int arg2, Object obj) {
+      mCalls++;
+    }
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link MediaFile#getFileType(String)} as the media scanner calls it, once
+ * per file found, over a mix of media and non-media names.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MediaFileBenchmark {
+  private static final String[] PATHS = {
+      "/sdcard/Movies/Big Buck Bunny.mp4", "/sdcard/Movies/trailer.MKV", "/sdcard/DCIM/Camera/VID_20140101_120000.3gp",
+      "/sdcard/Music/album/01 - Intro.mp3", "/sdcard/Music/album/cover.jpg", "/sdcard/Download/archive.tar.gz",
+      "/sdcard/Android/data/com.example/cache/journal", "/sdcard/Movies/series/S01E01.rmvb", "/sdcard/Movies/.nomedia",
+      "/sdcard/Documents/readme.txt", "/sdcard/Movies/concert.flv", "/sdcard/Music/podcast.m4a"};
+  private int mNext;
+
+  @Benchmark
+  public Object getFileType() {
+    mNext = (mNext + 1) % PATHS.length;
+    return MediaFile.getFileType(PATHS[mNext]);
+  }
+
+  @Benchmark
+  public boolean isVideoFile() {
+    mNext = (mNext + 1) % PATHS.length;
+    MediaFile.MediaFileType type = MediaFile.getFileType(PATHS[mNext]);
+    return type != null && MediaFile.isVideoFileType(type.fileType);
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Metadata#parse(Map, String)} on the kind of map the native layer
+ * returns for a movie file: known keys with odd casing and padding, and keys
+ * that are dropped.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MetadataBenchmark {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final String[][] TAGS = {
+      {"title", "Big Buck Bunny"}, {"Artist", "Blender Foundation"}, {"album ", "Open Movies"},
+      {"GENRE", "Animation"}, {"creation_time", "2008-05-20 12:00:00"}, {"duration", "596458"},
+      {"bit_rate", "2500000"}, {"video_width", "1920"}, {"video_height", "1080"},
+      {"video_codec", "h264"}, {"audio_codec", "aac"}, {"audio_sample_rate", "48000"},
+      {"format", "video/mp4"}, {"cap_pause", "1"}, {"cap_seek", "1"},
+      {"major_brand", "isom"}, {"minor_version", "512"}, {"compatible_brands", "isomiso2avc1mp41"},
+      {"encoder", "Lavf55.19.104"}, {"handler_name", "SoundHandler"}};
+  private Map<byte[], byte[]> mMeta;
+  private Metadata mMetadata;
+
+  @Setup
+  public void setUp() {
+    mMeta = new HashMap<byte[], byte[]>();
+    for (String[] tag : TAGS)
+      mMeta.put(tag[0].getBytes(UTF_8), tag[1].getBytes(UTF_8));
+    mMetadata = new Metadata();
+  }
+
+  @Benchmark
+  public Metadata parse() {
+    mMetadata.parse(mMeta, "UTF-8");
+    return mMetadata;
+  }
+
+  @Benchmark
+  public String parseAndGetTitle() {
+    mMetadata.parse(mMeta, "UTF-8");
+    return mMetadata.getString(Metadata.TITLE);
+  }
+
+  @Benchmark
+  public int parseAndGetDuration() {
+    mMetadata.parse(mMeta, "UTF-8");
+    return mMetadata.getInt(Metadata.DURATION);
+  }
+}
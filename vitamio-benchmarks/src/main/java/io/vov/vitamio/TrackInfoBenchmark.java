@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The track list parsing of {@code MediaPlayer.getTrackInfo(String)}: the
+ * {@link TrackInfoTokenizer} it uses now against the regex split it replaced.
+ * MediaPlayer itself loads the native libraries, so the loop around the
+ * tokenizer is reproduced without the android SparseArray.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TrackInfoBenchmark {
+  private String mTracks;
+  private final int[] mIndexes = new int[64];
+  private final String[] mLanguages = new String[64];
+
+  @Setup
+  public void setUp() {
+    StringBuilder sb = new StringBuilder();
+    String[] tracks = {"0.und", "1.eng.English", "2.chi.Chinese (Simplified)", "3.jpn.Japanese.SDH", "4.fre", "x.bad.record", "5.ger.German Forced"};
+    for (int i = 0; i < tracks.length; i++) {
+      if (i > 0)
+        sb.append("!#!");
+      sb.append(tracks[i]);
+    }
+    mTracks = sb.toString();
+  }
+
+  @Benchmark
+  public int tokenizer() {
+    int count = 0;
+    TrackInfoTokenizer tokenizer = new TrackInfoTokenizer(mTracks);
+    while (tokenizer.next()) {
+      mIndexes[count] = tokenizer.getIndex();
+      mLanguages[count] = tokenizer.getFieldCount() >= 2 ? tokenizer.getLanguage() : null;
+      count++;
+    }
+    return count;
+  }
+
+  @Benchmark
+  public int legacySplit() {
+    int count = 0;
+    for (String s : mTracks.split("!#!")) {
+      try {
+        String[] formats = s.split("\\.");
+        mIndexes[count] = Integer.parseInt(formats[0]);
+        mLanguages[count] = formats.length >= 2 ? formats[1] : null;
+        count++;
+      } catch (NumberFormatException e) {
+      }
+    }
+    return count;
+  }
+}
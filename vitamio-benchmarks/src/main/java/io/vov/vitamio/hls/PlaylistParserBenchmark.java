@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.vov.vitamio.hls;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link PlaylistParser} reading the media playlist of a two hour stream cut
+ * in six second segments, and the segment lookup of a seek in it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PlaylistParserBenchmark {
+  private static final int SEGMENTS = 1200;
+  private static final String URI = "http://example.com/hls/720p/index.m3u8";
+  private byte[] mPlaylist;
+  private Playlist mParsed;
+  private long mTime;
+
+  @Setup
+  public void setUp() throws IOException {
+    StringBuilder sb = new StringBuilder("#EXTM3U\n#EXT-X-VERSION:3\n#EXT-X-TARGETDURATION:6\n#EXT-X-MEDIA-SEQUENCE:0\n#EXT-X-PLAYLIST-TYPE:VOD\n");
+    for (int i = 0; i < SEGMENTS; i++)
+      sb.append("#EXTINF:6.006,\nsegment").append(i).append(".ts\n");
+    sb.append("#EXT-X-ENDLIST\n");
+    mPlaylist = sb.toString().getBytes("UTF-8");
+    mParsed = parse();
+  }
+
+  @Benchmark
+  public Playlist parse() throws IOException {
+    return PlaylistParser.parse(new ByteArrayInputStream(mPlaylist), URI, null);
+  }
+
+  @Benchmark
+  public int getSegmentIndex() {
+    mTime += 997;
+    if (mTime >= mParsed.getDuration())
+      mTime = 0;
+    return mParsed.getSegmentIndex(mTime);
+  }
+}
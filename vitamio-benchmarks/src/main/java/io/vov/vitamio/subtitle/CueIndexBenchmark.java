@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.vov.vitamio.subtitle;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The lookups of the {@link SubtitleScheduler} in a {@link CueIndex} of a
+ * long film with overlapping cues, signs and songs over the dialogue, against
+ * a scan of all the cues.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CueIndexBenchmark {
+  private static final int CUES = 4000;
+  private static final long DURATION = 2 * 3600 * 1000;
+  private final List<Cue> mCues = new ArrayList<Cue>();
+  private final List<Cue> mOut = new ArrayList<Cue>();
+  private CueIndex mIndex;
+  private long mTime;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(7);
+    for (int i = 0; i < CUES; i++) {
+      long start = i * DURATION / CUES;
+      // one cue in ten lasts long enough to overlap the following ones
+      long length = i % 10 == 0 ? 20000 + random.nextInt(40000) : 1000 + random.nextInt(3000);
+      mCues.add(new Cue(start, start + length, "cue " + i));
+    }
+    mIndex = new CueIndex(mCues);
+  }
+
+  @Benchmark
+  public int getCues() {
+    mOut.clear();
+    mIndex.getCues(nextTime(), mOut);
+    return mOut.size();
+  }
+
+  @Benchmark
+  public long getNextStartTime() {
+    return mIndex.getNextStartTime(nextTime());
+  }
+
+  @Benchmark
+  public int linearScan() {
+    long time = nextTime();
+    mOut.clear();
+    for (int i = 0; i < mCues.size(); i++) {
+      Cue cue = mCues.get(i);
+      if (cue.isActive(time))
+        mOut.add(cue);
+    }
+    return mOut.size();
+  }
+
+  private long nextTime() {
+    mTime += 16;
+    if (mTime > DURATION)
+      mTime = 0;
+    return mTime;
+  }
+}
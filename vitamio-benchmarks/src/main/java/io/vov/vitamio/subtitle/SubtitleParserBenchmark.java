@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.vov.vitamio.subtitle;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SubtitleParser} reading a whole file of a thousand cues, the work of
+ * {@link SubtitleTrack} before the last cues can be shown, for the two most
+ * common formats.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SubtitleParserBenchmark {
+  private static final int CUES = 1000;
+  private String mSrt;
+  private String mAss;
+
+  @Setup
+  public void setUp() {
+    StringBuilder srt = new StringBuilder();
+    StringBuilder ass = new StringBuilder("[Script Info]\nScriptType: v4.00+\n\n[Events]\n" +
+        "Format: Layer, Start, End, Style, Name, MarginL, MarginR, MarginV, Effect, Text\n");
+    for (int i = 0; i < CUES; i++) {
+      long start = i * 3000L;
+      srt.append(i + 1).append('\n')
+          .append(srtTime(start)).append(" --> ").append(srtTime(start + 2500)).append('\n')
+          .append("<i>Line ").append(i).append("</i>\nsecond line &amp; more\n\n");
+      ass.append("Dialogue: 0,").append(assTime(start)).append(',').append(assTime(start + 2500))
+          .append(",Default,,0,0,0,,{\\i1}Line ").append(i).append("{\\i0}\\Nsecond line, more\n");
+    }
+    mSrt = srt.toString();
+    mAss = ass.toString();
+  }
+
+  @Benchmark
+  public int srt() throws IOException {
+    return parse("film.srt", mSrt);
+  }
+
+  @Benchmark
+  public int ass() throws IOException {
+    return parse("film.ass", mAss);
+  }
+
+  private static int parse(String name, String content) throws IOException {
+    SubtitleParser parser = SubtitleParser.create(name, new StringReader(content));
+    int count = 0;
+    while (parser.next() != null)
+      count++;
+    parser.close();
+    return count;
+  }
+
+  private static String srtTime(long time) {
+    return String.format("%02d:%02d:%02d,%03d", time / 3600000, time / 60000 % 60, time / 1000 % 60, time % 1000);
+  }
+
+  private static String assTime(long time) {
+    return String.format("%d:%02d:%02d.%02d", time / 3600000, time / 60000 % 60, time / 1000 % 60, time % 1000 / 10);
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Base64} round trips of a thumbnail sized payload and of a short
+ * header value.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class Base64Benchmark {
+	@Param({"32", "8192"})
+	public int size;
+	private byte[] mData;
+	private byte[] mEncoded;
+	private String mEncodedString;
+
+	@Setup
+	public void setUp() {
+		mData = new byte[size];
+		new Random(size).nextBytes(mData);
+		mEncoded = Base64.encode(mData, Base64.NO_WRAP);
+		mEncodedString = Base64.encodeToString(mData, Base64.DEFAULT);
+	}
+
+	@Benchmark
+	public byte[] encode() {
+		return Base64.encode(mData, Base64.NO_WRAP);
+	}
+
+	@Benchmark
+	public String encodeToString() {
+		return Base64.encodeToString(mData, Base64.DEFAULT);
+	}
+
+	@Benchmark
+	public byte[] decode() {
+		return Base64.decode(mEncoded, Base64.NO_WRAP);
+	}
+
+	@Benchmark
+	public byte[] decodeString() {
+		return Base64.decode(mEncodedString, Base64.DEFAULT);
+	}
+}
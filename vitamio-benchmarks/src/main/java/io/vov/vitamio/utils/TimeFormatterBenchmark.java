@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The media controller's time text: {@code StringUtils.generateTime}, which
+ * formats through a {@link TimeFormatter}, against the String.format it
+ * replaced.
+ * StringUtils logs through android, so the old code is kept here.
+ * <p/>
+ * The clock advances 16ms per call, a frame, so {@link #formatChangeOnly()}
+ * shows what a progress update costs when the second didn't change.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TimeFormatterBenchmark {
+	private static final long START = 3599000;
+	private static final long END = START + 2 * 3600000;
+	private final TimeFormatter mFormatter = new TimeFormatter();
+	private long mTime = START;
+
+	@Benchmark
+	public String generateTime() {
+		TimeFormatter formatter = new TimeFormatter();
+		formatter.format(nextTime());
+		return formatter.toString();
+	}
+
+	@Benchmark
+	public boolean formatChangeOnly() {
+		return mFormatter.format(nextTime());
+	}
+
+	@Benchmark
+	public String legacyGenerateTime() {
+		long time = nextTime();
+		int totalSeconds = (int) (time / 1000);
+		int seconds = totalSeconds % 60;
+		int minutes = (totalSeconds / 60) % 60;
+		int hours = totalSeconds / 3600;
+
+		return hours > 0 ? String.format("%02d:%02d:%02d", hours, minutes, seconds) : String.format("%02d:%02d", minutes, seconds);
+	}
+
+	private long nextTime() {
+		mTime += 16;
+		if (mTime > END)
+			mTime = START;
+		return mTime;
+	}
+}
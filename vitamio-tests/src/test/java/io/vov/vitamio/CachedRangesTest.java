@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.vov.vitamio;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CachedRangesTest {
+
+  @Test
+  public void addMerges() {
+    CachedRanges ranges = new CachedRanges(1);
+    ranges.add(100, 200);
+    ranges.add(300, 400);
+    ranges.add(0, 50);
+    assertArrayEquals(new long[]{0, 50, 100, 200, 300, 400}, ranges.toArray());
+    assertEquals(250, ranges.cachedBytes());
+
+    // touching ranges are merged
+    ranges.add(50, 100);
+    assertArrayEquals(new long[]{0, 200, 300, 400}, ranges.toArray());
+    // so are the ones it covers
+    ranges.add(150, 350);
+    assertArrayEquals(new long[]{0, 400}, ranges.toArray());
+    assertEquals(400, ranges.cachedBytes());
+
+    ranges.add(10, 10);
+    ranges.add(500, 400);
+    assertEquals(1, ranges.size());
+    ranges.clear();
+    assertTrue(ranges.isEmpty());
+    assertEquals(0, ranges.cachedBytes());
+  }
+
+  @Test
+  public void lookups() {
+    CachedRanges ranges = new CachedRanges();
+    ranges.add(100, 200);
+    ranges.add(300, 400);
+    assertFalse(ranges.isCached(99, 1));
+    assertTrue(ranges.isCached(100, 100));
+    assertFalse(ranges.isCached(100, 101));
+    assertFalse(ranges.isCached(200, 1));
+    assertTrue(ranges.isCached(250, 0));
+    assertEquals(200, ranges.getCachedEnd(150));
+    assertEquals(250, ranges.getCachedEnd(250));
+    assertEquals(400, ranges.getCachedEnd(300));
+    assertEquals(400, ranges.getCachedEnd(400));
+    assertEquals(300, ranges.getStart(1));
+    try {
+      ranges.getEnd(2);
+      fail();
+    } catch (IndexOutOfBoundsException e) {
+    }
+  }
+
+  @Test
+  public void updateCollectsWhatIsAdded() {
+    CachedRanges ranges = new CachedRanges();
+    CachedRanges added = new CachedRanges();
+    ranges.update(new long[]{0, 100, 200, 300}, added);
+    assertArrayEquals(new long[]{0, 100, 200, 300}, added.toArray());
+
+    ranges.update(new long[]{0, 150, 180, 320, 500, 600}, added);
+    assertArrayEquals(new long[]{0, 150, 180, 320, 500, 600}, ranges.toArray());
+    assertArrayEquals(new long[]{100, 150, 180, 200, 300, 320, 500, 600}, added.toArray());
+
+    ranges.update(new long[]{0, 150, 180, 320, 500, 600}, added);
+    assertTrue(added.isEmpty());
+
+    // an odd trailing value is ignored
+    ranges.update(new long[]{0, 1000, 2000}, null);
+    assertArrayEquals(new long[]{0, 1000}, ranges.toArray());
+  }
+
+  @Test
+  public void readOnly() {
+    CachedRanges ranges = new CachedRanges(4, true);
+    ranges.replace(new long[]{0, 10}, null);
+    ranges.addRange(20, 30);
+    assertEquals(20, ranges.cachedBytes());
+    try {
+      ranges.add(0, 1);
+      fail();
+    } catch (UnsupportedOperationException e) {
+    }
+    try {
+      ranges.clear();
+      fail();
+    } catch (UnsupportedOperationException e) {
+    }
+    try {
+      new CachedRanges().update(new long[]{0, 1}, ranges);
+      fail();
+    } catch (UnsupportedOperationException e) {
+    }
+    assertArrayEquals(new long[]{0, 10, 20, 30}, ranges.toArray());
+  }
+
+  @Test
+  public void matchesABitSet() {
+    Random random = new Random(42);
+    CachedRanges ranges = new CachedRanges(1);
+    CachedRanges added = new CachedRanges(1);
+    BitSet previous = new BitSet();
+    for (int round = 0; round < 200; round++) {
+      BitSet cached = new BitSet();
+      long[] segments = new long[2 * random.nextInt(8)];
+      for (int i = 0; i < segments.length; i += 2) {
+        int start = random.nextInt(1000);
+        int end = start + random.nextInt(100);
+        segments[i] = start;
+        segments[i + 1] = end;
+        cached.set(start, end);
+      }
+      ranges.update(segments, added);
+
+      assertArrayEquals(toArray(cached), ranges.toArray());
+      assertEquals(cached.cardinality(), ranges.cachedBytes());
+      BitSet expected = (BitSet) cached.clone();
+      expected.andNot(previous);
+      assertArrayEquals(toArray(expected), added.toArray());
+      for (int offset = 0; offset < 1100; offset += 7) {
+        assertEquals(cached.get(offset), ranges.isCached(offset, 1));
+        assertEquals(cached.get(offset) ? cached.nextClearBit(offset) : offset, ranges.getCachedEnd(offset));
+      }
+      previous = cached;
+    }
+  }
+
+  private static long[] toArray(BitSet bits) {
+    long[] segments = new long[0];
+    for (int start = bits.nextSetBit(0); start >= 0; start = bits.nextSetBit(start)) {
+      int end = bits.nextClearBit(start);
+      segments = Arrays.copyOf(segments, segments.length + 2);
+      segments[segments.length - 2] = start;
+      segments[segments.length - 1] = end;
+      start = end;
+    }
+    return segments;
+  }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.vov.vitamio;
+
+import io.vov.vitamio.engine.FakePlayerEngine;
+import io.vov.vitamio.engine.PlayerEngine;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EventDispatcherTest {
+  private final ArrayDeque<Object[]> mQueue = new ArrayDeque<Object[]>();
+  private final Recorder mTarget = new Recorder();
+  private EventDispatcher mDispatcher;
+  private FakePlayerEngine mEngine;
+
+  @Before
+  public void setUp() throws Exception {
+    mDispatcher = new EventDispatcher(new EventDispatcher.Queue() {
+      @Override
+      public void post(int what, int arg1, int arg2, Object obj) {
+        mQueue.add(new Object[]{what, arg1, arg2, obj});
+      }
+    }, mTarget);
+    mEngine = new FakePlayerEngine();
+    mEngine.setListener(mDispatcher);
+    mEngine.setDuration(10 * 1000);
+    mEngine.setVideoSize(640, 360);
+    mEngine.setPrepareDelay(100);
+    mEngine.setBuffering(0, 0);
+    mEngine.setDataSource("fake://movie");
+  }
+
+  @Test
+  public void playback() throws Exception {
+    mEngine.addTimedText(1000, 2000, "Hello");
+    mEngine.prepare();
+    drain();
+    mEngine.start();
+    mEngine.advance(1500);
+    drain();
+    mEngine.advance(10 * 1000);
+    drain();
+    assertEquals(Arrays.asList("size 640x360", "prepared", "text Hello", "text ", "completion"), mTarget.mCalls);
+    assertEquals(mDispatcher.getEventsReceived(), mDispatcher.getEventsDelivered());
+  }
+
+  @Test
+  public void bufferingCoalesced() throws Exception {
+    mEngine.setBuffering(10, 10);
+    mEngine.prepare();
+    mEngine.advance(1000);
+    // ten updates, a single message in flight
+    assertEquals(3, mQueue.size());
+    drain();
+    assertEquals(Arrays.asList("size 640x360", "prepared", "buffering 100"), mTarget.mCalls);
+    assertEquals(12, mDispatcher.getEventsReceived());
+    assertEquals(3, mDispatcher.getEventsDelivered());
+
+    // a new update posts again once the previous one was delivered
+    mDispatcher.onEvent(PlayerEngine.EVENT_BUFFERING_UPDATE, 42, 0, null);
+    drain();
+    assertEquals("buffering 42", last());
+  }
+
+  @Test
+  public void cachedRanges() throws Exception {
+    mEngine.setCaching(100, 1000, 5000);
+    mEngine.prepare();
+    drain();
+    mEngine.advance(100);
+    drain();
+    assertEquals(Arrays.asList("caching 2", "caching 3 [0, 1000] added [0, 1000]", "caching 4"), tail(3));
+    // the updates meanwhile are merged into the newest
+    mEngine.advance(400);
+    drain();
+    assertEquals(Arrays.asList("caching 3 [0, 5000] added [1000, 5000]", "caching 4", "caching 5"), tail(3));
+    assertArrayEquals(new long[]{0, 5000}, mDispatcher.getCachedRanges().toArray());
+
+    mDispatcher.clearCachedRanges();
+    assertTrue(mDispatcher.getCachedRanges().isEmpty());
+  }
+
+  @Test
+  public void clearPending() throws Exception {
+    mEngine.setBuffering(10, 10);
+    mEngine.prepare();
+    mEngine.advance(100);
+    // the messages were removed from the queue, e.g. by a reset
+    mQueue.clear();
+    mDispatcher.clearPending();
+    mDispatcher.onEvent(PlayerEngine.EVENT_BUFFERING_UPDATE, 7, 0, null);
+    drain();
+    assertEquals(Arrays.asList("buffering 7"), mTarget.mCalls);
+  }
+
+  @Test
+  public void seekCompleteFiltered() throws Exception {
+    mEngine.prepare();
+    mEngine.start();
+    drain();
+    mTarget.mAcceptSeek = false;
+    mEngine.seekTo(5000);
+    mEngine.advance(100);
+    drain();
+    assertEquals("prepared", last());
+    mTarget.mAcceptSeek = true;
+    mEngine.seekTo(6000);
+    mEngine.advance(100);
+    drain();
+    assertEquals("seek", last());
+  }
+
+  @Test
+  public void errors() throws Exception {
+    mEngine.postEvent(200, PlayerEngine.EVENT_ERROR, 1, -5);
+    mEngine.postEvent(300, PlayerEngine.EVENT_INFO, 701, 0);
+    mEngine.postEvent(400, 400, 0, 0);
+    mEngine.prepareAsync();
+    mEngine.advance(500);
+    drain();
+    // an unhandled error completes the playback
+    assertEquals(Arrays.asList("size 640x360", "prepared", "error 1 -5", "completion", "info 701", "other 400"), mTarget.mCalls);
+
+    mTarget.mCalls.clear();
+    mTarget.mHandleErrors = true;
+    mDispatcher.onEvent(PlayerEngine.EVENT_ERROR, 1, -5, null);
+    drain();
+    assertEquals(Arrays.asList("error 1 -5"), mTarget.mCalls);
+  }
+
+  @Test
+  public void subtitles() {
+    mDispatcher.onSubtitle(PlayerEngine.SUBTITLE_TEXT, new byte[]{(byte) 0xe4, 0x62}, " ISO-8859-1 ", 0, 0);
+    mDispatcher.onSubtitle(PlayerEngine.SUBTITLE_TEXT, new byte[]{0x61}, "unknown-charset", 0, 0);
+    mDispatcher.onSubtitle(PlayerEngine.SUBTITLE_BITMAP, new byte[4 * 6], null, 2, 3);
+    drain();
+    assertEquals(Arrays.asList("text äb", "text a", "bitmap 24 2x3"), mTarget.mCalls);
+  }
+
+  @Test
+  public void noQueue() throws Exception {
+    EventDispatcher dispatcher = new EventDispatcher(null, mTarget);
+    mEngine.setListener(dispatcher);
+    mEngine.prepare();
+    assertEquals(2, dispatcher.getEventsReceived());
+    assertEquals(0, dispatcher.getEventsDelivered());
+    assertTrue(mTarget.mCalls.isEmpty());
+  }
+
+  private void drain() {
+    Object[] m;
+    while ((m = mQueue.poll()) != null)
+      mDispatcher.dispatch((Integer) m[0], (Integer) m[1], (Integer) m[2], m[3]);
+  }
+
+  private List<String> tail(int count) {
+    return mTarget.mCalls.subList(mTarget.mCalls.size() - count, mTarget.mCalls.size());
+  }
+
+  private String last() {
+    return mTarget.mCalls.get(mTarget.mCalls.size() - 1);
+  }
+
+  private static class Recorder implements EventDispatcher.Target {
+    final List<String> mCalls = new ArrayList<String>();
+    boolean mAcceptSeek = true;
+    boolean mHandleErrors;
+
+    @Override
+    public void onPrepared() {
+      mCalls.add("prepared");
+    }
+
+    @Override
+    public void onCompletion() {
+      mCalls.add("completion");
+    }
+
+    @Override
+    public void onBufferingUpdate(int percent) {
+      mCalls.add("buffering " + percent);
+    }
+
+    @Override
+    public boolean acceptSeekComplete() {
+      return mAcceptSeek;
+    }
+
+    @Override
+    public void onSeekComplete() {
+      mCalls.add("seek");
+    }
+
+    @Override
+    public void onVideoSizeChanged(int width, int height) {
+      mCalls.add("size " + width + "x" + height);
+    }
+
+    @Override
+    public boolean onError(int what, int extra) {
+      mCalls.add("error " + what + " " + extra);
+      return mHandleErrors;
+    }
+
+    @Override
+    public void onInfo(int what, int extra) {
+      mCalls.add("info " + what);
+    }
+
+    @Override
+    public void onTimedText(String text) {
+      mCalls.add("text " + text);
+    }
+
+    @Override
+    public void onTimedTextUpdate(byte[] pixels, int width, int height) {
+      mCalls.add("bitmap " + pixels.length + " " + width + "x" + height);
+    }
+
+    @Override
+    public void onCachingUpdate(int type, int info, long[] segments, CachedRanges ranges, CachedRanges added) {
+      if (type == PlayerEngine.CACHE_TYPE_UPDATE)
+        mCalls.add("caching " + type + " " + Arrays.toString(ranges.toArray()) + " added " + Arrays.toString(added.toArray()));
+      else
+        mCalls.add("caching " + type);
+    }
+
+    @Override
+    public void onOtherEvent(int what, int arg1, int arg2, Object obj) {
+      mCalls.add("other " + what);
+    }
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.vov.vitamio.hls;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class AbrControllerTest {
+  static final List<Playlist.Variant> VARIANTS = Arrays.asList(variant(2000000), variant(500000), variant(4000000), variant(1000000));
+  private AbrController mController;
+
+  static Playlist.Variant variant(int bandwidth) {
+    return new Playlist.Variant("http://example.com/" + bandwidth + ".m3u8", bandwidth, -1, -1, -1, null);
+  }
+
+  @Before
+  public void setUp() {
+    mController = new AbrController();
+    mController.setVariants(VARIANTS);
+  }
+
+  /**
+   * Download at rate long enough for the estimate to settle on it.
+   */
+  private void setRate(long bitsPerSecond) {
+    for (int i = 0; i < 20; i++)
+      mController.addSample(bitsPerSecond / 2, 4000);
+  }
+
+  private void assertDecision(int reason, int from, int to, AbrController.Decision decision) {
+    assertEquals(reason, decision.getReason());
+    if (from == 0)
+      assertNull(decision.getFrom());
+    else
+      assertEquals(from, decision.getFrom().getBandwidth());
+    assertEquals(to, decision.getTo().getBandwidth());
+  }
+
+  @Test
+  public void noVariants() {
+    mController.setVariants(new ArrayList<Playlist.Variant>());
+    assertNull(mController.select(0, 0));
+    assertNull(mController.getCurrent());
+  }
+
+  @Test
+  public void startIsConservativeOnAnEmptyBuffer() {
+    setRate(3000000);
+    assertEquals(1000000, mController.select(0, 0).getBandwidth());
+    assertDecision(AbrController.Decision.REASON_START, 0, 1000000, mController.getDecisions().get(0));
+
+    mController.setVariants(VARIANTS);
+    assertEquals(2000000, mController.select(AbrController.DEFAULT_UP_SWITCH_BUFFER, 0).getBandwidth());
+  }
+
+  @Test
+  public void upSwitchHold() {
+    setRate(3000000);
+    mController.select(0, 0);
+    setRate(6000000);
+    long buffer = AbrController.DEFAULT_UP_SWITCH_BUFFER;
+    long hold = AbrController.DEFAULT_UP_SWITCH_HOLD;
+    assertEquals(1000000, mController.select(buffer, 1000).getBandwidth());
+    assertEquals(1000000, mController.select(buffer, 1000 + hold - 1).getBandwidth());
+    // one step up at a time
+    assertEquals(2000000, mController.select(buffer, 1000 + hold).getBandwidth());
+    assertEquals(2000000, mController.select(buffer, 1000 + hold).getBandwidth());
+    // a buffer under the up switch mark starts the hold over
+    assertEquals(2000000, mController.select(buffer - 1, 1000 + hold + 100).getBandwidth());
+    assertEquals(2000000, mController.select(buffer, 1000 + hold + 200).getBandwidth());
+    assertEquals(2000000, mController.select(buffer, 1000 + 2 * hold).getBandwidth());
+    assertEquals(4000000, mController.select(buffer, 1000 + 2 * hold + 200).getBandwidth());
+
+    List<AbrController.Decision> decisions = mController.getDecisions();
+    assertEquals(3, decisions.size());
+    assertDecision(AbrController.Decision.REASON_UP, 1000000, 2000000, decisions.get(1));
+    assertEquals(1000 + hold, decisions.get(1).getTime());
+    assertDecision(AbrController.Decision.REASON_UP, 2000000, 4000000, decisions.get(2));
+  }
+
+  @Test
+  public void downSwitchDelayedByAFullBuffer() {
+    setRate(20000000);
+    mController.select(AbrController.DEFAULT_UP_SWITCH_BUFFER, 0);
+    assertEquals(4000000, mController.getCurrent().getBandwidth());
+    setRate(3000000);
+    assertEquals(4000000, mController.select(AbrController.DEFAULT_DOWN_SWITCH_BUFFER, 1000).getBandwidth());
+    // straight to the variant which fits
+    assertEquals(2000000, mController.select(AbrController.DEFAULT_DOWN_SWITCH_BUFFER - 1, 2000).getBandwidth());
+    assertDecision(AbrController.Decision.REASON_DOWN, 4000000, 2000000, mController.getDecisions().get(1));
+  }
+
+  @Test
+  public void lowBufferDownSwitch() {
+    setRate(6000000);
+    mController.select(AbrController.DEFAULT_UP_SWITCH_BUFFER, 0);
+    assertEquals(4000000, mController.getCurrent().getBandwidth());
+    // the estimate still fits, the buffer doesn't
+    assertEquals(2000000, mController.select(AbrController.DEFAULT_LOW_BUFFER / 2, 1000).getBandwidth());
+    assertDecision(AbrController.Decision.REASON_LOW_BUFFER, 4000000, 2000000, mController.getDecisions().get(1));
+  }
+
+  @Test
+  public void hysteresis() {
+    setRate(3000000);
+    mController.select(AbrController.DEFAULT_UP_SWITCH_BUFFER, 0);
+    assertEquals(2000000, mController.getCurrent().getBandwidth());
+    // between the bandwidth of the variant and the next one, nothing changes
+    for (long rate = 2600000; rate < 5000000; rate += 200000) {
+      setRate(rate);
+      for (long buffer = AbrController.DEFAULT_LOW_BUFFER; buffer <= 30000; buffer += 5000)
+        mController.select(buffer, rate);
+    }
+    assertEquals(1, mController.getDecisions().size());
+  }
+
+  @Test
+  public void listenerCalledOutsideTheLock() {
+    final List<AbrController.Decision> decisions = new ArrayList<AbrController.Decision>();
+    mController.setListener(new AbrController.Listener() {
+      @Override
+      public void onDecision(AbrController controller, AbrController.Decision decision) {
+        assertFalse(Thread.holdsLock(controller));
+        decisions.add(decision);
+      }
+    });
+    setRate(6000000);
+    mController.select(0, 0);
+    for (long time = 1000; time <= 20000; time += 1000)
+      mController.select(AbrController.DEFAULT_UP_SWITCH_BUFFER, time);
+    setRate(600000);
+    mController.select(0, 21000);
+    assertEquals(mController.getDecisions(), decisions);
+    assertEquals(3, decisions.size());
+    assertSame(mController.getCurrent(), decisions.get(2).getTo());
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.vov.vitamio.hls;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link AbrController} driven by throughput traces through
+ * {@link AbrSimulation}, checked on its decision log.
+ */
+public class AbrSimulationTest {
+  private static final long SEGMENT = 4000;
+  private static final long MAX_BUFFER = 30000;
+  private AbrController mController;
+
+  @Before
+  public void setUp() {
+    mController = new AbrController();
+    mController.setVariants(AbrControllerTest.VARIANTS);
+  }
+
+  private static long[][] trace(String trace) throws IOException {
+    return AbrSimulation.parseTrace(new StringReader(trace));
+  }
+
+  /**
+   * The rules every decision follows, whatever the trace.
+   */
+  private static void assertConsistent(List<AbrController.Decision> decisions) {
+    assertEquals(AbrController.Decision.REASON_START, decisions.get(0).getReason());
+    for (int i = 1; i < decisions.size(); i++) {
+      AbrController.Decision decision = decisions.get(i);
+      assertEquals(decisions.get(i - 1).getTo(), decision.getFrom());
+      switch (decision.getReason()) {
+        case AbrController.Decision.REASON_UP:
+          assertEquals(decision.toString(), rank(decision.getFrom()) + 1, rank(decision.getTo()));
+          assertTrue(decision.toString(), decision.getBuffer() >= AbrController.DEFAULT_UP_SWITCH_BUFFER);
+          // the hold starts over after every switch
+          assertTrue(decision.toString(), decision.getTime() - decisions.get(i - 1).getTime() >= AbrController.DEFAULT_UP_SWITCH_HOLD);
+          break;
+        case AbrController.Decision.REASON_DOWN:
+          assertTrue(decision.toString(), decision.getTo().getBandwidth() < decision.getFrom().getBandwidth());
+          assertTrue(decision.toString(), decision.getBuffer() < AbrController.DEFAULT_DOWN_SWITCH_BUFFER);
+          break;
+        case AbrController.Decision.REASON_LOW_BUFFER:
+          assertTrue(decision.toString(), decision.getTo().getBandwidth() < decision.getFrom().getBandwidth());
+          assertTrue(decision.toString(), decision.getBuffer() < AbrController.DEFAULT_LOW_BUFFER);
+          break;
+        default:
+          fail(decision.toString());
+      }
+    }
+  }
+
+  private static int rank(Playlist.Variant variant) {
+    int rank = 0;
+    for (Playlist.Variant v : AbrControllerTest.VARIANTS) {
+      if (v.getBandwidth() < variant.getBandwidth())
+        rank++;
+    }
+    return rank;
+  }
+
+  @Test
+  public void parseTrace() throws IOException {
+    long[][] trace = trace("# duration bandwidth\n1000 500\n\n  2500\t1.5  \n");
+    assertEquals(2, trace.length);
+    assertArrayEquals(new long[]{1000, 500000}, trace[0]);
+    assertArrayEquals(new long[]{2500, 1500}, trace[1]);
+  }
+
+  @Test(expected = IOException.class)
+  public void malformedTrace() throws IOException {
+    trace("1000 500\n1000\n");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void traceWithoutBandwidth() throws IOException {
+    AbrSimulation.run(mController, trace("1000 0\n"), SEGMENT, 10, MAX_BUFFER);
+  }
+
+  @Test
+  public void steadyNetwork() throws IOException {
+    AbrSimulation.Result result = AbrSimulation.run(mController, trace("1000 8000\n"), SEGMENT, 60, MAX_BUFFER);
+    List<AbrController.Decision> decisions = result.getDecisions();
+    assertConsistent(decisions);
+    assertEquals(0, result.getStallCount());
+    assertEquals(4000000, mController.getCurrent().getBandwidth());
+    // climbs once, never oscillates
+    for (AbrController.Decision decision : decisions.subList(1, decisions.size()))
+      assertEquals(AbrController.Decision.REASON_UP, decision.getReason());
+  }
+
+  @Test
+  public void bandwidthDrop() throws IOException {
+    AbrSimulation.Result result = AbrSimulation.run(mController, trace("60000 8000\n600000 700\n"), SEGMENT, 60, MAX_BUFFER);
+    List<AbrController.Decision> decisions = result.getDecisions();
+    assertConsistent(decisions);
+    AbrController.Decision last = decisions.get(decisions.size() - 1);
+    assertTrue(last.toString(), last.getTime() > 60000);
+    assertTrue(last.toString(), last.getReason() == AbrController.Decision.REASON_DOWN || last.getReason() == AbrController.Decision.REASON_LOW_BUFFER);
+    assertEquals(500000, mController.getCurrent().getBandwidth());
+    assertTrue(result.toString(), result.getStallTime() < 10000);
+  }
+
+  @Test
+  public void outages() throws IOException {
+    // 20s at 3 Mbps then 4s without network, over and over
+    AbrSimulation.Result result = AbrSimulation.run(mController, trace("20000 3000\n4000 0\n"), SEGMENT, 100, MAX_BUFFER);
+    assertConsistent(result.getDecisions());
+    // the buffer rides the outages out instead of switching on each one
+    assertEquals(0, result.getStallCount());
+    assertTrue(result.toString(), result.getDecisions().size() <= 4);
+  }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.vov.vitamio.hls;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PlaylistParserTest {
+  private static final String URI = "http://example.com/video/index.m3u8";
+
+  private static Playlist parse(String text) throws IOException {
+    return PlaylistParser.parse(stream(text), URI, null);
+  }
+
+  private static InputStream stream(String text) throws IOException {
+    return new ByteArrayInputStream(text.getBytes("UTF-8"));
+  }
+
+  @Test
+  public void mediaPlaylist() throws IOException {
+    Playlist playlist = parse("\uFEFF#EXTM3U\n" +
+        "#EXT-X-TARGETDURATION:10\n" +
+        "#EXT-X-MEDIA-SEQUENCE:7\n" +
+        "#EXTINF:9.009,first\r\n" +
+        "a.ts\n" +
+        "\n" +
+        "#EXT-X-DISCONTINUITY\n" +
+        "#EXTINF:10,\n" +
+        "b.ts\n" +
+        "#EXTINF:4.5\n" +
+        "c.ts\n" +
+        "#EXT-X-ENDLIST\n");
+    assertFalse(playlist.isMaster());
+    assertTrue(playlist.isEndList());
+    assertEquals(10000, playlist.getTargetDuration());
+    assertEquals(7, playlist.getMediaSequence());
+    assertEquals(3, playlist.getSegmentCount());
+    assertEquals(23509, playlist.getDuration());
+
+    Playlist.Segment a = playlist.getSegment(0);
+    assertEquals("http://example.com/video/a.ts", a.getUri());
+    assertEquals(9009, a.getDuration());
+    assertEquals(7, a.getSequence());
+    assertEquals("first", a.getTitle());
+    assertFalse(a.isDiscontinuity());
+    assertEquals(-1, a.getOffset());
+    assertEquals(-1, a.getLength());
+
+    Playlist.Segment b = playlist.getSegment(1);
+    assertEquals(8, b.getSequence());
+    assertEquals(9009, b.getStartTime());
+    assertNull(b.getTitle());
+    assertTrue(b.isDiscontinuity());
+    assertFalse(playlist.getSegment(2).isDiscontinuity());
+    assertEquals(19009, playlist.getSegment(2).getStartTime());
+
+    assertEquals(0, playlist.getSegmentIndex(0));
+    assertEquals(0, playlist.getSegmentIndex(9008));
+    assertEquals(1, playlist.getSegmentIndex(9009));
+    assertEquals(2, playlist.getSegmentIndex(100000));
+  }
+
+  @Test
+  public void liveAndVod() throws IOException {
+    assertFalse(parse("#EXTM3U\n#EXTINF:1,\na.ts\n").isEndList());
+    assertTrue(parse("#EXTM3U\n#EXT-X-PLAYLIST-TYPE:VOD\n#EXTINF:1,\na.ts\n").isEndList());
+    assertFalse(parse("#EXTM3U\n#EXT-X-PLAYLIST-TYPE:EVENT\n#EXTINF:1,\na.ts\n").isEndList());
+  }
+
+  @Test
+  public void relativeUris() throws IOException {
+    Playlist playlist = parse("#EXTM3U\n" +
+        "#EXTINF:1,\nsub/a.ts\n" +
+        "#EXTINF:1,\n../b.ts\n" +
+        "#EXTINF:1,\n/root/c.ts\n" +
+        "#EXTINF:1,\nhttps://cdn.example.org/d.ts?token=1\n" +
+        "#EXTINF:1,\n//cdn.example.org/e.ts\n");
+    assertEquals("http://example.com/video/sub/a.ts", playlist.getSegment(0).getUri());
+    assertEquals("http://example.com/b.ts", playlist.getSegment(1).getUri());
+    assertEquals("http://example.com/root/c.ts", playlist.getSegment(2).getUri());
+    assertEquals("https://cdn.example.org/d.ts?token=1", playlist.getSegment(3).getUri());
+    assertEquals("http://cdn.example.org/e.ts", playlist.getSegment(4).getUri());
+  }
+
+  @Test
+  public void byteRanges() throws IOException {
+    Playlist playlist = parse("#EXTM3U\n" +
+        "#EXTINF:1,\n#EXT-X-BYTERANGE:1000@500\nall.ts\n" +
+        // no offset, follows the previous range of the same resource
+        "#EXTINF:1,\n#EXT-X-BYTERANGE:2000\nall.ts\n" +
+        "#EXTINF:1,\n#EXT-X-BYTERANGE:300\nall.ts\n" +
+        // no offset on another resource, starts at 0
+        "#EXTINF:1,\n#EXT-X-BYTERANGE:400\nother.ts\n" +
+        // a range is for its segment only
+        "#EXTINF:1,\nwhole.ts\n" +
+        "#EXTINF:1,\n#EXT-X-BYTERANGE:50\nwhole.ts\n");
+    assertRange(playlist.getSegment(0), 500, 1000);
+    assertRange(playlist.getSegment(1), 1500, 2000);
+    assertRange(playlist.getSegment(2), 3500, 300);
+    assertRange(playlist.getSegment(3), 0, 400);
+    assertRange(playlist.getSegment(4), -1, -1);
+    assertRange(playlist.getSegment(5), 0, 50);
+  }
+
+  private static void assertRange(Playlist.Segment segment, long offset, long length) {
+    assertEquals(segment.toString(), offset, segment.getOffset());
+    assertEquals(segment.toString(), length, segment.getLength());
+  }
+
+  @Test
+  public void keyScope() throws IOException {
+    Playlist playlist = parse("#EXTM3U\n" +
+        "#EXTINF:1,\nclear.ts\n" +
+        "#EXT-X-KEY:METHOD=AES-128,URI=\"https://keys.example.com/k?a=1,b=2\",IV=0x1234\n" +
+        "#EXTINF:1,\nencrypted.ts\n" +
+        "#EXTINF:1,\nstill-encrypted.ts\n" +
+        "#EXT-X-KEY:METHOD=NONE\n" +
+        "#EXTINF:1,\nclear-again.ts\n");
+    assertFalse(playlist.getSegment(0).isEncrypted());
+    assertTrue(playlist.getSegment(1).isEncrypted());
+    assertTrue(playlist.getSegment(2).isEncrypted());
+    assertFalse(playlist.getSegment(3).isEncrypted());
+  }
+
+  @Test
+  public void attributes() {
+    Map<String, String> attributes = PlaylistParser.parseAttributes("BANDWIDTH=1280000, CODECS=\"avc1.4d401f,mp4a.40.2\",RESOLUTION=640x360,NAME=\"a=b\",EMPTY=\"\"");
+    assertEquals("1280000", attributes.get("BANDWIDTH"));
+    assertEquals("avc1.4d401f,mp4a.40.2", attributes.get("CODECS"));
+    assertEquals("640x360", attributes.get("RESOLUTION"));
+    assertEquals("a=b", attributes.get("NAME"));
+    assertEquals("", attributes.get("EMPTY"));
+    assertEquals(5, attributes.size());
+
+    assertEquals("x", PlaylistParser.parseAttributes("A=\"x").get("A"));
+    assertTrue(PlaylistParser.parseAttributes("").isEmpty());
+  }
+
+  @Test
+  public void masterPlaylist() throws IOException {
+    Playlist playlist = parse("#EXTM3U\n" +
+        "#EXT-X-STREAM-INF:BANDWIDTH=1280000,AVERAGE-BANDWIDTH=1000000,CODECS=\"avc1.4d401f,mp4a.40.2\",RESOLUTION=640x360\n" +
+        "mid/index.m3u8\n" +
+        "#EXT-X-STREAM-INF:BANDWIDTH=5000000000\n" +
+        "http://other.example.com/high.m3u8\n");
+    assertTrue(playlist.isMaster());
+    assertEquals(0, playlist.getSegmentCount());
+    List<Playlist.Variant> variants = playlist.getVariants();
+    assertEquals(2, variants.size());
+    Playlist.Variant mid = variants.get(0);
+    assertEquals("http://example.com/video/mid/index.m3u8", mid.getUri());
+    assertEquals(1280000, mid.getBandwidth());
+    assertEquals(1000000, mid.getAverageBandwidth());
+    assertEquals(640, mid.getWidth());
+    assertEquals(360, mid.getHeight());
+    assertEquals("avc1.4d401f,mp4a.40.2", mid.getCodecs());
+    // clamped
+    assertEquals(Integer.MAX_VALUE, variants.get(1).getBandwidth());
+    assertEquals(0, variants.get(1).getWidth());
+  }
+
+  @Test
+  public void listenerCalledPerLine() throws IOException {
+    final List<Integer> counts = new ArrayList<Integer>();
+    final List<Playlist.Variant> variants = new ArrayList<Playlist.Variant>();
+    Playlist playlist = PlaylistParser.parse(stream("#EXTM3U\n#EXTINF:1,\na.ts\n#EXTINF:1,\nb.ts\n#EXT-X-STREAM-INF:BANDWIDTH=1\nv.m3u8\n"), URI, new PlaylistParser.Listener() {
+      @Override
+      public void onSegment(Playlist playlist, Playlist.Segment segment) {
+        assertSame(segment, playlist.getSegment(playlist.getSegmentCount() - 1));
+        counts.add(playlist.getSegmentCount());
+      }
+
+      @Override
+      public void onVariant(Playlist playlist, Playlist.Variant variant) {
+        variants.add(variant);
+      }
+    });
+    assertEquals(2, counts.size());
+    assertEquals(1, (int) counts.get(0));
+    assertEquals(2, (int) counts.get(1));
+    assertEquals(playlist.getVariants(), variants);
+  }
+
+  @Test
+  public void malformed() {
+    assertMalformed("");
+    assertMalformed("#EXTINF:1,\na.ts\n");
+    assertMalformed("#EXTM3U\n#EXTINF:one,\na.ts\n");
+    assertMalformed("#EXTM3U\n#EXT-X-TARGETDURATION:\n");
+    assertMalformed("#EXTM3U\n#EXT-X-BYTERANGE:10@x\n");
+    assertMalformed("#EXTM3U\n#EXTINF:1,\nhttp://a b/c.ts\n");
+  }
+
+  private static void assertMalformed(String text) {
+    try {
+      parse(text);
+      fail(text);
+    } catch (IOException e) {
+    }
+  }
+}
@@ -0,0 +1,439 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.vov.vitamio.hls;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives {@link SegmentScheduler} against an origin on a local server socket.
+ */
+public class SegmentSchedulerTest {
+  private static final int SEGMENT = 1000;
+
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+  private Origin mOrigin;
+  private SegmentScheduler mScheduler;
+  private final BlockingQueue<Object> mEvents = new LinkedBlockingQueue<Object>();
+
+  @Before
+  public void setUp() throws IOException {
+    mOrigin = new Origin();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    if (mScheduler != null)
+      mScheduler.stop();
+    mOrigin.close();
+  }
+
+  private void start(String path, int prefetchSegments) throws IOException {
+    start(path, prefetchSegments, null);
+  }
+
+  private void start(String path, int prefetchSegments, AbrController controller) throws IOException {
+    mScheduler = new SegmentScheduler(mOrigin.getUrl(path), null, mFolder.newFolder(), 2, prefetchSegments);
+    mScheduler.setAbrController(controller);
+    mScheduler.setListener(new SegmentScheduler.Listener() {
+      @Override
+      public void onReady(SegmentScheduler scheduler, String[] uris) {
+        mEvents.add(uris);
+      }
+
+      @Override
+      public void onSegmentsAdded(SegmentScheduler scheduler, int from, int count) {
+        mEvents.add(new int[]{from, count});
+      }
+
+      @Override
+      public void onVariantChanged(SegmentScheduler scheduler, Playlist.Variant variant) {
+        mEvents.add(variant);
+      }
+
+      @Override
+      public void onError(SegmentScheduler scheduler, IOException e) {
+        mEvents.add(e);
+      }
+    });
+    mScheduler.start();
+  }
+
+  private Object nextEvent() throws InterruptedException {
+    Object event = mEvents.poll(10, TimeUnit.SECONDS);
+    assertNotNull("no event", event);
+    return event;
+  }
+
+  @Test
+  public void prefetchWindow() throws Exception {
+    StringBuilder playlist = new StringBuilder("#EXTM3U\n#EXT-X-TARGETDURATION:10\n");
+    for (int i = 0; i < 5; i++) {
+      playlist.append("#EXTINF:10,\nseg").append(i).append(".ts\n");
+      mOrigin.put("/seg" + i + ".ts", data(i, SEGMENT));
+    }
+    mOrigin.put("/index.m3u8", playlist.append("#EXT-X-ENDLIST\n").toString().getBytes("UTF-8"));
+    start("/index.m3u8", 2);
+
+    String[] uris = (String[]) nextEvent();
+    assertEquals(5, uris.length);
+    assertArrayEquals(data(0, SEGMENT), read(uris[0]));
+    awaitFetched(2);
+    assertTrue(mOrigin.getRequests().contains("/seg1.ts"));
+    assertFalse(mOrigin.getRequests().contains("/seg2.ts"));
+
+    mScheduler.setPlaybackPosition(35000);
+    awaitFetched(4);
+    uris = mScheduler.getSegmentUris();
+    assertArrayEquals(data(3, SEGMENT), read(uris[3]));
+    assertArrayEquals(data(4, SEGMENT), read(uris[4]));
+    assertEquals(mOrigin.getUrl("/seg2.ts"), uris[2]);
+    assertEquals(4 * SEGMENT, mScheduler.getBytesFetched());
+    assertEquals(0, mScheduler.getErrorCount());
+  }
+
+  @Test
+  public void byteRanges() throws Exception {
+    checkByteRanges(true);
+  }
+
+  @Test
+  public void byteRangesWithoutRangeSupport() throws Exception {
+    checkByteRanges(false);
+  }
+
+  private void checkByteRanges(boolean ranges) throws Exception {
+    mOrigin.mRanges = ranges;
+    byte[] all = data(9, 3 * SEGMENT);
+    mOrigin.put("/all.ts", all);
+    mOrigin.put("/index.m3u8", ("#EXTM3U\n" +
+        "#EXTINF:10,\n#EXT-X-BYTERANGE:" + SEGMENT + "@0\nall.ts\n" +
+        "#EXTINF:10,\n#EXT-X-BYTERANGE:" + SEGMENT + "\nall.ts\n" +
+        "#EXTINF:10,\n#EXT-X-BYTERANGE:" + SEGMENT + "\nall.ts\n" +
+        "#EXT-X-ENDLIST\n").getBytes("UTF-8"));
+    start("/index.m3u8", 3);
+    nextEvent();
+    awaitFetched(3);
+    String[] uris = mScheduler.getSegmentUris();
+    for (int i = 0; i < 3; i++)
+      assertArrayEquals(Arrays.copyOfRange(all, i * SEGMENT, (i + 1) * SEGMENT), read(uris[i]));
+    if (ranges)
+      assertTrue(mOrigin.getRequests().contains("/all.ts bytes=1000-1999"));
+  }
+
+  @Test
+  public void encryptedSegmentsLeftToThePlayer() throws Exception {
+    mOrigin.put("/index.m3u8", ("#EXTM3U\n" +
+        "#EXTINF:10,\nclear.ts\n" +
+        "#EXT-X-KEY:METHOD=AES-128,URI=\"key\"\n" +
+        "#EXTINF:10,\nencrypted.ts\n" +
+        "#EXT-X-KEY:METHOD=NONE\n" +
+        "#EXTINF:10,\nclear2.ts\n" +
+        "#EXT-X-ENDLIST\n").getBytes("UTF-8"));
+    mOrigin.put("/clear.ts", data(0, SEGMENT));
+    mOrigin.put("/encrypted.ts", data(1, SEGMENT));
+    mOrigin.put("/clear2.ts", data(2, SEGMENT));
+    start("/index.m3u8", 3);
+    nextEvent();
+    awaitFetched(2);
+    String[] uris = mScheduler.getSegmentUris();
+    assertArrayEquals(data(2, SEGMENT), read(uris[2]));
+    assertEquals(mOrigin.getUrl("/encrypted.ts"), uris[1]);
+    assertFalse(mOrigin.getRequests().contains("/encrypted.ts"));
+    assertFalse(mOrigin.getRequests().contains("/key"));
+  }
+
+  @Test
+  public void liveRefresh() throws Exception {
+    mOrigin.put("/live.m3u8", live(0, 2, false));
+    for (int i = 0; i < 5; i++)
+      mOrigin.put("/seg" + i + ".ts", data(i, SEGMENT));
+    start("/live.m3u8", 5);
+    assertEquals(2, ((String[]) nextEvent()).length);
+
+    // the window slides, one segment was already known
+    mOrigin.put("/live.m3u8", live(1, 3, false));
+    assertArrayEquals(new int[]{2, 2}, (int[]) nextEvent());
+    Playlist playlist = mScheduler.getPlaylist();
+    assertEquals(4, playlist.getSegmentCount());
+    for (int i = 0; i < 4; i++) {
+      assertEquals(i, playlist.getSegment(i).getSequence());
+      assertEquals(i * 1000, playlist.getSegment(i).getStartTime());
+    }
+
+    mOrigin.put("/live.m3u8", live(2, 3, true));
+    assertArrayEquals(new int[]{4, 1}, (int[]) nextEvent());
+    long deadline = System.currentTimeMillis() + 10000;
+    while (!playlist.isEndList() && System.currentTimeMillis() < deadline)
+      Thread.sleep(10);
+    assertTrue(playlist.isEndList());
+    awaitFetched(5);
+    assertArrayEquals(data(4, SEGMENT), read(mScheduler.getSegmentUris()[4]));
+  }
+
+  private static byte[] live(int sequence, int count, boolean end) throws IOException {
+    StringBuilder playlist = new StringBuilder("#EXTM3U\n#EXT-X-TARGETDURATION:1\n#EXT-X-MEDIA-SEQUENCE:" + sequence + "\n");
+    for (int i = sequence; i < sequence + count; i++)
+      playlist.append("#EXTINF:1,\nseg").append(i).append(".ts\n");
+    if (end)
+      playlist.append("#EXT-X-ENDLIST\n");
+    return playlist.toString().getBytes("UTF-8");
+  }
+
+  @Test
+  public void masterPlaylist() throws Exception {
+    mOrigin.put("/master.m3u8", ("#EXTM3U\n" +
+        "#EXT-X-STREAM-INF:BANDWIDTH=800000\nlow/index.m3u8\n" +
+        "#EXT-X-STREAM-INF:BANDWIDTH=3000000\nhigh/index.m3u8\n").getBytes("UTF-8"));
+    mOrigin.put("/low/index.m3u8", "#EXTM3U\n#EXTINF:10,\na.ts\n#EXT-X-ENDLIST\n".getBytes("UTF-8"));
+    mOrigin.put("/low/a.ts", data(0, SEGMENT));
+    start("/master.m3u8", 2);
+    String[] uris = (String[]) nextEvent();
+    assertArrayEquals(data(0, SEGMENT), read(uris[0]));
+    assertEquals(2, mScheduler.getMasterPlaylist().getVariants().size());
+    assertEquals(mOrigin.getUrl("/low/index.m3u8"), mScheduler.getPlaylist().getUri());
+    assertFalse(mOrigin.getRequests().contains("/high/index.m3u8"));
+  }
+
+  @Test
+  public void abrSwitchesVariant() throws Exception {
+    mOrigin.put("/master.m3u8", ("#EXTM3U\n" +
+        "#EXT-X-STREAM-INF:BANDWIDTH=3000000\nhigh/index.m3u8\n" +
+        "#EXT-X-STREAM-INF:BANDWIDTH=100000\nlow/index.m3u8\n").getBytes("UTF-8"));
+    int length = 200 * 1024;
+    for (String variant : new String[]{"low", "high"}) {
+      StringBuilder playlist = new StringBuilder("#EXTM3U\n");
+      for (int i = 0; i < 4; i++) {
+        playlist.append("#EXTINF:10,\nseg").append(i).append(".ts\n");
+        mOrigin.put("/" + variant + "/seg" + i + ".ts", data(i, length));
+      }
+      mOrigin.put("/" + variant + "/index.m3u8", playlist.append("#EXT-X-ENDLIST\n").toString().getBytes("UTF-8"));
+    }
+    // starts low on a pessimistic default estimate, a loopback download
+    // allows the high variant at once
+    AbrController controller = new AbrController(new BandwidthEstimator(200000));
+    controller.setBufferThresholds(0, 0, 0);
+    controller.setUpSwitchHold(0);
+    start("/master.m3u8", 2, controller);
+
+    Playlist.Variant high = null;
+    String[] uris = null;
+    while (high == null || uris == null) {
+      Object event = nextEvent();
+      if (event instanceof Playlist.Variant)
+        high = (Playlist.Variant) event;
+      else
+        uris = (String[]) event;
+    }
+    assertEquals(3000000, high.getBandwidth());
+    assertEquals(mOrigin.getUrl("/high/index.m3u8"), mScheduler.getPlaylist().getUri());
+    List<AbrController.Decision> decisions = controller.getDecisions();
+    assertEquals(AbrController.Decision.REASON_START, decisions.get(0).getReason());
+    assertEquals(100000, decisions.get(0).getTo().getBandwidth());
+    assertEquals(AbrController.Decision.REASON_UP, decisions.get(1).getReason());
+
+    // the window moved to the high variant at the playback position
+    mScheduler.setPlaybackPosition(25000);
+    long deadline = System.currentTimeMillis() + 10000;
+    while (!new File(mScheduler.getSegmentUris()[3]).isFile() && System.currentTimeMillis() < deadline)
+      Thread.sleep(10);
+    uris = mScheduler.getSegmentUris();
+    assertArrayEquals(data(2, length), read(uris[2]));
+    assertArrayEquals(data(3, length), read(uris[3]));
+    assertTrue(mOrigin.getRequests().contains("/high/seg3.ts"));
+    assertFalse(mOrigin.getRequests().contains("/low/seg3.ts"));
+  }
+
+  @Test
+  public void missingPlaylist() throws Exception {
+    start("/missing.m3u8", 2);
+    assertTrue(nextEvent() instanceof IOException);
+    assertEquals(1, mScheduler.getErrorCount());
+  }
+
+  private void awaitFetched(int count) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (mScheduler.getFetchedCount() < count && System.currentTimeMillis() < deadline)
+      Thread.sleep(10);
+    assertEquals(count, mScheduler.getFetchedCount());
+  }
+
+  private static byte[] data(int seed, int length) {
+    byte[] data = new byte[length];
+    for (int i = 0; i < length; i++)
+      data[i] = (byte) (seed * 31 + i);
+    return data;
+  }
+
+  private static byte[] read(String path) throws IOException {
+    File file = new File(path);
+    assertTrue(path, file.isFile());
+    byte[] data = new byte[(int) file.length()];
+    InputStream in = new FileInputStream(file);
+    try {
+      int read = 0;
+      while (read < data.length)
+        read += in.read(data, read, data.length - read);
+    } finally {
+      in.close();
+    }
+    return data;
+  }
+
+  /**
+   * Serves the resources put, honoring the ranges or not, and records the
+   * path and Range header of every request.
+   */
+  private static final class Origin implements Runnable {
+    private final ServerSocket mServerSocket;
+    private final Map<String, byte[]> mResources = new HashMap<String, byte[]>();
+    private final List<String> mRequests = new ArrayList<String>();
+    volatile boolean mRanges = true;
+
+    Origin() throws IOException {
+      mServerSocket = new ServerSocket(0, 8, InetAddress.getByName("127.0.0.1"));
+      Thread thread = new Thread(this, "Origin");
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    String getUrl(String path) {
+      return "http://127.0.0.1:" + mServerSocket.getLocalPort() + path;
+    }
+
+    synchronized void put(String path, byte[] data) {
+      mResources.put(path, data);
+    }
+
+    synchronized List<String> getRequests() {
+      return new ArrayList<String>(mRequests);
+    }
+
+    void close() throws IOException {
+      mServerSocket.close();
+    }
+
+    @Override
+    public void run() {
+      while (!mServerSocket.isClosed()) {
+        final Socket socket;
+        try {
+          socket = mServerSocket.accept();
+        } catch (IOException e) {
+          return;
+        }
+        Thread thread = new Thread(new Runnable() {
+          @Override
+          public void run() {
+            serve(socket);
+          }
+        });
+        thread.setDaemon(true);
+        thread.start();
+      }
+    }
+
+    private void serve(Socket socket) {
+      try {
+        InputStream in = socket.getInputStream();
+        String requestLine = readLine(in);
+        if (requestLine == null)
+          return;
+        String path = requestLine.split(" ")[1];
+        String range = null;
+        String line;
+        while ((line = readLine(in)) != null && line.length() > 0) {
+          if (line.regionMatches(true, 0, "Range:", 0, 6))
+            range = line.substring(6).trim();
+        }
+        byte[] data;
+        synchronized (this) {
+          mRequests.add(range == null ? path : path + " " + range);
+          data = mResources.get(path);
+        }
+
+        OutputStream out = socket.getOutputStream();
+        if (data == null) {
+          out.write("HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\nConnection: close\r\n\r\n".getBytes("ISO-8859-1"));
+          return;
+        }
+        int start = 0;
+        int end = data.length - 1;
+        boolean partial = mRanges && range != null;
+        if (partial) {
+          String[] bounds = range.substring("bytes=".length()).split("-", -1);
+          start = Integer.parseInt(bounds[0]);
+          if (bounds[1].length() > 0)
+            end = Math.min(end, Integer.parseInt(bounds[1]));
+        }
+        StringBuilder headers = new StringBuilder(partial ? "HTTP/1.1 206 Partial Content\r\n" : "HTTP/1.1 200 OK\r\n");
+        headers.append("Content-Length: ").append(end - start + 1).append("\r\n");
+        if (partial)
+          headers.append("Content-Range: bytes ").append(start).append('-').append(end).append('/').append(data.length).append("\r\n");
+        headers.append("Connection: close\r\n\r\n");
+        out.write(headers.toString().getBytes("ISO-8859-1"));
+        out.write(data, start, end - start + 1);
+        out.flush();
+      } catch (IOException e) {
+        // the scheduler stopped reading
+      } finally {
+        try {
+          socket.close();
+        } catch (IOException e) {
+        }
+      }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+      StringBuilder sb = new StringBuilder();
+      int c;
+      while ((c = in.read()) >= 0 && c != '\n') {
+        if (c != '\r')
+          sb.append((char) c);
+      }
+      return c < 0 && sb.length() == 0 ? null : sb.toString();
+    }
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.vov.vitamio.proxy;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ChunkCacheTest {
+  private static final int LENGTH = 1000;
+
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+  private File mDirectory;
+
+  @Before
+  public void setUp() throws IOException {
+    mDirectory = mFolder.newFolder();
+  }
+
+  @Test
+  public void leastRecentlyUsedEvictedFirst() throws IOException {
+    ChunkCache cache = new ChunkCache(mDirectory, 4 * LENGTH);
+    File a = cache.getDirectory("http://a");
+    for (int i = 0; i < 4; i++)
+      write(cache, a, i, 1000 * (i + 1));
+    assertEquals(4 * LENGTH, cache.getSize());
+    assertEquals(0, cache.getEvictionCount());
+    // touched, it becomes the most recently used
+    assertNotNull(cache.read(a, 0, LENGTH));
+
+    File b = cache.getDirectory("http://b");
+    write(cache, b, 0, System.currentTimeMillis() + 1000);
+    // trimmed down to 7/8 of the budget
+    assertEquals(3 * LENGTH, cache.getSize());
+    assertEquals(2, cache.getEvictionCount());
+    assertTrue(cache.isCached(a, 0, LENGTH));
+    assertFalse(cache.isCached(a, 1, LENGTH));
+    assertNull(cache.read(a, 2, LENGTH));
+    assertTrue(cache.isCached(a, 3, LENGTH));
+    assertTrue(cache.isCached(b, 0, LENGTH));
+  }
+
+  @Test
+  public void existingChunksMeasuredOnFirstWrite() throws IOException {
+    File a = new ChunkCache(mDirectory, Long.MAX_VALUE).getDirectory("http://a");
+    ChunkCache previous = new ChunkCache(mDirectory, Long.MAX_VALUE);
+    previous.writeLength(a, 3 * LENGTH);
+    write(previous, a, 0, 1000);
+    write(previous, a, 1, 2000);
+
+    ChunkCache cache = new ChunkCache(mDirectory, 2 * LENGTH);
+    assertEquals(-1, cache.getSize());
+    assertEquals(3 * LENGTH, cache.readLength(a));
+    write(cache, a, 2, 3000);
+    assertEquals(LENGTH, cache.getSize());
+    assertFalse(cache.isCached(a, 0, LENGTH));
+    assertFalse(cache.isCached(a, 1, LENGTH));
+    assertTrue(cache.isCached(a, 2, LENGTH));
+    assertEquals(3 * LENGTH, cache.readLength(a));
+  }
+
+  @Test
+  public void directoriesLeftWithoutChunksDeleted() throws IOException {
+    ChunkCache cache = new ChunkCache(mDirectory, 2 * LENGTH);
+    File a = cache.getDirectory("http://a");
+    cache.writeLength(a, LENGTH);
+    write(cache, a, 0, 1000);
+    File b = cache.getDirectory("http://b");
+    cache.writeLength(b, 2 * LENGTH);
+    write(cache, b, 0, 2000);
+    write(cache, b, 1, 3000);
+    assertFalse(a.exists());
+    assertEquals(-1, cache.readLength(a));
+    assertEquals(2 * LENGTH, cache.readLength(b));
+    assertTrue(cache.isCached(b, 1, LENGTH));
+  }
+
+  private static void write(ChunkCache cache, File dir, int index, long lastModified) throws IOException {
+    cache.write(dir, index, new byte[LENGTH], LENGTH);
+    new File(dir, Integer.toString(index)).setLastModified(lastModified);
+  }
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.vov.vitamio.proxy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives {@link HttpProxy} against an origin on a local server socket, with
+ * and without range support.
+ */
+public class HttpProxyTest {
+  private static final int CHUNK = ChunkCache.CHUNK_SIZE;
+  private static final byte[] DATA = new byte[3 * CHUNK + 1000];
+
+  static {
+    new Random(7).nextBytes(DATA);
+  }
+
+  @Rule
+  public TemporaryFolder mFolder = new TemporaryFolder();
+  private Origin mOrigin;
+  private HttpProxy mProxy;
+
+  @Before
+  public void setUp() throws IOException {
+    mOrigin = new Origin();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    if (mProxy != null)
+      mProxy.shutdown();
+    mOrigin.close();
+  }
+
+  private String start(int prefetchChunks, boolean ranges) throws IOException {
+    mOrigin.mRanges = ranges;
+    mProxy = new HttpProxy(mFolder.newFolder(), 2, prefetchChunks);
+    mProxy.start();
+    return mProxy.register(mOrigin.getUrl());
+  }
+
+  @Test
+  public void hitsAndMisses() throws IOException {
+    String url = start(0, true);
+    Response response = get(url, null);
+    assertEquals(200, response.mCode);
+    assertArrayEquals(DATA, response.mBody);
+    assertEquals(4, mProxy.getMissCount());
+    assertEquals(0, mProxy.getHitCount());
+    assertEquals(4, mOrigin.getRequests().size());
+
+    response = get(url, null);
+    assertArrayEquals(DATA, response.mBody);
+    assertEquals(4, mProxy.getMissCount());
+    assertEquals(4, mProxy.getHitCount());
+    assertEquals(4, mOrigin.getRequests().size());
+
+    response = get(url, "bytes=300000-300099");
+    assertEquals(206, response.mCode);
+    assertEquals("bytes 300000-300099/" + DATA.length, response.mContentRange);
+    assertArrayEquals(Arrays.copyOfRange(DATA, 300000, 300100), response.mBody);
+    assertEquals(5, mProxy.getHitCount());
+    assertEquals(4, mOrigin.getRequests().size());
+    assertEquals(DATA.length, mProxy.getBytesFetched());
+  }
+
+  @Test
+  public void missFetchesTheChunkOnly() throws IOException {
+    String url = start(0, true);
+    Response response = get(url, "bytes=" + (2 * CHUNK + 10) + "-" + (2 * CHUNK + 19));
+    assertEquals(206, response.mCode);
+    assertArrayEquals(Arrays.copyOfRange(DATA, 2 * CHUNK + 10, 2 * CHUNK + 20), response.mBody);
+    assertEquals(Arrays.asList("bytes=" + 2 * CHUNK + "-" + (3 * CHUNK - 1)), mOrigin.getRequests());
+    assertEquals(1, mProxy.getMissCount());
+  }
+
+  @Test
+  public void unsatisfiableRange() throws IOException {
+    String url = start(0, true);
+    get(url, "bytes=0-0");
+    assertEquals(416, get(url, "bytes=" + DATA.length + "-").mCode);
+  }
+
+  @Test
+  public void prefetch() throws Exception {
+    String url = start(2, true);
+    assertArrayEquals(Arrays.copyOfRange(DATA, 0, 100), get(url, "bytes=0-99").mBody);
+    String second = "bytes=" + CHUNK + "-" + (2 * CHUNK - 1);
+    String third = "bytes=" + 2 * CHUNK + "-" + (3 * CHUNK - 1);
+    long deadline = System.currentTimeMillis() + 10000;
+    while (!(mOrigin.getRequests().contains(second) && mOrigin.getRequests().contains(third)) && System.currentTimeMillis() < deadline)
+      Thread.sleep(10);
+    assertEquals(2, mProxy.getPrefetchCount());
+
+    Response response = get(url, "bytes=" + CHUNK + "-" + (CHUNK + 99));
+    assertArrayEquals(Arrays.copyOfRange(DATA, CHUNK, CHUNK + 100), response.mBody);
+    assertEquals(1, mProxy.getMissCount());
+    assertEquals(1, mProxy.getHitCount());
+    assertEquals(1, Collections.frequency(mOrigin.getRequests(), second));
+  }
+
+  @Test
+  public void originWithoutRanges() throws IOException {
+    String url = start(2, false);
+    Response response = get(url, null);
+    assertEquals(200, response.mCode);
+    assertArrayEquals(DATA, response.mBody);
+    // the first chunk, then the whole stream in one pass
+    assertEquals(2, mOrigin.getRequests().size());
+    assertEquals(0, mProxy.getPrefetchCount());
+
+    // cached by the relay
+    response = get(url, "bytes=" + (2 * CHUNK + 5) + "-");
+    assertEquals(206, response.mCode);
+    assertArrayEquals(Arrays.copyOfRange(DATA, 2 * CHUNK + 5, DATA.length), response.mBody);
+    assertEquals(2, mOrigin.getRequests().size());
+  }
+
+  @Test
+  public void originWithoutRangesFromTheMiddle() throws IOException {
+    String url = start(2, false);
+    // the origin ignores the range, so the whole stream is what comes back
+    Response response = get(url, "bytes=" + (2 * CHUNK) + "-");
+    assertEquals(200, response.mCode);
+    assertArrayEquals(DATA, response.mBody);
+    assertEquals(2, mOrigin.getRequests().size());
+
+    response = get(url, null);
+    assertArrayEquals(DATA, response.mBody);
+    assertEquals(2, mOrigin.getRequests().size());
+  }
+
+  @Test
+  public void cacheWithinBudget() throws IOException {
+    mOrigin.mRanges = true;
+    File dir = mFolder.newFolder();
+    mProxy = new HttpProxy(dir, 2 * CHUNK, 2, 0);
+    mProxy.start();
+    String url = mProxy.register(mOrigin.getUrl());
+    assertArrayEquals(DATA, get(url, null).mBody);
+    assertTrue(mProxy.getEvictionCount() > 0);
+    assertTrue(sizeOf(dir) <= 2 * CHUNK + 100);
+
+    // the first chunks were evicted, and fetched again
+    assertArrayEquals(DATA, get(url, null).mBody);
+    assertTrue(mOrigin.getRequests().size() > 4);
+  }
+
+  @Test
+  public void unguessableIds() throws IOException {
+    String url = start(0, true);
+    String other = mProxy.register(mOrigin.getUrl() + "?other");
+    String prefix = "http://127.0.0.1:" + mProxy.getPort() + "/";
+    assertTrue(url.startsWith(prefix));
+    assertTrue(url.length() - prefix.length() >= 20);
+    assertFalse(url.equals(other));
+    assertEquals(url, mProxy.register(mOrigin.getUrl()));
+    assertEquals(404, get(prefix + "1", null).mCode);
+    assertEquals(0, mOrigin.getRequests().size());
+  }
+
+  private static Response get(String url, String range) throws IOException {
+    HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+    conn.setReadTimeout(10000);
+    if (range != null)
+      conn.setRequestProperty("Range", range);
+    Response response = new Response();
+    response.mCode = conn.getResponseCode();
+    response.mContentRange = conn.getHeaderField("Content-Range");
+    if (response.mCode < 400)
+      response.mBody = readFully(conn.getInputStream());
+    conn.disconnect();
+    return response;
+  }
+
+  private static long sizeOf(File file) {
+    if (!file.isDirectory())
+      return file.length();
+    long size = 0;
+    for (File f : file.listFiles())
+      size += sizeOf(f);
+    return size;
+  }
+
+  private static byte[] readFully(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[16 * 1024];
+    int n;
+    while ((n = in.read(buffer)) >= 0)
+      out.write(buffer, 0, n);
+    in.close();
+    return out.toByteArray();
+  }
+
+  private static final class Response {
+    int mCode;
+    String mContentRange;
+    byte[] mBody;
+  }
+
+  /**
+   * Serves {@link #DATA}, honoring the ranges or not, and records the Range
+   * header of every request.
+   */
+  private static final class Origin implements Runnable {
+    private final ServerSocket mServerSocket;
+    private final List<String> mRequests = new ArrayList<String>();
+    volatile boolean mRanges = true;
+
+    Origin() throws IOException {
+      mServerSocket = new ServerSocket(0, 8, InetAddress.getByName("127.0.0.1"));
+      Thread thread = new Thread(this, "Origin");
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    String getUrl() {
+      return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/video.mp4";
+    }
+
+    synchronized List<String> getRequests() {
+      return new ArrayList<String>(mRequests);
+    }
+
+    void close() throws IOException {
+      mServerSocket.close();
+    }
+
+    @Override
+    public void run() {
+      while (!mServerSocket.isClosed()) {
+        final Socket socket;
+        try {
+          socket = mServerSocket.accept();
+        } catch (IOException e) {
+          return;
+        }
+        Thread thread = new Thread(new Runnable() {
+          @Override
+          public void run() {
+            serve(socket);
+          }
+        });
+        thread.setDaemon(true);
+        thread.start();
+      }
+    }
+
+    private void serve(Socket socket) {
+      try {
+        InputStream in = socket.getInputStream();
+        String range = null;
+        String line;
+        while ((line = readLine(in)) != null && line.length() > 0) {
+          if (line.regionMatches(true, 0, "Range:", 0, 6))
+            range = line.substring(6).trim();
+        }
+        synchronized (this) {
+          mRequests.add(range);
+        }
+
+        int start = 0;
+        int end = DATA.length - 1;
+        boolean partial = mRanges && range != null;
+        if (partial) {
+          String[] bounds = range.substring("bytes=".length()).split("-", -1);
+          start = Integer.parseInt(bounds[0]);
+          if (bounds[1].length() > 0)
+            end = Math.min(end, Integer.parseInt(bounds[1]));
+        }
+        OutputStream out = socket.getOutputStream();
+        StringBuilder headers = new StringBuilder(partial ? "HTTP/1.1 206 Partial Content\r\n" : "HTTP/1.1 200 OK\r\n");
+        headers.append("Content-Type: video/mp4\r\n");
+        headers.append("Content-Length: ").append(end - start + 1).append("\r\n");
+        if (partial)
+          headers.append("Content-Range: bytes ").append(start).append('-').append(end).append('/').append(DATA.length).append("\r\n");
+        headers.append("Connection: close\r\n\r\n");
+        out.write(headers.toString().getBytes("ISO-8859-1"));
+        for (int i = start; i <= end; i += 8192) {
+          out.write(DATA, i, Math.min(8192, end + 1 - i));
+        }
+        out.flush();
+      } catch (IOException e) {
+        // the proxy stopped reading
+      } finally {
+        try {
+          socket.close();
+        } catch (IOException e) {
+        }
+      }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+      StringBuilder sb = new StringBuilder();
+      int c;
+      while ((c = in.read()) >= 0 && c != '\n') {
+        if (c != '\r')
+          sb.append((char) c);
+      }
+      return c < 0 && sb.length() == 0 ? null : sb.toString();
+    }
+  }
+}
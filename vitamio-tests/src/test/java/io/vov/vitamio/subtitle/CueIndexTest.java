@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.vov.vitamio.subtitle;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class CueIndexTest {
+
+  private static List<Cue> getCues(CueIndex index, long time) {
+    List<Cue> out = new ArrayList<Cue>();
+    index.getCues(time, out);
+    return out;
+  }
+
+  @Test
+  public void empty() {
+    assertEquals(0, CueIndex.EMPTY.size());
+    assertEquals(0, getCues(CueIndex.EMPTY, 0).size());
+    assertEquals(Long.MAX_VALUE, CueIndex.EMPTY.getNextStartTime(0));
+  }
+
+  @Test
+  public void boundaries() {
+    Cue cue = new Cue(1000, 2000, "a");
+    CueIndex index = new CueIndex(Arrays.asList(cue));
+    assertEquals(0, getCues(index, 999).size());
+    assertEquals(Arrays.asList(cue), getCues(index, 1000));
+    assertEquals(Arrays.asList(cue), getCues(index, 1999));
+    assertEquals(0, getCues(index, 2000).size());
+  }
+
+  @Test
+  public void overlapping() {
+    Cue longCue = new Cue(0, 10000, "long");
+    Cue first = new Cue(1000, 3000, "first");
+    Cue second = new Cue(2000, 4000, "second");
+    Cue same = new Cue(2000, 4000, "same");
+    Cue later = new Cue(6000, 7000, "later");
+    CueIndex index = new CueIndex(Arrays.asList(later, second, longCue, first, same));
+
+    assertSame(longCue, index.get(0));
+    assertSame(later, index.get(4));
+    assertEquals(Arrays.asList(longCue), getCues(index, 500));
+    assertEquals(Arrays.asList(longCue, first), getCues(index, 1500));
+    assertEquals(4, getCues(index, 2500).size());
+    assertEquals(Arrays.asList(longCue), getCues(index, 5000));
+    assertEquals(Arrays.asList(longCue, later), getCues(index, 6000));
+    assertEquals(0, getCues(index, 10000).size());
+  }
+
+  @Test
+  public void nextStartTime() {
+    CueIndex index = new CueIndex(Arrays.asList(new Cue(1000, 5000, "a"), new Cue(1000, 2000, "b"), new Cue(3000, 4000, "c")));
+    assertEquals(1000, index.getNextStartTime(0));
+    assertEquals(3000, index.getNextStartTime(1000));
+    assertEquals(3000, index.getNextStartTime(2999));
+    assertEquals(Long.MAX_VALUE, index.getNextStartTime(3000));
+  }
+
+  @Test
+  public void matchesLinearScan() {
+    Random random = new Random(42);
+    for (int round = 0; round < 50; round++) {
+      List<Cue> cues = new ArrayList<Cue>();
+      int count = random.nextInt(200);
+      for (int i = 0; i < count; i++) {
+        long start = random.nextInt(60000);
+        cues.add(new Cue(start, start + 1 + random.nextInt(random.nextBoolean() ? 1000 : 20000), Integer.toString(i)));
+      }
+      CueIndex index = new CueIndex(cues);
+      for (int i = 0; i < 200; i++) {
+        long time = random.nextInt(82000) - 1000;
+        List<Cue> expected = new ArrayList<Cue>();
+        for (int j = 0; j < index.size(); j++) {
+          if (index.get(j).isActive(time))
+            expected.add(index.get(j));
+        }
+        assertEquals(expected, getCues(index, time));
+      }
+    }
+  }
+}
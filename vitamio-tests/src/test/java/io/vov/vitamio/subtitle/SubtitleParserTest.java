@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.vov.vitamio.subtitle;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SubtitleParserTest {
+
+  private static List<Cue> parse(String name, String content) throws IOException {
+    SubtitleParser parser = SubtitleParser.create(name, new StringReader(content));
+    List<Cue> cues = new ArrayList<Cue>();
+    Cue cue;
+    while ((cue = parser.next()) != null)
+      cues.add(cue);
+    parser.close();
+    return cues;
+  }
+
+  private static void assertCue(long start, long end, String text, Cue cue) {
+    assertEquals(start, cue.getStartTime());
+    assertEquals(end, cue.getEndTime());
+    assertEquals(text, cue.getText());
+  }
+
+  private static long parseTime(String s) {
+    return SubtitleParser.parseTime(s, 0, s.length());
+  }
+
+  @Test
+  public void parseTime() {
+    assertEquals(3723456, parseTime("01:02:03,456"));
+    assertEquals(3723456, parseTime("01:02:03.456"));
+    assertEquals(62500, parseTime("1:02.5"));
+    assertEquals(7120, parseTime(" 7.12 "));
+    assertEquals(7000, parseTime("7"));
+    assertEquals(-1, parseTime(""));
+    assertEquals(-1, parseTime("1:a2"));
+    assertEquals(-1, parseTime("1::2"));
+    assertEquals(-1, parseTime("1:02."));
+    assertEquals(-1, parseTime(".5"));
+    assertEquals(-1, parseTime("1:02,5x"));
+  }
+
+  @Test
+  public void cleanText() {
+    assertEquals("bold and italic", SubtitleParser.cleanText("<b>bold</b> and {\\i1}italic{\\i0}"));
+    assertEquals("one\ntwo\nthree", SubtitleParser.cleanText("one\\Ntwo<br/>three"));
+    assertEquals("a & b < c", SubtitleParser.cleanText("a &amp; b &lt; c"));
+    assertEquals("&unknown;", SubtitleParser.cleanText("&unknown;"));
+    assertEquals("1 < 2", SubtitleParser.cleanText("1 < 2"));
+  }
+
+  @Test
+  public void srt() throws IOException {
+    List<Cue> cues = parse("a.srt", "\uFEFF1\n00:00:01,000 --> 00:00:02,500\n<i>Hello</i>\nworld\n\n" +
+        "2\n00:00:03,000 --> 00:00:04,000\nBye\n");
+    assertEquals(2, cues.size());
+    assertCue(1000, 2500, "Hello\nworld", cues.get(0));
+    assertCue(3000, 4000, "Bye", cues.get(1));
+  }
+
+  @Test
+  public void webVtt() throws IOException {
+    List<Cue> cues = parse("a.vtt", "WEBVTT\n\nNOTE a comment\n\n00:01.000 --> 00:02.000 align:start\nHi\n");
+    assertEquals(1, cues.size());
+    assertCue(1000, 2000, "Hi", cues.get(0));
+  }
+
+  @Test
+  public void srtMalformed() throws IOException {
+    List<Cue> cues = parse("a.srt", "1\n00:00:0x,000 --> 00:00:02,000\nbad start\n\n" +
+        "2\n00:00:05,000 --> 00:00:04,000\nends before it starts\n\n" +
+        "3\n00:00:06,000 --> \nno end\n\n" +
+        "4\n00:00:07,000 --> 00:00:08,000\ngood\n");
+    assertEquals(1, cues.size());
+    assertCue(7000, 8000, "good", cues.get(0));
+  }
+
+  @Test
+  public void ssa() throws IOException {
+    List<Cue> cues = parse("a.ass", "[Script Info]\nTitle: test\n\n[Events]\n" +
+        "Format: Layer, Start, End, Style, Name, MarginL, MarginR, MarginV, Effect, Text\n" +
+        "Dialogue: 0,0:00:01.50,0:00:03.00,Default,,0,0,0,,{\\b1}Hello{\\b0}, world\\Nagain\n" +
+        "Dialogue: 0,0:00:0x.00,0:00:03.00,Default,,0,0,0,,bad time\n" +
+        "Dialogue: 0,0:00:04.00\n");
+    assertEquals(1, cues.size());
+    assertCue(1500, 3000, "Hello, world\nagain", cues.get(0));
+  }
+
+  @Test
+  public void ssaFormatOrder() throws IOException {
+    List<Cue> cues = parse("a.ssa", "[Events]\nFormat: Start, End, Text\nDialogue: 0:00:02.00,0:00:03.00,a, b\n" +
+        "[Styles]\nDialogue: 0:00:04.00,0:00:05.00,outside events\n");
+    assertEquals(1, cues.size());
+    assertCue(2000, 3000, "a, b", cues.get(0));
+  }
+
+  @Test
+  public void sami() throws IOException {
+    List<Cue> cues = parse("a.smi", "<SAMI><BODY>\n<SYNC Start=1000><P Class=ENCC>Hello\n<P Class=KRCC>Annyeong\n" +
+        "<SYNC Start=2500><P Class=ENCC>&nbsp;\n<SYNC Start=3000><P Class=ENCC>Last\n</BODY></SAMI>");
+    assertEquals(2, cues.size());
+    assertCue(1000, 2500, "Hello", cues.get(0));
+    assertCue(3000, 3000 + SubtitleParser.DEFAULT_DURATION, "Last", cues.get(1));
+  }
+
+  @Test
+  public void samiMalformed() throws IOException {
+    List<Cue> cues = parse("a.smi", "<SYNC Start=abc><P>no time\n<SYNC><P>no start\n<SYNC Start=500><P>ok\n<SYNC Start=400><P>earlier\n");
+    assertEquals(1, cues.size());
+    assertCue(400, 400 + SubtitleParser.DEFAULT_DURATION, "earlier", cues.get(0));
+  }
+
+  @Test
+  public void microDvd() throws IOException {
+    List<Cue> cues = parse("a.sub", "{1}{1}25\n{25}{50}{y:i}Hello|world\n{75}{}No end\n{x}{100}bad\n");
+    assertEquals(2, cues.size());
+    assertCue(1000, 2000, "Hello\nworld", cues.get(0));
+    assertCue(3000, 3000 + SubtitleParser.DEFAULT_DURATION, "No end", cues.get(1));
+  }
+
+  @Test
+  public void microDvdDefaultFrameRate() throws IOException {
+    List<Cue> cues = parse("a.sub", "{24}{48}Hi\n");
+    assertEquals(1, cues.size());
+    assertCue(1001, 2002, "Hi", cues.get(0));
+  }
+
+  @Test
+  public void mpl2() throws IOException {
+    List<Cue> cues = parse("a.txt", "[10][25]/Italic|plain\n[30][]Open\n[50][40]backwards\n[x][60]bad\n");
+    assertEquals(2, cues.size());
+    assertCue(1000, 2500, "Italic\nplain", cues.get(0));
+    assertCue(3000, 3000 + SubtitleParser.DEFAULT_DURATION, "Open", cues.get(1));
+  }
+
+  @Test
+  public void subViewer() throws IOException {
+    List<Cue> cues = parse("a.sub", "[INFORMATION]\n[TITLE]x\n[END INFORMATION]\n\n" +
+        "00:00:01.00,00:00:02.50\nOne[br]Two\n\n00:00:04.00,00:00:03.00\nbackwards\n\n" +
+        "00:00:05.00,00:00:06.00\nLast\n");
+    assertEquals(2, cues.size());
+    assertCue(1000, 2500, "One\nTwo", cues.get(0));
+    assertCue(5000, 6000, "Last", cues.get(1));
+  }
+
+  @Test
+  public void tmPlayer() throws IOException {
+    List<Cue> cues = parse("a.txt", "00:00:01:Hello|world\n00:00:02=Next\n00:00:10:Last\n");
+    assertEquals(3, cues.size());
+    assertCue(1000, 2000, "Hello\nworld", cues.get(0));
+    assertCue(2000, 2000 + SubtitleParser.DEFAULT_DURATION, "Next", cues.get(1));
+    assertCue(10000, 10000 + SubtitleParser.DEFAULT_DURATION, "Last", cues.get(2));
+  }
+
+  @Test
+  public void sniffFallsBackToSrt() throws IOException {
+    assertTrue(SubtitleParser.create("a.txt", new StringReader("")) instanceof SrtParser);
+    assertTrue(SubtitleParser.create("a.sub", new StringReader("\n\n00:00:01,000 --> 00:00:02,000\n")) instanceof SrtParser);
+    assertNull(SubtitleParser.create("a.mkv", new StringReader("")));
+  }
+
+  @Test
+  public void garbage() throws IOException {
+    String garbage = "\u0000\u0001}{][-->:=,\n<sync start=>\n{\n[\n";
+    for (String name : new String[]{"a.srt", "a.ass", "a.smi", "a.sub", "a.txt"})
+      assertEquals(name, 0, parse(name, garbage).size());
+  }
+}
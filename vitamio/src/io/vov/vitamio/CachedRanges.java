@@ -0,0 +1,297 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio;
+
+import java.util.Arrays;
+
+/**
+ * The byte ranges of a stream cached on storage, merged and sorted. Lookups
+ * are binary searches, the cached byte count is kept up to date.
+ * <p/>
+ * {@link #update(long[], CachedRanges)} takes the segments reported by the
+ * native layer and computes what was added since the last update, so that
+ * listeners only look at what changed.
+ * <p/>
+ * It's not thread safe, {@link MediaPlayer} updates its ranges on the thread
+ * of its listeners. The ranges it hands out are read only, changing them
+ * throws an {@link UnsupportedOperationException}.
+ */
+public final class CachedRanges {
+  private long[] mStarts;
+  private long[] mEnds;
+  private int mCount;
+  private long mBytes;
+  private long[] mPreviousStarts;
+  private long[] mPreviousEnds;
+  private final boolean mReadOnly;
+
+  public CachedRanges() {
+    this(4);
+  }
+
+  public CachedRanges(int capacity) {
+    this(capacity, false);
+  }
+
+  /**
+   * @param readOnly if only this package may change the ranges
+   */
+  CachedRanges(int capacity, boolean readOnly) {
+    mStarts = new long[Math.max(1, capacity)];
+    mEnds = new long[mStarts.length];
+    mReadOnly = readOnly;
+  }
+
+  /**
+   * @return the number of disjoint ranges
+   */
+  public int size() {
+    return mCount;
+  }
+
+  public boolean isEmpty() {
+    return mCount == 0;
+  }
+
+  /**
+   * @return the first byte of the range i, ranges are in ascending order
+   */
+  public long getStart(int i) {
+    checkIndex(i);
+    return mStarts[i];
+  }
+
+  /**
+   * @return the byte after the last one of the range i
+   */
+  public long getEnd(int i) {
+    checkIndex(i);
+    return mEnds[i];
+  }
+
+  /**
+   * @return the number of bytes cached
+   */
+  public long cachedBytes() {
+    return mBytes;
+  }
+
+  /**
+   * @return true if all the bytes from offset to offset + length are cached
+   */
+  public boolean isCached(long offset, long length) {
+    if (length <= 0)
+      return true;
+    int i = indexOf(offset);
+    return i >= 0 && mEnds[i] >= offset + length;
+  }
+
+  /**
+   * @return the end of the cached range holding offset, offset if it isn't
+   *         cached. It's how far playback can go from offset on cached data.
+   */
+  public long getCachedEnd(long offset) {
+    int i = indexOf(offset);
+    return i >= 0 ? mEnds[i] : offset;
+  }
+
+  /**
+   * Add the bytes from start to end, excluded, merging them with the ranges
+   * they touch.
+   */
+  public void add(long start, long end) {
+    checkWritable();
+    addRange(start, end);
+  }
+
+  public void clear() {
+    checkWritable();
+    reset();
+  }
+
+  /**
+   * Replace the ranges with segments, optionally collecting what they add.
+   *
+   * @param segments the segments as reported by the native layer, start and
+   *                 end pairs, see
+   *                 {@link MediaPlayer.OnCachingUpdateListener#onCachingUpdate(MediaPlayer, long[])}
+   * @param added    cleared and filled with the ranges cached now which
+   *                 weren't before, may be null
+   */
+  public void update(long[] segments, CachedRanges added) {
+    checkWritable();
+    if (added != null)
+      added.checkWritable();
+    replace(segments, added);
+  }
+
+  void addRange(long start, long end) {
+    if (start >= end)
+      return;
+    // first range ending at or after start, it's the first one to merge with
+    int lo = firstEndingAtOrAfter(start);
+    int hi = lo;
+    while (hi < mCount && mStarts[hi] <= end)
+      hi++;
+    if (lo == hi) {
+      insert(lo, start, end);
+      return;
+    }
+    long newStart = Math.min(start, mStarts[lo]);
+    long newEnd = Math.max(end, mEnds[hi - 1]);
+    for (int i = lo; i < hi; i++)
+      mBytes -= mEnds[i] - mStarts[i];
+    mStarts[lo] = newStart;
+    mEnds[lo] = newEnd;
+    mBytes += newEnd - newStart;
+    int removed = hi - lo - 1;
+    if (removed > 0) {
+      System.arraycopy(mStarts, hi, mStarts, lo + 1, mCount - hi);
+      System.arraycopy(mEnds, hi, mEnds, lo + 1, mCount - hi);
+      mCount -= removed;
+    }
+  }
+
+  void reset() {
+    mCount = 0;
+    mBytes = 0;
+  }
+
+  /**
+   * {@link #update(long[], CachedRanges)} without the read only checks.
+   */
+  void replace(long[] segments, CachedRanges added) {
+    int oldCount = 0;
+    if (added != null) {
+      added.reset();
+      if (mPreviousStarts == null || mPreviousStarts.length < mCount) {
+        mPreviousStarts = new long[mStarts.length];
+        mPreviousEnds = new long[mStarts.length];
+      }
+      System.arraycopy(mStarts, 0, mPreviousStarts, 0, mCount);
+      System.arraycopy(mEnds, 0, mPreviousEnds, 0, mCount);
+      oldCount = mCount;
+    }
+    long[] oldStarts = mPreviousStarts;
+    long[] oldEnds = mPreviousEnds;
+
+    reset();
+    if (segments != null) {
+      for (int i = 0; i + 1 < segments.length; i += 2)
+        addRange(segments[i], segments[i + 1]);
+    }
+
+    if (added != null) {
+      // sweep the new ranges, cutting out the old ones
+      int j = 0;
+      for (int i = 0; i < mCount; i++) {
+        long start = mStarts[i];
+        long end = mEnds[i];
+        while (j < oldCount && oldEnds[j] <= start)
+          j++;
+        int k = j;
+        while (start < end) {
+          if (k >= oldCount || oldStarts[k] >= end) {
+            added.addRange(start, end);
+            break;
+          }
+          if (oldStarts[k] > start)
+            added.addRange(start, oldStarts[k]);
+          start = Math.max(start, oldEnds[k]);
+          k++;
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the ranges as start and end pairs
+   */
+  public long[] toArray() {
+    long[] segments = new long[mCount * 2];
+    for (int i = 0; i < mCount; i++) {
+      segments[2 * i] = mStarts[i];
+      segments[2 * i + 1] = mEnds[i];
+    }
+    return segments;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("CachedRanges[");
+    for (int i = 0; i < mCount; i++) {
+      if (i > 0)
+        sb.append(", ");
+      sb.append(mStarts[i]).append('-').append(mEnds[i]);
+    }
+    return sb.append(']').toString();
+  }
+
+  /**
+   * @return the index of the range holding offset, -1 if it isn't cached
+   */
+  private int indexOf(long offset) {
+    int lo = 0;
+    int hi = mCount - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      if (mEnds[mid] <= offset)
+        lo = mid + 1;
+      else if (mStarts[mid] > offset)
+        hi = mid - 1;
+      else
+        return mid;
+    }
+    return -1;
+  }
+
+  private int firstEndingAtOrAfter(long offset) {
+    int lo = 0;
+    int hi = mCount;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (mEnds[mid] < offset)
+        lo = mid + 1;
+      else
+        hi = mid;
+    }
+    return lo;
+  }
+
+  private void insert(int i, long start, long end) {
+    if (mCount == mStarts.length) {
+      mStarts = Arrays.copyOf(mStarts, mCount * 2);
+      mEnds = Arrays.copyOf(mEnds, mCount * 2);
+    }
+    System.arraycopy(mStarts, i, mStarts, i + 1, mCount - i);
+    System.arraycopy(mEnds, i, mEnds, i + 1, mCount - i);
+    mStarts[i] = start;
+    mEnds[i] = end;
+    mCount++;
+    mBytes += end - start;
+  }
+
+  private void checkWritable() {
+    if (mReadOnly)
+      throw new UnsupportedOperationException("read only");
+  }
+
+  private void checkIndex(int i) {
+    if (i < 0 || i >= mCount)
+      throw new IndexOutOfBoundsException("index " + i + ", size " + mCount);
+  }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio;
+
+import io.vov.vitamio.engine.PlayerEngine;
+
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Carries the events of a {@link PlayerEngine} from the threads which produce
+ * them to a {@link Target} on the event thread, in plain Java so it runs the
+ * same under {@link MediaPlayer} and the JNI callbacks as under a
+ * {@link io.vov.vitamio.engine.FakePlayerEngine} on a host JVM.
+ * <p/>
+ * The engine side merges the progress events, they are last-value-wins: the
+ * newest buffering percent, caching speed and cached segments are parked
+ * here and a message is only posted to the {@link Queue} when none is in
+ * flight. Timed texts are decoded before they are posted. The event thread
+ * side, {@link #dispatch(int, int, int, Object)}, drops the completions of
+ * superseded seeks and keeps the {@link CachedRanges} up to date.
+ */
+final class EventDispatcher implements PlayerEngine.Listener {
+  static final int EVENT_NOP = 0;
+  static final int EVENT_TIMED_TEXT = 1000;
+  static final int EVENT_CACHING_UPDATE = 2000;
+  private static final int NO_PENDING_EVENT = Integer.MIN_VALUE;
+  private final Queue mQueue;
+  private final Target mTarget;
+  private final AtomicInteger mPendingBufferingPercent = new AtomicInteger(NO_PENDING_EVENT);
+  private final AtomicInteger mPendingCachingSpeed = new AtomicInteger(NO_PENDING_EVENT);
+  private final AtomicReference<long[]> mPendingCachingSegments = new AtomicReference<long[]>();
+  private final AtomicLong mEventsReceived = new AtomicLong();
+  private final AtomicLong mEventsDelivered = new AtomicLong();
+  private final CachedRanges mCachedRanges = new CachedRanges(4, true);
+  private final CachedRanges mAddedRanges = new CachedRanges(4, true);
+
+  /**
+   * Posts a message to the event thread, where it's handed back to
+   * {@link EventDispatcher#dispatch(int, int, int, Object)}.
+   */
+  interface Queue {
+    void post(int what, int arg1, int arg2, Object obj);
+  }
+
+  /**
+   * The listeners of a player, called on the event thread.
+   */
+  interface Target {
+    void onPrepared();
+
+    void onCompletion();
+
+    void onBufferingUpdate(int percent);
+
+    /**
+     * @return false if the seek completed was superseded by another one, its
+     *         completion is dropped
+     */
+    boolean acceptSeekComplete();
+
+    void onSeekComplete();
+
+    void onVideoSizeChanged(int width, int height);
+
+    /**
+     * @return true if the error was handled, otherwise the playback completes
+     */
+    boolean onError(int what, int extra);
+
+    void onInfo(int what, int extra);
+
+    void onTimedText(String text);
+
+    void onTimedTextUpdate(byte[] pixels, int width, int height);
+
+    /**
+     * @param type one of the CACHE_TYPE_* constants of {@link PlayerEngine}
+     * @param info the speed in kb/s or the reason caching is not available
+     * @param segments the segments cached for {@link PlayerEngine#CACHE_TYPE_UPDATE},
+     *          also in ranges, with the ones just added in added
+     */
+    void onCachingUpdate(int type, int info, long[] segments, CachedRanges ranges, CachedRanges added);
+
+    /**
+     * Any other event, e.g. a hardware render failure.
+     */
+    void onOtherEvent(int what, int arg1, int arg2, Object obj);
+  }
+
+  /**
+   * @param queue null if there is no event thread, the events are then only
+   *          counted
+   */
+  EventDispatcher(Queue queue, Target target) {
+    mQueue = queue;
+    mTarget = target;
+  }
+
+  @Override
+  public void onEvent(int what, int arg1, int arg2, Object obj) {
+    mEventsReceived.incrementAndGet();
+    if (mQueue == null)
+      return;
+    if (what == PlayerEngine.EVENT_BUFFERING_UPDATE && mPendingBufferingPercent.getAndSet(arg1) != NO_PENDING_EVENT)
+      return;
+    mQueue.post(what, arg1, arg2, obj);
+  }
+
+  @Override
+  public void onCacheStatus(int type, int info, long[] segments) {
+    mEventsReceived.incrementAndGet();
+    if (mQueue == null)
+      return;
+    if (type == PlayerEngine.CACHE_TYPE_SPEED && mPendingCachingSpeed.getAndSet(info) != NO_PENDING_EVENT)
+      return;
+    if (type == PlayerEngine.CACHE_TYPE_UPDATE && segments != null && mPendingCachingSegments.getAndSet(segments) != null)
+      return;
+    mQueue.post(EVENT_CACHING_UPDATE, type, info, segments);
+  }
+
+  @Override
+  public void onSubtitle(int type, byte[] data, String encoding, int width, int height) {
+    mEventsReceived.incrementAndGet();
+    if (mQueue == null)
+      return;
+    Object sub = null;
+    if (type == PlayerEngine.SUBTITLE_TEXT) {
+      sub = decode(data, encoding);
+    } else if (type == PlayerEngine.SUBTITLE_BITMAP) {
+      sub = data;
+    }
+    // the text is a String, the bitmap is a byte[] with its size in arg1 and arg2
+    mQueue.post(EVENT_TIMED_TEXT, width, height, sub);
+  }
+
+  /**
+   * Deliver a message posted to the {@link Queue}, on the event thread.
+   */
+  void dispatch(int what, int arg1, int arg2, Object obj) {
+    mEventsDelivered.incrementAndGet();
+    switch (what) {
+      case PlayerEngine.EVENT_PREPARED:
+        mTarget.onPrepared();
+        return;
+      case PlayerEngine.EVENT_PLAYBACK_COMPLETE:
+        mTarget.onCompletion();
+        return;
+      case PlayerEngine.EVENT_BUFFERING_UPDATE:
+        int percent = mPendingBufferingPercent.getAndSet(NO_PENDING_EVENT);
+        if (percent != NO_PENDING_EVENT)
+          mTarget.onBufferingUpdate(percent);
+        return;
+      case PlayerEngine.EVENT_SEEK_COMPLETE:
+        if (mTarget.acceptSeekComplete())
+          mTarget.onSeekComplete();
+        return;
+      case PlayerEngine.EVENT_SET_VIDEO_SIZE:
+        mTarget.onVideoSizeChanged(arg1, arg2);
+        return;
+      case PlayerEngine.EVENT_ERROR:
+        if (!mTarget.onError(arg1, arg2))
+          mTarget.onCompletion();
+        return;
+      case PlayerEngine.EVENT_INFO:
+        mTarget.onInfo(arg1, arg2);
+        return;
+      case EVENT_TIMED_TEXT:
+        if (obj instanceof String)
+          mTarget.onTimedText((String) obj);
+        else if (obj instanceof byte[])
+          mTarget.onTimedTextUpdate((byte[]) obj, arg1, arg2);
+        return;
+      case EVENT_CACHING_UPDATE:
+        dispatchCaching(arg1, arg2, (long[]) obj);
+        return;
+      case EVENT_NOP:
+        return;
+      default:
+        mTarget.onOtherEvent(what, arg1, arg2, obj);
+    }
+  }
+
+  private void dispatchCaching(int type, int info, long[] segments) {
+    if (type == PlayerEngine.CACHE_TYPE_SPEED) {
+      info = mPendingCachingSpeed.getAndSet(NO_PENDING_EVENT);
+      if (info == NO_PENDING_EVENT)
+        return;
+    } else if (type == PlayerEngine.CACHE_TYPE_UPDATE && segments != null) {
+      segments = mPendingCachingSegments.getAndSet(null);
+      if (segments == null)
+        return;
+      mCachedRanges.replace(segments, mAddedRanges);
+    }
+    mTarget.onCachingUpdate(type, info, segments, mCachedRanges, mAddedRanges);
+  }
+
+  /**
+   * Forget the progress events parked, once the messages posted for them
+   * were removed from the queue.
+   */
+  void clearPending() {
+    mPendingBufferingPercent.set(NO_PENDING_EVENT);
+    mPendingCachingSpeed.set(NO_PENDING_EVENT);
+    mPendingCachingSegments.set(null);
+  }
+
+  /**
+   * Empty the cached ranges, on the event thread.
+   */
+  void clearCachedRanges() {
+    mCachedRanges.reset();
+    mAddedRanges.reset();
+  }
+
+  /**
+   * @return the ranges cached, read only and changed on the event thread
+   */
+  CachedRanges getCachedRanges() {
+    return mCachedRanges;
+  }
+
+  long getEventsReceived() {
+    return mEventsReceived.get();
+  }
+
+  long getEventsDelivered() {
+    return mEventsDelivered.get();
+  }
+
+  private static String decode(byte[] data, String encoding) {
+    if (encoding != null) {
+      try {
+        return new String(data, encoding.trim());
+      } catch (UnsupportedEncodingException e) {
+        // an unknown charset from the stream, decoded with the default one
+      }
+    }
+    return new String(data);
+  }
+}
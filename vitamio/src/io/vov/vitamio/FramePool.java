@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio;
+
+import android.graphics.Bitmap;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Process wide pool of RGB_565 frame bitmaps and direct frame buffers, so a
+ * resolution change or a new player doesn't allocate a few megabytes of
+ * pixels again. The least recently released entries are dropped once the
+ * pool holds more than {@link #MAX_POOLED_BYTES}.
+ */
+final class FramePool {
+  static final int MAX_POOLED_BYTES = 8 * 1024 * 1024;
+  private static final LinkedList<Bitmap> sBitmaps = new LinkedList<Bitmap>();
+  private static final LinkedList<ByteBuffer> sBuffers = new LinkedList<ByteBuffer>();
+  private static int sPooledBytes = 0;
+
+  private FramePool() {
+  }
+
+  static synchronized Bitmap obtainBitmap(int width, int height) {
+    Iterator<Bitmap> it = sBitmaps.iterator();
+    while (it.hasNext()) {
+      Bitmap b = it.next();
+      if (b.getWidth() == width && b.getHeight() == height) {
+        it.remove();
+        sPooledBytes -= width * height * 2;
+        return b;
+      }
+    }
+    return Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
+  }
+
+  static synchronized ByteBuffer obtainBuffer(int capacity) {
+    Iterator<ByteBuffer> it = sBuffers.iterator();
+    while (it.hasNext()) {
+      ByteBuffer b = it.next();
+      if (b.capacity() == capacity) {
+        it.remove();
+        sPooledBytes -= capacity;
+        b.clear();
+        return b;
+      }
+    }
+    return ByteBuffer.allocateDirect(capacity);
+  }
+
+  static synchronized void release(Bitmap bitmap) {
+    if (bitmap == null || bitmap.isRecycled())
+      return;
+    sBitmaps.addFirst(bitmap);
+    sPooledBytes += bitmap.getWidth() * bitmap.getHeight() * 2;
+    trim();
+  }
+
+  static synchronized void release(ByteBuffer buffer) {
+    if (buffer == null)
+      return;
+    sBuffers.addFirst(buffer);
+    sPooledBytes += buffer.capacity();
+    trim();
+  }
+
+  static synchronized void clear() {
+    sBitmaps.clear();
+    sBuffers.clear();
+    sPooledBytes = 0;
+  }
+
+  private static void trim() {
+    while (sPooledBytes > MAX_POOLED_BYTES) {
+      if (!sBitmaps.isEmpty() && (sBuffers.isEmpty() || sBitmaps.size() >= sBuffers.size())) {
+        Bitmap b = sBitmaps.removeLast();
+        sPooledBytes -= b.getWidth() * b.getHeight() * 2;
+      } else if (!sBuffers.isEmpty()) {
+        sPooledBytes -= sBuffers.removeLast().capacity();
+      } else {
+        sPooledBytes = 0;
+      }
+    }
+  }
+}
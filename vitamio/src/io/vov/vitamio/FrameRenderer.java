@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio;
+
+import android.view.Surface;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Draws the RGB_565 frames of the software video output onto a
+ * {@link Surface}. The decoder thread fills the buffer returned by
+ * {@link #init(Surface, int, int)} and then calls {@link #render()} once per
+ * frame.
+ *
+ * @see MediaPlayer#setFrameRenderer(FrameRenderer)
+ * @see SurfaceFrameRenderer
+ */
+public interface FrameRenderer {
+  /**
+   * Called on the decoder thread when the video size or the surface changed.
+   *
+   * @param surface the surface to draw on
+   * @param width   the frame width in pixels
+   * @param height  the frame height in pixels
+   * @return a direct buffer of at least width * height * 2 bytes the decoder
+   *         writes each frame into, or null if frames can't be rendered
+   */
+  public ByteBuffer init(Surface surface, int width, int height);
+
+  /**
+   * Called on the decoder thread when the buffer holds a complete frame. The
+   * buffer will be overwritten as soon as this method returns.
+   */
+  public void render();
+
+  /**
+   * Called when the surface goes away, the buffer returned by
+   * {@link #init(Surface, int, int)} must not be used any more.
+   */
+  public void release();
+}
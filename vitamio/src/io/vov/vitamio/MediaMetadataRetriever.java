@@ -54,9 +54,19 @@ public class MediaMetadataRetriever {
   }
 
   private int mNativeContext;
+  private final NativeResources.Handle mNativeHandle;
 
   public MediaMetadataRetriever(Context ctx) {
     native_setup();
+    mNativeHandle = NativeResources.track(this, MediaMetadataRetriever.class, new ContextReclaimer(mNativeContext));
+  }
+
+  /**
+   * A stand-in for a collected retriever, to free its native context.
+   */
+  private MediaMetadataRetriever(int nativeContext) {
+    mNativeContext = nativeContext;
+    mNativeHandle = null;
   }
 
   private static native boolean loadFFmpeg_native(String ffmpegPath);
@@ -65,6 +75,7 @@ public class MediaMetadataRetriever {
       SecurityException, IllegalStateException {
     if (context == null || uri == null)
       throw new IllegalArgumentException();
+    closeFD();
     String scheme = uri.getScheme();
     if (scheme == null || scheme.equals("file")) {
       setDataSource(FileUtils.getPath(uri.toString()));
@@ -126,18 +137,11 @@ public class MediaMetadataRetriever {
 
   public void release() {
     _release();
+    if (mNativeHandle != null)
+      mNativeHandle.release();
     closeFD();
   }
 
-  @Override
-  protected void finalize() throws Throwable {
-    try {
-      native_finalize();
-    } finally {
-      super.finalize();
-    }
-  }
-
   private void closeFD() {
     if (mFD != null) {
       try {
@@ -148,6 +152,23 @@ public class MediaMetadataRetriever {
     }
   }
 
+  /**
+   * Frees the context of a retriever collected without a release(), the
+   * natives find it in the mNativeContext of a stand-in.
+   */
+  private static final class ContextReclaimer implements NativeResources.Reclaimer {
+    private final int mNativeContext;
+
+    ContextReclaimer(int nativeContext) {
+      mNativeContext = nativeContext;
+    }
+
+    @Override
+    public void reclaim() {
+      new MediaMetadataRetriever(mNativeContext).native_finalize();
+    }
+  }
+
   /*
    * Do not change these metadata key values without updating their
    * counterparts in c file
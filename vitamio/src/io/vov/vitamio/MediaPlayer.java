@@ -22,13 +22,12 @@ import android.content.ContentResolver;
 import android.content.Context;
 import android.content.res.AssetFileDescriptor;
 import android.graphics.Bitmap;
-import android.graphics.Canvas;
+import android.graphics.Rect;
 import android.media.AudioFormat;
 import android.media.AudioManager;
 import android.media.AudioTrack;
 import android.net.Uri;
 import android.os.Build;
-import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
@@ -38,6 +37,10 @@ import android.util.SparseArray;
 import android.view.Surface;
 import android.view.SurfaceHolder;
 
+import io.vov.vitamio.engine.PlayerEngine;
+import io.vov.vitamio.subtitle.SubtitleBitmapRenderer;
+import io.vov.vitamio.subtitle.SubtitleDriver;
+import io.vov.vitamio.subtitle.SubtitleTrack;
 import io.vov.vitamio.utils.FileUtils;
 import io.vov.vitamio.utils.Log;
 
@@ -45,12 +48,12 @@ import java.io.File;
 import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * MediaPlayer class can be used to control playback of audio/video files and
@@ -126,43 +129,42 @@ public class MediaPlayer {
    * The external subtitle types which Vitamio supports.
    */
   public static final String[] SUB_TYPES = {".srt", ".ssa", ".smi", ".txt", ".sub", ".ass", ".webvtt"};
-  private static final int MEDIA_NOP = 0;
-  private static final int MEDIA_PREPARED = 1;
-  private static final int MEDIA_PLAYBACK_COMPLETE = 2;
-  private static final int MEDIA_BUFFERING_UPDATE = 3;
-  private static final int MEDIA_SEEK_COMPLETE = 4;
-  private static final int MEDIA_SET_VIDEO_SIZE = 5;
-  private static final int MEDIA_ERROR = 100;
-  private static final int MEDIA_INFO = 200;
   private static final int MEDIA_CACHE = 300;
   private static final int MEDIA_HW_ERROR = 400;
-  private static final int MEDIA_TIMED_TEXT = 1000;
-  private static final int MEDIA_CACHING_UPDATE = 2000;
-  private static final String MEDIA_CACHING_SEGMENTS = "caching_segment";
-  private static final String MEDIA_CACHING_TYPE = "caching_type";
-  private static final String MEDIA_CACHING_INFO = "caching_info";
-  private static final String MEDIA_SUBTITLE_STRING = "sub_string";
-  private static final String MEDIA_SUBTITLE_BYTES = "sub_bytes";
-  private static final String MEDIA_SUBTITLE_TYPE = "sub_type";
-  private static final int SUBTITLE_TEXT = 0;
-  private static final int SUBTITLE_BITMAP = 1;
+  private static final NativeResources.OwnerReclaimer<MediaPlayer> RECLAIMER = new NativeResources.OwnerReclaimer<MediaPlayer>() {
+    @Override
+    public void reclaim(MediaPlayer mp) {
+      mp.native_finalize();
+    }
+  };
   private static AtomicBoolean NATIVE_OMX_LOADED = new AtomicBoolean(false);
   private Context mContext;
   private Surface mSurface;
   private SurfaceHolder mSurfaceHolder;
   private EventHandler mEventHandler;
+  private final EventDispatcher mDispatcher;
+  private final SeekScheduler mSeekScheduler;
+  private final NativeResources.Handle mNativeHandle;
+  private volatile PlayerEngine.Listener mEngineListener;
   private PowerManager.WakeLock mWakeLock = null;
   private boolean mScreenOnWhilePlaying;
   private boolean mStayAwake;
   private Metadata mMeta;
   private TrackInfo[] mInbandTracks;
+  private String mInbandTracksEncoding;
+  private TrackInfo[] mTrackInfo;
+  private String mTrackInfoTimedTextPath;
   private TrackInfo mOutOfBandTracks;
+  private SubtitleDriver mSubtitleDriver;
+  private StreamCache mStreamCache;
+  private volatile StreamCache.Entry mCacheEntry;
   private AssetFileDescriptor mFD = null;
   private OnHWRenderFailedListener mOnHWRenderFailedListener;
   private OnPreparedListener mOnPreparedListener;
   private OnCompletionListener mOnCompletionListener;
   private OnBufferingUpdateListener mOnBufferingUpdateListener;
   private OnCachingUpdateListener mOnCachingUpdateListener;
+  private OnCachedRangesListener mOnCachedRangesListener;
   private OnSeekCompleteListener mOnSeekCompleteListener;
   private OnVideoSizeChangedListener mOnVideoSizeChangedListener;
   private OnErrorListener mOnErrorListener;
@@ -174,11 +176,15 @@ public class MediaPlayer {
    */
   private OnInfoListener mOnInfoListener;
   private OnTimedTextListener mOnTimedTextListener;
+  private OnTimedTextBitmapListener mOnTimedTextBitmapListener;
+  private final SubtitleBitmapRenderer mSubtitleBitmaps = new SubtitleBitmapRenderer();
   private AudioTrack mAudioTrack;
   private int mAudioTrackBufferSize;
+  private final AtomicLong mAudioBytesWritten = new AtomicLong();
+  private final AtomicLong mAudioBytesDropped = new AtomicLong();
   private Surface mLocalSurface;
-  private Bitmap mBitmap;
-  private ByteBuffer mByteBuffer;
+  private FrameRenderer mFrameRenderer = new SurfaceFrameRenderer();
+  private FrameRenderer mRetiredRenderer;
   
   /**
    * Default constructor. The same as Android's MediaPlayer().
@@ -229,13 +235,18 @@ public class MediaPlayer {
 
     Looper looper;
     if ((looper = Looper.myLooper()) != null)
-      mEventHandler = new EventHandler(this, looper);
+      mEventHandler = new EventHandler(looper);
     else if ((looper = Looper.getMainLooper()) != null)
-      mEventHandler = new EventHandler(this, looper);
+      mEventHandler = new EventHandler(looper);
     else
       mEventHandler = null;
+    // the native events reach the listeners through the dispatcher, whose
+    // queue is the event handler
+    mDispatcher = new EventDispatcher(mEventHandler, new EventTarget());
+    mSeekScheduler = new SeekScheduler(this, mEventHandler);
 
     native_init();
+    mNativeHandle = NativeResources.guard(this, MediaPlayer.class, RECLAIMER);
   }
 
   static {
@@ -267,10 +278,10 @@ public class MediaPlayer {
     if (mp == null)
       return;
 
-    if (mp.mEventHandler != null) {
-      Message m = mp.mEventHandler.obtainMessage(what, arg1, arg2, obj);
-      mp.mEventHandler.sendMessage(m);
-    }
+    PlayerEngine.Listener engineListener = mp.mEngineListener;
+    if (engineListener != null)
+      engineListener.onEvent(what, arg1, arg2, obj);
+    mp.mDispatcher.onEvent(what, arg1, arg2, obj);
   }
 
   private static native boolean loadVAO_native(String vaoPath);
@@ -338,6 +349,7 @@ public class MediaPlayer {
    *                               form {@link #setDataSource(FileDescriptor)}.
    */
   public void setDataSource(String path) throws IOException, IllegalArgumentException, SecurityException, IllegalStateException {
+    openCacheEntry(path);
     _setDataSource(path, null, null);
   }
 
@@ -422,6 +434,7 @@ public class MediaPlayer {
 			setDataSource(fd);
 			is.close();
 		} else {
+			openCacheEntry(path);
 			_setDataSource(path, keys, values);
 		}
 	}
@@ -429,12 +442,59 @@ public class MediaPlayer {
   /**
    * Set the segments source url
    * @param segments the array path of the url e.g. Segmented video list
-   * @param cacheDir e.g. getCacheDir().toString()
+   * @param cacheDir e.g. getCacheDir().toString(), null to cache the segments
+   *                 in the {@link StreamCache} if there's one
+   * @see io.vov.vitamio.hls.SegmentScheduler
    */
   public void setDataSegments(String[] uris, String cacheDir) {
+    StreamCache cache = mStreamCache;
+    if (cacheDir == null && cache != null && uris != null && uris.length > 0) {
+      closeCacheEntry();
+      StreamCache.Entry entry = cache.open(TextUtils.join("\n", uris));
+      mCacheEntry = entry;
+      cacheDir = entry.getDirectory().getPath();
+    }
   	_setDataSegmentsSource(uris, cacheDir);
   }
 
+  /**
+   * Cache the network streams set afterwards in cache, instead of the
+   * directory given to {@link #setCacheDirectory(String)}. The cache keeps
+   * the entry of the current stream until {@link #reset()} or
+   * {@link #release()}, even if it is replaced meanwhile.
+   *
+   * @param cache null to stop using it
+   */
+  public void setStreamCache(StreamCache cache) {
+    mStreamCache = cache;
+  }
+
+  public StreamCache getStreamCache() {
+    return mStreamCache;
+  }
+
+  private void openCacheEntry(String path) {
+    closeCacheEntry();
+    StreamCache cache = mStreamCache;
+    if (cache == null)
+      return;
+    String scheme = Uri.parse(path).getScheme();
+    if (scheme == null || "file".equals(scheme) || "content".equals(scheme))
+      return;
+    StreamCache.Entry entry = cache.open(path);
+    mCacheEntry = entry;
+    setUseCache(true);
+    setCacheDirectory(entry.getDirectory().getPath());
+  }
+
+  private void closeCacheEntry() {
+    StreamCache.Entry entry = mCacheEntry;
+    if (entry != null) {
+      mCacheEntry = null;
+      entry.getCache().close(entry);
+    }
+  }
+
   public void setOnHWRenderFailedListener(OnHWRenderFailedListener l) {
     mOnHWRenderFailedListener = l;
   }
@@ -647,7 +707,7 @@ public class MediaPlayer {
    * Adaptive streaming support, default is false
    *
    * @param adaptive true if wanna adaptive steam
-   *
+   * @see io.vov.vitamio.hls.AbrController
    */
   public native void setAdaptiveStream(boolean adaptive);
 
@@ -659,6 +719,31 @@ public class MediaPlayer {
    */
   public native void seekTo(long msec) throws IllegalStateException;
 
+  /**
+   * Seeks to specified time position, through the {@link SeekScheduler}: if a
+   * seek is in flight, this one replaces any pending seek and is issued when
+   * the former completes. The {@link OnSeekCompleteListener} is only told
+   * about the last seek.
+   *
+   * @param msec      the offset in milliseconds from the start to seek to
+   * @param scrubbing true while more seeks are expected soon, e.g. while the
+   *                  seek bar is dragged, then seeks close to the previous one
+   *                  may be dropped. The last seek should be requested with
+   *                  false.
+   * @throws IllegalStateException if the internal player engine has not been initialized
+   */
+  public void requestSeek(long msec, boolean scrubbing) throws IllegalStateException {
+    mSeekScheduler.request(msec, scrubbing);
+  }
+
+  /**
+   * @return the scheduler of {@link #requestSeek(long, boolean)}, for its
+   *         statistics
+   */
+  public SeekScheduler getSeekScheduler() {
+    return mSeekScheduler;
+  }
+
   /**
    * Gets the current playback position.
    *
@@ -686,17 +771,21 @@ public class MediaPlayer {
    * @return The metadata, possibly empty. null if an error occurred.
    */
   public Metadata getMetadata() {
+    String encoding = getMetaEncoding();
     if (mMeta == null) {
-      mMeta = new Metadata();
       Map<byte[], byte[]> meta = new HashMap<byte[], byte[]>();
-
       if (!native_getMetadata(meta)) {
         return null;
       }
 
-      if (!mMeta.parse(meta, getMetaEncoding())) {
+      Metadata metadata = new Metadata();
+      if (!metadata.parse(meta, encoding)) {
         return null;
       }
+      mMeta = metadata;
+      Log.i("getMetadata: %s", metadata);
+    } else if (encoding != null && !encoding.equals(mMeta.getEncoding())) {
+      mMeta.setEncoding(encoding);
     }
     return mMeta;
   }
@@ -717,9 +806,21 @@ public class MediaPlayer {
     mOnInfoListener = null;
     mOnVideoSizeChangedListener = null;
     mOnCachingUpdateListener = null;
+    mOnCachedRangesListener = null;
     mOnHWRenderFailedListener = null;
+    mOnTimedTextBitmapListener = null;
+    stopSubtitle();
+    mSubtitleBitmaps.clear();
+    mSeekScheduler.reset();
     _release();
+    mNativeHandle.release();
+    synchronized (this) {
+      releaseRetiredRenderer();
+    }
+    mMeta = null;
+    invalidateTrackInfo();
     closeFD();
+    closeCacheEntry();
   }
 
   private native void _release();
@@ -731,9 +832,22 @@ public class MediaPlayer {
    */
   public void reset() {
     stayAwake(false);
+    stopSubtitle();
+    mSubtitleBitmaps.clear();
+    mSeekScheduler.reset();
     _reset();
+    synchronized (this) {
+      releaseRetiredRenderer();
+    }
     mEventHandler.removeCallbacksAndMessages(null);
+    mDispatcher.clearPending();
+    clearCachedRanges();
+    mAudioBytesWritten.set(0);
+    mAudioBytesDropped.set(0);
+    mMeta = null;
+    invalidateTrackInfo();
     closeFD();
+    closeCacheEntry();
   }
 
   private native void _reset();
@@ -773,61 +887,87 @@ public class MediaPlayer {
 
   private native final boolean native_getTrackInfo(SparseArray<byte[]> trackSparse);
 
-  private native final boolean native_getMetadata(Map<byte[], byte[]> meta);
+  native final boolean native_getMetadata(Map<byte[], byte[]> meta);
 
   private native final void native_init();
 
   private native final void native_finalize();
 
   /**
-   * Returns an array of track information.
+   * Returns an array of track information. The tracks are parsed once per
+   * data source and encoding, the {@link TrackInfo}s are shared between calls
+   * and must not be modified.
    *
    * @return Array of track info. The total number of tracks is the array
    *         length. Must be called again if an external timed text source has
    *         been added after any of the addTimedTextSource methods are called.
    */
   public TrackInfo[] getTrackInfo(String encoding) {
-  	TrackInfo[] trackInfo = getInbandTrackInfo(encoding);
+    TrackInfo[] trackInfo = getInbandTrackInfo(encoding);
+    if (trackInfo == null)
+      return null;
     // add out-of-band tracks
-  	String timedTextPath = getTimedTextPath();
-  	if (TextUtils.isEmpty(timedTextPath)) {
-  		return trackInfo;
-  	}
-    TrackInfo[] allTrackInfo = new TrackInfo[trackInfo.length + 1];
-    System.arraycopy(trackInfo, 0, allTrackInfo, 0, trackInfo.length);
-    int i = trackInfo.length;
-    SparseArray<MediaFormat> trackInfoArray = new SparseArray<MediaFormat>();
-    MediaFormat mediaFormat = new MediaFormat();
-    mediaFormat.setString(MediaFormat.KEY_TITLE, timedTextPath.substring(timedTextPath.lastIndexOf("/")));
-    mediaFormat.setString(MediaFormat.KEY_PATH, timedTextPath);
-    SparseArray<MediaFormat> timedTextSparse = findTrackFromTrackInfo(TrackInfo.MEDIA_TRACK_TYPE_TIMEDTEXT, trackInfo);
-    if (timedTextSparse == null || timedTextSparse.size() == 0)
-    	trackInfoArray.put(timedTextSparse.keyAt(0), mediaFormat);
-    else 
-    	trackInfoArray.put(timedTextSparse.keyAt(timedTextSparse.size() - 1), mediaFormat);
-    mOutOfBandTracks = new TrackInfo(TrackInfo.MEDIA_TRACK_TYPE_SUBTITLE, trackInfoArray);
-    allTrackInfo[i] = mOutOfBandTracks;
-    return allTrackInfo;
+    String timedTextPath = getTimedTextPath();
+    if (TextUtils.isEmpty(timedTextPath))
+      return trackInfo.clone();
+
+    if (mTrackInfo == null || mTrackInfo.length != trackInfo.length + 1 || !timedTextPath.equals(mTrackInfoTimedTextPath)) {
+      TrackInfo[] allTrackInfo = new TrackInfo[trackInfo.length + 1];
+      System.arraycopy(trackInfo, 0, allTrackInfo, 0, trackInfo.length);
+      SparseArray<MediaFormat> trackInfoArray = new SparseArray<MediaFormat>();
+      MediaFormat mediaFormat = new MediaFormat();
+      mediaFormat.setString(MediaFormat.KEY_TITLE, timedTextPath.substring(timedTextPath.lastIndexOf("/")));
+      mediaFormat.setString(MediaFormat.KEY_PATH, timedTextPath);
+      SparseArray<MediaFormat> timedTextSparse = findTrackFromTrackInfo(TrackInfo.MEDIA_TRACK_TYPE_TIMEDTEXT, trackInfo);
+      if (timedTextSparse == null || timedTextSparse.size() == 0)
+        trackInfoArray.put(nextTrackIndex(trackInfo), mediaFormat);
+      else
+        trackInfoArray.put(timedTextSparse.keyAt(timedTextSparse.size() - 1), mediaFormat);
+      mOutOfBandTracks = new TrackInfo(TrackInfo.MEDIA_TRACK_TYPE_SUBTITLE, trackInfoArray);
+      allTrackInfo[trackInfo.length] = mOutOfBandTracks;
+      mTrackInfo = allTrackInfo;
+      mTrackInfoTimedTextPath = timedTextPath;
+    }
+    return mTrackInfo.clone();
   }
-  
+
   private TrackInfo[] getInbandTrackInfo(String encoding) {
-  	if (mInbandTracks == null) {
-  		SparseArray<byte[]> trackSparse = new SparseArray<byte[]>();
+    if (mInbandTracks == null || !TextUtils.equals(encoding, mInbandTracksEncoding)) {
+      SparseArray<byte[]> trackSparse = new SparseArray<byte[]>();
       if (!native_getTrackInfo(trackSparse)) {
         return null;
       }
 
       int size = trackSparse.size();
-      mInbandTracks = new TrackInfo[size];
+      TrackInfo[] tracks = new TrackInfo[size];
       for (int i = 0; i < size; i++) {
-      	SparseArray<MediaFormat> sparseArray = parseTrackInfo(trackSparse.valueAt(i), encoding);
-        TrackInfo trackInfo = new TrackInfo(trackSparse.keyAt(i), sparseArray);
-        mInbandTracks[i] = trackInfo;
+        SparseArray<MediaFormat> sparseArray = parseTrackInfo(trackSparse.valueAt(i), encoding);
+        tracks[i] = new TrackInfo(trackSparse.keyAt(i), sparseArray);
       }
-  	}
+      mInbandTracks = tracks;
+      mInbandTracksEncoding = encoding;
+      mTrackInfo = null;
+    }
     return mInbandTracks;
   }
 
+  private void invalidateTrackInfo() {
+    mInbandTracks = null;
+    mInbandTracksEncoding = null;
+    mTrackInfo = null;
+    mTrackInfoTimedTextPath = null;
+  }
+
+  private static int nextTrackIndex(TrackInfo[] trackInfo) {
+    int index = 0;
+    for (TrackInfo info : trackInfo) {
+      SparseArray<MediaFormat> formats = info.getTrackInfoArray();
+      if (formats.size() > 0)
+        index = Math.max(index, formats.keyAt(formats.size() - 1) + 1);
+    }
+    return index;
+  }
+
   /**
    * Use default chartset {@link #getTrackInfo()} method.
    *
@@ -837,31 +977,23 @@ public class MediaPlayer {
     return getTrackInfo(Charset.defaultCharset().name());
   }
 
-  private SparseArray<MediaFormat> parseTrackInfo(byte[] tracks, String encoding) {
+  private static SparseArray<MediaFormat> parseTrackInfo(byte[] tracks, String encoding) {
     SparseArray<MediaFormat> trackSparse = new SparseArray<MediaFormat>();
     String trackString;
-    int trackNum;
     try {
       trackString = new String(tracks, encoding);
     } catch (Exception e) {
       Log.e("getTrackMap exception");
       trackString = new String(tracks);
     }
-    for (String s : trackString.split("!#!")) {
-      try {
-      	MediaFormat mediaFormat = null;
-      	String[] formats = s.split("\\.");
-      	if (formats == null)
-      		continue;
-      	trackNum = Integer.parseInt(formats[0]);
-      	if (formats.length == 3) {
-      		mediaFormat = MediaFormat.createSubtitleFormat(formats[2], formats[1]);
-      	} else if (formats.length == 2) {
-      		mediaFormat = MediaFormat.createSubtitleFormat("", formats[1]);
-      	}
-        trackSparse.put(trackNum, mediaFormat);
-      } catch (NumberFormatException e) {
-      }
+    TrackInfoTokenizer tokenizer = new TrackInfoTokenizer(trackString);
+    while (tokenizer.next()) {
+      MediaFormat mediaFormat = null;
+      if (tokenizer.getFieldCount() == 3)
+        mediaFormat = MediaFormat.createSubtitleFormat(tokenizer.getTitle(), tokenizer.getLanguage());
+      else if (tokenizer.getFieldCount() == 2)
+        mediaFormat = MediaFormat.createSubtitleFormat("", tokenizer.getLanguage());
+      trackSparse.put(tokenizer.getIndex(), mediaFormat);
     }
 
     return trackSparse;
@@ -888,6 +1020,47 @@ public class MediaPlayer {
    */
   public native void addTimedTextSource(String path);
 
+  /**
+   * Show an external subtitle parsed in Java instead of by the native player,
+   * its text is delivered to {@link OnTimedTextListener#onTimedText(String)}
+   * on the thread of the event handler.
+   *
+   * @param track the subtitle to show, null to remove the current one
+   * @see SubtitleTrack#open(File, String)
+   */
+  public void setSubtitleTrack(SubtitleTrack track) {
+    stopSubtitle();
+    if (track == null || mEventHandler == null)
+      return;
+    mSubtitleDriver = new SubtitleDriver(this, track, mEventHandler.getLooper(), new OnTimedTextListener() {
+      @Override
+      public void onTimedText(String text) {
+        if (mOnTimedTextListener != null)
+          mOnTimedTextListener.onTimedText(text);
+      }
+
+      @Override
+      public void onTimedTextUpdate(byte[] pixels, int width, int height) {
+      }
+    });
+    mSubtitleDriver.start();
+  }
+
+  /**
+   * Receive the native events as they are posted, on the native threads, see
+   * {@link NativePlayerEngine}.
+   */
+  void setEngineListener(PlayerEngine.Listener listener) {
+    mEngineListener = listener;
+  }
+
+  private void stopSubtitle() {
+    if (mSubtitleDriver != null) {
+      mSubtitleDriver.stop();
+      mSubtitleDriver = null;
+    }
+  }
+
   /**
    * Selects a track.
    * <p>
@@ -934,6 +1107,7 @@ public class MediaPlayer {
   		MediaFormat mediaFormat = mediaSparse.valueAt(0);
     	if (index == trackIndex  && select) {
     		addTimedTextSource(mediaFormat.getString(MediaFormat.KEY_PATH));
+    		invalidateTrackInfo();
     		return;
     	}
   	}
@@ -942,11 +1116,6 @@ public class MediaPlayer {
   
   private native void selectOrDeselectTrack(int index, boolean select);
 
-  @Override
-  protected void finalize() {
-    native_finalize();
-  }
-
   /**
    * Register a callback to be invoked when the media source is ready for
    * playback.
@@ -987,17 +1156,66 @@ public class MediaPlayer {
     mOnCachingUpdateListener = listener;
   }
 
-  private void updateCacheStatus(int type, int info, long[] segments) {
-    if (mEventHandler != null) {
-      Message m = mEventHandler.obtainMessage(MEDIA_CACHING_UPDATE);
-      Bundle b = m.getData();
-      b.putInt(MEDIA_CACHING_TYPE, type);
-      b.putInt(MEDIA_CACHING_INFO, info);
-      b.putLongArray(MEDIA_CACHING_SEGMENTS, segments);
-      mEventHandler.sendMessage(m);
+  /**
+   * Register a callback to be invoked with the ranges cached on storage
+   * whenever they change, along with the ones just added.
+   *
+   * @param listener the callback that will be run.
+   */
+  public void setOnCachedRangesListener(OnCachedRangesListener listener) {
+    mOnCachedRangesListener = listener;
+  }
+
+  /**
+   * @return the byte ranges of the stream cached on storage, read only. They
+   *         are updated on the thread of the listeners, where they must be
+   *         read.
+   */
+  public CachedRanges getCachedRanges() {
+    return mDispatcher.getCachedRanges();
+  }
+
+  /**
+   * The ranges are only changed on the thread of the listeners, which may
+   * not be the one resetting the player.
+   */
+  private void clearCachedRanges() {
+    if (mEventHandler == null || mEventHandler.getLooper() == Looper.myLooper()) {
+      mDispatcher.clearCachedRanges();
+    } else {
+      mEventHandler.post(new Runnable() {
+        @Override
+        public void run() {
+          mDispatcher.clearCachedRanges();
+        }
+      });
     }
   }
 
+  private void updateCacheStatus(int type, int info, long[] segments) {
+    PlayerEngine.Listener engineListener = mEngineListener;
+    if (engineListener != null)
+      engineListener.onCacheStatus(type, info, segments);
+    mDispatcher.onCacheStatus(type, info, segments);
+  }
+
+  /**
+   * @return the number of events the native player posted, including the
+   *         progress events merged into a newer one
+   * @see #getEventsDelivered()
+   */
+  public long getEventsReceived() {
+    return mDispatcher.getEventsReceived();
+  }
+
+  /**
+   * @return the number of events dispatched on the event thread
+   * @see #getEventsReceived()
+   */
+  public long getEventsDelivered() {
+    return mDispatcher.getEventsDelivered();
+  }
+
   /**
    * Register a callback to be invoked when a seek operation has been completed.
    *
@@ -1039,28 +1257,33 @@ public class MediaPlayer {
     mOnTimedTextListener = listener;
   }
 
+  /**
+   * Register a callback to be invoked when an image timed text need to
+   * display, the image being delivered in a reused {@link Bitmap} rather than
+   * a new pixel array.
+   *
+   * @param listener the callback that will be run
+   */
+  public void setOnTimedTextBitmapListener(OnTimedTextBitmapListener listener) {
+    mOnTimedTextBitmapListener = listener;
+  }
+
+  /**
+   * Set the bitmap into which the image timed texts of its size are drawn, the
+   * others are drawn into bitmaps pooled by size.
+   *
+   * @param bitmap a mutable ARGB_8888 bitmap, null to only use the pool
+   * @see #setOnTimedTextBitmapListener(OnTimedTextBitmapListener)
+   */
+  public void setTimedTextBitmap(Bitmap bitmap) {
+    mSubtitleBitmaps.setTarget(bitmap);
+  }
+
   private void updateSub(int subType, byte[] bytes, String encoding, int width, int height) {
-    if (mEventHandler != null) {
-      Message m = mEventHandler.obtainMessage(MEDIA_TIMED_TEXT, width, height);
-      Bundle b = m.getData();
-      if (subType == SUBTITLE_TEXT) {
-        b.putInt(MEDIA_SUBTITLE_TYPE, SUBTITLE_TEXT);
-        if (encoding == null) {
-          b.putString(MEDIA_SUBTITLE_STRING, new String(bytes));
-        } else {
-          try {
-            b.putString(MEDIA_SUBTITLE_STRING, new String(bytes, encoding.trim()));
-          } catch (UnsupportedEncodingException e) {
-            Log.e("updateSub", e);
-            b.putString(MEDIA_SUBTITLE_STRING, new String(bytes));
-          }
-        }
-      } else if (subType == SUBTITLE_BITMAP) {
-        b.putInt(MEDIA_SUBTITLE_TYPE, SUBTITLE_BITMAP);
-        b.putByteArray(MEDIA_SUBTITLE_BYTES, bytes);
-      }
-      mEventHandler.sendMessage(m);
-    }
+    PlayerEngine.Listener engineListener = mEngineListener;
+    if (engineListener != null)
+      engineListener.onSubtitle(subType, bytes, encoding, width, height);
+    mDispatcher.onSubtitle(subType, bytes, encoding, width, height);
   }
 
   protected native void _releaseVideoSurface();
@@ -1226,10 +1449,18 @@ public class MediaPlayer {
       int written;
       while (sizeInBytes > 0) {
         written = sizeInBytes > mAudioTrackBufferSize ? mAudioTrackBufferSize : sizeInBytes;
-        mAudioTrack.write(audioData, offsetInBytes, written);
+        written = mAudioTrack.write(audioData, offsetInBytes, written);
+        if (written <= 0) {
+          // ERROR_INVALID_OPERATION or ERROR_BAD_VALUE, the rest of this chunk is lost
+          mAudioBytesDropped.addAndGet(sizeInBytes);
+          return;
+        }
+        mAudioBytesWritten.addAndGet(written);
         sizeInBytes -= written;
         offsetInBytes += written;
       }
+    } else if (sizeInBytes > 0) {
+      mAudioBytesDropped.addAndGet(sizeInBytes);
     }
   }
 
@@ -1256,43 +1487,97 @@ public class MediaPlayer {
 	return mAudioTrack.getAudioSessionId();
   }
 
+  /**
+   * Get the PCM bytes handed to the AudioTrack since this player was created
+   * or last reset.
+   *
+   * @return bytes written
+   */
+  public long getAudioBytesWritten() {
+    return mAudioBytesWritten.get();
+  }
+
+  /**
+   * Get the decoded PCM bytes which never reached the AudioTrack, because the
+   * track was not playing or rejected the write.
+   *
+   * @return bytes dropped
+   */
+  public long getAudioBytesDropped() {
+    return mAudioBytesDropped.get();
+  }
+
+  /**
+   * Set the renderer which draws the frames of the software video output,
+   * default is a double buffered {@link SurfaceFrameRenderer}. Better called
+   * before {@link #prepareAsync()}, during the playback the current renderer
+   * is only released once the decoder got a buffer from the new one.
+   *
+   * @param renderer the renderer, must not be null
+   */
+  public void setFrameRenderer(FrameRenderer renderer) {
+    if (renderer == null)
+      throw new IllegalArgumentException();
+    boolean rendering;
+    synchronized (this) {
+      if (mFrameRenderer == renderer)
+        return;
+      rendering = mLocalSurface != null;
+      if (rendering) {
+        // the decoder keeps writing into the buffer of the current renderer
+        // until it's given the buffer of the new one, it must not be pooled
+        releaseRetiredRenderer();
+        mRetiredRenderer = mFrameRenderer;
+      } else {
+        mFrameRenderer.release();
+      }
+      mFrameRenderer = renderer;
+    }
+    Surface surface = mSurface;
+    if (rendering && surface != null)
+      _setVideoSurface(surface);
+  }
+
+  /**
+   * @return the renderer of the software video output
+   * @see #setFrameRenderer(FrameRenderer)
+   */
+  public FrameRenderer getFrameRenderer() {
+    return mFrameRenderer;
+  }
+
   private ByteBuffer surfaceInit() {
     synchronized (this) {
       mLocalSurface = mSurface;
       int w = getVideoWidth_a();
       int h = getVideoHeight_a();
-      if (mLocalSurface != null && w != 0 && h != 0) {
-        mBitmap = Bitmap.createBitmap(w, h, Bitmap.Config.RGB_565);
-        mByteBuffer = ByteBuffer.allocateDirect(w * h * 2);
-      } else {
-        mBitmap = null;
-        mByteBuffer = null;
-      }
-      return mByteBuffer;
+      ByteBuffer buffer = null;
+      if (mLocalSurface != null && w != 0 && h != 0)
+        buffer = mFrameRenderer.init(mLocalSurface, w, h);
+      else
+        mFrameRenderer.release();
+      // the decoder drops the previous buffer for the one returned
+      releaseRetiredRenderer();
+      return buffer;
     }
   }
 
   private void surfaceRender() {
-    synchronized (this) {
-      if (mLocalSurface == null || !mLocalSurface.isValid() || mBitmap == null || mByteBuffer == null)
-        return;
-
-      try {
-        Canvas c = mLocalSurface.lockCanvas(null);
-        mBitmap.copyPixelsFromBuffer(mByteBuffer);
-        c.drawBitmap(mBitmap, 0, 0, null);
-        mLocalSurface.unlockCanvasAndPost(c);
-      } catch (Exception e) {
-        Log.e("surfaceRender", e);
-      }
-    }
+    mFrameRenderer.render();
   }
 
   private void surfaceRelease() {
     synchronized (this) {
       mLocalSurface = null;
-      mBitmap = null;
-      mByteBuffer = null;
+      mFrameRenderer.release();
+      releaseRetiredRenderer();
+    }
+  }
+
+  private void releaseRetiredRenderer() {
+    if (mRetiredRenderer != null) {
+      mRetiredRenderer.release();
+      mRetiredRenderer = null;
     }
   }
 
@@ -1374,6 +1659,18 @@ public class MediaPlayer {
     void onCachingNotAvailable(MediaPlayer mp, int info);
   }
 
+  public interface OnCachedRangesListener {
+    /**
+     * Called when the byte ranges cached on storage changed. Both ranges are
+     * read only and reused, read them during the call.
+     *
+     * @param mp     the MediaPlayer the update pertains to
+     * @param ranges all the ranges cached
+     * @param added  the ranges cached since the last call, may be empty
+     */
+    void onCachedRangesUpdate(MediaPlayer mp, CachedRanges ranges, CachedRanges added);
+  }
+
   public interface OnSeekCompleteListener {
     /**
      * Called to indicate the completion of a seek operation.
@@ -1454,6 +1751,19 @@ public class MediaPlayer {
     public void onTimedTextUpdate(byte[] pixels, int width, int height);
   }
 
+  public interface OnTimedTextBitmapListener {
+    /**
+     * Called to indicate that an image timed text need to display
+     *
+     * @param bitmap the image, null to clear it. It's owned by the
+     *               MediaPlayer and overwritten by the next images of the
+     *               same size
+     * @param dirty  the region of the bitmap which changed since the previous
+     *               call, don't keep it
+     */
+    public void onTimedTextBitmap(Bitmap bitmap, Rect dirty);
+  }
+
   /**
    * Class for MediaPlayer to return each audio/video/subtitle track's metadata.
    *
@@ -1494,94 +1804,130 @@ public class MediaPlayer {
   }
 
   @SuppressLint("HandlerLeak")
-  private class EventHandler extends Handler {
-    private MediaPlayer mMediaPlayer;
-    private Bundle mData;
-
-    public EventHandler(MediaPlayer mp, Looper looper) {
+  private class EventHandler extends Handler implements EventDispatcher.Queue {
+    public EventHandler(Looper looper) {
       super(looper);
-      mMediaPlayer = mp;
+    }
+
+    @Override
+    public void post(int what, int arg1, int arg2, Object obj) {
+      sendMessage(obtainMessage(what, arg1, arg2, obj));
     }
 
     @Override
     public void handleMessage(Message msg) {
-      switch (msg.what) {
-        case MEDIA_PREPARED:
-          if (mOnPreparedListener != null)
-            mOnPreparedListener.onPrepared(mMediaPlayer);
-          return;
-        case MEDIA_PLAYBACK_COMPLETE:
-          if (mOnCompletionListener != null)
-            mOnCompletionListener.onCompletion(mMediaPlayer);
-          stayAwake(false);
-          return;
-        case MEDIA_BUFFERING_UPDATE:
-          if (mOnBufferingUpdateListener != null)
-            mOnBufferingUpdateListener.onBufferingUpdate(mMediaPlayer, msg.arg1);
-          return;
-        case MEDIA_SEEK_COMPLETE:
-          if (isPlaying())
-            stayAwake(true);
-          if (mOnSeekCompleteListener != null)
-            mOnSeekCompleteListener.onSeekComplete(mMediaPlayer);
-          return;
-        case MEDIA_SET_VIDEO_SIZE:
-          if (mOnVideoSizeChangedListener != null)
-            mOnVideoSizeChangedListener.onVideoSizeChanged(mMediaPlayer, msg.arg1, msg.arg2);
-          return;
-        case MEDIA_ERROR:
-          Log.e("Error (%d, %d)", msg.arg1, msg.arg2);
-          boolean error_was_handled = false;
-          if (mOnErrorListener != null)
-            error_was_handled = mOnErrorListener.onError(mMediaPlayer, msg.arg1, msg.arg2);
-          if (mOnCompletionListener != null && !error_was_handled)
-            mOnCompletionListener.onCompletion(mMediaPlayer);
-          stayAwake(false);
-          return;
-        case MEDIA_INFO:
-          Log.i("Info (%d, %d)", msg.arg1, msg.arg2);
-          if (mOnInfoListener != null)
-            mOnInfoListener.onInfo(mMediaPlayer, msg.arg1, msg.arg2);
-          return;
-        case MEDIA_CACHE:
-          return;
-        case MEDIA_TIMED_TEXT:
-          mData = msg.getData();
-          if (mData.getInt(MEDIA_SUBTITLE_TYPE) == SUBTITLE_TEXT) {
-            Log.i("Subtitle : %s", mData.getString(MEDIA_SUBTITLE_STRING));
-            if (mOnTimedTextListener != null)
-              mOnTimedTextListener.onTimedText(mData.getString(MEDIA_SUBTITLE_STRING));
-          } else if (mData.getInt(MEDIA_SUBTITLE_TYPE) == SUBTITLE_BITMAP) {
-            Log.i("Subtitle : bitmap");
-            if (mOnTimedTextListener != null)
-              mOnTimedTextListener.onTimedTextUpdate(mData.getByteArray(MEDIA_SUBTITLE_BYTES), msg.arg1, msg.arg2);
-          }
-          return;
-        case MEDIA_CACHING_UPDATE:
-          if (mOnCachingUpdateListener != null) {
-            int cacheType = msg.getData().getInt(MEDIA_CACHING_TYPE);
-            if (cacheType == CACHE_TYPE_NOT_AVAILABLE) {
-              mOnCachingUpdateListener.onCachingNotAvailable(mMediaPlayer, msg.getData().getInt(MEDIA_CACHING_INFO));
-            } else if (cacheType == CACHE_TYPE_UPDATE) {
-              mOnCachingUpdateListener.onCachingUpdate(mMediaPlayer, msg.getData().getLongArray(MEDIA_CACHING_SEGMENTS));
-            } else if (cacheType == CACHE_TYPE_SPEED) {
-              mOnCachingUpdateListener.onCachingSpeed(mMediaPlayer, msg.getData().getInt(MEDIA_CACHING_INFO));
-            } else if (cacheType == CACHE_TYPE_START) {
-            	mOnCachingUpdateListener.onCachingStart(mMediaPlayer);
-            } else if (cacheType == CACHE_TYPE_COMPLETE) {
-            	mOnCachingUpdateListener.onCachingComplete(mMediaPlayer);
-            }
-          }
-          return;
-        case MEDIA_NOP:
-          return;
-        case MEDIA_HW_ERROR:
-        	if (mOnHWRenderFailedListener != null)
-        		mOnHWRenderFailedListener.onFailed();
-        	return;
-        default:
-          Log.e("Unknown message type " + msg.what);
-          return;
+      mDispatcher.dispatch(msg.what, msg.arg1, msg.arg2, msg.obj);
+    }
+  }
+
+  /**
+   * The listeners, called by the dispatcher on the event thread.
+   */
+  private class EventTarget implements EventDispatcher.Target {
+    @Override
+    public void onPrepared() {
+      invalidateTrackInfo();
+      if (mOnPreparedListener != null)
+        mOnPreparedListener.onPrepared(MediaPlayer.this);
+    }
+
+    @Override
+    public void onCompletion() {
+      if (mOnCompletionListener != null)
+        mOnCompletionListener.onCompletion(MediaPlayer.this);
+      stayAwake(false);
+    }
+
+    @Override
+    public void onBufferingUpdate(int percent) {
+      if (mOnBufferingUpdateListener != null)
+        mOnBufferingUpdateListener.onBufferingUpdate(MediaPlayer.this, percent);
+    }
+
+    @Override
+    public boolean acceptSeekComplete() {
+      return mSeekScheduler.onSeekComplete();
+    }
+
+    @Override
+    public void onSeekComplete() {
+      if (isPlaying())
+        stayAwake(true);
+      if (mOnSeekCompleteListener != null)
+        mOnSeekCompleteListener.onSeekComplete(MediaPlayer.this);
+    }
+
+    @Override
+    public void onVideoSizeChanged(int width, int height) {
+      if (mOnVideoSizeChangedListener != null)
+        mOnVideoSizeChangedListener.onVideoSizeChanged(MediaPlayer.this, width, height);
+    }
+
+    @Override
+    public boolean onError(int what, int extra) {
+      Log.e("Error (%d, %d)", what, extra);
+      boolean handled = mOnErrorListener != null && mOnErrorListener.onError(MediaPlayer.this, what, extra);
+      // otherwise the playback completes, which stays awake no longer either
+      if (handled)
+        stayAwake(false);
+      return handled;
+    }
+
+    @Override
+    public void onInfo(int what, int extra) {
+      Log.i("Info (%d, %d)", what, extra);
+      if (mOnInfoListener != null)
+        mOnInfoListener.onInfo(MediaPlayer.this, what, extra);
+    }
+
+    @Override
+    public void onTimedText(String text) {
+      Log.i("Subtitle : %s", text);
+      if (mOnTimedTextListener != null)
+        mOnTimedTextListener.onTimedText(text);
+    }
+
+    @Override
+    public void onTimedTextUpdate(byte[] pixels, int width, int height) {
+      Log.i("Subtitle : bitmap");
+      if (mOnTimedTextListener != null)
+        mOnTimedTextListener.onTimedTextUpdate(pixels, width, height);
+      if (mOnTimedTextBitmapListener != null) {
+        Rect dirty = mSubtitleBitmaps.update(pixels, width, height);
+        if (dirty != null)
+          mOnTimedTextBitmapListener.onTimedTextBitmap(mSubtitleBitmaps.getBitmap(), dirty);
+      }
+    }
+
+    @Override
+    public void onCachingUpdate(int cacheType, int info, long[] segments, CachedRanges ranges, CachedRanges added) {
+      StreamCache.Entry entry = mCacheEntry;
+      if (entry != null && (cacheType == CACHE_TYPE_UPDATE || cacheType == CACHE_TYPE_COMPLETE || cacheType == CACHE_TYPE_NOT_AVAILABLE))
+        entry.getCache().update(entry);
+      if (cacheType == CACHE_TYPE_UPDATE && segments != null && mOnCachedRangesListener != null)
+        mOnCachedRangesListener.onCachedRangesUpdate(MediaPlayer.this, ranges, added);
+      if (mOnCachingUpdateListener != null) {
+        if (cacheType == CACHE_TYPE_NOT_AVAILABLE) {
+          mOnCachingUpdateListener.onCachingNotAvailable(MediaPlayer.this, info);
+        } else if (cacheType == CACHE_TYPE_UPDATE) {
+          mOnCachingUpdateListener.onCachingUpdate(MediaPlayer.this, segments);
+        } else if (cacheType == CACHE_TYPE_SPEED) {
+          mOnCachingUpdateListener.onCachingSpeed(MediaPlayer.this, info);
+        } else if (cacheType == CACHE_TYPE_START) {
+          mOnCachingUpdateListener.onCachingStart(MediaPlayer.this);
+        } else if (cacheType == CACHE_TYPE_COMPLETE) {
+          mOnCachingUpdateListener.onCachingComplete(MediaPlayer.this);
+        }
+      }
+    }
+
+    @Override
+    public void onOtherEvent(int what, int arg1, int arg2, Object obj) {
+      if (what == MEDIA_HW_ERROR) {
+        if (mOnHWRenderFailedListener != null)
+          mOnHWRenderFailedListener.onFailed();
+      } else if (what != MEDIA_CACHE) {
+        Log.e("Unknown message type " + what);
       }
     }
   }
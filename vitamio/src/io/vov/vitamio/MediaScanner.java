@@ -18,15 +18,19 @@
 package io.vov.vitamio;
 
 import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
 import android.database.SQLException;
 import android.net.Uri;
 import android.os.RemoteException;
 import android.text.TextUtils;
 
+import io.vov.vitamio.engine.ScannerEngine;
 import io.vov.vitamio.provider.MediaStore;
 import io.vov.vitamio.provider.MediaStore.Video;
 import io.vov.vitamio.utils.ContextUtils;
@@ -34,23 +38,93 @@ import io.vov.vitamio.utils.FileUtils;
 import io.vov.vitamio.utils.Log;
 
 import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class MediaScanner {
   private static final String[] VIDEO_PROJECTION = new String[]{Video.Media._ID, Video.Media.DATA, Video.Media.DATE_MODIFIED,};
   private static final int ID_VIDEO_COLUMN_INDEX = 0;
   private static final int PATH_VIDEO_COLUMN_INDEX = 1;
   private static final int DATE_MODIFIED_VIDEO_COLUMN_INDEX = 2;
+  private static final String INDEX_FILE_NAME = "vitamio_scan_index";
+  private static final String NO_MEDIA = ".nomedia";
+  static final int DEFAULT_BATCH_SIZE = 200;
+  private static final NativeResources.OwnerReclaimer<MediaScanner> RECLAIMER = new NativeResources.OwnerReclaimer<MediaScanner>() {
+    @Override
+    public void reclaim(MediaScanner scanner) {
+      scanner.native_finalize();
+    }
+  };
   private Context mContext;
   private ContentProviderClient mProvider;
   private boolean mCaseInsensitivePaths;
   private HashMap<String, FileCacheEntry> mFileCache;
+  private HashMap<String, List<FileCacheEntry>> mDirectoryCache;
   private MyMediaScannerClient mClient = new MyMediaScannerClient();
+  private int mScanThreads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+  private int mBatchSize = DEFAULT_BATCH_SIZE;
+  private final ArrayList<ContentProviderOperation> mPendingOps = new ArrayList<ContentProviderOperation>();
+  private final ArrayList<FileCacheEntry> mPendingInserts = new ArrayList<FileCacheEntry>();
+  private final ArrayList<ScannedDirectory> mPendingDirectories = new ArrayList<ScannedDirectory>();
+  private ScanIndex mIndex;
+  private int mRowsWritten;
+  private int mProviderCalls;
+  private final NativeResources.Handle mNativeHandle;
+  private final ScannerEngine mEngine;
 
+  /**
+   * The native context is freed by {@link #release()}, or once the scanner
+   * is collected by a finalizable guardian: the JNI only reaches the context
+   * through the scanner, see {@link NativeResources}.
+   */
   public MediaScanner(Context ctx) {
     mContext = ctx;
-    native_init(mClient);
+    mEngine = null;
+    native_init(new ClientRef(mClient));
+    mNativeHandle = NativeResources.attach(this, MediaScanner.class, RECLAIMER);
+  }
+
+  /**
+   * A scanner whose files and tags come from engine instead of the native
+   * scanner, e.g. a {@link io.vov.vitamio.engine.FakeScannerEngine}. It has no
+   * native context, release the engine rather than calling {@link #release()}.
+   */
+  MediaScanner(Context ctx, ScannerEngine engine) {
+    mContext = ctx;
+    mEngine = engine;
+    mNativeHandle = null;
+    engine.setClient(mClient);
+  }
+
+  /**
+   * A bare native scanner reporting to client, only
+   * {@link #processDirectory(String, String)}, {@link #processFile(String, String)}
+   * and {@link #releaseNative()} may be used, see {@link NativeScannerEngine}.
+   * The caller keeps client reachable.
+   */
+  MediaScanner(MediaScannerClient client) {
+    mEngine = null;
+    native_init(new ClientRef(client));
+    mNativeHandle = NativeResources.guard(this, MediaScanner.class, RECLAIMER);
+  }
+
+  /**
+   * Release a bare scanner, its guardian lets it go and it's collected in a
+   * single GC.
+   */
+  void releaseNative() {
+    release();
+    mNativeHandle.release();
   }
 
   private static native boolean loadFFmpeg_native(String ffmpegPath);
@@ -61,6 +135,11 @@ public class MediaScanner {
 
   private void prescan(String filePath) throws RemoteException {
     mProvider = mContext.getContentResolver().acquireContentProviderClient(MediaStore.AUTHORITY);
+    mPendingOps.clear();
+    mPendingInserts.clear();
+    mPendingDirectories.clear();
+    mRowsWritten = 0;
+    mProviderCalls = 0;
     Cursor c = null;
     String where = null;
     String[] selectionArgs = null;
@@ -69,6 +148,7 @@ public class MediaScanner {
       mFileCache = new HashMap<String, FileCacheEntry>();
     else
       mFileCache.clear();
+    mDirectoryCache = new HashMap<String, List<FileCacheEntry>>();
 
     try {
       if (filePath != null) {
@@ -91,7 +171,15 @@ public class MediaScanner {
               }
               path = FileUtils.getCanonical(tempFile);
               String key = mCaseInsensitivePaths ? path.toLowerCase() : path;
-              mFileCache.put(key, new FileCacheEntry(Video.Media.CONTENT_URI, rowId, path, lastModified));
+              FileCacheEntry entry = new FileCacheEntry(Video.Media.CONTENT_URI, rowId, path, lastModified);
+              mFileCache.put(key, entry);
+              String directory = directoryKey(path.substring(0, path.lastIndexOf('/') + 1));
+              List<FileCacheEntry> entries = mDirectoryCache.get(directory);
+              if (entries == null) {
+                entries = new ArrayList<FileCacheEntry>();
+                mDirectoryCache.put(directory, entries);
+              }
+              entries.add(entry);
             }
           }
         } finally {
@@ -108,7 +196,8 @@ public class MediaScanner {
 
   ;
 
-  private void postscan(String[] directories) throws RemoteException {
+  private int postscan(String[] directories) throws RemoteException {
+    int deleted = 0;
     Iterator<FileCacheEntry> iterator = mFileCache.values().iterator();
 
     while (iterator.hasNext()) {
@@ -117,16 +206,118 @@ public class MediaScanner {
 
       if (!entry.mSeenInFileSystem) {
         if (inScanDirectory(path, directories) && !new File(path).exists()) {
-          mProvider.delete(ContentUris.withAppendedId(entry.mTableUri, entry.mRowId), null, null);
+          applyOperation(ContentProviderOperation.newDelete(ContentUris.withAppendedId(entry.mTableUri, entry.mRowId)).build(), null);
           iterator.remove();
+          deleted++;
         }
       }
     }
+    flushOperations();
 
     mFileCache.clear();
     mFileCache = null;
+    mDirectoryCache = null;
     mProvider.release();
     mProvider = null;
+    return deleted;
+  }
+
+  /**
+   * Queue a write to the provider, it's sent with the others in one
+   * applyBatch once {@link #setBatchSize(int)} writes are waiting.
+   *
+   * @param insertedEntry the entry whose row id is the result of the insert op
+   */
+  private void applyOperation(ContentProviderOperation op, FileCacheEntry insertedEntry) throws RemoteException {
+    mPendingOps.add(op);
+    mPendingInserts.add(insertedEntry);
+    if (mPendingOps.size() >= mBatchSize)
+      flushOperations();
+  }
+
+  private void flushOperations() throws RemoteException {
+    if (mPendingOps.isEmpty()) {
+      commitDirectories();
+      return;
+    }
+
+    try {
+      ContentProviderResult[] results = mProvider.applyBatch(mPendingOps);
+      for (int i = 0; i < results.length; i++)
+        setRowId(mPendingInserts.get(i), results[i]);
+      mRowsWritten += results.length;
+    } catch (OperationApplicationException e) {
+      Log.e("OperationApplicationException in MediaScanner.flushOperations(), applying the batch one operation at a time", e);
+      applySeparately();
+    } finally {
+      mProviderCalls++;
+      mPendingOps.clear();
+      mPendingInserts.clear();
+    }
+    commitDirectories();
+  }
+
+  /**
+   * Apply the pending operations one by one after their batch failed, so only
+   * the bad rows are lost. A provider which doesn't apply a batch in one
+   * transaction may have inserted some rows already, those are looked up by
+   * path rather than inserted twice.
+   */
+  private void applySeparately() throws RemoteException {
+    ArrayList<ContentProviderOperation> single = new ArrayList<ContentProviderOperation>(1);
+    for (int i = 0; i < mPendingOps.size(); i++) {
+      FileCacheEntry inserted = mPendingInserts.get(i);
+      if (inserted != null && findRowId(inserted))
+        continue;
+      single.clear();
+      single.add(mPendingOps.get(i));
+      try {
+        ContentProviderResult[] results = mProvider.applyBatch(single);
+        setRowId(inserted, results[0]);
+        mRowsWritten++;
+      } catch (OperationApplicationException e) {
+        Log.e("Skipping the row of %s: %s", inserted != null ? inserted.mPath : mPendingOps.get(i).getUri(), e.getMessage());
+      } finally {
+        mProviderCalls++;
+      }
+    }
+  }
+
+  private boolean findRowId(FileCacheEntry entry) throws RemoteException {
+    Cursor c = mProvider.query(entry.mTableUri, new String[]{Video.Media._ID}, MediaStore.MediaColumns.DATA + "=?", new String[]{entry.mPath}, null);
+    mProviderCalls++;
+    if (c == null)
+      return false;
+    try {
+      if (!c.moveToFirst())
+        return false;
+      entry.mRowId = c.getLong(0);
+      return true;
+    } finally {
+      c.close();
+    }
+  }
+
+  private static void setRowId(FileCacheEntry entry, ContentProviderResult result) {
+    if (entry != null && result.uri != null)
+      entry.mRowId = ContentUris.parseId(result.uri);
+  }
+
+  /**
+   * Record the directories whose files are all written in the index, a
+   * directory is only skipped by the next incremental scan once its rows are
+   * in the provider.
+   */
+  private void commitDirectories() {
+    if (mIndex != null) {
+      for (ScannedDirectory dir : mPendingDirectories)
+        mIndex.put(dir.mPath, dir.mEntry);
+    }
+    mPendingDirectories.clear();
+  }
+
+  private String directoryKey(String directory) {
+    return mCaseInsensitivePaths ? directory.toLowerCase() : directory;
   }
 
   private boolean inScanDirectory(String path, String[] directories) {
@@ -138,6 +329,46 @@ public class MediaScanner {
   }
 
   public void scanDirectories(String[] directories) {
+    scan(directories, false);
+  }
+
+  /**
+   * Set the number of threads listing directories in an incremental scan.
+   *
+   * @param threads at least 1
+   * @see #scan(String[], boolean)
+   */
+  public void setScanThreads(int threads) {
+    mScanThreads = Math.max(1, threads);
+  }
+
+  /**
+   * Set how many inserts, updates and deletes are sent to the provider in
+   * one applyBatch during {@link #scan(String[], boolean)}, default is 200.
+   *
+   * @param batchSize 1 to write every row on its own
+   */
+  public void setBatchSize(int batchSize) {
+    mBatchSize = Math.max(1, batchSize);
+  }
+
+  /**
+   * Scan the directories and update the video table.
+   * <p/>
+   * An incremental scan lists the directories on a pool of
+   * {@link #setScanThreads(int)} threads and remembers the last modified time
+   * and child count of every directory. A directory which has neither changed
+   * since the previous incremental scan is not listed again, its files are
+   * kept as they are and only its sub directories are visited. Files edited
+   * in place without touching their directory are picked up by the next full
+   * scan.
+   *
+   * @param directories the directories to scan
+   * @param incremental true to skip unchanged directories
+   * @return the timings and counters of the scan, null if it failed
+   */
+  public ScanResult scan(String[] directories, boolean incremental) {
+    ScanResult result = new ScanResult(incremental);
     try {
       long start = System.currentTimeMillis();
       prescan(null);
@@ -146,24 +377,107 @@ public class MediaScanner {
       for (int i = 0; i < directories.length; i++) {
         if (!TextUtils.isEmpty(directories[i])) {
           directories[i] = ContextUtils.fixLastSlash(directories[i]);
-          processDirectory(directories[i], MediaFile.sFileExtensions);
+          if (!incremental)
+            scanDirectory(directories[i], MediaFile.sFileExtensions);
         }
       }
+      if (incremental)
+        scanIncremental(directories, result);
 
       long scan = System.currentTimeMillis();
-      postscan(directories);
+      result.mFilesDeleted = postscan(directories);
+      if (mIndex != null) {
+        try {
+          mIndex.save();
+        } catch (IOException e) {
+          Log.e("Unable to save the scan index", e);
+        }
+      }
       long end = System.currentTimeMillis();
 
-      Log.d(" prescan time: %dms", prescan - start);
-      Log.d("    scan time: %dms", scan - prescan);
-      Log.d("postscan time: %dms", end - scan);
-      Log.d("   total time: %dms", end - start);
+      result.mPrescanTime = prescan - start;
+      result.mScanTime = scan - prescan;
+      result.mPostscanTime = end - scan;
+      result.mFilesProcessed = mClient.mFilesProcessed;
+      result.mRowsWritten = mRowsWritten;
+      result.mProviderCalls = mProviderCalls;
+      mClient.mFilesProcessed = 0;
+      Log.d(" prescan time: %dms", result.mPrescanTime);
+      Log.d("    scan time: %dms", result.mScanTime);
+      Log.d("postscan time: %dms", result.mPostscanTime);
+      Log.d("   total time: %dms", result.getTotalTime());
+      return result;
     } catch (SQLException e) {
       Log.e("SQLException in MediaScanner.scan()", e);
     } catch (UnsupportedOperationException e) {
       Log.e("UnsupportedOperationException in MediaScanner.scan()", e);
     } catch (RemoteException e) {
       Log.e("RemoteException in MediaScanner.scan()", e);
+    } finally {
+      mIndex = null;
+      mPendingDirectories.clear();
+    }
+    return null;
+  }
+
+  private void scanIncremental(String[] directories, ScanResult result) {
+    ScanIndex index = new ScanIndex(new File(mContext.getCacheDir(), INDEX_FILE_NAME));
+    index.load();
+    mIndex = index;
+
+    ExecutorService executor = Executors.newFixedThreadPool(mScanThreads);
+    try {
+      for (String directory : directories) {
+        if (TextUtils.isEmpty(directory))
+          continue;
+        String root = ContextUtils.fixLastSlash(FileUtils.getCanonical(new File(directory)));
+        HashSet<String> visited = new HashSet<String>();
+        if (!walk(executor, index, root, visited, result))
+          return;
+        index.retain(root, visited);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Lists the directories below root on the executor while the files of the
+   * changed ones are handed to the native scanner on this thread, in the
+   * order the listings complete.
+   */
+  private boolean walk(ExecutorService executor, ScanIndex index, String root, HashSet<String> visited, ScanResult result) {
+    BlockingQueue<ScannedDirectory> done = new LinkedBlockingQueue<ScannedDirectory>();
+    AtomicInteger pending = new AtomicInteger(1);
+    executor.execute(new DirectoryTask(executor, index, root, pending, done));
+
+    try {
+      while (true) {
+        ScannedDirectory dir = done.take();
+        if (dir == ScannedDirectory.END)
+          return true;
+        visited.add(dir.mPath);
+        if (dir.mNoMedia) {
+          mClient.addNoMediaFolder(dir.mPath);
+          mPendingDirectories.add(dir);
+        } else if (dir.mChanged) {
+          result.mDirectoriesScanned++;
+          for (ScannedFile file : dir.mFiles)
+            mClient.scanFile(file.mPath, file.mLastModified, file.mSize);
+          // indexed once the rows of its files are flushed
+          mPendingDirectories.add(dir);
+        } else {
+          result.mDirectoriesSkipped++;
+          List<FileCacheEntry> entries = mDirectoryCache.get(directoryKey(dir.mPath));
+          if (entries != null) {
+            for (FileCacheEntry entry : entries)
+              entry.mSeenInFileSystem = true;
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
     }
   }
 
@@ -182,15 +496,31 @@ public class MediaScanner {
 
   static {
     String LIB_ROOT = Vitamio.getLibraryPath();
-    Log.i("LIB ROOT: %s", LIB_ROOT);
-    System.load(LIB_ROOT + "libstlport_shared.so");
-    System.load(LIB_ROOT + "libvscanner.so");
-    loadFFmpeg_native(LIB_ROOT + "libffmpeg.so");
+    try {
+      Log.i("LIB ROOT: %s", LIB_ROOT);
+      System.load(LIB_ROOT + "libstlport_shared.so");
+      System.load(LIB_ROOT + "libvscanner.so");
+      loadFFmpeg_native(LIB_ROOT + "libffmpeg.so");
+    } catch (UnsatisfiedLinkError e) {
+      // only a scanner with a ScannerEngine works then
+      Log.e("Error loading libs", e);
+    }
+  }
+
+  private void scanDirectory(String path, String extensions) {
+    if (mEngine != null)
+      mEngine.processDirectory(path, extensions);
+    else
+      processDirectory(path, extensions);
+  }
+
+  private boolean scanTags(String path) {
+    return mEngine != null ? mEngine.processFile(path, null) : processFile(path, null);
   }
 
-  private native void processDirectory(String path, String extensions);
+  native void processDirectory(String path, String extensions);
 
-  private native boolean processFile(String path, String mimeType);
+  native boolean processFile(String path, String mimeType);
 
   private native final void native_init(MediaScannerClient client);
 
@@ -198,12 +528,45 @@ public class MediaScanner {
 
   private native final void native_finalize();
 
-  @Override
-  protected void finalize() throws Throwable {
-    try {
-      native_finalize();
-    } finally {
-      super.finalize();
+  /**
+   * The client handed to the native scanner, which keeps it. It only
+   * references the real client weakly, so the native scanner doesn't keep
+   * the MediaScanner the client belongs to reachable, and its guardian can
+   * free the native context once the MediaScanner is unreachable.
+   */
+  private static final class ClientRef implements MediaScannerClient {
+    private final WeakReference<MediaScannerClient> mClient;
+
+    ClientRef(MediaScannerClient client) {
+      mClient = new WeakReference<MediaScannerClient>(client);
+    }
+
+    @Override
+    public void scanFile(String path, long lastModified, long fileSize) {
+      MediaScannerClient client = mClient.get();
+      if (client != null)
+        client.scanFile(path, lastModified, fileSize);
+    }
+
+    @Override
+    public void addNoMediaFolder(String path) {
+      MediaScannerClient client = mClient.get();
+      if (client != null)
+        client.addNoMediaFolder(path);
+    }
+
+    @Override
+    public void handleStringTag(String name, byte[] value, String valueEncoding) {
+      MediaScannerClient client = mClient.get();
+      if (client != null)
+        client.handleStringTag(name, value, valueEncoding);
+    }
+
+    @Override
+    public void setMimeType(String mimeType) {
+      MediaScannerClient client = mClient.get();
+      if (client != null)
+        client.setMimeType(mimeType);
     }
   }
 
@@ -230,6 +593,221 @@ public class MediaScanner {
     }
   }
 
+  /**
+   * Timings and counters of {@link MediaScanner#scan(String[], boolean)}.
+   */
+  public static class ScanResult {
+    private final boolean mIncremental;
+    private long mPrescanTime;
+    private long mScanTime;
+    private long mPostscanTime;
+    private int mDirectoriesScanned;
+    private int mDirectoriesSkipped;
+    private int mFilesProcessed;
+    private int mFilesDeleted;
+    private int mRowsWritten;
+    private int mProviderCalls;
+
+    ScanResult(boolean incremental) {
+      mIncremental = incremental;
+    }
+
+    public boolean isIncremental() {
+      return mIncremental;
+    }
+
+    /**
+     * @return milliseconds spent loading the existing rows
+     */
+    public long getPrescanTime() {
+      return mPrescanTime;
+    }
+
+    /**
+     * @return milliseconds spent walking the directories and scanning files
+     */
+    public long getScanTime() {
+      return mScanTime;
+    }
+
+    /**
+     * @return milliseconds spent removing the rows of missing files
+     */
+    public long getPostscanTime() {
+      return mPostscanTime;
+    }
+
+    public long getTotalTime() {
+      return mPrescanTime + mScanTime + mPostscanTime;
+    }
+
+    /**
+     * @return directories listed, always 0 for a full scan
+     */
+    public int getDirectoriesScanned() {
+      return mDirectoriesScanned;
+    }
+
+    /**
+     * @return unchanged directories which were not listed
+     */
+    public int getDirectoriesSkipped() {
+      return mDirectoriesSkipped;
+    }
+
+    /**
+     * @return new or modified files handed to the native scanner
+     */
+    public int getFilesProcessed() {
+      return mFilesProcessed;
+    }
+
+    /**
+     * @return rows deleted because their file is gone
+     */
+    public int getFilesDeleted() {
+      return mFilesDeleted;
+    }
+
+    /**
+     * @return rows inserted, updated or deleted
+     */
+    public int getRowsWritten() {
+      return mRowsWritten;
+    }
+
+    /**
+     * @return insert, update, delete and applyBatch calls made to the provider
+     */
+    public int getProviderCalls() {
+      return mProviderCalls;
+    }
+
+    @Override
+    public String toString() {
+      return "ScanResult{incremental=" + mIncremental + ", prescan=" + mPrescanTime + "ms, scan=" + mScanTime + "ms, postscan=" + mPostscanTime + "ms, scanned=" + mDirectoriesScanned + ", skipped=" + mDirectoriesSkipped + ", processed=" + mFilesProcessed + ", deleted=" + mFilesDeleted + ", rows=" + mRowsWritten + ", calls=" + mProviderCalls + "}";
+    }
+  }
+
+  private static class ScannedFile {
+    final String mPath;
+    final long mLastModified;
+    final long mSize;
+
+    ScannedFile(String path, long lastModified, long size) {
+      mPath = path;
+      mLastModified = lastModified;
+      mSize = size;
+    }
+  }
+
+  private static class ScannedDirectory {
+    static final ScannedDirectory END = new ScannedDirectory(null, false, false, null, null);
+    final String mPath;
+    final boolean mChanged;
+    final boolean mNoMedia;
+    final List<ScannedFile> mFiles;
+    final ScanIndex.Entry mEntry;
+
+    ScannedDirectory(String path, boolean changed, boolean noMedia, List<ScannedFile> files, ScanIndex.Entry entry) {
+      mPath = path;
+      mChanged = changed;
+      mNoMedia = noMedia;
+      mFiles = files;
+      mEntry = entry;
+    }
+  }
+
+  /**
+   * Visits one directory: an unchanged one only forks its known sub
+   * directories, a changed one is listed and its media files are collected.
+   */
+  private static class DirectoryTask implements Runnable {
+    private final ExecutorService mExecutor;
+    private final ScanIndex mIndex;
+    private final String mPath;
+    private final AtomicInteger mPending;
+    private final BlockingQueue<ScannedDirectory> mDone;
+
+    DirectoryTask(ExecutorService executor, ScanIndex index, String path, AtomicInteger pending, BlockingQueue<ScannedDirectory> done) {
+      mExecutor = executor;
+      mIndex = index;
+      mPath = path;
+      mPending = pending;
+      mDone = done;
+    }
+
+    @Override
+    public void run() {
+      try {
+        visit();
+      } catch (RuntimeException e) {
+        Log.e("Unable to scan " + mPath, e);
+      } finally {
+        if (mPending.decrementAndGet() == 0)
+          mDone.add(ScannedDirectory.END);
+      }
+    }
+
+    private void visit() {
+      File dir = new File(mPath);
+      long lastModified = dir.lastModified();
+      String[] names = dir.list();
+      if (names == null)
+        return;
+
+      ScanIndex.Entry entry = mIndex.get(mPath);
+      if (entry != null && entry.mLastModified == lastModified && entry.mChildCount == names.length) {
+        for (String subdir : entry.mSubdirs)
+          fork(mPath + subdir + "/");
+        mDone.add(new ScannedDirectory(mPath, false, false, null, entry));
+        return;
+      }
+
+      if (hasNoMedia(names)) {
+        mDone.add(new ScannedDirectory(mPath, true, true, null, new ScanIndex.Entry(lastModified, names.length, new String[0])));
+        return;
+      }
+
+      ArrayList<String> subdirs = new ArrayList<String>();
+      ArrayList<ScannedFile> files = new ArrayList<ScannedFile>();
+      for (String name : names) {
+        File f = new File(dir, name);
+        if (f.isDirectory()) {
+          if (isLink(f))
+            continue;
+          subdirs.add(name);
+          fork(mPath + name + "/");
+        } else if (MediaFile.getFileType(name) != null) {
+          files.add(new ScannedFile(f.getPath(), f.lastModified() / 1000, f.length()));
+        }
+      }
+      mDone.add(new ScannedDirectory(mPath, true, false, files, new ScanIndex.Entry(lastModified, names.length, subdirs.toArray(new String[subdirs.size()]))));
+    }
+
+    private void fork(String path) {
+      mPending.incrementAndGet();
+      mExecutor.execute(new DirectoryTask(mExecutor, mIndex, path, mPending, mDone));
+    }
+
+    /**
+     * The root is canonical and links are never followed, so a directory
+     * whose canonical path differs from its own is a link, maybe to one of
+     * its ancestors.
+     */
+    private static boolean isLink(File dir) {
+      return !dir.getPath().equals(FileUtils.getCanonical(dir));
+    }
+
+    private static boolean hasNoMedia(String[] names) {
+      for (String name : names) {
+        if (NO_MEDIA.equalsIgnoreCase(name))
+          return true;
+      }
+      return false;
+    }
+  }
+
   private class MyMediaScannerClient implements MediaScannerClient {
     private String mMimeType;
     private int mFileType;
@@ -243,6 +821,7 @@ public class MediaScanner {
     private long mDuration;
     private int mWidth;
     private int mHeight;
+    private int mFilesProcessed;
 
     public FileCacheEntry beginFile(String path, long lastModified, long fileSize) {
       int lastSlash = path.lastIndexOf('/');
@@ -302,8 +881,9 @@ public class MediaScanner {
       try {
         FileCacheEntry entry = beginFile(path, lastModified, fileSize);
         if (entry != null && (entry.mLastModifiedChanged || scanAlways)) {
-          if (processFile(path, null)) {
-            result = endFile(entry);
+          mFilesProcessed++;
+          if (scanTags(path)) {
+            result = endFile(entry, scanAlways);
           } else {
             if (mCaseInsensitivePaths)
               mFileCache.remove(path.toLowerCase());
@@ -394,7 +974,11 @@ public class MediaScanner {
       return map;
     }
 
-    private Uri endFile(FileCacheEntry entry) throws RemoteException {
+    /**
+     * @param immediate write the row now and return its Uri, otherwise the
+     *                  write is batched and null is returned for a new row
+     */
+    private Uri endFile(FileCacheEntry entry, boolean immediate) throws RemoteException {
       Uri tableUri;
       boolean isVideo = MediaFile.isVideoFileType(mFileType) && mWidth > 0 && mHeight > 0;
       if (isVideo) {
@@ -424,14 +1008,26 @@ public class MediaScanner {
 
       Uri result = null;
       if (rowId == 0) {
-        result = mProvider.insert(tableUri, values);
-        if (result != null) {
-          rowId = ContentUris.parseId(result);
-          entry.mRowId = rowId;
+        if (immediate) {
+          result = mProvider.insert(tableUri, values);
+          mProviderCalls++;
+          if (result != null) {
+            rowId = ContentUris.parseId(result);
+            entry.mRowId = rowId;
+            mRowsWritten++;
+          }
+        } else {
+          applyOperation(ContentProviderOperation.newInsert(tableUri).withValues(values).build(), entry);
         }
       } else {
         result = ContentUris.withAppendedId(tableUri, rowId);
-        mProvider.update(result, values, null, null);
+        if (immediate) {
+          mProvider.update(result, values, null, null);
+          mProviderCalls++;
+          mRowsWritten++;
+        } else {
+          applyOperation(ContentProviderOperation.newUpdate(result).withValues(values).build(), null);
+        }
       }
 
       return result;
@@ -442,7 +1038,9 @@ public class MediaScanner {
       values.put(MediaStore.MediaColumns.DATA, "");
       String[] pathSpec = new String[]{path + '%'};
       try {
+        flushOperations();
         mProvider.update(Video.Media.CONTENT_URI, values, MediaStore.MediaColumns.DATA + " LIKE ?", pathSpec);
+        mProviderCalls++;
       } catch (RemoteException e) {
         throw new RuntimeException();
       }
@@ -17,10 +17,8 @@
 
 package io.vov.vitamio;
 
-import android.util.SparseArray;
-
-import java.io.UnsupportedEncodingException;
-import java.util.Locale;
+import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.Map;
 
 /**
@@ -63,117 +61,115 @@ public class Metadata {
   public static final int SEEK_AVAILABLE = 32; // Boolean
   private static final int LAST_SYSTEM = 32;
   private static final int FIRST_CUSTOM = 8192;
-  private SparseArray<byte[]> mMeta = new SparseArray<byte[]>();
+  private static final String[] KEY_NAMES = {"title", "comment", "copyright", "album", "artist", "author", "composer", "genre", "creation_time", "date", "duration", "length", "bit_rate", "audio_bit_rate", "video_bit_rate", "audio_sample_rate", "video_frame_rate", "format", "audio_codec", "video_codec", "video_height", "video_width", "num_tracks", "cap_pause", "cap_seek"};
+  private static final int[] KEY_IDS = {TITLE, COMMENT, COPYRIGHT, ALBUM, ARTIST, AUTHOR, COMPOSER, GENRE, DATE, DATE, DURATION, LENGTH, BIT_RATE, AUDIO_BIT_RATE, VIDEO_BIT_RATE, AUDIO_SAMPLE_RATE, VIDEO_FRAME_RATE, MIME_TYPE, AUDIO_CODEC, VIDEO_CODEC, VIDEO_HEIGHT, VIDEO_WIDTH, NUM_TRACKS, PAUSE_AVAILABLE, SEEK_AVAILABLE};
+  private static final int KEY_TABLE_MASK = 63;
+  private static final byte[][] sKeyTable = new byte[KEY_TABLE_MASK + 1][];
+  private static final int[] sKeyTableIds = new int[KEY_TABLE_MASK + 1];
+  private final byte[][] mValues = new byte[LAST_SYSTEM + 1][];
+  private final String[] mStrings = new String[LAST_SYSTEM + 1];
   private String mEncoding = "UTF-8";
+  private Charset mCharset = Charset.forName(mEncoding);
+
+  static {
+    for (int i = 0; i < KEY_NAMES.length; i++) {
+      byte[] key = new byte[KEY_NAMES[i].length()];
+      for (int j = 0; j < key.length; j++)
+        key[j] = (byte) KEY_NAMES[i].charAt(j);
+      int slot = hash(key, 0, key.length) & KEY_TABLE_MASK;
+      while (sKeyTable[slot] != null)
+        slot = (slot + 1) & KEY_TABLE_MASK;
+      sKeyTable[slot] = key;
+      sKeyTableIds[slot] = KEY_IDS[i];
+    }
+  }
 
+  /**
+   * Keep the values of the known keys, the keys are matched on their raw
+   * bytes, trimmed and case insensitive, and the values are only decoded when
+   * read.
+   */
   public boolean parse(Map<byte[], byte[]> meta, String encoding) {
-    String key = null;
-    byte[] value = null;
+    Arrays.fill(mValues, null);
+    setEncoding(encoding);
+    for (Map.Entry<byte[], byte[]> entry : meta.entrySet()) {
+      int id = lookup(entry.getKey());
+      if (id != ANY)
+        mValues[id] = entry.getValue();
+    }
+    return true;
+  }
+
+  void setEncoding(String encoding) {
+    Arrays.fill(mStrings, null);
     mEncoding = encoding;
-    for (byte[] keyBytes : meta.keySet()) {
-      try {
-        key = new String(keyBytes, mEncoding).trim().toLowerCase(Locale.US);
-      } catch (UnsupportedEncodingException e) {
-        key = new String(keyBytes).trim().toLowerCase(Locale.US);
-      }
-      value = meta.get(keyBytes);
-      if (key.equals("title")) {
-        mMeta.put(TITLE, value);
-      } else if (key.equals("comment")) {
-        mMeta.put(COMMENT, value);
-      } else if (key.equals("copyright")) {
-        mMeta.put(COPYRIGHT, value);
-      } else if (key.equals("album")) {
-        mMeta.put(ALBUM, value);
-      } else if (key.equals("artist")) {
-        mMeta.put(ARTIST, value);
-      } else if (key.equals("author")) {
-        mMeta.put(AUTHOR, value);
-      } else if (key.equals("composer")) {
-        mMeta.put(COMPOSER, value);
-      } else if (key.equals("genre")) {
-        mMeta.put(GENRE, value);
-      } else if (key.equals("creation_time") || key.equals("date")) {
-        mMeta.put(DATE, value);
-      } else if (key.equals("duration")) {
-        mMeta.put(DURATION, value);
-      } else if (key.equals("length")) {
-        mMeta.put(LENGTH, value);
-      } else if (key.equals("bit_rate")) {
-        mMeta.put(BIT_RATE, value);
-      } else if (key.equals("audio_bit_rate")) {
-        mMeta.put(AUDIO_BIT_RATE, value);
-      } else if (key.equals("video_bit_rate")) {
-        mMeta.put(VIDEO_BIT_RATE, value);
-      } else if (key.equals("audio_sample_rate")) {
-        mMeta.put(AUDIO_SAMPLE_RATE, value);
-      } else if (key.equals("video_frame_rate")) {
-        mMeta.put(VIDEO_FRAME_RATE, value);
-      } else if (key.equals("format")) {
-        mMeta.put(MIME_TYPE, value);
-      } else if (key.equals("audio_codec")) {
-        mMeta.put(AUDIO_CODEC, value);
-      } else if (key.equals("video_codec")) {
-        mMeta.put(VIDEO_CODEC, value);
-      } else if (key.equals("video_height")) {
-        mMeta.put(VIDEO_HEIGHT, value);
-      } else if (key.equals("video_width")) {
-        mMeta.put(VIDEO_WIDTH, value);
-      } else if (key.equals("num_tracks")) {
-        mMeta.put(NUM_TRACKS, value);
-      } else if (key.equals("cap_pause")) {
-        mMeta.put(PAUSE_AVAILABLE, value);
-      } else if (key.equals("cap_seek")) {
-        mMeta.put(SEEK_AVAILABLE, value);
-      }
+    try {
+      mCharset = Charset.forName(encoding);
+    } catch (RuntimeException e) {
+      mCharset = Charset.defaultCharset();
     }
+  }
+
+  String getEncoding() {
+    return mEncoding;
+  }
+
+  /**
+   * @return the metadata id of a raw key, {@link #ANY} if it's unknown
+   */
+  static int lookup(byte[] key) {
+    int start = 0;
+    int end = key.length;
+    while (start < end && (key[start] & 0xff) <= ' ')
+      start++;
+    while (end > start && (key[end - 1] & 0xff) <= ' ')
+      end--;
 
-    if (BuildConfig.DEBUG) {
-      android.util.Log.i("Vitamio[Metadata]", "title:\t\t" + getString(TITLE));
-      android.util.Log.i("Vitamio[Metadata]", "comment:\t\t" + getString(COMMENT));
-      android.util.Log.i("Vitamio[Metadata]", "copyright:\t\t" + getString(COPYRIGHT));
-      android.util.Log.i("Vitamio[Metadata]", "album:\t\t" + getString(ALBUM));
-      android.util.Log.i("Vitamio[Metadata]", "artist:\t\t" + getString(ARTIST));
-      android.util.Log.i("Vitamio[Metadata]", "composer:\t\t" + getString(COMPOSER));
-      android.util.Log.i("Vitamio[Metadata]", "genre:\t\t" + getString(GENRE));
-      android.util.Log.i("Vitamio[Metadata]", "date:\t\t" + getString(DATE));
-      android.util.Log.i("Vitamio[Metadata]", "duration:\t\t" + getLong(DURATION));
-      android.util.Log.i("Vitamio[Metadata]", "length:\t\t" + getLong(LENGTH));
-      android.util.Log.i("Vitamio[Metadata]", "bit_rate:\t\t" + getInt(BIT_RATE));
-      android.util.Log.i("Vitamio[Metadata]", "audio_bit_rate:\t" + getInt(AUDIO_BIT_RATE));
-      android.util.Log.i("Vitamio[Metadata]", "video_bit_rate:\t" + getInt(VIDEO_BIT_RATE));
-      android.util.Log.i("Vitamio[Metadata]", "audio_sample_rate:\t" + getInt(AUDIO_SAMPLE_RATE));
-      android.util.Log.i("Vitamio[Metadata]", "video_frame_rate:\t" + getDouble(VIDEO_FRAME_RATE));
-      android.util.Log.i("Vitamio[Metadata]", "format:\t\t" + getString(MIME_TYPE));
-      android.util.Log.i("Vitamio[Metadata]", "audio_codec:\t" + getString(AUDIO_CODEC));
-      android.util.Log.i("Vitamio[Metadata]", "video_codec:\t" + getString(VIDEO_CODEC));
-      android.util.Log.i("Vitamio[Metadata]", "video_height:\t" + getInt(VIDEO_HEIGHT));
-      android.util.Log.i("Vitamio[Metadata]", "video_width:\t" + getInt(VIDEO_WIDTH));
-      android.util.Log.i("Vitamio[Metadata]", "num_tracks:\t\t" + getInt(NUM_TRACKS));
-      android.util.Log.i("Vitamio[Metadata]", "cap_pause:\t\t" + getBoolean(PAUSE_AVAILABLE));
-      android.util.Log.i("Vitamio[Metadata]", "cap_seek:\t\t" + getBoolean(SEEK_AVAILABLE));
+    for (int slot = hash(key, start, end) & KEY_TABLE_MASK; sKeyTable[slot] != null; slot = (slot + 1) & KEY_TABLE_MASK) {
+      if (matches(sKeyTable[slot], key, start, end))
+        return sKeyTableIds[slot];
     }
+    return ANY;
+  }
+
+  private static int hash(byte[] key, int start, int end) {
+    int h = 0;
+    for (int i = start; i < end; i++)
+      h = 31 * h + toLower(key[i]);
+    return h ^ (h >>> 7);
+  }
 
+  private static boolean matches(byte[] name, byte[] key, int start, int end) {
+    if (name.length != end - start)
+      return false;
+    for (int i = 0; i < name.length; i++) {
+      if (name[i] != toLower(key[start + i]))
+        return false;
+    }
     return true;
   }
 
+  private static int toLower(byte b) {
+    return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b;
+  }
+
   public boolean has(final int metadataId) {
     if (!checkMetadataId(metadataId)) {
       throw new IllegalArgumentException("Invalid key: " + metadataId);
     }
-    return mMeta.indexOfKey(metadataId) >= 0;
+    return metadataId <= LAST_SYSTEM && mValues[metadataId] != null;
   }
 
   public String getString(final int key) {
-    byte[] value = mMeta.get(key);
-    if (value == null) {
+    if (key <= ANY || key > LAST_SYSTEM) {
       return null;
     }
-    try {
-      return new String(value, mEncoding);
-    } catch (UnsupportedEncodingException e) {
-      return new String(value);
+    String s = mStrings[key];
+    if (s == null && mValues[key] != null) {
+      s = new String(mValues[key], mCharset);
+      mStrings[key] = s;
     }
+    return s;
   }
 
   public int getInt(final int key) {
@@ -209,7 +205,26 @@ public class Metadata {
   }
 
   public byte[] getByteArray(final int key) {
-    return mMeta.get(key);
+    if (key <= ANY || key > LAST_SYSTEM) {
+      return null;
+    }
+    return mValues[key];
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("Metadata{");
+    for (int i = 0; i < KEY_NAMES.length; i++) {
+      // creation_time and date share DATE
+      if (i > 0 && KEY_IDS[i] == KEY_IDS[i - 1])
+        continue;
+      String value = getString(KEY_IDS[i]);
+      if (value != null)
+        sb.append(KEY_NAMES[i]).append('=').append(value).append(", ");
+    }
+    if (sb.length() > "Metadata{".length())
+      sb.setLength(sb.length() - 2);
+    return sb.append('}').toString();
   }
 
   private boolean checkMetadataId(final int val) {
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio;
+
+import android.content.Context;
+
+import io.vov.vitamio.engine.PlayerEngine;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * The JNI {@link PlayerEngine}, a {@link MediaPlayer} whose native events are
+ * forwarded raw, on the native threads, besides its own listeners.
+ */
+public class NativePlayerEngine implements PlayerEngine {
+  private final MediaPlayer mPlayer;
+
+  public NativePlayerEngine(Context ctx) {
+    this(new MediaPlayer(ctx));
+  }
+
+  public NativePlayerEngine(MediaPlayer player) {
+    mPlayer = player;
+  }
+
+  public MediaPlayer getMediaPlayer() {
+    return mPlayer;
+  }
+
+  @Override
+  public void setListener(Listener listener) {
+    mPlayer.setEngineListener(listener);
+  }
+
+  @Override
+  public void setDataSource(String path) throws IOException {
+    mPlayer.setDataSource(path);
+  }
+
+  @Override
+  public void prepare() throws IOException {
+    mPlayer.prepare();
+  }
+
+  @Override
+  public void prepareAsync() {
+    mPlayer.prepareAsync();
+  }
+
+  @Override
+  public void start() {
+    mPlayer.start();
+  }
+
+  @Override
+  public void pause() {
+    mPlayer.pause();
+  }
+
+  @Override
+  public void stop() {
+    mPlayer.stop();
+  }
+
+  @Override
+  public void seekTo(long msec) {
+    mPlayer.seekTo(msec);
+  }
+
+  @Override
+  public long getCurrentPosition() {
+    return mPlayer.getCurrentPosition();
+  }
+
+  @Override
+  public long getDuration() {
+    return mPlayer.getDuration();
+  }
+
+  @Override
+  public boolean isPlaying() {
+    return mPlayer.isPlaying();
+  }
+
+  @Override
+  public boolean getMetadata(Map<byte[], byte[]> meta) {
+    return mPlayer.native_getMetadata(meta);
+  }
+
+  @Override
+  public void reset() {
+    mPlayer.reset();
+  }
+
+  @Override
+  public void release() {
+    mPlayer.setEngineListener(null);
+    mPlayer.release();
+  }
+}
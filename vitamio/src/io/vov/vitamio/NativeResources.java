@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio;
+
+import io.vov.vitamio.utils.Log;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of the objects owning a native context, {@link MediaPlayer},
+ * {@link MediaScanner} and {@link MediaMetadataRetriever}, counts them and
+ * frees the contexts of the ones collected without a release().
+ * <p/>
+ * An owner is watched through a phantom reference. When it's collected
+ * without a release(), the leak is logged, and turning on
+ * {@link #setTrackAllocations(boolean)} logs where it was created.
+ * <p/>
+ * How the context is freed depends on what the JNI allows:
+ * <ul>
+ * <li>{@link MediaMetadataRetriever} keeps its context in a Java field, so a
+ * stand-in with no native init frees it on the "Vitamio-Reclaimer" thread,
+ * see {@link #track(Object, Class, Reclaimer)}. The retriever isn't
+ * finalizable and is collected in a single GC.</li>
+ * <li>The JNI of {@link MediaPlayer} and {@link MediaScanner} keeps their
+ * context out of Java and only reaches it through the instance, so it can
+ * only be freed by calling the owner itself, which must still be reachable.
+ * Each of them allocates a small finalizable guardian referencing it, see
+ * {@link #guard(Object, Class, OwnerReclaimer)}. A released player clears
+ * its guardian and is still collected in a single GC, the guardian is
+ * finalized on its own.</li>
+ * <li>The release() of {@link MediaScanner} is native, it can't be seen
+ * from Java, so its guardian holds it until the guardian is finalized and a
+ * scanner takes two GCs to be collected, see
+ * {@link #attach(Object, Class, OwnerReclaimer)}.</li>
+ * </ul>
+ */
+public final class NativeResources {
+  private static final ReferenceQueue<Object> sQueue = new ReferenceQueue<Object>();
+  private static final Set<Entry> sEntries = Collections.newSetFromMap(new ConcurrentHashMap<Entry, Boolean>());
+  private static final ConcurrentHashMap<Class<?>, Counters> sCounters = new ConcurrentHashMap<Class<?>, Counters>();
+  private static volatile boolean sTrackAllocations;
+
+  static {
+    Thread reaper = new Thread("Vitamio-Reclaimer") {
+      @Override
+      public void run() {
+        while (true) {
+          try {
+            ((Entry) sQueue.remove()).collected();
+          } catch (InterruptedException e) {
+          }
+        }
+      }
+    };
+    reaper.setDaemon(true);
+    reaper.start();
+  }
+
+  private NativeResources() {
+  }
+
+  /**
+   * Frees a native context once its owner is gone, it must not reference the
+   * owner.
+   */
+  interface Reclaimer {
+    void reclaim();
+  }
+
+  /**
+   * Frees the native context of owner, for the natives which can only reach
+   * the context through their instance.
+   */
+  interface OwnerReclaimer<T> {
+    void reclaim(T owner);
+  }
+
+  /**
+   * Watch owner, counted as a type, reclaimer is run if it's collected
+   * without {@link Handle#release()}.
+   */
+  static Handle track(Object owner, Class<?> type, Reclaimer reclaimer) {
+    return new Handle(new Entry(owner, type, reclaimer, true), null);
+  }
+
+  /**
+   * Watch owner, whose native context can only be freed through the owner
+   * itself. The owner keeps a small finalizable guardian which references it
+   * until {@link Handle#release()}, so a released owner is still collected in
+   * a single GC.
+   */
+  static <T> Handle guard(T owner, Class<?> type, OwnerReclaimer<T> reclaimer) {
+    return new Handle(new Entry(owner, type, null, true), new Guardian<T>(owner, reclaimer));
+  }
+
+  /**
+   * Watch owner, whose release can't be seen from Java. Its guardian always
+   * frees the native context once owner is unreachable, the context must be
+   * safe to free after a release. Owner is only counted, it's never reported
+   * as leaked. The guardian references owner until it's finalized, owner is
+   * collected one GC later.
+   *
+   * @return the handle, keep it in owner
+   */
+  static <T> Handle attach(T owner, Class<?> type, OwnerReclaimer<T> reclaimer) {
+    return new Handle(new Entry(owner, type, null, false), new Guardian<T>(owner, reclaimer));
+  }
+
+  /**
+   * Log the stack of the creation of every leaked object. It's captured for
+   * every object created afterwards, it's expensive.
+   */
+  public static void setTrackAllocations(boolean track) {
+    sTrackAllocations = track;
+  }
+
+  /**
+   * @return the number of objects of type created and neither released nor
+   *         collected yet
+   */
+  public static long getLiveCount(Class<?> type) {
+    Counters counters = sCounters.get(type);
+    return counters == null ? 0 : counters.live.get();
+  }
+
+  /**
+   * @return the number of objects of type created so far
+   */
+  public static long getCreatedCount(Class<?> type) {
+    Counters counters = sCounters.get(type);
+    return counters == null ? 0 : counters.created.get();
+  }
+
+  /**
+   * @return the number of objects of type collected without a release()
+   */
+  public static long getLeakedCount(Class<?> type) {
+    Counters counters = sCounters.get(type);
+    return counters == null ? 0 : counters.leaked.get();
+  }
+
+  public static String dump() {
+    StringBuilder sb = new StringBuilder("NativeResources{");
+    for (Map.Entry<Class<?>, Counters> entry : sCounters.entrySet()) {
+      Counters counters = entry.getValue();
+      if (sb.length() > 16)
+        sb.append(", ");
+      sb.append(entry.getKey().getSimpleName()).append(": ").append(counters.live.get()).append(" live, ");
+      sb.append(counters.created.get()).append(" created, ").append(counters.leaked.get()).append(" leaked");
+    }
+    return sb.append('}').toString();
+  }
+
+  private static Counters counters(Class<?> type) {
+    Counters counters = sCounters.get(type);
+    if (counters == null) {
+      Counters added = sCounters.putIfAbsent(type, counters = new Counters());
+      if (added != null)
+        counters = added;
+    }
+    return counters;
+  }
+
+  /**
+   * The owner's side of the tracking, release() it with the native context.
+   */
+  static final class Handle {
+    private final Entry mEntry;
+    private final Guardian<?> mGuardian;
+
+    Handle(Entry entry, Guardian<?> guardian) {
+      mEntry = entry;
+      mGuardian = guardian;
+    }
+
+    /**
+     * The native context was freed by its owner, nothing to reclaim.
+     */
+    void release() {
+      if (mGuardian != null)
+        mGuardian.mOwner = null;
+      mEntry.release();
+    }
+  }
+
+  private static final class Counters {
+    final AtomicLong live = new AtomicLong();
+    final AtomicLong created = new AtomicLong();
+    final AtomicLong leaked = new AtomicLong();
+  }
+
+  private static final class Entry extends PhantomReference<Object> {
+    private final Class<?> mType;
+    private final Counters mCounters;
+    private final Reclaimer mReclaimer;
+    private final Throwable mAllocation;
+    private final boolean mChecked;
+    private final AtomicBoolean mDone = new AtomicBoolean();
+
+    Entry(Object owner, Class<?> type, Reclaimer reclaimer, boolean checked) {
+      super(owner, sQueue);
+      mType = type;
+      mCounters = counters(mType);
+      mReclaimer = reclaimer;
+      mChecked = checked;
+      mAllocation = checked && sTrackAllocations ? new Throwable(mType.getSimpleName() + " created here") : null;
+      mCounters.created.incrementAndGet();
+      mCounters.live.incrementAndGet();
+      sEntries.add(this);
+    }
+
+    void release() {
+      if (mDone.compareAndSet(false, true))
+        mCounters.live.decrementAndGet();
+    }
+
+    void collected() {
+      sEntries.remove(this);
+      if (!mDone.compareAndSet(false, true))
+        return;
+      mCounters.live.decrementAndGet();
+      if (!mChecked)
+        return;
+      mCounters.leaked.incrementAndGet();
+      if (mAllocation != null)
+        Log.e("A " + mType.getSimpleName() + " was never released, call release() when done with it", mAllocation);
+      else
+        Log.e("A %s was never released, call release() when done with it", mType.getSimpleName());
+      if (mReclaimer != null) {
+        try {
+          mReclaimer.reclaim();
+        } catch (Throwable t) {
+          Log.e("Unable to reclaim a " + mType.getSimpleName(), t);
+        }
+      }
+    }
+  }
+
+  /**
+   * Reachable from its owner only. Collected with the owner, it's finalized
+   * first and frees the context of an owner which wasn't released.
+   */
+  private static final class Guardian<T> {
+    volatile T mOwner;
+    private final OwnerReclaimer<T> mReclaimer;
+
+    Guardian(T owner, OwnerReclaimer<T> reclaimer) {
+      mOwner = owner;
+      mReclaimer = reclaimer;
+    }
+
+    @Override
+    protected void finalize() throws Throwable {
+      try {
+        T owner = mOwner;
+        if (owner != null) {
+          mOwner = null;
+          mReclaimer.reclaim(owner);
+        }
+      } finally {
+        super.finalize();
+      }
+    }
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio;
+
+import io.vov.vitamio.engine.ScannerEngine;
+
+/**
+ * The JNI {@link ScannerEngine}, the native part of {@link MediaScanner}. The
+ * native scanner is bound to its client, it's created by
+ * {@link #setClient(MediaScannerClient)}.
+ */
+public class NativeScannerEngine implements ScannerEngine {
+  private MediaScanner mScanner;
+  // the native scanner only references it weakly
+  private MediaScannerClient mClient;
+
+  @Override
+  public void setClient(MediaScannerClient client) {
+    release();
+    mClient = client;
+    mScanner = new MediaScanner(client);
+  }
+
+  @Override
+  public void processDirectory(String path, String extensions) {
+    scanner().processDirectory(path, extensions);
+  }
+
+  @Override
+  public boolean processFile(String path, String mimeType) {
+    return scanner().processFile(path, mimeType);
+  }
+
+  @Override
+  public void release() {
+    if (mScanner != null) {
+      mScanner.releaseNative();
+      mScanner = null;
+      mClient = null;
+    }
+  }
+
+  private MediaScanner scanner() {
+    if (mScanner == null)
+      throw new IllegalStateException("No client set");
+    return mScanner;
+  }
+}
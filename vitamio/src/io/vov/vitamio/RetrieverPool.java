@@ -0,0 +1,382 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import io.vov.vitamio.utils.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed number of {@link MediaMetadataRetriever}s reused for one file after
+ * another, instead of setting up and tearing down a native retriever per file.
+ * <p/>
+ * <pre>
+ * RetrieverPool pool = new RetrieverPool(this, 4);
+ * RetrieverPool.Table table = pool.extractAll(paths, new String[]{
+ *     MediaMetadataRetriever.METADATA_KEY_DURATION, MediaMetadataRetriever.METADATA_KEY_TITLE}, null);
+ * pool.close();
+ * </pre>
+ */
+public class RetrieverPool {
+  private final Context mContext;
+  private final int mSize;
+  private final LinkedList<MediaMetadataRetriever> mIdle = new LinkedList<MediaMetadataRetriever>();
+  private int mCount;
+  private boolean mClosed;
+  private long mCreatedCount;
+  private long mReusedCount;
+
+  /**
+   * @param size maximum number of native retrievers alive at the same time
+   */
+  public RetrieverPool(Context ctx, int size) {
+    if (size < 1)
+      throw new IllegalArgumentException("size must be at least 1: " + size);
+    mContext = ctx.getApplicationContext();
+    mSize = size;
+  }
+
+  /**
+   * Take a retriever out of the pool, waiting for one if they're all in use.
+   * Give it back with {@link #release(MediaMetadataRetriever)}, or with
+   * {@link #discard(MediaMetadataRetriever)} after an IllegalStateException.
+   */
+  public MediaMetadataRetriever acquire() throws InterruptedException {
+    return acquire(false);
+  }
+
+  private MediaMetadataRetriever acquire(boolean fresh) throws InterruptedException {
+    synchronized (mIdle) {
+      while (true) {
+        if (mClosed)
+          throw new IllegalStateException("RetrieverPool is closed");
+        if (!fresh && !mIdle.isEmpty()) {
+          mReusedCount++;
+          return mIdle.removeFirst();
+        }
+        if (mCount < mSize) {
+          mCount++;
+          mCreatedCount++;
+          break;
+        }
+        if (fresh && !mIdle.isEmpty()) {
+          mIdle.removeLast().release();
+          mCount--;
+          continue;
+        }
+        mIdle.wait();
+      }
+    }
+
+    try {
+      return new MediaMetadataRetriever(mContext);
+    } catch (RuntimeException e) {
+      synchronized (mIdle) {
+        mCount--;
+        mIdle.notify();
+      }
+      throw e;
+    }
+  }
+
+  public void release(MediaMetadataRetriever retriever) {
+    synchronized (mIdle) {
+      if (!mClosed) {
+        mIdle.addFirst(retriever);
+        mIdle.notify();
+        return;
+      }
+      mCount--;
+    }
+    retriever.release();
+  }
+
+  /**
+   * Release a retriever which can't be used any more and make room for a new
+   * one.
+   */
+  public void discard(MediaMetadataRetriever retriever) {
+    synchronized (mIdle) {
+      mCount--;
+      mIdle.notify();
+    }
+    try {
+      retriever.release();
+    } catch (RuntimeException e) {
+    }
+  }
+
+  /**
+   * Release the retrievers which are not in use, they will be created again
+   * when needed.
+   */
+  public void trim() {
+    ArrayList<MediaMetadataRetriever> idle;
+    synchronized (mIdle) {
+      idle = new ArrayList<MediaMetadataRetriever>(mIdle);
+      mIdle.clear();
+      mCount -= idle.size();
+      mIdle.notifyAll();
+    }
+    for (MediaMetadataRetriever r : idle)
+      r.release();
+  }
+
+  /**
+   * Release all the retrievers, those in use are released when they come back.
+   */
+  public void close() {
+    synchronized (mIdle) {
+      mClosed = true;
+    }
+    trim();
+  }
+
+  public int getSize() {
+    return mSize;
+  }
+
+  public long getCreatedCount() {
+    synchronized (mIdle) {
+      return mCreatedCount;
+    }
+  }
+
+  public long getReusedCount() {
+    synchronized (mIdle) {
+      return mReusedCount;
+    }
+  }
+
+  Context getContext() {
+    return mContext;
+  }
+
+  /**
+   * @return a retriever set to path, maybe not the one passed in. If it
+   *         throws, the retriever has been discarded and must not be used.
+   */
+  MediaMetadataRetriever open(MediaMetadataRetriever retriever, String path) throws IOException, InterruptedException {
+    try {
+      retriever.setDataSource(path);
+      return retriever;
+    } catch (IllegalStateException e) {
+      // the retriever didn't take a new source after the previous one
+      discard(retriever);
+    } catch (IOException e) {
+      discard(retriever);
+      throw e;
+    } catch (RuntimeException e) {
+      discard(retriever);
+      throw e;
+    }
+
+    retriever = acquire(true);
+    try {
+      retriever.setDataSource(path);
+      return retriever;
+    } catch (IOException e) {
+      discard(retriever);
+      throw e;
+    } catch (RuntimeException e) {
+      discard(retriever);
+      throw e;
+    }
+  }
+
+  /**
+   * Grab a frame of a file with one of the retrievers.
+   *
+   * @return the frame, or null on failure
+   */
+  public Bitmap getFrameAtTime(String path, long timeUs) {
+    MediaMetadataRetriever retriever;
+    try {
+      retriever = open(acquire(), path);
+    } catch (IOException e) {
+      return null;
+    } catch (RuntimeException e) {
+      return null;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+
+    try {
+      Bitmap frame = retriever.getFrameAtTime(timeUs);
+      release(retriever);
+      return frame;
+    } catch (RuntimeException e) {
+      discard(retriever);
+      return null;
+    }
+  }
+
+  /**
+   * Extract the same metadata from many files, on as many threads as the pool
+   * has retrievers. The calling thread is one of them and returns once all
+   * the files are done.
+   *
+   * @param paths    the files
+   * @param keys     the METADATA_KEY_* constants of {@link MediaMetadataRetriever}
+   * @param listener called on the extracting threads as each file completes,
+   *                 may be null
+   * @return the values, or null if Vitamio isn't initialized
+   */
+  public Table extractAll(final List<String> paths, final String[] keys, final OnExtractListener listener) throws InterruptedException {
+    if (!Vitamio.isInitialized(mContext))
+      return null;
+
+    final Table table = new Table(paths.toArray(new String[paths.size()]), keys.clone());
+    final AtomicInteger next = new AtomicInteger();
+    Runnable worker = new Runnable() {
+      @Override
+      public void run() {
+        MediaMetadataRetriever retriever = null;
+        try {
+          int row;
+          while ((row = next.getAndIncrement()) < table.mPaths.length && !Thread.currentThread().isInterrupted()) {
+            if (retriever == null)
+              retriever = acquire();
+            retriever = extract(retriever, table, row);
+            if (listener != null)
+              listener.onExtracted(table, row);
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } finally {
+          if (retriever != null)
+            release(retriever);
+        }
+      }
+    };
+
+    Thread[] threads = new Thread[Math.max(0, Math.min(mSize, paths.size()) - 1)];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread(worker, "Vitamio-Retriever-" + i);
+      threads[i].start();
+    }
+    try {
+      worker.run();
+      for (Thread t : threads)
+        t.join();
+    } catch (InterruptedException e) {
+      for (Thread t : threads)
+        t.interrupt();
+      throw e;
+    }
+    if (Thread.interrupted())
+      throw new InterruptedException();
+    return table;
+  }
+
+  /**
+   * @return the retriever to go on with, null if it had to be discarded
+   */
+  private MediaMetadataRetriever extract(MediaMetadataRetriever retriever, Table table, int row) throws InterruptedException {
+    String path = table.mPaths[row];
+    try {
+      retriever = open(retriever, path);
+    } catch (IOException e) {
+      Log.e("extractAll %s", path);
+      return null;
+    } catch (RuntimeException e) {
+      Log.e("extractAll %s", path);
+      return null;
+    }
+
+    try {
+      int offset = row * table.mKeys.length;
+      for (int i = 0; i < table.mKeys.length; i++)
+        table.mValues[offset + i] = retriever.extractMetadata(table.mKeys[i]);
+      table.mExtracted[row] = true;
+      return retriever;
+    } catch (RuntimeException e) {
+      Log.e("extractAll %s", path);
+      discard(retriever);
+      return null;
+    }
+  }
+
+  public interface OnExtractListener {
+    /**
+     * Called on an extracting thread once a file is done, whether it succeeded
+     * or not.
+     */
+    public void onExtracted(Table table, int row);
+  }
+
+  /**
+   * The values extracted by {@link #extractAll}, one row per file and one
+   * column per key, in the order they were given.
+   */
+  public static final class Table {
+    private final String[] mPaths;
+    private final String[] mKeys;
+    private final String[] mValues;
+    private final boolean[] mExtracted;
+
+    private Table(String[] paths, String[] keys) {
+      mPaths = paths;
+      mKeys = keys;
+      mValues = new String[paths.length * keys.length];
+      mExtracted = new boolean[paths.length];
+    }
+
+    public int getRowCount() {
+      return mPaths.length;
+    }
+
+    public int getColumnCount() {
+      return mKeys.length;
+    }
+
+    public String getPath(int row) {
+      return mPaths[row];
+    }
+
+    public String getKey(int column) {
+      return mKeys[column];
+    }
+
+    /**
+     * @return false if the file couldn't be opened
+     */
+    public boolean isExtracted(int row) {
+      return mExtracted[row];
+    }
+
+    public String getValue(int row, int column) {
+      return mValues[row * mKeys.length + column];
+    }
+
+    public String getValue(int row, String key) {
+      for (int i = 0; i < mKeys.length; i++) {
+        if (mKeys[i].equals(key))
+          return getValue(row, i);
+      }
+      return null;
+    }
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent directory index of the incremental {@link MediaScanner}: the
+ * last modified time, the number of children and the sub directories of each
+ * directory seen by the previous scan. A directory whose time and child count
+ * are unchanged doesn't need to be listed again.
+ */
+final class ScanIndex {
+  private static final int VERSION = 2; // 1 could list links to directories
+  private final File mFile;
+  private final ConcurrentHashMap<String, Entry> mEntries = new ConcurrentHashMap<String, Entry>();
+
+  ScanIndex(File file) {
+    mFile = file;
+  }
+
+  /**
+   * Load the index saved by the previous scan, an unreadable index is simply
+   * treated as empty.
+   */
+  void load() {
+    mEntries.clear();
+    if (mFile == null || !mFile.exists())
+      return;
+
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+      if (in.readInt() != VERSION)
+        return;
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        String path = in.readUTF();
+        long lastModified = in.readLong();
+        int childCount = in.readInt();
+        String[] subdirs = new String[in.readInt()];
+        for (int j = 0; j < subdirs.length; j++)
+          subdirs[j] = in.readUTF();
+        mEntries.put(path, new Entry(lastModified, childCount, subdirs));
+      }
+    } catch (IOException e) {
+      mEntries.clear();
+    } finally {
+      closeQuietly(in);
+    }
+  }
+
+  void save() throws IOException {
+    File tmp = new File(mFile.getPath() + ".tmp");
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+    try {
+      out.writeInt(VERSION);
+      out.writeInt(mEntries.size());
+      for (Map.Entry<String, Entry> e : mEntries.entrySet()) {
+        Entry entry = e.getValue();
+        out.writeUTF(e.getKey());
+        out.writeLong(entry.mLastModified);
+        out.writeInt(entry.mChildCount);
+        out.writeInt(entry.mSubdirs.length);
+        for (String subdir : entry.mSubdirs)
+          out.writeUTF(subdir);
+      }
+    } finally {
+      out.close();
+    }
+    if (!tmp.renameTo(mFile))
+      throw new IOException("Unable to replace " + mFile);
+  }
+
+  Entry get(String directory) {
+    return mEntries.get(directory);
+  }
+
+  void put(String directory, Entry entry) {
+    mEntries.put(directory, entry);
+  }
+
+  /**
+   * Forget the directories below root which were not visited, they have been
+   * deleted since the last scan.
+   */
+  void retain(String root, Collection<String> visited) {
+    Iterator<String> it = mEntries.keySet().iterator();
+    while (it.hasNext()) {
+      String path = it.next();
+      if (path.startsWith(root) && !visited.contains(path))
+        it.remove();
+    }
+  }
+
+  int size() {
+    return mEntries.size();
+  }
+
+  private static void closeQuietly(DataInputStream in) {
+    if (in != null) {
+      try {
+        in.close();
+      } catch (IOException e) {
+      }
+    }
+  }
+
+  static final class Entry {
+    final long mLastModified;
+    final int mChildCount;
+    final String[] mSubdirs;
+
+    Entry(long lastModified, int childCount, String[] subdirs) {
+      mLastModified = lastModified;
+      mChildCount = childCount;
+      mSubdirs = subdirs;
+    }
+  }
+}
@@ -0,0 +1,374 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+import io.vov.vitamio.utils.IOUtils;
+import io.vov.vitamio.utils.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * The seek bar preview frames of a media file, packed into sprite sheets on
+ * disk by {@link SeekPreviewGenerator}. The frames are read back from the
+ * sheets without touching the decoder.
+ * <p/>
+ * A preview may be partial while it's generated, {@link #requestFrame(long,
+ * OnFrameListener)} then answers with the closest frame available.
+ * <p/>
+ * Only the cell of the frame is decoded, with a {@link BitmapRegionDecoder}
+ * on a background thread, into one of two bitmaps used in turn: the one shown
+ * and the one decoded into.
+ */
+public final class SeekPreview {
+  static final String INDEX = "index";
+  private static final int MAGIC = 0x56535052; // VSPR
+  private static final int VERSION = 1;
+  private final File mDir;
+  private final long mInterval;
+  private final int mFrameWidth;
+  private final int mFrameHeight;
+  private final int mColumns;
+  private final int mRows;
+  private final int mTotalFrames;
+  private final int mFrameCount;
+  private static Handler sDecodeHandler;
+  // on the decode thread
+  private BitmapRegionDecoder mDecoder;
+  private int mDecoderSheet = -1;
+  // guarded by this
+  private Handler mHandler;
+  private OnFrameListener mListener;
+  private int mPendingIndex = -1;
+  private boolean mDecoding;
+  private Bitmap mShown;
+  private int mShownIndex = -1;
+  private Bitmap mSpare;
+  private boolean mReleased;
+
+  public interface OnFrameListener {
+    /**
+     * Called on the thread of {@link SeekPreview#requestFrame(long,
+     * OnFrameListener)}. The bitmap is decoded into again once the next frame
+     * is delivered, so it must be replaced by then.
+     */
+    public void onFrame(SeekPreview preview, Bitmap frame);
+  }
+
+  SeekPreview(File dir, long interval, int frameWidth, int frameHeight, int columns, int rows, int totalFrames, int frameCount) {
+    mDir = dir;
+    mInterval = interval;
+    mFrameWidth = frameWidth;
+    mFrameHeight = frameHeight;
+    mColumns = columns;
+    mRows = rows;
+    mTotalFrames = totalFrames;
+    mFrameCount = frameCount;
+  }
+
+  /**
+   * @return the preview stored in dir, null if there is none or it's corrupt
+   */
+  static SeekPreview load(File dir) {
+    File index = new File(dir, INDEX);
+    if (!index.isFile())
+      return null;
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(index)));
+      if (in.readInt() != MAGIC || in.readInt() != VERSION)
+        return null;
+      long interval = in.readLong();
+      int frameWidth = in.readInt();
+      int frameHeight = in.readInt();
+      int columns = in.readInt();
+      int rows = in.readInt();
+      int totalFrames = in.readInt();
+      int frameCount = in.readInt();
+      if (interval <= 0 || frameWidth <= 0 || frameHeight <= 0 || columns <= 0 || rows <= 0 || frameCount < 0 || frameCount > totalFrames)
+        return null;
+      return new SeekPreview(dir, interval, frameWidth, frameHeight, columns, rows, totalFrames, frameCount);
+    } catch (IOException e) {
+      return null;
+    } finally {
+      IOUtils.closeSilently(in);
+    }
+  }
+
+  /**
+   * Write the index atomically, so an interrupted generation never leaves a
+   * corrupt one.
+   */
+  void save() throws IOException {
+    File tmp = new File(mDir, INDEX + ".tmp");
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(mInterval);
+      out.writeInt(mFrameWidth);
+      out.writeInt(mFrameHeight);
+      out.writeInt(mColumns);
+      out.writeInt(mRows);
+      out.writeInt(mTotalFrames);
+      out.writeInt(mFrameCount);
+    } finally {
+      out.close();
+    }
+    if (!tmp.renameTo(new File(mDir, INDEX)))
+      throw new IOException("Can't rename " + tmp);
+  }
+
+  static File sheetFile(File dir, int sheet) {
+    return new File(dir, "sheet" + sheet + ".jpg");
+  }
+
+  private static synchronized Handler decodeHandler() {
+    if (sDecodeHandler == null) {
+      HandlerThread thread = new HandlerThread("Vitamio-SeekPreview", Process.THREAD_PRIORITY_DISPLAY);
+      thread.start();
+      sDecodeHandler = new Handler(thread.getLooper());
+    }
+    return sDecodeHandler;
+  }
+
+  /**
+   * Decode the frame closest to time in the background. The requests made
+   * while a frame is decoded are coalesced, only the last one is decoded
+   * next. Nothing is delivered if the frame is the one delivered last or it
+   * isn't available yet.
+   *
+   * @param listener called on the thread of this call, which must have a
+   *                 {@link Looper}
+   */
+  public void requestFrame(long time, OnFrameListener listener) {
+    if (mFrameCount == 0)
+      return;
+    int index = (int) Math.min(mFrameCount - 1, Math.max(0, (time + mInterval / 2) / mInterval));
+    synchronized (this) {
+      if (mReleased)
+        return;
+      if (mHandler == null || mHandler.getLooper() != Looper.myLooper())
+        mHandler = new Handler();
+      mListener = listener;
+      mPendingIndex = index;
+      if (!mDecoding) {
+        mDecoding = true;
+        decodeHandler().post(mDecode);
+      }
+    }
+  }
+
+  /**
+   * Runs on the decode thread, one frame at a time: the next one is decoded
+   * once this one is delivered and the bitmap it replaces is free.
+   */
+  private final Runnable mDecode = new Runnable() {
+    @Override
+    public void run() {
+      int index;
+      Bitmap reuse;
+      final Handler handler;
+      synchronized (SeekPreview.this) {
+        index = mPendingIndex;
+        mPendingIndex = -1;
+        if (mReleased || index < 0 || index == mShownIndex) {
+          mDecoding = false;
+          return;
+        }
+        reuse = mSpare;
+        mSpare = null;
+        handler = mHandler;
+      }
+      final Bitmap frame = decodeFrame(index, reuse);
+      final int decoded = index;
+      if (frame == null) {
+        synchronized (SeekPreview.this) {
+          mSpare = reuse;
+          mDecoding = false;
+        }
+        return;
+      }
+      handler.post(new Runnable() {
+        @Override
+        public void run() {
+          deliver(frame, decoded);
+        }
+      });
+    }
+  };
+
+  private void deliver(Bitmap frame, int index) {
+    Bitmap previous;
+    OnFrameListener listener;
+    synchronized (this) {
+      if (mReleased)
+        return;
+      previous = mShown;
+      mShown = frame;
+      mShownIndex = index;
+      listener = mListener;
+    }
+    if (listener != null)
+      listener.onFrame(this, frame);
+    synchronized (this) {
+      // replaced by frame, it's free to decode into
+      if (previous != frame)
+        mSpare = previous;
+      if (mPendingIndex >= 0 && !mReleased)
+        decodeHandler().post(mDecode);
+      else
+        mDecoding = false;
+    }
+  }
+
+  /**
+   * @param reuse decoded into if possible, may be null
+   * @return the frame, null if its sheet can't be read. Runs on the decode
+   *         thread.
+   */
+  @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+  private Bitmap decodeFrame(int index, Bitmap reuse) {
+    int perSheet = getFramesPerSheet();
+    int sheet = index / perSheet;
+    if (sheet != mDecoderSheet || mDecoder == null) {
+      recycleDecoder();
+      try {
+        mDecoder = BitmapRegionDecoder.newInstance(sheetFile(mDir, sheet).getPath(), false);
+        mDecoderSheet = sheet;
+      } catch (IOException e) {
+        Log.e("Unable to read the preview sheet " + sheet, e);
+        return null;
+      }
+    }
+    int cell = index % perSheet;
+    int x = (cell % mColumns) * mFrameWidth;
+    int y = (cell / mColumns) * mFrameHeight;
+    if (x + mFrameWidth > mDecoder.getWidth() || y + mFrameHeight > mDecoder.getHeight())
+      return null;
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inPreferredConfig = Bitmap.Config.RGB_565;
+    Rect rect = new Rect(x, y, x + mFrameWidth, y + mFrameHeight);
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN && reuse != null) {
+      options.inBitmap = reuse;
+      try {
+        return mDecoder.decodeRegion(rect, options);
+      } catch (IllegalArgumentException e) {
+        // not reusable for this frame
+        options.inBitmap = null;
+      }
+    }
+    return mDecoder.decodeRegion(rect, options);
+  }
+
+  private void recycleDecoder() {
+    if (mDecoder != null)
+      mDecoder.recycle();
+    mDecoder = null;
+    mDecoderSheet = -1;
+  }
+
+  /**
+   * Stop delivering frames and close the sheet decoder. The preview can't be
+   * used afterwards.
+   */
+  public void release() {
+    synchronized (this) {
+      mReleased = true;
+      mListener = null;
+      mShown = null;
+      mSpare = null;
+    }
+    decodeHandler().post(new Runnable() {
+      @Override
+      public void run() {
+        recycleDecoder();
+      }
+    });
+  }
+
+  /**
+   * @return the time between two frames in milliseconds
+   */
+  public long getInterval() {
+    return mInterval;
+  }
+
+  public int getFrameWidth() {
+    return mFrameWidth;
+  }
+
+  public int getFrameHeight() {
+    return mFrameHeight;
+  }
+
+  int getColumns() {
+    return mColumns;
+  }
+
+  int getRows() {
+    return mRows;
+  }
+
+  int getFramesPerSheet() {
+    return mColumns * mRows;
+  }
+
+  File getDirectory() {
+    return mDir;
+  }
+
+  /**
+   * @return the number of frames once the preview is complete
+   */
+  public int getTotalFrames() {
+    return mTotalFrames;
+  }
+
+  /**
+   * @return the number of frames generated so far
+   */
+  public int getFrameCount() {
+    return mFrameCount;
+  }
+
+  public boolean isComplete() {
+    return mFrameCount == mTotalFrames;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("SeekPreview{%s, %d/%d frames of %dx%d every %dms}", mDir.getName(), mFrameCount, mTotalFrames, mFrameWidth, mFrameHeight, mInterval);
+  }
+}
@@ -0,0 +1,356 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import io.vov.vitamio.utils.Crypto;
+import io.vov.vitamio.utils.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates {@link SeekPreview}s on a background pool: frames are grabbed
+ * every interval in ascending order, so the retriever never seeks backwards,
+ * downsized with {@link ThumbnailUtils#extractThumbnail} and packed into JPEG
+ * sprite sheets cached on disk.
+ * <p/>
+ * The index is saved after each sheet and when a generation is cancelled, a
+ * later {@link #generate} resumes from the last frame saved.
+ * <p/>
+ * <pre>
+ * mGenerator = new SeekPreviewGenerator(this, new File(getCacheDir(), "preview"), 1);
+ * mGenerator.generate(path, new SeekPreviewGenerator.OnPreviewListener() {
+ *   public void onPreviewUpdate(String path, SeekPreview preview) {
+ *     mMediaController.setSeekPreview(preview);
+ *   }
+ * });
+ * </pre>
+ */
+public class SeekPreviewGenerator {
+  public static final long DEFAULT_INTERVAL = 10 * 1000;
+  public static final int DEFAULT_FRAME_WIDTH = 160;
+  private static final int COLUMNS = 10;
+  private static final int ROWS = 10;
+  private static final int MAX_FRAMES = 2000;
+  private static final int JPEG_QUALITY = 80;
+  private final File mCacheDir;
+  private final RetrieverPool mRetrievers;
+  private final ThreadPoolExecutor mExecutor;
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+  private final HashMap<String, Future<?>> mTasks = new HashMap<String, Future<?>>();
+
+  /**
+   * @param cacheDir the directory of the sprite sheets, one sub directory per
+   *                 preview
+   * @param threads  maximum number of previews generated at the same time
+   */
+  public SeekPreviewGenerator(Context ctx, File cacheDir, int threads) {
+    if (threads < 1)
+      throw new IllegalArgumentException("threads must be at least 1: " + threads);
+    mCacheDir = cacheDir;
+    mRetrievers = new RetrieverPool(ctx, threads);
+    mExecutor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+      private final AtomicInteger mCount = new AtomicInteger();
+
+      @Override
+      public Thread newThread(final Runnable r) {
+        return new Thread(new Runnable() {
+          @Override
+          public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            r.run();
+          }
+        }, "Vitamio-SeekPreview-" + mCount.incrementAndGet());
+      }
+    });
+    mExecutor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * @return the preview of path cached on disk, maybe partial, null if there
+   *         is none
+   */
+  public SeekPreview open(String path) {
+    return open(path, DEFAULT_INTERVAL, DEFAULT_FRAME_WIDTH);
+  }
+
+  public SeekPreview open(String path, long interval, int frameWidth) {
+    return SeekPreview.load(getDirectory(path, interval, frameWidth));
+  }
+
+  public Future<?> generate(String path, OnPreviewListener listener) {
+    return generate(path, DEFAULT_INTERVAL, DEFAULT_FRAME_WIDTH, listener);
+  }
+
+  /**
+   * Generate or resume the preview of path, nothing is done if it's already
+   * complete on disk or being generated.
+   *
+   * @param interval   the time between two frames in milliseconds
+   * @param frameWidth the width of a frame, its height follows the video
+   * @param listener   called on the main thread after each sprite sheet and at
+   *                   the end, may be null
+   * @return the generation, which can be cancelled
+   */
+  public Future<?> generate(final String path, final long interval, final int frameWidth, final OnPreviewListener listener) {
+    if (interval <= 0 || frameWidth <= 0)
+      throw new IllegalArgumentException("interval and frameWidth must be positive");
+    final String key = interval + ":" + frameWidth + ":" + path;
+    synchronized (mTasks) {
+      Future<?> task = mTasks.get(key);
+      if (task != null && !task.isDone())
+        return task;
+      task = mExecutor.submit(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            generateNow(path, interval, frameWidth, listener);
+          } finally {
+            synchronized (mTasks) {
+              mTasks.remove(key);
+            }
+          }
+        }
+      });
+      mTasks.put(key, task);
+      return task;
+    }
+  }
+
+  /**
+   * Cancel the pending generations and stop the running ones after their
+   * current frame, what they did is kept.
+   */
+  public void shutdown() {
+    mExecutor.shutdownNow();
+    mRetrievers.close();
+  }
+
+  private File getDirectory(String path, long interval, int frameWidth) {
+    File file = new File(path);
+    // a changed file gets a new preview
+    String id = path + "|" + file.length() + "|" + file.lastModified() + "|" + interval + "|" + frameWidth;
+    return new File(mCacheDir, Crypto.md5(id));
+  }
+
+  private void generateNow(String path, long interval, int frameWidth, OnPreviewListener listener) {
+    File dir = getDirectory(path, interval, frameWidth);
+    SeekPreview preview = SeekPreview.load(dir);
+    if (preview != null && preview.isComplete()) {
+      notify(listener, path, preview);
+      return;
+    }
+
+    MediaMetadataRetriever retriever;
+    try {
+      retriever = mRetrievers.open(mRetrievers.acquire(), path);
+    } catch (IOException e) {
+      Log.e("SeekPreviewGenerator", e);
+      return;
+    } catch (RuntimeException e) {
+      Log.e("SeekPreviewGenerator", e);
+      return;
+    } catch (InterruptedException e) {
+      Log.i("SeekPreviewGenerator: %s interrupted", path);
+      return;
+    }
+
+    boolean broken = false;
+    try {
+      if (preview == null) {
+        preview = create(retriever, dir, interval, frameWidth);
+        if (preview == null)
+          return;
+      }
+      preview = fill(retriever, preview, path, listener);
+      Log.i("SeekPreviewGenerator: %s", preview);
+    } catch (IOException e) {
+      Log.e("SeekPreviewGenerator", e);
+    } catch (InterruptedException e) {
+      Log.i("SeekPreviewGenerator: %s interrupted", path);
+    } catch (RuntimeException e) {
+      broken = true;
+      Log.e("SeekPreviewGenerator", e);
+    } finally {
+      if (broken)
+        mRetrievers.discard(retriever);
+      else
+        mRetrievers.release(retriever);
+    }
+  }
+
+  private static SeekPreview create(MediaMetadataRetriever retriever, File dir, long interval, int frameWidth) throws IOException {
+    long duration = parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION));
+    long width = parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH));
+    long height = parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT));
+    if (duration <= 0) {
+      Log.e("SeekPreviewGenerator: no duration in %s", dir);
+      return null;
+    }
+    int frameHeight = width > 0 && height > 0 ? (int) (frameWidth * height / width) : frameWidth * 9 / 16;
+    frameHeight = Math.max(2, frameHeight & ~1);
+    int totalFrames = (int) Math.min(MAX_FRAMES, duration / interval + 1);
+
+    if (!dir.isDirectory() && !dir.mkdirs())
+      throw new IOException("Can't create " + dir);
+    SeekPreview preview = new SeekPreview(dir, interval, frameWidth, frameHeight, COLUMNS, ROWS, totalFrames, 0);
+    preview.save();
+    return preview;
+  }
+
+  /**
+   * Grab the missing frames, saving the index after each sprite sheet.
+   *
+   * @return the preview as far as it went
+   */
+  private SeekPreview fill(MediaMetadataRetriever retriever, SeekPreview preview, String path, OnPreviewListener listener) throws IOException, InterruptedException {
+    int w = preview.getFrameWidth();
+    int h = preview.getFrameHeight();
+    int perSheet = preview.getFramesPerSheet();
+    int done = preview.getFrameCount();
+    int total = preview.getTotalFrames();
+    File dir = preview.getDirectory();
+
+    Bitmap sheet = null;
+    Canvas canvas = null;
+    Bitmap previous = null;
+    try {
+      while (done < total) {
+        if (Thread.interrupted())
+          throw new InterruptedException();
+        int sheetIndex = done / perSheet;
+        if (sheet == null) {
+          sheet = openSheet(dir, sheetIndex, done % perSheet, preview.getColumns() * w, preview.getRows() * h);
+          canvas = new Canvas(sheet);
+        }
+
+        Bitmap frame = retriever.getFrameAtTime(done * preview.getInterval() * 1000);
+        if (frame != null) {
+          if (previous != null)
+            previous.recycle();
+          previous = ThumbnailUtils.extractThumbnail(frame, w, h, ThumbnailUtils.OPTIONS_RECYCLE_INPUT);
+        }
+        // a frame which can't be decoded shows the previous one
+        if (previous != null) {
+          int cell = done % perSheet;
+          canvas.drawBitmap(previous, (cell % preview.getColumns()) * w, (cell / preview.getColumns()) * h, null);
+        }
+        done++;
+
+        if (done % perSheet == 0 || done == total) {
+          preview = flush(preview, sheet, sheetIndex, done);
+          sheet.recycle();
+          sheet = null;
+          notify(listener, path, preview);
+        }
+      }
+    } catch (InterruptedException e) {
+      if (sheet != null && done % perSheet != 0)
+        preview = flush(preview, sheet, done / perSheet, done);
+      throw e;
+    } finally {
+      if (sheet != null)
+        sheet.recycle();
+      if (previous != null)
+        previous.recycle();
+    }
+    return preview;
+  }
+
+  /**
+   * @return the sheet to draw into, with its first cells loaded from disk
+   *         when resuming in the middle of it
+   */
+  private static Bitmap openSheet(File dir, int sheetIndex, int cells, int width, int height) {
+    if (cells > 0) {
+      BitmapFactory.Options options = new BitmapFactory.Options();
+      options.inMutable = true;
+      options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+      Bitmap partial = BitmapFactory.decodeFile(SeekPreview.sheetFile(dir, sheetIndex).getPath(), options);
+      if (partial != null && partial.getWidth() == width && partial.getHeight() == height)
+        return partial;
+    }
+    return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+  }
+
+  private static SeekPreview flush(SeekPreview preview, Bitmap sheet, int sheetIndex, int done) throws IOException {
+    File dir = preview.getDirectory();
+    File file = SeekPreview.sheetFile(dir, sheetIndex);
+    File tmp = new File(dir, file.getName() + ".tmp");
+    OutputStream out = new FileOutputStream(tmp);
+    try {
+      sheet.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+    } finally {
+      out.close();
+    }
+    if (!tmp.renameTo(file))
+      throw new IOException("Can't rename " + tmp);
+
+    SeekPreview saved = new SeekPreview(dir, preview.getInterval(), preview.getFrameWidth(), preview.getFrameHeight(), preview.getColumns(), preview.getRows(), preview.getTotalFrames(), done);
+    saved.save();
+    return saved;
+  }
+
+  private void notify(final OnPreviewListener listener, final String path, final SeekPreview preview) {
+    if (listener == null)
+      return;
+    mHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        listener.onPreviewUpdate(path, preview);
+      }
+    });
+  }
+
+  private static long parseLong(String value) {
+    if (value == null)
+      return 0;
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  public interface OnPreviewListener {
+    /**
+     * Called on the main thread when more frames of a preview are available.
+     *
+     * @param path    the media file
+     * @param preview the frames generated so far, see
+     *                {@link SeekPreview#isComplete()}
+     */
+    public void onPreviewUpdate(String path, SeekPreview preview);
+  }
+}
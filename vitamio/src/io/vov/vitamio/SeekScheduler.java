@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import io.vov.vitamio.utils.Log;
+
+/**
+ * Coalesces the seeks of a {@link MediaPlayer}: at most one seek is in flight,
+ * and a seek requested meanwhile replaces the pending one, which is issued when
+ * the in flight seek completes.
+ * <p/>
+ * Seeks requested while scrubbing are also dropped when they are closer than
+ * {@link #SCRUB_MIN_DISTANCE} to the last issued target, the seek which ends
+ * the scrubbing is always issued.
+ *
+ * @see MediaPlayer#requestSeek(long, boolean)
+ */
+public final class SeekScheduler {
+  /**
+   * Scrubbing seeks closer than this to the last target, in milliseconds, are
+   * dropped
+   */
+  public static final long SCRUB_MIN_DISTANCE = 250;
+  /**
+   * A seek which didn't complete after this many milliseconds no longer holds
+   * the pending ones back
+   */
+  public static final long SEEK_TIMEOUT = 5000;
+  private static final long NONE = -1;
+  private final MediaPlayer mPlayer;
+  private final Handler mHandler;
+  private boolean mInFlight;
+  private long mInFlightTarget = NONE;
+  private long mInFlightStart;
+  private long mPending = NONE;
+  private boolean mPendingScrubbing;
+  // seeks passed to the native player, and completions received for them
+  private long mIssued;
+  private long mAcknowledged;
+  private long mRequested;
+  private long mExecuted;
+  private long mCompleted;
+  private long mTimeouts;
+  private long mLatencyTotal;
+  private long mLatencyMax;
+  private long mLatencyLast;
+
+  private final Runnable mTimeout = new Runnable() {
+    @Override
+    public void run() {
+      synchronized (SeekScheduler.this) {
+        if (!mInFlight)
+          return;
+        Log.e("SeekScheduler: seek to %d timed out", mInFlightTarget);
+        mTimeouts++;
+        mInFlight = false;
+      }
+      issuePending();
+    }
+  };
+
+  SeekScheduler(MediaPlayer player, Handler handler) {
+    mPlayer = player;
+    mHandler = handler;
+  }
+
+  /**
+   * @param msec      the offset in milliseconds from the start to seek to
+   * @param scrubbing true if more seeks are expected soon, e.g. while the
+   *                  seek bar is dragged
+   */
+  void request(long msec, boolean scrubbing) {
+    synchronized (this) {
+      mRequested++;
+      if (mInFlight) {
+        // the seek in flight already goes there
+        mPending = msec == mInFlightTarget ? NONE : msec;
+        mPendingScrubbing = scrubbing;
+        return;
+      }
+      if (scrubbing && mInFlightTarget != NONE && Math.abs(msec - mInFlightTarget) < SCRUB_MIN_DISTANCE)
+        return;
+      begin(msec);
+    }
+    execute(msec, true);
+  }
+
+  /**
+   * @return true if the seek completed was the last one, false if another one
+   *         was issued or is still in flight
+   */
+  boolean onSeekComplete() {
+    synchronized (this) {
+      // completions come in issue order, one left behind by a timed out seek
+      // is not the one of the seek in flight
+      if (mAcknowledged < mIssued)
+        mAcknowledged++;
+      if (mAcknowledged < mIssued)
+        return false;
+      if (!mInFlight)
+        return mPending == NONE;
+      mInFlight = false;
+      mCompleted++;
+      mLatencyLast = SystemClock.uptimeMillis() - mInFlightStart;
+      mLatencyTotal += mLatencyLast;
+      mLatencyMax = Math.max(mLatencyMax, mLatencyLast);
+    }
+    if (mHandler != null)
+      mHandler.removeCallbacks(mTimeout);
+    return !issuePending();
+  }
+
+  /**
+   * Forget the seeks in flight and pending, e.g. when the player is reset.
+   */
+  void reset() {
+    synchronized (this) {
+      mInFlight = false;
+      mInFlightTarget = NONE;
+      mPending = NONE;
+      mAcknowledged = mIssued;
+    }
+    if (mHandler != null)
+      mHandler.removeCallbacks(mTimeout);
+  }
+
+  private boolean issuePending() {
+    long target;
+    synchronized (this) {
+      if (mInFlight || mPending == NONE)
+        return mInFlight;
+      target = mPending;
+      mPending = NONE;
+      if (mPendingScrubbing && Math.abs(target - mInFlightTarget) < SCRUB_MIN_DISTANCE)
+        return false;
+      begin(target);
+    }
+    return execute(target, false);
+  }
+
+  private void begin(long target) {
+    mInFlight = true;
+    mInFlightTarget = target;
+    mInFlightStart = SystemClock.uptimeMillis();
+    mExecuted++;
+    mIssued++;
+  }
+
+  /**
+   * @param direct true when called from {@link #request}, whose caller gets the
+   *               IllegalStateException of a player in the wrong state. A
+   *               pending seek issued later from the handler drops it instead.
+   * @return true if the seek was issued
+   */
+  private boolean execute(long target, boolean direct) {
+    try {
+      mPlayer.seekTo(target);
+    } catch (IllegalStateException e) {
+      synchronized (this) {
+        mInFlight = false;
+        mPending = NONE;
+        if (mIssued > mAcknowledged)
+          mIssued--;
+      }
+      if (direct)
+        throw e;
+      Log.e("SeekScheduler: seek to %d failed, %s", target, e);
+      return false;
+    }
+    if (mHandler != null) {
+      mHandler.removeCallbacks(mTimeout);
+      mHandler.postDelayed(mTimeout, SEEK_TIMEOUT);
+    }
+    return true;
+  }
+
+  /**
+   * @return true if a seek is in flight or pending
+   */
+  public synchronized boolean isSeeking() {
+    return mInFlight || mPending != NONE;
+  }
+
+  /**
+   * @return the number of seeks requested
+   */
+  public synchronized long getRequestCount() {
+    return mRequested;
+  }
+
+  /**
+   * @return the number of seeks issued to the native player
+   */
+  public synchronized long getExecutedCount() {
+    return mExecuted;
+  }
+
+  /**
+   * @return the number of seeks which didn't complete in {@link #SEEK_TIMEOUT}
+   */
+  public synchronized long getTimeoutCount() {
+    return mTimeouts;
+  }
+
+  /**
+   * @return the latency of the last completed seek in milliseconds
+   */
+  public synchronized long getLastLatency() {
+    return mLatencyLast;
+  }
+
+  /**
+   * @return the highest latency of a completed seek in milliseconds
+   */
+  public synchronized long getMaxLatency() {
+    return mLatencyMax;
+  }
+
+  /**
+   * @return the average latency of the completed seeks in milliseconds
+   */
+  public synchronized long getAverageLatency() {
+    return mCompleted > 0 ? mLatencyTotal / mCompleted : 0;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("SeekScheduler{requested=%d, executed=%d, timeouts=%d, latency last=%dms avg=%dms max=%dms}", mRequested, mExecuted, mTimeouts, mLatencyLast, getAverageLatency(), mLatencyMax);
+  }
+}
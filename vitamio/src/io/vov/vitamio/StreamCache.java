@@ -0,0 +1,506 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio;
+
+import android.os.Process;
+
+import io.vov.vitamio.utils.Crypto;
+import io.vov.vitamio.utils.FileUtils;
+import io.vov.vitamio.utils.IOUtils;
+import io.vov.vitamio.utils.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Owns the directory the native layer caches the streams in, and keeps it
+ * within a byte budget.
+ * <p/>
+ * Every stream gets its own sub directory, see {@link #open(String)}, which is
+ * what {@link MediaPlayer#setCacheDirectory(String)} is given. The size and
+ * last access time of the entries are kept in an index file, and the least
+ * recently used entries are deleted on a background thread when the cache
+ * grows over its budget. The entries in use are pinned and never deleted.
+ * <p/>
+ * <pre>
+ * StreamCache cache = new StreamCache(new File(getCacheDir(), "streams"), 512 * 1024 * 1024);
+ * mediaPlayer.setStreamCache(cache);
+ * mediaPlayer.setDataSource(url);
+ * </pre>
+ */
+public final class StreamCache {
+  static final String INDEX = "index";
+  private static final int MAGIC = 0x56534349; // VSCI
+  private static final int VERSION = 1;
+  private static final String DELETED_SUFFIX = ".del";
+  private static final long MIN_UPDATE_INTERVAL = 2000;
+  private final File mDirectory;
+  private final HashMap<String, Entry> mEntries = new HashMap<String, Entry>();
+  private final ThreadPoolExecutor mExecutor;
+  private long mSize;
+  private long mMaxSize;
+  private boolean mSavePending;
+  private final AtomicLong mHitCount = new AtomicLong();
+  private final AtomicLong mMissCount = new AtomicLong();
+  private final AtomicLong mEvictionCount = new AtomicLong();
+  private final AtomicLong mEvictedBytes = new AtomicLong();
+
+  /**
+   * The index is read and the directory checked against it in the background,
+   * the entries created meanwhile are kept.
+   *
+   * @param directory the cache directory, nothing else should be stored in it
+   * @param maxSize   the byte budget of the cache
+   */
+  public StreamCache(File directory, long maxSize) {
+    if (maxSize < 0)
+      throw new IllegalArgumentException("maxSize < 0: " + maxSize);
+    mDirectory = directory;
+    mMaxSize = maxSize;
+    mExecutor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+      @Override
+      public Thread newThread(final Runnable r) {
+        return new Thread(new Runnable() {
+          @Override
+          public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            r.run();
+          }
+        }, "Vitamio-StreamCache");
+      }
+    });
+    mExecutor.allowCoreThreadTimeOut(true);
+    mExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        load();
+        trimToSize();
+      }
+    });
+  }
+
+  /**
+   * Get the entry of a stream and pin it until {@link #close(Entry)}, its
+   * directory is created if needed.
+   *
+   * @param uri the uri of the stream, or any key identifying it
+   */
+  public Entry open(String uri) {
+    String key = Crypto.md5(uri);
+    Entry entry;
+    synchronized (this) {
+      entry = mEntries.get(key);
+      if (entry != null && entry.mSize > 0)
+        mHitCount.incrementAndGet();
+      else
+        mMissCount.incrementAndGet();
+      if (entry == null) {
+        entry = new Entry(this, key, new File(mDirectory, key));
+        mEntries.put(key, entry);
+      }
+      entry.mPins++;
+      entry.mLastAccess = System.currentTimeMillis();
+      scheduleSave();
+    }
+    entry.mDirectory.mkdirs();
+    return entry;
+  }
+
+  /**
+   * Unpin an entry returned by {@link #open(String)}, its size is measured
+   * again and the cache trimmed if it's over budget.
+   */
+  public void close(Entry entry) {
+    synchronized (this) {
+      if (entry.mPins > 0)
+        entry.mPins--;
+      entry.mLastAccess = System.currentTimeMillis();
+    }
+    measure(entry);
+  }
+
+  /**
+   * The native layer wrote to the entry, measure it again and trim the cache
+   * if needed. Calls closer than a couple of seconds are ignored.
+   */
+  public void update(Entry entry) {
+    long now = System.currentTimeMillis();
+    synchronized (this) {
+      if (now - entry.mLastUpdate < MIN_UPDATE_INTERVAL)
+        return;
+      entry.mLastUpdate = now;
+    }
+    measure(entry);
+  }
+
+  /**
+   * @param maxSize the byte budget of the cache, 0 keeps the pinned entries
+   *                only
+   */
+  public void setMaxSize(long maxSize) {
+    if (maxSize < 0)
+      throw new IllegalArgumentException("maxSize < 0: " + maxSize);
+    synchronized (this) {
+      mMaxSize = maxSize;
+    }
+    execute(new Runnable() {
+      @Override
+      public void run() {
+        trimToSize();
+      }
+    });
+  }
+
+  public synchronized long getMaxSize() {
+    return mMaxSize;
+  }
+
+  /**
+   * @return the byte count of the entries, as last measured
+   */
+  public synchronized long getSize() {
+    return mSize;
+  }
+
+  public synchronized int getCount() {
+    return mEntries.size();
+  }
+
+  /**
+   * @return the {@link #open(String)} calls which found data cached
+   */
+  public long getHitCount() {
+    return mHitCount.get();
+  }
+
+  public long getMissCount() {
+    return mMissCount.get();
+  }
+
+  public long getEvictionCount() {
+    return mEvictionCount.get();
+  }
+
+  public long getEvictedBytes() {
+    return mEvictedBytes.get();
+  }
+
+  /**
+   * Delete all the entries but the pinned ones.
+   */
+  public void evictAll() {
+    execute(new Runnable() {
+      @Override
+      public void run() {
+        evict(0);
+      }
+    });
+  }
+
+  /**
+   * Stop the background thread once the pending work is done and the index
+   * saved. The entries still open can be updated and closed afterwards, but
+   * they are no longer measured, and nothing is evicted.
+   */
+  public void shutdown() {
+    synchronized (this) {
+      mSavePending = false;
+      scheduleSave();
+      mExecutor.shutdown();
+    }
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("StreamCache[size=%d/%d, count=%d, hits=%d, misses=%d, evictions=%d, evictedBytes=%d]", mSize, mMaxSize, mEntries.size(), getHitCount(), getMissCount(), getEvictionCount(), getEvictedBytes());
+  }
+
+  /**
+   * Wait for the background work queued so far, or for the background thread
+   * to stop once the cache is shut down. For the tests.
+   */
+  void awaitIdle() throws InterruptedException {
+    do {
+      final CountDownLatch done = new CountDownLatch(1);
+      boolean queued = execute(new Runnable() {
+        @Override
+        public void run() {
+          done.countDown();
+        }
+      });
+      if (!queued) {
+        mExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        return;
+      }
+      done.await();
+    } while (!mExecutor.getQueue().isEmpty());
+  }
+
+  /**
+   * @return false if the cache is shut down, nothing is run then
+   */
+  private synchronized boolean execute(Runnable task) {
+    if (mExecutor.isShutdown())
+      return false;
+    mExecutor.execute(task);
+    return true;
+  }
+
+  private void measure(final Entry entry) {
+    execute(new Runnable() {
+      @Override
+      public void run() {
+        long size = sizeOf(entry.mDirectory);
+        synchronized (StreamCache.this) {
+          if (mEntries.get(entry.mKey) != entry)
+            return;
+          mSize += size - entry.mSize;
+          entry.mSize = size;
+          scheduleSave();
+        }
+        trimToSize();
+      }
+    });
+  }
+
+  private void trimToSize() {
+    long maxSize;
+    synchronized (this) {
+      if (mSize <= mMaxSize)
+        return;
+      maxSize = mMaxSize;
+    }
+    evict(maxSize);
+  }
+
+  /**
+   * Delete the least recently used entries which aren't pinned until the cache
+   * fits in maxSize. Runs on the cache thread.
+   */
+  private void evict(long maxSize) {
+    ArrayList<File> victims = new ArrayList<File>();
+    synchronized (this) {
+      ArrayList<Entry> entries = new ArrayList<Entry>(mEntries.values());
+      Collections.sort(entries, LEAST_RECENTLY_USED);
+      for (Entry entry : entries) {
+        if (mSize <= maxSize)
+          break;
+        if (entry.mPins > 0)
+          continue;
+        mEntries.remove(entry.mKey);
+        mSize -= entry.mSize;
+        mEvictionCount.incrementAndGet();
+        mEvictedBytes.addAndGet(entry.mSize);
+        // renamed under the lock, so that an open() of the same stream gets a
+        // fresh directory
+        File deleted = new File(mDirectory, entry.mKey + DELETED_SUFFIX);
+        if (entry.mDirectory.renameTo(deleted))
+          victims.add(deleted);
+        else
+          FileUtils.deleteDir(entry.mDirectory);
+      }
+      if (!victims.isEmpty())
+        scheduleSave();
+    }
+    for (File victim : victims)
+      FileUtils.deleteDir(victim);
+  }
+
+  private void scheduleSave() {
+    if (mSavePending || mExecutor.isShutdown())
+      return;
+    mSavePending = true;
+    mExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        save();
+      }
+    });
+  }
+
+  /**
+   * Read the index, drop the entries whose directory is gone and add the
+   * directories it doesn't know. Runs on the cache thread.
+   */
+  private void load() {
+    HashMap<String, Entry> loaded = new HashMap<String, Entry>();
+    File index = new File(mDirectory, INDEX);
+    DataInputStream in = null;
+    try {
+      if (index.isFile()) {
+        in = new DataInputStream(new BufferedInputStream(new FileInputStream(index)));
+        if (in.readInt() == MAGIC && in.readInt() == VERSION) {
+          int count = in.readInt();
+          for (int i = 0; i < count; i++) {
+            String key = in.readUTF();
+            Entry entry = new Entry(this, key, new File(mDirectory, key));
+            entry.mSize = in.readLong();
+            entry.mLastAccess = in.readLong();
+            loaded.put(key, entry);
+          }
+        }
+      }
+    } catch (IOException e) {
+      Log.e("Unable to read the stream cache index, rebuilding it", e);
+    } finally {
+      IOUtils.closeSilently(in);
+    }
+
+    File[] files = mDirectory.listFiles();
+    HashMap<String, Entry> found = new HashMap<String, Entry>();
+    if (files != null) {
+      for (File file : files) {
+        String name = file.getName();
+        if (!file.isDirectory())
+          continue;
+        if (name.endsWith(DELETED_SUFFIX)) {
+          FileUtils.deleteDir(file);
+          continue;
+        }
+        Entry entry = loaded.get(name);
+        if (entry == null) {
+          entry = new Entry(this, name, file);
+          entry.mSize = sizeOf(file);
+          entry.mLastAccess = file.lastModified();
+        }
+        found.put(name, entry);
+      }
+    }
+
+    synchronized (this) {
+      for (Entry entry : found.values()) {
+        if (!mEntries.containsKey(entry.mKey)) {
+          mEntries.put(entry.mKey, entry);
+          mSize += entry.mSize;
+        }
+      }
+      scheduleSave();
+    }
+  }
+
+  /**
+   * Write the index atomically, so that a crash never leaves a corrupt one.
+   * Runs on the cache thread.
+   */
+  private void save() {
+    ArrayList<Entry> entries;
+    synchronized (this) {
+      mSavePending = false;
+      entries = new ArrayList<Entry>(mEntries.values());
+    }
+    mDirectory.mkdirs();
+    File tmp = new File(mDirectory, INDEX + ".tmp");
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(entries.size());
+      for (Entry entry : entries) {
+        out.writeUTF(entry.mKey);
+        out.writeLong(entry.mSize);
+        out.writeLong(entry.mLastAccess);
+      }
+      out.close();
+      out = null;
+      if (!tmp.renameTo(new File(mDirectory, INDEX)))
+        Log.e("Unable to rename %s", tmp);
+    } catch (IOException e) {
+      Log.e("Unable to write the stream cache index", e);
+    } finally {
+      IOUtils.closeSilently(out);
+    }
+  }
+
+  private static long sizeOf(File file) {
+    if (!file.isDirectory())
+      return file.length();
+    long size = 0;
+    File[] files = file.listFiles();
+    if (files != null) {
+      for (File f : files)
+        size += sizeOf(f);
+    }
+    return size;
+  }
+
+  private static final Comparator<Entry> LEAST_RECENTLY_USED = new Comparator<Entry>() {
+    @Override
+    public int compare(Entry lhs, Entry rhs) {
+      long l = lhs.mLastAccess;
+      long r = rhs.mLastAccess;
+      return l < r ? -1 : (l == r ? 0 : 1);
+    }
+  };
+
+  /**
+   * The cached data of a stream, a directory of the cache.
+   */
+  public static final class Entry {
+    private final StreamCache mCache;
+    private final String mKey;
+    private final File mDirectory;
+    private volatile long mSize;
+    private long mLastAccess;
+    private long mLastUpdate;
+    private int mPins;
+
+    Entry(StreamCache cache, String key, File directory) {
+      mCache = cache;
+      mKey = key;
+      mDirectory = directory;
+    }
+
+    /**
+     * @return the cache which opened the entry, to close it even after the
+     *         player was given another one
+     */
+    StreamCache getCache() {
+      return mCache;
+    }
+
+    /**
+     * @return the directory to give to the native layer
+     */
+    public File getDirectory() {
+      return mDirectory;
+    }
+
+    /**
+     * @return the byte count of the entry, as last measured
+     */
+    public long getSize() {
+      return mSize;
+    }
+  }
+}
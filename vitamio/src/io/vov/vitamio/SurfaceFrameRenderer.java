@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.view.Surface;
+
+import io.vov.vitamio.utils.Log;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The default {@link FrameRenderer}. The decoder thread only copies the frame
+ * into one of two (or three) pooled bitmaps, a shared render thread does the
+ * lockCanvas / drawBitmap / unlockCanvasAndPost. When the render thread falls
+ * behind, the frame waiting to be drawn is replaced by the newer one and
+ * counted as dropped, so the decoder never waits for the canvas.
+ */
+public class SurfaceFrameRenderer implements FrameRenderer {
+  private static HandlerThread sRenderThread;
+  private static Handler sRenderHandler;
+  private final int mFrameCount;
+  private final Object mLock = new Object();
+  private final LinkedList<Bitmap> mFree = new LinkedList<Bitmap>();
+  private Bitmap mPending;
+  private Bitmap mDrawing;
+  private boolean mScheduled;
+  private Surface mSurface;
+  private ByteBuffer mBuffer;
+  private int mWidth;
+  private int mHeight;
+  private volatile long mFramesRendered;
+  private final AtomicLong mFramesDropped = new AtomicLong();
+  private volatile long mCopyTimeNanos;
+  private volatile long mLockTimeNanos;
+  private volatile long mPostTimeNanos;
+
+  private final Runnable mDrawFrame = new Runnable() {
+    @Override
+    public void run() {
+      Bitmap frame;
+      Surface surface;
+      synchronized (mLock) {
+        mScheduled = false;
+        frame = mPending;
+        mPending = null;
+        surface = mSurface;
+        if (frame == null)
+          return;
+        mDrawing = frame;
+      }
+
+      boolean drawn = false;
+      if (surface != null && surface.isValid()) {
+        try {
+          long start = System.nanoTime();
+          Canvas c = surface.lockCanvas(null);
+          long locked = System.nanoTime();
+          c.drawBitmap(frame, 0, 0, null);
+          surface.unlockCanvasAndPost(c);
+          mLockTimeNanos += locked - start;
+          mPostTimeNanos += System.nanoTime() - locked;
+          mFramesRendered++;
+          drawn = true;
+        } catch (Exception e) {
+          Log.e("SurfaceFrameRenderer", e);
+        }
+      }
+      if (!drawn)
+        mFramesDropped.incrementAndGet();
+
+      synchronized (mLock) {
+        mDrawing = null;
+        recycle(frame);
+        mLock.notifyAll();
+      }
+    }
+  };
+
+  public SurfaceFrameRenderer() {
+    this(2);
+  }
+
+  /**
+   * @param frameCount number of bitmaps to cycle through, 2 for double
+   *                   buffering, 3 for triple buffering
+   */
+  public SurfaceFrameRenderer(int frameCount) {
+    if (frameCount < 2)
+      throw new IllegalArgumentException("frameCount must be at least 2: " + frameCount);
+    mFrameCount = frameCount;
+  }
+
+  private static synchronized Handler renderHandler() {
+    if (sRenderHandler == null) {
+      sRenderThread = new HandlerThread("Vitamio-Render", Process.THREAD_PRIORITY_DISPLAY);
+      sRenderThread.start();
+      sRenderHandler = new Handler(sRenderThread.getLooper());
+    }
+    return sRenderHandler;
+  }
+
+  @Override
+  public ByteBuffer init(Surface surface, int width, int height) {
+    synchronized (mLock) {
+      awaitDraw();
+      mSurface = surface;
+      if (mBuffer != null && mWidth == width && mHeight == height)
+        return mBuffer;
+
+      releaseFrames();
+      mWidth = width;
+      mHeight = height;
+      mBuffer = FramePool.obtainBuffer(width * height * 2);
+      for (int i = 0; i < mFrameCount; i++)
+        mFree.add(FramePool.obtainBitmap(width, height));
+      return mBuffer;
+    }
+  }
+
+  @Override
+  public void render() {
+    synchronized (mLock) {
+      if (mSurface == null || mBuffer == null)
+        return;
+
+      Bitmap frame = mFree.poll();
+      if (frame == null) {
+        // the render thread hasn't picked up the previous frame yet
+        frame = mPending;
+        mPending = null;
+        mFramesDropped.incrementAndGet();
+        if (frame == null)
+          return;
+      }
+
+      long start = System.nanoTime();
+      mBuffer.rewind();
+      frame.copyPixelsFromBuffer(mBuffer);
+      mCopyTimeNanos += System.nanoTime() - start;
+
+      mPending = frame;
+      if (!mScheduled) {
+        mScheduled = true;
+        renderHandler().post(mDrawFrame);
+      }
+    }
+  }
+
+  @Override
+  public void release() {
+    synchronized (mLock) {
+      awaitDraw();
+      mSurface = null;
+      releaseFrames();
+      FramePool.release(mBuffer);
+      mBuffer = null;
+      mWidth = 0;
+      mHeight = 0;
+    }
+  }
+
+  /**
+   * @return frames posted to the surface
+   */
+  public long getFramesRendered() {
+    return mFramesRendered;
+  }
+
+  /**
+   * @return frames decoded but never posted to the surface
+   */
+  public long getFramesDropped() {
+    return mFramesDropped.get();
+  }
+
+  /**
+   * @return total time the decoder thread spent copying frames into bitmaps
+   */
+  public long getCopyTimeNanos() {
+    return mCopyTimeNanos;
+  }
+
+  /**
+   * @return total time the render thread waited in lockCanvas
+   */
+  public long getLockTimeNanos() {
+    return mLockTimeNanos;
+  }
+
+  /**
+   * @return total time the render thread spent drawing and posting frames
+   */
+  public long getPostTimeNanos() {
+    return mPostTimeNanos;
+  }
+
+  private void awaitDraw() {
+    while (mDrawing != null) {
+      try {
+        mLock.wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  private void recycle(Bitmap frame) {
+    if (mSurface != null && frame.getWidth() == mWidth && frame.getHeight() == mHeight)
+      mFree.add(frame);
+    else
+      FramePool.release(frame);
+  }
+
+  private void releaseFrames() {
+    for (Bitmap b : mFree)
+      FramePool.release(b);
+    mFree.clear();
+    if (mPending != null) {
+      FramePool.release(mPending);
+      mPending = null;
+    }
+  }
+}
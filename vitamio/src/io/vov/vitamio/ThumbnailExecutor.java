@@ -0,0 +1,431 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import io.vov.vitamio.utils.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Generates video thumbnails with {@link ThumbnailUtils#createVideoThumbnail}
+ * on a few background threads sharing a {@link RetrieverPool}, so a list can
+ * ask for the thumbnails of all its items without blocking or starting one
+ * retriever per item.
+ * <p/>
+ * Requests with a higher priority are served first, raise the priority of the
+ * items that become visible with {@link #setPriority(long, int)}. Requests for
+ * the same file and kind share a single generation. Listeners are called on
+ * the main thread, never for a cancelled request.
+ * <p/>
+ * <pre>
+ * mExecutor = new ThumbnailExecutor(context);
+ * mExecutor.submit(path, Video.Thumbnails.MICRO_KIND, id, 0, ThumbnailExecutor.PRIORITY_VISIBLE, listener);
+ * ...
+ * mExecutor.cancel(id);
+ * </pre>
+ */
+public class ThumbnailExecutor {
+  public static final int PRIORITY_LOW = -1;
+  public static final int PRIORITY_NORMAL = 0;
+  public static final int PRIORITY_VISIBLE = 1;
+  private static final int DEFAULT_THREADS = 2;
+  private static final long KEEP_ALIVE_MS = 30 * 1000;
+  private final Context mContext;
+  private final int mMaxThreads;
+  private final RetrieverPool mRetrievers;
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+  private final Object mLock = new Object();
+  private final PriorityQueue<Job> mQueue = new PriorityQueue<Job>();
+  private final HashMap<String, Job> mJobs = new HashMap<String, Job>();
+  private int mThreads;
+  private int mIdleThreads;
+  private long mSequence;
+  private boolean mShutdown;
+  private long mSubmitted;
+  private long mDeduplicated;
+  private long mCancelled;
+  private long mGenerated;
+
+  public ThumbnailExecutor(Context ctx) {
+    this(ctx, DEFAULT_THREADS);
+  }
+
+  /**
+   * @param threads maximum number of thumbnails generated at the same time
+   */
+  public ThumbnailExecutor(Context ctx, int threads) {
+    if (threads < 1)
+      throw new IllegalArgumentException("threads must be at least 1: " + threads);
+    mContext = ctx.getApplicationContext();
+    mMaxThreads = threads;
+    mRetrievers = new RetrieverPool(mContext, threads);
+  }
+
+  /**
+   * Queue the generation of a thumbnail.
+   *
+   * @param path     the video file
+   * @param kind     {@link io.vov.vitamio.provider.MediaStore.Video.Thumbnails#MINI_KIND} or
+   *                 {@link io.vov.vitamio.provider.MediaStore.Video.Thumbnails#MICRO_KIND}
+   * @param origId   the id used to cancel or prioritize the request
+   * @param groupId  the group used to cancel requests together
+   * @param priority {@link #PRIORITY_VISIBLE}, {@link #PRIORITY_NORMAL}, {@link #PRIORITY_LOW}
+   *                 or any other value, higher first
+   * @param listener called on the main thread with the thumbnail, or null if it
+   *                 couldn't be generated
+   * @return the request, which can be cancelled
+   */
+  public Request submit(String path, int kind, long origId, long groupId, int priority, OnThumbnailListener listener) {
+    if (path == null || listener == null)
+      throw new IllegalArgumentException("path and listener must not be null");
+
+    Request request = new Request(path, kind, origId, groupId, priority, listener);
+    synchronized (mLock) {
+      if (mShutdown)
+        throw new IllegalStateException("ThumbnailExecutor has been shut down");
+      mSubmitted++;
+
+      String key = kind + ":" + path;
+      Job job = mJobs.get(key);
+      if (job == null) {
+        job = new Job(key, path, kind);
+        job.mPriority = priority;
+        job.mSequence = mSequence++;
+        mJobs.put(key, job);
+        mQueue.add(job);
+        startThreadLocked();
+      } else {
+        mDeduplicated++;
+      }
+      job.mRequests.add(request);
+      request.mJob = job;
+      reprioritizeLocked(job);
+      mLock.notify();
+    }
+    return request;
+  }
+
+  /**
+   * Change the priority of the pending requests of origId, usually to let the
+   * items scrolled into view jump ahead of the others.
+   */
+  public void setPriority(long origId, int priority) {
+    synchronized (mLock) {
+      for (Job job : mJobs.values()) {
+        boolean changed = false;
+        for (Request r : job.mRequests) {
+          if (r.mOrigId == origId) {
+            r.mPriority = priority;
+            changed = true;
+          }
+        }
+        if (changed)
+          reprioritizeLocked(job);
+      }
+    }
+  }
+
+  /**
+   * Cancel the requests of origId. A thumbnail already being generated is
+   * finished but not delivered.
+   *
+   * @return the number of requests cancelled
+   */
+  public int cancel(long origId) {
+    synchronized (mLock) {
+      ArrayList<Request> matches = new ArrayList<Request>();
+      for (Job job : mJobs.values()) {
+        for (Request r : job.mRequests) {
+          if (r.mOrigId == origId)
+            matches.add(r);
+        }
+      }
+      for (Request r : matches)
+        cancelLocked(r);
+      return matches.size();
+    }
+  }
+
+  /**
+   * Cancel the requests submitted with groupId.
+   *
+   * @return the number of requests cancelled
+   */
+  public int cancelGroup(long groupId) {
+    synchronized (mLock) {
+      ArrayList<Request> matches = new ArrayList<Request>();
+      for (Job job : mJobs.values()) {
+        for (Request r : job.mRequests) {
+          if (r.mGroupId == groupId)
+            matches.add(r);
+        }
+      }
+      for (Request r : matches)
+        cancelLocked(r);
+      return matches.size();
+    }
+  }
+
+  /**
+   * Cancel all the requests and stop the threads once the thumbnails being
+   * generated are done. The executor can't be used any more.
+   */
+  public void shutdown() {
+    synchronized (mLock) {
+      mShutdown = true;
+      for (Job job : mJobs.values()) {
+        for (Request r : job.mRequests) {
+          r.mCancelled = true;
+          mCancelled++;
+        }
+        job.mRequests.clear();
+      }
+      mQueue.clear();
+      mJobs.clear();
+      mLock.notifyAll();
+    }
+    mRetrievers.close();
+  }
+
+  /**
+   * @return the number of distinct thumbnails waiting for a thread
+   */
+  public int getQueueSize() {
+    synchronized (mLock) {
+      return mQueue.size();
+    }
+  }
+
+  public long getSubmittedCount() {
+    synchronized (mLock) {
+      return mSubmitted;
+    }
+  }
+
+  /**
+   * @return requests which joined the generation of an identical request
+   */
+  public long getDeduplicatedCount() {
+    synchronized (mLock) {
+      return mDeduplicated;
+    }
+  }
+
+  public long getCancelledCount() {
+    synchronized (mLock) {
+      return mCancelled;
+    }
+  }
+
+  public long getGeneratedCount() {
+    synchronized (mLock) {
+      return mGenerated;
+    }
+  }
+
+  private void cancelLocked(Request request) {
+    if (request.mCancelled)
+      return;
+    request.mCancelled = true;
+    mCancelled++;
+
+    Job job = request.mJob;
+    job.mRequests.remove(request);
+    if (job.mRunning)
+      return;
+    if (job.mRequests.isEmpty()) {
+      mQueue.remove(job);
+      mJobs.remove(job.mKey);
+    } else {
+      reprioritizeLocked(job);
+    }
+  }
+
+  private void reprioritizeLocked(Job job) {
+    if (job.mRunning || job.mRequests.isEmpty())
+      return;
+    int priority = Integer.MIN_VALUE;
+    for (Request r : job.mRequests)
+      priority = Math.max(priority, r.mPriority);
+    if (priority != job.mPriority) {
+      mQueue.remove(job);
+      job.mPriority = priority;
+      mQueue.add(job);
+    }
+  }
+
+  private void startThreadLocked() {
+    if (mIdleThreads >= mQueue.size() || mThreads >= mMaxThreads)
+      return;
+    mThreads++;
+    Thread t = new Thread(mWorker, "Vitamio-Thumbnail-" + mThreads);
+    t.start();
+  }
+
+  private final Runnable mWorker = new Runnable() {
+    @Override
+    public void run() {
+      Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+      while (true) {
+        Job job;
+        synchronized (mLock) {
+          if (!mShutdown && mQueue.isEmpty()) {
+            mIdleThreads++;
+            try {
+              mLock.wait(KEEP_ALIVE_MS);
+            } catch (InterruptedException e) {
+            }
+            mIdleThreads--;
+          }
+          job = mShutdown ? null : mQueue.poll();
+          if (job == null) {
+            if (--mThreads == 0)
+              mRetrievers.trim();
+            return;
+          }
+          job.mRunning = true;
+        }
+
+        Bitmap bitmap = null;
+        try {
+          bitmap = ThumbnailUtils.createVideoThumbnail(mRetrievers, job.mPath, job.mKind);
+        } catch (RuntimeException e) {
+          Log.e("ThumbnailExecutor", e);
+        }
+
+        List<Request> requests;
+        synchronized (mLock) {
+          mGenerated++;
+          mJobs.remove(job.mKey);
+          requests = new ArrayList<Request>(job.mRequests);
+        }
+        if (requests.isEmpty()) {
+          if (bitmap != null)
+            bitmap.recycle();
+        } else {
+          mHandler.post(new Delivery(requests, bitmap));
+        }
+      }
+    }
+  };
+
+  public interface OnThumbnailListener {
+    /**
+     * Called on the main thread, the bitmap is shared by the requests for the
+     * same file and kind.
+     *
+     * @param bitmap the thumbnail, or null if it couldn't be generated
+     */
+    public void onThumbnail(Request request, Bitmap bitmap);
+  }
+
+  public final class Request {
+    private final String mPath;
+    private final int mKind;
+    private final long mOrigId;
+    private final long mGroupId;
+    private final OnThumbnailListener mListener;
+    private int mPriority;
+    private Job mJob;
+    private volatile boolean mCancelled;
+
+    private Request(String path, int kind, long origId, long groupId, int priority, OnThumbnailListener listener) {
+      mPath = path;
+      mKind = kind;
+      mOrigId = origId;
+      mGroupId = groupId;
+      mPriority = priority;
+      mListener = listener;
+    }
+
+    public String getPath() {
+      return mPath;
+    }
+
+    public int getKind() {
+      return mKind;
+    }
+
+    public long getOrigId() {
+      return mOrigId;
+    }
+
+    public long getGroupId() {
+      return mGroupId;
+    }
+
+    public boolean isCancelled() {
+      return mCancelled;
+    }
+
+    public void cancel() {
+      synchronized (mLock) {
+        cancelLocked(this);
+      }
+    }
+  }
+
+  private static final class Job implements Comparable<Job> {
+    final String mKey;
+    final String mPath;
+    final int mKind;
+    final ArrayList<Request> mRequests = new ArrayList<Request>(1);
+    int mPriority;
+    long mSequence;
+    boolean mRunning;
+
+    Job(String key, String path, int kind) {
+      mKey = key;
+      mPath = path;
+      mKind = kind;
+    }
+
+    @Override
+    public int compareTo(Job another) {
+      if (mPriority != another.mPriority)
+        return mPriority > another.mPriority ? -1 : 1;
+      return mSequence < another.mSequence ? -1 : (mSequence == another.mSequence ? 0 : 1);
+    }
+  }
+
+  private static final class Delivery implements Runnable {
+    private final List<Request> mRequests;
+    private final Bitmap mBitmap;
+
+    Delivery(List<Request> requests, Bitmap bitmap) {
+      mRequests = requests;
+      mBitmap = bitmap;
+    }
+
+    @Override
+    public void run() {
+      for (Request r : mRequests) {
+        if (!r.mCancelled)
+          r.mListener.onThumbnail(r, mBitmap);
+      }
+    }
+  }
+}
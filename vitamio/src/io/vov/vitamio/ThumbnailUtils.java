@@ -60,6 +60,21 @@ public class ThumbnailUtils {
       }
     }
 
+    return scaleThumbnail(bitmap, kind);
+  }
+
+  /**
+   * Same as {@link #createVideoThumbnail(Context, String, int)}, with one of
+   * the retrievers of the pool.
+   */
+  public static Bitmap createVideoThumbnail(RetrieverPool pool, String filePath, int kind) {
+    if (!Vitamio.isInitialized(pool.getContext())) {
+      return null;
+    }
+    return scaleThumbnail(pool.getFrameAtTime(filePath, -1), kind);
+  }
+
+  private static Bitmap scaleThumbnail(Bitmap bitmap, int kind) {
     if (bitmap != null) {
       if (kind == Video.Thumbnails.MICRO_KIND)
         bitmap = extractThumbnail(bitmap, TARGET_SIZE_MICRO_THUMBNAIL_WIDTH, TARGET_SIZE_MICRO_THUMBNAIL_HEIGHT, OPTIONS_RECYCLE_INPUT);
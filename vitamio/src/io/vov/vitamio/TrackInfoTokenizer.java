@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio;
+
+/**
+ * Walks the track list returned by the native layer, records separated by
+ * "!#!", each one "index.language.title". The title is the rest of the
+ * record, dots included. Records without a valid index are skipped.
+ * <p/>
+ * <pre>
+ * TrackInfoTokenizer t = new TrackInfoTokenizer(tracks);
+ * while (t.next())
+ *   put(t.getIndex(), t.getFieldCount(), t.getLanguage(), t.getTitle());
+ * </pre>
+ */
+final class TrackInfoTokenizer {
+  private static final String RECORD_SEPARATOR = "!#!";
+  private final String mText;
+  private int mPosition;
+  private int mIndex;
+  private int mFieldCount;
+  private String mLanguage;
+  private String mTitle;
+
+  TrackInfoTokenizer(String text) {
+    mText = text;
+  }
+
+  /**
+   * Move to the next record with a valid index.
+   *
+   * @return false at the end of the list
+   */
+  boolean next() {
+    while (mPosition <= mText.length()) {
+      int start = mPosition;
+      int end = mText.indexOf(RECORD_SEPARATOR, start);
+      if (end < 0)
+        end = mText.length();
+      mPosition = end + RECORD_SEPARATOR.length();
+      if (parseRecord(start, end))
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return 1 with an index only, 2 with a language, 3 with a title
+   */
+  int getFieldCount() {
+    return mFieldCount;
+  }
+
+  int getIndex() {
+    return mIndex;
+  }
+
+  String getLanguage() {
+    return mLanguage;
+  }
+
+  String getTitle() {
+    return mTitle;
+  }
+
+  private boolean parseRecord(int start, int end) {
+    int dot = mText.indexOf('.', start);
+    if (dot < 0 || dot > end)
+      dot = end;
+    if (!parseIndex(start, dot))
+      return false;
+
+    mLanguage = "";
+    mTitle = "";
+    mFieldCount = 1;
+    if (dot < end) {
+      int languageEnd = mText.indexOf('.', dot + 1);
+      if (languageEnd < 0 || languageEnd > end)
+        languageEnd = end;
+      mLanguage = mText.substring(dot + 1, languageEnd);
+      if (languageEnd < end)
+        mTitle = mText.substring(languageEnd + 1, end);
+    }
+    // empty trailing fields don't count, as with String.split
+    if (mTitle.length() > 0)
+      mFieldCount = 3;
+    else if (mLanguage.length() > 0)
+      mFieldCount = 2;
+    return true;
+  }
+
+  private boolean parseIndex(int start, int end) {
+    int i = start;
+    boolean negative = false;
+    if (i < end && (mText.charAt(i) == '-' || mText.charAt(i) == '+')) {
+      negative = mText.charAt(i) == '-';
+      i++;
+    }
+    if (i == end || end - i > 9)
+      return false;
+
+    int value = 0;
+    for (; i < end; i++) {
+      char c = mText.charAt(i);
+      if (c < '0' || c > '9')
+        return false;
+      value = value * 10 + (c - '0');
+    }
+    mIndex = negative ? -value : value;
+    return true;
+  }
+}
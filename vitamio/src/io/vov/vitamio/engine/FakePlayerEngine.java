@@ -0,0 +1,418 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio.engine;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A {@link PlayerEngine} playing a scripted media on a virtual clock, without
+ * any native library. Time only moves in {@link #advance(long)}, which posts
+ * the events due meanwhile to the listener on the calling thread, in the
+ * order the native player would:
+ * <ul>
+ * <li>video size and prepared, {@link #setPrepareDelay(long)} after
+ * {@link #prepareAsync()}</li>
+ * <li>buffering ticks until 100%, see {@link #setBuffering(long, int)}</li>
+ * <li>caching start, growing segments, speed and complete, see
+ * {@link #setCaching(long, long, long)}</li>
+ * <li>seek complete, {@link #setSeekLatency(long)} after a seek</li>
+ * <li>timed texts shown and cleared as the position crosses them</li>
+ * <li>playback complete at the end</li>
+ * <li>any other event scheduled with {@link #postEvent(long, int, int, int)}</li>
+ * </ul>
+ * <p/>
+ * <pre>
+ * FakePlayerEngine engine = new FakePlayerEngine();
+ * engine.setDuration(90 * 60 * 1000);
+ * engine.addTimedText(1000, 3000, "Hello");
+ * engine.setListener(listener);
+ * engine.setDataSource("fake://movie");
+ * engine.prepareAsync();
+ * engine.advance(500);
+ * engine.start();
+ * engine.advance(10 * 1000);
+ * </pre>
+ * Not thread safe.
+ */
+public class FakePlayerEngine implements PlayerEngine {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final int STATE_IDLE = 0;
+  private static final int STATE_INITIALIZED = 1;
+  private static final int STATE_PREPARING = 2;
+  private static final int STATE_PREPARED = 3;
+  private static final int STATE_RELEASED = 4;
+  private static final long NEVER = Long.MAX_VALUE;
+
+  private Listener mListener;
+  private long mDuration = 60 * 1000;
+  private int mVideoWidth = 1280;
+  private int mVideoHeight = 720;
+  private long mPrepareDelay = 200;
+  private long mSeekLatency = 50;
+  private long mBufferingInterval = 100;
+  private int mBufferingStep = 10;
+  private long mCachingInterval;
+  private long mCachingBytes;
+  private long mCachingLength;
+  private final ArrayList<long[]> mTextTimes = new ArrayList<long[]>();
+  private final ArrayList<byte[]> mTexts = new ArrayList<byte[]>();
+  private final ArrayList<long[]> mScripted = new ArrayList<long[]>();
+  private final LinkedHashMap<String, String> mMetadata = new LinkedHashMap<String, String>();
+
+  private int mState = STATE_IDLE;
+  private long mNow;
+  private long mPosition;
+  private boolean mPlaying;
+  private long mPreparedAt = NEVER;
+  private long mSeekAt = NEVER;
+  private long mSeekTarget;
+  private long mBufferingAt = NEVER;
+  private int mBufferingPercent;
+  private long mCachingAt = NEVER;
+  private long mCached = -1;
+  private int mNextText;
+  private boolean mTextShown;
+  private long mEventCount;
+
+  /**
+   * @param duration the length of the media in milliseconds
+   */
+  public void setDuration(long duration) {
+    mDuration = duration;
+  }
+
+  public void setVideoSize(int width, int height) {
+    mVideoWidth = width;
+    mVideoHeight = height;
+  }
+
+  public void setPrepareDelay(long delay) {
+    mPrepareDelay = delay;
+  }
+
+  public void setSeekLatency(long latency) {
+    mSeekLatency = latency;
+  }
+
+  /**
+   * @param interval the time between two buffering updates, 0 for none
+   * @param step     the percentage added by each update
+   */
+  public void setBuffering(long interval, int step) {
+    mBufferingInterval = interval;
+    mBufferingStep = step;
+  }
+
+  /**
+   * @param interval the time between two caching updates, 0 for none
+   * @param bytes    the bytes cached between two updates
+   * @param length   the length of the media in bytes
+   */
+  public void setCaching(long interval, long bytes, long length) {
+    mCachingInterval = interval;
+    mCachingBytes = bytes;
+    mCachingLength = length;
+  }
+
+  /**
+   * Show a text between start and end, the texts must not overlap and must be
+   * added in order.
+   */
+  public void addTimedText(long start, long end, String text) {
+    mTextTimes.add(new long[]{start, end});
+    mTexts.add(text.getBytes(UTF_8));
+  }
+
+  public void putMetadata(String key, String value) {
+    mMetadata.put(key, value);
+  }
+
+  /**
+   * Post an event at a time of the virtual clock, e.g. an info or an error.
+   */
+  public void postEvent(long at, int what, int arg1, int arg2) {
+    int i = mScripted.size();
+    while (i > 0 && mScripted.get(i - 1)[0] > at)
+      i--;
+    mScripted.add(i, new long[]{at, what, arg1, arg2});
+  }
+
+  /**
+   * @return the virtual time in milliseconds
+   */
+  public long getTime() {
+    return mNow;
+  }
+
+  /**
+   * @return the number of events posted to the listener
+   */
+  public long getEventCount() {
+    return mEventCount;
+  }
+
+  /**
+   * Move the virtual clock, posting the events due meanwhile.
+   */
+  public void advance(long msec) {
+    long target = mNow + msec;
+    while (true) {
+      long next = nextEventTime();
+      if (next > target)
+        break;
+      moveTo(next);
+      fireDue();
+    }
+    moveTo(target);
+  }
+
+  @Override
+  public void setListener(Listener listener) {
+    mListener = listener;
+  }
+
+  @Override
+  public void setDataSource(String path) throws IOException {
+    checkState(mState == STATE_IDLE, "setDataSource");
+    if (path == null)
+      throw new IOException("No path");
+    mState = STATE_INITIALIZED;
+  }
+
+  @Override
+  public void prepare() throws IOException {
+    prepareAsync();
+    advance(mPreparedAt - mNow);
+  }
+
+  @Override
+  public void prepareAsync() {
+    checkState(mState == STATE_INITIALIZED, "prepare");
+    mState = STATE_PREPARING;
+    mPreparedAt = mNow + mPrepareDelay;
+  }
+
+  @Override
+  public void start() {
+    checkState(mState == STATE_PREPARED, "start");
+    if (mPosition >= mDuration)
+      mPosition = 0;
+    mPlaying = true;
+  }
+
+  @Override
+  public void pause() {
+    checkState(mState == STATE_PREPARED, "pause");
+    mPlaying = false;
+  }
+
+  @Override
+  public void stop() {
+    checkState(mState == STATE_PREPARED || mState == STATE_PREPARING, "stop");
+    mPlaying = false;
+    clearSchedule();
+    mState = STATE_INITIALIZED;
+  }
+
+  @Override
+  public void seekTo(long msec) {
+    checkState(mState == STATE_PREPARED, "seekTo");
+    mSeekTarget = Math.max(0, Math.min(mDuration, msec));
+    mSeekAt = mNow + mSeekLatency;
+  }
+
+  @Override
+  public long getCurrentPosition() {
+    return mPosition;
+  }
+
+  @Override
+  public long getDuration() {
+    return mState == STATE_PREPARED ? mDuration : -1;
+  }
+
+  @Override
+  public boolean isPlaying() {
+    return mPlaying;
+  }
+
+  @Override
+  public boolean getMetadata(Map<byte[], byte[]> meta) {
+    if (mState != STATE_PREPARED || mMetadata.isEmpty())
+      return false;
+    for (Map.Entry<String, String> e : mMetadata.entrySet())
+      meta.put(e.getKey().getBytes(UTF_8), e.getValue().getBytes(UTF_8));
+    return true;
+  }
+
+  @Override
+  public void reset() {
+    clearSchedule();
+    mState = STATE_IDLE;
+    mPlaying = false;
+    mPosition = 0;
+  }
+
+  @Override
+  public void release() {
+    reset();
+    mState = STATE_RELEASED;
+    mListener = null;
+  }
+
+  private void checkState(boolean valid, String method) {
+    if (!valid)
+      throw new IllegalStateException(method + " called in state " + mState);
+  }
+
+  private void clearSchedule() {
+    mPreparedAt = NEVER;
+    mSeekAt = NEVER;
+    mBufferingAt = NEVER;
+    mCachingAt = NEVER;
+    mCached = -1;
+    mTextShown = false;
+    mNextText = 0;
+    mScripted.clear();
+  }
+
+  private long nextEventTime() {
+    long next = Math.min(Math.min(mPreparedAt, mSeekAt), Math.min(mBufferingAt, mCachingAt));
+    if (!mScripted.isEmpty())
+      next = Math.min(next, mScripted.get(0)[0]);
+    if (mPlaying) {
+      long boundary = Math.min(mDuration, nextTextBoundary());
+      next = Math.min(next, mNow + Math.max(0, boundary - mPosition));
+    }
+    return next;
+  }
+
+  private long nextTextBoundary() {
+    if (mNextText >= mTextTimes.size())
+      return NEVER;
+    long[] times = mTextTimes.get(mNextText);
+    return mTextShown ? times[1] : times[0];
+  }
+
+  private void moveTo(long time) {
+    if (mPlaying)
+      mPosition = Math.min(mDuration, mPosition + time - mNow);
+    mNow = time;
+  }
+
+  private void fireDue() {
+    if (mPreparedAt <= mNow) {
+      mPreparedAt = NEVER;
+      mState = STATE_PREPARED;
+      event(EVENT_SET_VIDEO_SIZE, mVideoWidth, mVideoHeight, null);
+      event(EVENT_PREPARED, 0, 0, null);
+      if (mBufferingInterval > 0) {
+        mBufferingPercent = 0;
+        mBufferingAt = mNow + mBufferingInterval;
+      }
+      if (mCachingInterval > 0 && mCachingLength > 0)
+        mCachingAt = mNow;
+    }
+    if (mBufferingAt <= mNow) {
+      mBufferingPercent = Math.min(100, mBufferingPercent + mBufferingStep);
+      event(EVENT_BUFFERING_UPDATE, mBufferingPercent, 0, null);
+      mBufferingAt = mBufferingPercent < 100 ? mNow + mBufferingInterval : NEVER;
+    }
+    if (mCachingAt <= mNow)
+      fireCaching();
+    if (mSeekAt <= mNow) {
+      mSeekAt = NEVER;
+      mPosition = mSeekTarget;
+      seekTexts();
+      event(EVENT_SEEK_COMPLETE, 0, 0, null);
+    }
+    while (!mScripted.isEmpty() && mScripted.get(0)[0] <= mNow) {
+      long[] e = mScripted.remove(0);
+      event((int) e[1], (int) e[2], (int) e[3], null);
+    }
+    if (mPlaying) {
+      while (nextTextBoundary() <= mPosition) {
+        if (mTextShown) {
+          mTextShown = false;
+          mNextText++;
+          subtitle(new byte[0]);
+        } else {
+          mTextShown = true;
+          subtitle(mTexts.get(mNextText));
+        }
+      }
+      if (mPosition >= mDuration) {
+        mPlaying = false;
+        event(EVENT_PLAYBACK_COMPLETE, 0, 0, null);
+      }
+    }
+  }
+
+  private void fireCaching() {
+    if (mCached < 0) {
+      mCached = 0;
+      cache(CACHE_TYPE_START, 0, null);
+    } else {
+      mCached = Math.min(mCachingLength, mCached + mCachingBytes);
+      cache(CACHE_TYPE_UPDATE, 0, new long[]{0, mCached});
+      cache(CACHE_TYPE_SPEED, (int) (mCachingBytes * 1000 / mCachingInterval / 1024), null);
+    }
+    if (mCached >= mCachingLength) {
+      cache(CACHE_TYPE_COMPLETE, 0, null);
+      mCachingAt = NEVER;
+    } else {
+      mCachingAt = mNow + mCachingInterval;
+    }
+  }
+
+  /**
+   * Find the text at the new position, shown right away if it has begun.
+   */
+  private void seekTexts() {
+    boolean wasShown = mTextShown;
+    mNextText = 0;
+    while (mNextText < mTextTimes.size() && mTextTimes.get(mNextText)[1] <= mPosition)
+      mNextText++;
+    mTextShown = mNextText < mTextTimes.size() && mTextTimes.get(mNextText)[0] <= mPosition;
+    if (mTextShown)
+      subtitle(mTexts.get(mNextText));
+    else if (wasShown)
+      subtitle(new byte[0]);
+  }
+
+  private void event(int what, int arg1, int arg2, Object obj) {
+    mEventCount++;
+    if (mListener != null)
+      mListener.onEvent(what, arg1, arg2, obj);
+  }
+
+  private void cache(int type, int info, long[] segments) {
+    mEventCount++;
+    if (mListener != null)
+      mListener.onCacheStatus(type, info, segments);
+  }
+
+  private void subtitle(byte[] text) {
+    mEventCount++;
+    if (mListener != null)
+      mListener.onSubtitle(SUBTITLE_TEXT, text, "UTF-8", 0, 0);
+  }
+}
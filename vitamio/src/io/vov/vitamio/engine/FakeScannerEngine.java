@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio.engine;
+
+import io.vov.vitamio.MediaScannerClient;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A {@link ScannerEngine} scanning a file tree described in memory, with
+ * the tags reported for each file. {@link #generate(String, int, int, long)}
+ * describes a library of any size.
+ * Not thread safe.
+ */
+public class FakeScannerEngine implements ScannerEngine {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final String[] EXTENSIONS = {"mkv", "mp4", "avi", "rmvb", "flv"};
+  private final LinkedHashMap<String, Entry> mFiles = new LinkedHashMap<String, Entry>();
+  private final ArrayList<String> mNoMediaFolders = new ArrayList<String>();
+  private MediaScannerClient mClient;
+  private long mFilesReported;
+  private long mTagsReported;
+
+  /**
+   * Describe a library of dirs directories holding filesPerDir videos each,
+   * with plausible sizes, dates and tags.
+   */
+  public static FakeScannerEngine generate(String root, int dirs, int filesPerDir, long seed) {
+    FakeScannerEngine engine = new FakeScannerEngine();
+    Random random = new Random(seed);
+    for (int d = 0; d < dirs; d++) {
+      for (int f = 0; f < filesPerDir; f++) {
+        String ext = EXTENSIONS[random.nextInt(EXTENSIONS.length)];
+        String path = root + "/dir" + d + "/video" + f + "." + ext;
+        long duration = 60000L + random.nextInt(2 * 3600 * 1000);
+        engine.addFile(path, 1356998400L + random.nextInt(365 * 24 * 3600), duration * (100 + random.nextInt(400)), null);
+        engine.putTag(path, "title", "Video " + d + "-" + f);
+        engine.putTag(path, "artist", "Artist " + random.nextInt(50));
+        engine.putTag(path, "duration", String.valueOf(duration));
+        engine.putTag(path, "width", random.nextBoolean() ? "1920" : "1280");
+        engine.putTag(path, "height", random.nextBoolean() ? "1080" : "720");
+      }
+    }
+    return engine;
+  }
+
+  /**
+   * @param lastModified in seconds
+   * @param mimeType     reported by {@link #processFile(String, String)}, may
+   *                     be null
+   */
+  public void addFile(String path, long lastModified, long size, String mimeType) {
+    mFiles.put(path, new Entry(lastModified, size, mimeType));
+  }
+
+  public void putTag(String path, String name, String value) {
+    Entry entry = mFiles.get(path);
+    if (entry == null)
+      throw new IllegalArgumentException("Unknown file " + path);
+    entry.mTags.put(name, value.getBytes(UTF_8));
+  }
+
+  /**
+   * The files under this folder are not reported, the folder is.
+   */
+  public void addNoMediaFolder(String path) {
+    mNoMediaFolders.add(path);
+  }
+
+  public long getFilesReported() {
+    return mFilesReported;
+  }
+
+  public long getTagsReported() {
+    return mTagsReported;
+  }
+
+  @Override
+  public void setClient(MediaScannerClient client) {
+    mClient = client;
+  }
+
+  @Override
+  public void processDirectory(String path, String extensions) {
+    String prefix = path.endsWith("/") ? path : path + "/";
+    for (String folder : mNoMediaFolders) {
+      if (folder.startsWith(prefix) || folder.equals(path))
+        mClient.addNoMediaFolder(folder);
+    }
+    String[] accepted = extensions.toLowerCase(Locale.US).split(",");
+    for (Map.Entry<String, Entry> e : new ArrayList<Map.Entry<String, Entry>>(mFiles.entrySet())) {
+      String file = e.getKey();
+      if (!file.startsWith(prefix) || inNoMediaFolder(file) || !hasExtension(file, accepted))
+        continue;
+      mFilesReported++;
+      mClient.scanFile(file, e.getValue().mLastModified, e.getValue().mSize);
+    }
+  }
+
+  @Override
+  public boolean processFile(String path, String mimeType) {
+    Entry entry = mFiles.get(path);
+    if (entry == null)
+      return false;
+    for (Map.Entry<String, byte[]> tag : entry.mTags.entrySet()) {
+      mTagsReported++;
+      mClient.handleStringTag(tag.getKey(), tag.getValue(), "UTF-8");
+    }
+    if (entry.mMimeType != null)
+      mClient.setMimeType(entry.mMimeType);
+    return true;
+  }
+
+  @Override
+  public void release() {
+    mClient = null;
+  }
+
+  private boolean inNoMediaFolder(String file) {
+    for (String folder : mNoMediaFolders) {
+      if (file.startsWith(folder.endsWith("/") ? folder : folder + "/"))
+        return true;
+    }
+    return false;
+  }
+
+  private static boolean hasExtension(String file, String[] accepted) {
+    int dot = file.lastIndexOf('.');
+    if (dot < 0)
+      return false;
+    for (String ext : accepted) {
+      String e = ext.trim();
+      if (e.startsWith("."))
+        e = e.substring(1);
+      if (file.regionMatches(true, dot + 1, e, 0, e.length()) && file.length() - dot - 1 == e.length())
+        return true;
+    }
+    return false;
+  }
+
+  private static final class Entry {
+    final long mLastModified;
+    final long mSize;
+    final String mMimeType;
+    final LinkedHashMap<String, byte[]> mTags = new LinkedHashMap<String, byte[]>();
+
+    Entry(long lastModified, long size, String mimeType) {
+      mLastModified = lastModified;
+      mSize = size;
+      mMimeType = mimeType;
+    }
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio.engine;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * The playback engine under {@link io.vov.vitamio.MediaPlayer}, reduced to
+ * plain Java types so the code consuming its events can run on a host JVM.
+ * {@link io.vov.vitamio.NativePlayerEngine} is the JNI engine,
+ * {@link FakePlayerEngine} a scriptable one needing no native library. The
+ * events of both go through the same dispatcher to the listeners of the
+ * player.
+ * <p/>
+ * The event codes and arguments are those the native player posts.
+ */
+public interface PlayerEngine {
+  public static final int EVENT_PREPARED = 1;
+  public static final int EVENT_PLAYBACK_COMPLETE = 2;
+  public static final int EVENT_BUFFERING_UPDATE = 3;
+  public static final int EVENT_SEEK_COMPLETE = 4;
+  public static final int EVENT_SET_VIDEO_SIZE = 5;
+  public static final int EVENT_ERROR = 100;
+  public static final int EVENT_INFO = 200;
+  public static final int CACHE_TYPE_NOT_AVAILABLE = 1;
+  public static final int CACHE_TYPE_START = 2;
+  public static final int CACHE_TYPE_UPDATE = 3;
+  public static final int CACHE_TYPE_SPEED = 4;
+  public static final int CACHE_TYPE_COMPLETE = 5;
+  public static final int SUBTITLE_TEXT = 0;
+  public static final int SUBTITLE_BITMAP = 1;
+
+  public void setListener(Listener listener);
+
+  public void setDataSource(String path) throws IOException;
+
+  public void prepare() throws IOException;
+
+  public void prepareAsync();
+
+  public void start();
+
+  public void pause();
+
+  public void stop();
+
+  public void seekTo(long msec);
+
+  public long getCurrentPosition();
+
+  public long getDuration();
+
+  public boolean isPlaying();
+
+  /**
+   * @param meta filled with the raw keys and values, as parsed by
+   *             {@link io.vov.vitamio.Metadata}
+   * @return false if there is no metadata
+   */
+  public boolean getMetadata(Map<byte[], byte[]> meta);
+
+  public void reset();
+
+  public void release();
+
+  /**
+   * Receives the events of an engine, on the thread which produced them, like
+   * the native callbacks of {@link io.vov.vitamio.MediaPlayer}.
+   */
+  public interface Listener {
+    /**
+     * @param what one of the EVENT_* constants
+     */
+    public void onEvent(int what, int arg1, int arg2, Object obj);
+
+    /**
+     * @param type     one of the CACHE_TYPE_* constants
+     * @param segments the cached ranges as start, end pairs, for
+     *                 {@link #CACHE_TYPE_UPDATE}
+     */
+    public void onCacheStatus(int type, int info, long[] segments);
+
+    /**
+     * @param type     {@link #SUBTITLE_TEXT} or {@link #SUBTITLE_BITMAP}
+     * @param data     the text in encoding, or the RGBA pixels
+     * @param encoding the charset of a text, may be null
+     */
+    public void onSubtitle(int type, byte[] data, String encoding, int width, int height);
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio.engine;
+
+import io.vov.vitamio.MediaScannerClient;
+
+/**
+ * The scanning engine under {@link io.vov.vitamio.MediaScanner}:
+ * {@link #processDirectory(String, String)} reports each media file to
+ * {@link MediaScannerClient#scanFile(String, long, long)}, which may call
+ * {@link #processFile(String, String)} to get its tags reported to
+ * {@link MediaScannerClient#handleStringTag(String, byte[], String)}. A
+ * scanner created with an engine scans through it instead of its natives.
+ *
+ * @see io.vov.vitamio.NativeScannerEngine
+ * @see FakeScannerEngine
+ */
+public interface ScannerEngine {
+  public void setClient(MediaScannerClient client);
+
+  /**
+   * @param extensions the extensions of the media files, separated by ','
+   */
+  public void processDirectory(String path, String extensions);
+
+  /**
+   * @return false if the file can't be opened
+   */
+  public boolean processFile(String path, String mimeType);
+
+  public void release();
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio.hls;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Selects the variant of an HLS stream to play from the bandwidth estimated by
+ * a {@link BandwidthEstimator} and the buffered duration.
+ * <p/>
+ * The highest variant fitting a share of the estimate is selected. Below the
+ * low buffer mark that share shrinks with the buffer, and no up switch is
+ * made. Up switches go one variant at a time, and only once the buffer is over
+ * the up switch mark and the estimate stayed high enough for the hold time.
+ * Down switches are immediate, unless the buffer is over the down switch mark
+ * and can ride the drop out. Every switch is kept in a decision log.
+ * <p/>
+ * The times are given by the caller, so it can be simulated against a
+ * throughput trace, see {@link AbrSimulation}. A {@link SegmentScheduler}
+ * feeds it with its segment downloads and selects again after each of them.
+ * When the player downloads the stream itself, feed it with the player events
+ * and call {@link #select(long, long)} as the buffer changes:
+ * <pre>
+ * public boolean onInfo(MediaPlayer mp, int what, int extra) {
+ *   if (what == MediaPlayer.MEDIA_INFO_DOWNLOAD_RATE_CHANGED)
+ *     controller.addDownloadRate(extra, SystemClock.elapsedRealtime());
+ *   ...
+ * }
+ * </pre>
+ */
+public final class AbrController {
+  public static final float DEFAULT_SAFETY_FACTOR = 0.8f;
+  public static final long DEFAULT_LOW_BUFFER = 5000;
+  public static final long DEFAULT_UP_SWITCH_BUFFER = 10000;
+  public static final long DEFAULT_DOWN_SWITCH_BUFFER = 25000;
+  public static final long DEFAULT_UP_SWITCH_HOLD = 5000;
+  private static final int MAX_DECISIONS = 100;
+  private final BandwidthEstimator mEstimator;
+  private final ArrayList<Playlist.Variant> mVariants = new ArrayList<Playlist.Variant>();
+  private final LinkedList<Decision> mDecisions = new LinkedList<Decision>();
+  private float mSafetyFactor = DEFAULT_SAFETY_FACTOR;
+  private long mLowBuffer = DEFAULT_LOW_BUFFER;
+  private long mUpSwitchBuffer = DEFAULT_UP_SWITCH_BUFFER;
+  private long mDownSwitchBuffer = DEFAULT_DOWN_SWITCH_BUFFER;
+  private long mUpSwitchHold = DEFAULT_UP_SWITCH_HOLD;
+  private Listener mListener;
+  private int mCurrent = -1;
+  private long mUpSince = -1;
+
+  public interface Listener {
+    /**
+     * Called on the thread of {@link AbrController#select(long, long)} when
+     * the variant changes, without the lock of the controller held.
+     */
+    public void onDecision(AbrController controller, Decision decision);
+  }
+
+  public AbrController() {
+    this(new BandwidthEstimator());
+  }
+
+  public AbrController(BandwidthEstimator estimator) {
+    mEstimator = estimator;
+  }
+
+  /**
+   * @param variants the variants of a master playlist, the current one is
+   *                 reset
+   */
+  public synchronized void setVariants(List<Playlist.Variant> variants) {
+    mVariants.clear();
+    mVariants.addAll(variants);
+    Collections.sort(mVariants, new Comparator<Playlist.Variant>() {
+      @Override
+      public int compare(Playlist.Variant lhs, Playlist.Variant rhs) {
+        return lhs.getBandwidth() < rhs.getBandwidth() ? -1 : (lhs.getBandwidth() == rhs.getBandwidth() ? 0 : 1);
+      }
+    });
+    mCurrent = -1;
+    mUpSince = -1;
+  }
+
+  public synchronized void setListener(Listener listener) {
+    mListener = listener;
+  }
+
+  /**
+   * @param factor the share of the estimated bandwidth a variant may use
+   */
+  public synchronized void setSafetyFactor(float factor) {
+    if (factor <= 0 || factor > 1)
+      throw new IllegalArgumentException("factor must be in (0, 1]");
+    mSafetyFactor = factor;
+  }
+
+  /**
+   * Set the buffer marks, in milliseconds.
+   *
+   * @param low  below it the selection gets more conservative and never
+   *             switches up
+   * @param up   the buffer needed to switch up
+   * @param down over it the down switches are delayed
+   */
+  public synchronized void setBufferThresholds(long low, long up, long down) {
+    if (low < 0 || up < low || down < up)
+      throw new IllegalArgumentException("The thresholds must be ordered, low <= up <= down");
+    mLowBuffer = low;
+    mUpSwitchBuffer = up;
+    mDownSwitchBuffer = down;
+  }
+
+  /**
+   * @param hold how long in milliseconds the estimate must allow a higher
+   *             variant before switching to it
+   */
+  public synchronized void setUpSwitchHold(long hold) {
+    mUpSwitchHold = hold;
+  }
+
+  public BandwidthEstimator getEstimator() {
+    return mEstimator;
+  }
+
+  /**
+   * @see BandwidthEstimator#addSample(long, long)
+   */
+  public void addSample(long bytes, long duration) {
+    mEstimator.addSample(bytes, duration);
+  }
+
+  /**
+   * @see BandwidthEstimator#addRate(int, long)
+   */
+  public void addDownloadRate(int kbytesPerSecond, long time) {
+    mEstimator.addRate(kbytesPerSecond, time);
+  }
+
+  /**
+   * @param buffer the buffered duration in milliseconds
+   * @param time   the current time in milliseconds
+   * @return the variant to play, null if there is no variant
+   */
+  public Playlist.Variant select(long buffer, long time) {
+    Decision decision = null;
+    Listener listener;
+    Playlist.Variant variant;
+    synchronized (this) {
+      if (mVariants.isEmpty())
+        return null;
+      long estimate = mEstimator.getEstimate();
+      double usable = estimate * mSafetyFactor;
+      if (buffer < mLowBuffer)
+        usable *= Math.max(0.5, buffer / (double) mLowBuffer);
+      int fit = 0;
+      while (fit + 1 < mVariants.size() && mVariants.get(fit + 1).getBandwidth() <= usable)
+        fit++;
+
+      if (mCurrent < 0) {
+        decision = switchTo(fit, Decision.REASON_START, estimate, buffer, time);
+      } else if (fit > mCurrent) {
+        if (buffer < mUpSwitchBuffer) {
+          mUpSince = -1;
+        } else if (mUpSince < 0) {
+          mUpSince = time;
+        }
+        if (mUpSince >= 0 && time - mUpSince >= mUpSwitchHold) {
+          mUpSince = -1;
+          decision = switchTo(mCurrent + 1, Decision.REASON_UP, estimate, buffer, time);
+        }
+      } else {
+        mUpSince = -1;
+        if (fit < mCurrent && buffer < mDownSwitchBuffer)
+          decision = switchTo(fit, buffer < mLowBuffer ? Decision.REASON_LOW_BUFFER : Decision.REASON_DOWN, estimate, buffer, time);
+      }
+      listener = mListener;
+      variant = mVariants.get(mCurrent);
+    }
+    if (decision != null && listener != null)
+      listener.onDecision(this, decision);
+    return variant;
+  }
+
+  /**
+   * @return the variant selected last, null before the first selection
+   */
+  public synchronized Playlist.Variant getCurrent() {
+    return mCurrent < 0 ? null : mVariants.get(mCurrent);
+  }
+
+  /**
+   * @return the last switches, the oldest first
+   */
+  public synchronized List<Decision> getDecisions() {
+    return new ArrayList<Decision>(mDecisions);
+  }
+
+  /**
+   * @return the decision, for the listener to be told once the lock is
+   *         released
+   */
+  private Decision switchTo(int index, int reason, long estimate, long buffer, long time) {
+    Decision decision = new Decision(time, mCurrent < 0 ? null : mVariants.get(mCurrent), mVariants.get(index), reason, estimate, buffer);
+    mCurrent = index;
+    mDecisions.add(decision);
+    if (mDecisions.size() > MAX_DECISIONS)
+      mDecisions.removeFirst();
+    return decision;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("AbrController[current=%s, estimate=%d bps, switches=%d]", getCurrent(), mEstimator.getEstimate(), mDecisions.size());
+  }
+
+  /**
+   * A variant switch.
+   */
+  public static final class Decision {
+    public static final int REASON_START = 0;
+    public static final int REASON_UP = 1;
+    public static final int REASON_DOWN = 2;
+    public static final int REASON_LOW_BUFFER = 3;
+    private static final String[] REASONS = {"start", "up", "down", "low buffer"};
+    private final long mTime;
+    private final Playlist.Variant mFrom;
+    private final Playlist.Variant mTo;
+    private final int mReason;
+    private final long mEstimate;
+    private final long mBuffer;
+
+    Decision(long time, Playlist.Variant from, Playlist.Variant to, int reason, long estimate, long buffer) {
+      mTime = time;
+      mFrom = from;
+      mTo = to;
+      mReason = reason;
+      mEstimate = estimate;
+      mBuffer = buffer;
+    }
+
+    public long getTime() {
+      return mTime;
+    }
+
+    /**
+     * @return the previous variant, null for the first selection
+     */
+    public Playlist.Variant getFrom() {
+      return mFrom;
+    }
+
+    public Playlist.Variant getTo() {
+      return mTo;
+    }
+
+    /**
+     * @return one of the REASON_ constants
+     */
+    public int getReason() {
+      return mReason;
+    }
+
+    /**
+     * @return the estimated bandwidth in bits per second
+     */
+    public long getEstimate() {
+      return mEstimate;
+    }
+
+    /**
+     * @return the buffered duration in milliseconds
+     */
+    public long getBuffer() {
+      return mBuffer;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%dms %s: %d -> %d bps (estimate %d bps, buffer %dms)", mTime, REASONS[mReason], mFrom == null ? 0 : mFrom.getBandwidth(), mTo.getBandwidth(), mEstimate, mBuffer);
+    }
+  }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio.hls;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replays a throughput trace through an {@link AbrController}, on a plain JVM.
+ * <p/>
+ * The segments are downloaded one after another at the rates of the trace,
+ * which loops when it's over, while the playback drains the buffer. The
+ * download of a segment is fed to the controller, and the next variant is
+ * selected before each download.
+ */
+public final class AbrSimulation {
+  private AbrSimulation() {
+  }
+
+  /**
+   * Read a trace, one "duration bandwidth" line per period, the duration in
+   * milliseconds and the bandwidth in kilobits per second. The lines starting
+   * with '#' are ignored.
+   *
+   * @return the periods, {duration, bits per second}
+   */
+  public static long[][] parseTrace(Reader reader) throws IOException {
+    BufferedReader in = new BufferedReader(reader);
+    ArrayList<long[]> trace = new ArrayList<long[]>();
+    String line;
+    while ((line = in.readLine()) != null) {
+      line = line.trim();
+      if (line.length() == 0 || line.startsWith("#"))
+        continue;
+      String[] fields = line.split("\\s+");
+      try {
+        if (fields.length != 2)
+          throw new NumberFormatException();
+        trace.add(new long[]{Long.parseLong(fields[0]), Math.round(Double.parseDouble(fields[1]) * 1000)});
+      } catch (NumberFormatException e) {
+        throw new IOException("Malformed trace line: " + line);
+      }
+    }
+    return trace.toArray(new long[trace.size()][]);
+  }
+
+  /**
+   * @param trace           the periods, {duration, bits per second}
+   * @param segmentDuration the duration of a segment in milliseconds
+   * @param segments        the number of segments to play
+   * @param maxBuffer       the buffered duration the downloads pause at
+   */
+  public static Result run(AbrController controller, long[][] trace, long segmentDuration, int segments, long maxBuffer) {
+    if (segmentDuration <= 0 || maxBuffer < segmentDuration)
+      throw new IllegalArgumentException("maxBuffer must hold a segment");
+    Network network = new Network(trace);
+    Result result = new Result();
+    long buffer = 0;
+    long bits = 0;
+    for (int i = 0; i < segments; i++) {
+      Playlist.Variant variant = controller.select(buffer, network.mTime);
+      long bytes = (long) variant.getBandwidth() * segmentDuration / 8000;
+      long start = network.mTime;
+      network.download(bytes);
+      long duration = Math.max(1, network.mTime - start);
+      controller.addSample(bytes, duration);
+      if (i == 0) {
+        result.mStartupTime = duration;
+      } else if (duration > buffer) {
+        result.mStallTime += duration - buffer;
+        result.mStallCount++;
+        buffer = 0;
+      } else {
+        buffer -= duration;
+      }
+      buffer += segmentDuration;
+      bits += (long) variant.getBandwidth() * segmentDuration / 1000;
+      if (buffer > maxBuffer) {
+        network.idle(buffer - maxBuffer);
+        buffer = maxBuffer;
+      }
+    }
+    result.mPlayTime = segments * segmentDuration;
+    result.mAverageBitrate = result.mPlayTime == 0 ? 0 : bits * 1000 / result.mPlayTime;
+    result.mDecisions = controller.getDecisions();
+    return result;
+  }
+
+  public static final class Result {
+    private long mPlayTime;
+    private long mStartupTime;
+    private long mStallTime;
+    private int mStallCount;
+    private long mAverageBitrate;
+    private List<AbrController.Decision> mDecisions;
+
+    /**
+     * @return the duration played in milliseconds
+     */
+    public long getPlayTime() {
+      return mPlayTime;
+    }
+
+    /**
+     * @return the download time of the first segment in milliseconds
+     */
+    public long getStartupTime() {
+      return mStartupTime;
+    }
+
+    /**
+     * @return the time spent rebuffering after the start, in milliseconds
+     */
+    public long getStallTime() {
+      return mStallTime;
+    }
+
+    public int getStallCount() {
+      return mStallCount;
+    }
+
+    /**
+     * @return the average bit rate played in bits per second
+     */
+    public long getAverageBitrate() {
+      return mAverageBitrate;
+    }
+
+    /**
+     * @return the decisions logged by the controller, the first selection
+     *         included
+     */
+    public List<AbrController.Decision> getDecisions() {
+      return mDecisions;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Result[played=%dms, startup=%dms, stalls=%d/%dms, bitrate=%d bps, switches=%d]", mPlayTime, mStartupTime, mStallCount, mStallTime, mAverageBitrate, Math.max(0, mDecisions.size() - 1));
+    }
+  }
+
+  /**
+   * The position in the trace.
+   */
+  private static final class Network {
+    private final long[][] mTrace;
+    private int mPeriod;
+    private long mRemaining;
+    long mTime;
+
+    Network(long[][] trace) {
+      boolean up = false;
+      for (long[] period : trace) {
+        if (period[0] < 0 || period[1] < 0)
+          throw new IllegalArgumentException("Negative trace period");
+        up |= period[0] > 0 && period[1] > 0;
+      }
+      if (!up)
+        throw new IllegalArgumentException("The trace has no bandwidth");
+      mTrace = trace;
+      mRemaining = trace[0][0];
+    }
+
+    void download(long bytes) {
+      double bits = bytes * 8.0;
+      while (bits > 0) {
+        double available = mTrace[mPeriod][1] * mRemaining / 1000.0;
+        if (available >= bits) {
+          long used = (long) Math.ceil(bits * 1000 / mTrace[mPeriod][1]);
+          mTime += used;
+          mRemaining -= used;
+          return;
+        }
+        bits -= available;
+        mTime += mRemaining;
+        next();
+      }
+    }
+
+    void idle(long duration) {
+      while (duration > mRemaining) {
+        duration -= mRemaining;
+        mTime += mRemaining;
+        next();
+      }
+      mTime += duration;
+      mRemaining -= duration;
+    }
+
+    private void next() {
+      mPeriod = (mPeriod + 1) % mTrace.length;
+      mRemaining = mTrace[mPeriod][0];
+    }
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio.hls;
+
+/**
+ * Estimates the network bandwidth from download samples, with two
+ * exponentially weighted moving averages weighted by the sample durations: a
+ * fast one reacting to drops and a slow one ignoring short peaks. The estimate
+ * is the lower of the two.
+ * <p/>
+ * The samples are either measured downloads, {@link #addSample(long, long)},
+ * or the rates the player reports, {@link #addRate(int, long)}. The times are
+ * given by the caller, so it can be replayed from a trace.
+ */
+public final class BandwidthEstimator {
+  public static final long DEFAULT_ESTIMATE = 500000;
+  private static final double FAST_HALF_LIFE = 2;
+  private static final double SLOW_HALF_LIFE = 5;
+  private static final long MIN_BYTES = 128 * 1024;
+  private static final long MAX_RATE_INTERVAL = 5000;
+  private final long mDefaultEstimate;
+  private final Ewma mFast = new Ewma(FAST_HALF_LIFE);
+  private final Ewma mSlow = new Ewma(SLOW_HALF_LIFE);
+  private long mBytes;
+  private long mLastRateTime = -1;
+
+  public BandwidthEstimator() {
+    this(DEFAULT_ESTIMATE);
+  }
+
+  /**
+   * @param defaultEstimate the estimate in bits per second until enough bytes
+   *                        are sampled
+   */
+  public BandwidthEstimator(long defaultEstimate) {
+    mDefaultEstimate = defaultEstimate;
+  }
+
+  /**
+   * @param bytes    the bytes downloaded
+   * @param duration the download time in milliseconds
+   */
+  public synchronized void addSample(long bytes, long duration) {
+    if (bytes <= 0 || duration <= 0)
+      return;
+    double seconds = duration / 1000.0;
+    double rate = bytes * 8 / seconds;
+    mFast.sample(seconds, rate);
+    mSlow.sample(seconds, rate);
+    mBytes += bytes;
+  }
+
+  /**
+   * Add a rate reported by {@link io.vov.vitamio.MediaPlayer#MEDIA_INFO_DOWNLOAD_RATE_CHANGED}
+   * or {@link io.vov.vitamio.MediaPlayer.OnCachingUpdateListener#onCachingSpeed},
+   * it's taken as the rate since the previous one.
+   *
+   * @param kbytesPerSecond the rate in KB/s
+   * @param time            the time of the report in milliseconds
+   */
+  public synchronized void addRate(int kbytesPerSecond, long time) {
+    long duration = mLastRateTime < 0 ? 1000 : Math.min(MAX_RATE_INTERVAL, time - mLastRateTime);
+    mLastRateTime = time;
+    if (kbytesPerSecond < 0 || duration <= 0)
+      return;
+    long bytes = kbytesPerSecond * 1024L * duration / 1000;
+    if (bytes == 0) {
+      // an outage, it counts as much as a download
+      double seconds = duration / 1000.0;
+      mFast.sample(seconds, 0);
+      mSlow.sample(seconds, 0);
+      return;
+    }
+    addSample(bytes, duration);
+  }
+
+  /**
+   * @return the estimated bandwidth in bits per second
+   */
+  public synchronized long getEstimate() {
+    if (mBytes < MIN_BYTES)
+      return mDefaultEstimate;
+    return (long) Math.min(mFast.get(), mSlow.get());
+  }
+
+  public synchronized void reset() {
+    mFast.reset();
+    mSlow.reset();
+    mBytes = 0;
+    mLastRateTime = -1;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("BandwidthEstimator[estimate=%d bps, fast=%.0f, slow=%.0f, bytes=%d]", getEstimate(), mFast.get(), mSlow.get(), mBytes);
+  }
+
+  private static final class Ewma {
+    private final double mHalfLife;
+    private double mEstimate;
+    private double mWeight;
+
+    Ewma(double halfLife) {
+      mHalfLife = halfLife;
+    }
+
+    void sample(double weight, double value) {
+      double alpha = Math.pow(0.5, weight / mHalfLife);
+      mEstimate = value * (1 - alpha) + alpha * mEstimate;
+      mWeight += weight;
+    }
+
+    /**
+     * @return the average, corrected for the zero it starts from
+     */
+    double get() {
+      double correction = 1 - Math.pow(0.5, mWeight / mHalfLife);
+      return correction == 0 ? 0 : mEstimate / correction;
+    }
+
+    void reset() {
+      mEstimate = 0;
+      mWeight = 0;
+    }
+  }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio.hls;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An HLS playlist, either a master playlist listing the variants of a stream
+ * or a media playlist listing its segments. It's filled by
+ * {@link PlaylistParser} while the playlist is read, and the segments of a
+ * live playlist are appended on every refresh, the getters can be called from
+ * any thread meanwhile.
+ */
+public final class Playlist {
+  private final String mUri;
+  private final ArrayList<Variant> mVariants = new ArrayList<Variant>();
+  private final ArrayList<Segment> mSegments = new ArrayList<Segment>();
+  private long mTargetDuration;
+  private long mMediaSequence;
+  private long mDuration;
+  private boolean mEndList;
+
+  Playlist(String uri) {
+    mUri = uri;
+  }
+
+  /**
+   * @return the uri the playlist was read from, the segments and variants uris
+   *         are resolved against it
+   */
+  public String getUri() {
+    return mUri;
+  }
+
+  public synchronized boolean isMaster() {
+    return !mVariants.isEmpty();
+  }
+
+  /**
+   * @return the variants in the order of the master playlist, the first one
+   *         being the one to start with
+   */
+  public synchronized List<Variant> getVariants() {
+    return Collections.unmodifiableList(new ArrayList<Variant>(mVariants));
+  }
+
+  public synchronized int getSegmentCount() {
+    return mSegments.size();
+  }
+
+  public synchronized Segment getSegment(int index) {
+    return mSegments.get(index);
+  }
+
+  /**
+   * @return the index of the segment playing at time, the last one when time is
+   *         past the end, -1 if there is no segment yet
+   */
+  public synchronized int getSegmentIndex(long time) {
+    int low = 0;
+    int high = mSegments.size() - 1;
+    while (low < high) {
+      int mid = (low + high + 1) >>> 1;
+      if (mSegments.get(mid).mStartTime <= time)
+        low = mid;
+      else
+        high = mid - 1;
+    }
+    return high;
+  }
+
+  /**
+   * @return the maximum segment duration in milliseconds
+   */
+  public synchronized long getTargetDuration() {
+    return mTargetDuration;
+  }
+
+  /**
+   * @return the sequence number of the first segment
+   */
+  public synchronized long getMediaSequence() {
+    return mMediaSequence;
+  }
+
+  /**
+   * @return the sum of the segments durations in milliseconds
+   */
+  public synchronized long getDuration() {
+    return mDuration;
+  }
+
+  /**
+   * @return false while no more segments will be added, a live playlist
+   */
+  public synchronized boolean isEndList() {
+    return mEndList;
+  }
+
+  synchronized void addVariant(Variant variant) {
+    mVariants.add(variant);
+  }
+
+  synchronized void addSegment(Segment segment) {
+    segment.mStartTime = mDuration;
+    mSegments.add(segment);
+    mDuration += segment.mDuration;
+  }
+
+  synchronized void setTargetDuration(long targetDuration) {
+    mTargetDuration = targetDuration;
+  }
+
+  synchronized void setMediaSequence(long mediaSequence) {
+    mMediaSequence = mediaSequence;
+  }
+
+  synchronized void setEndList(boolean endList) {
+    mEndList = endList;
+  }
+
+  @Override
+  public synchronized String toString() {
+    if (isMaster())
+      return String.format("Playlist{%s, %d variants}", mUri, mVariants.size());
+    return String.format("Playlist{%s, %d segments, %dms%s}", mUri, mSegments.size(), mDuration, mEndList ? "" : ", live");
+  }
+
+  /**
+   * A media segment.
+   */
+  public static final class Segment {
+    private final String mUri;
+    private final long mDuration;
+    private final long mSequence;
+    private final String mTitle;
+    private final boolean mDiscontinuity;
+    private final boolean mEncrypted;
+    private final long mOffset;
+    private final long mLength;
+    private long mStartTime;
+
+    Segment(String uri, long duration, long sequence, String title, boolean discontinuity, boolean encrypted, long offset, long length) {
+      mUri = uri;
+      mDuration = duration;
+      mSequence = sequence;
+      mTitle = title;
+      mDiscontinuity = discontinuity;
+      mEncrypted = encrypted;
+      mOffset = offset;
+      mLength = length;
+    }
+
+    public String getUri() {
+      return mUri;
+    }
+
+    /**
+     * @return the duration in milliseconds
+     */
+    public long getDuration() {
+      return mDuration;
+    }
+
+    /**
+     * @return the start time in the playlist, in milliseconds
+     */
+    public long getStartTime() {
+      return mStartTime;
+    }
+
+    public long getSequence() {
+      return mSequence;
+    }
+
+    public String getTitle() {
+      return mTitle;
+    }
+
+    /**
+     * @return true if the encoding changes from the previous segment
+     */
+    public boolean isDiscontinuity() {
+      return mDiscontinuity;
+    }
+
+    public boolean isEncrypted() {
+      return mEncrypted;
+    }
+
+    /**
+     * @return the offset of the segment in the resource of its uri, given by
+     *         EXT-X-BYTERANGE, -1 if it's the whole resource
+     */
+    public long getOffset() {
+      return mOffset;
+    }
+
+    /**
+     * @return the length of the segment given by EXT-X-BYTERANGE, -1 if it's
+     *         the whole resource
+     */
+    public long getLength() {
+      return mLength;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Segment{#%d, %s, %dms}", mSequence, mUri, mDuration);
+    }
+  }
+
+  /**
+   * A variant stream of a master playlist.
+   */
+  public static final class Variant {
+    private final String mUri;
+    private final int mBandwidth;
+    private final int mAverageBandwidth;
+    private final int mWidth;
+    private final int mHeight;
+    private final String mCodecs;
+
+    Variant(String uri, int bandwidth, int averageBandwidth, int width, int height, String codecs) {
+      mUri = uri;
+      mBandwidth = bandwidth;
+      mAverageBandwidth = averageBandwidth;
+      mWidth = width;
+      mHeight = height;
+      mCodecs = codecs;
+    }
+
+    /**
+     * @return the uri of the media playlist
+     */
+    public String getUri() {
+      return mUri;
+    }
+
+    /**
+     * @return the peak bit rate in bits per second
+     */
+    public int getBandwidth() {
+      return mBandwidth;
+    }
+
+    /**
+     * @return the average bit rate in bits per second, the peak one if the
+     *         playlist doesn't give it
+     */
+    public int getAverageBandwidth() {
+      return mAverageBandwidth > 0 ? mAverageBandwidth : mBandwidth;
+    }
+
+    /**
+     * @return the video width, 0 if unknown
+     */
+    public int getWidth() {
+      return mWidth;
+    }
+
+    /**
+     * @return the video height, 0 if unknown
+     */
+    public int getHeight() {
+      return mHeight;
+    }
+
+    /**
+     * @return the CODECS attribute, null if absent
+     */
+    public String getCodecs() {
+      return mCodecs;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Variant{%s, %d bps, %dx%d}", mUri, mBandwidth, mWidth, mHeight);
+    }
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio.hls;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads HLS playlists as they are downloaded: every segment is added to the
+ * {@link Playlist} and given to the {@link Listener} as soon as its line is
+ * read, so the first segments of a long playlist can be fetched before its end
+ * is received.
+ */
+public final class PlaylistParser {
+  private static final String HEADER = "#EXTM3U";
+  private static final String INF = "#EXTINF:";
+  private static final String STREAM_INF = "#EXT-X-STREAM-INF:";
+  private static final String TARGET_DURATION = "#EXT-X-TARGETDURATION:";
+  private static final String MEDIA_SEQUENCE = "#EXT-X-MEDIA-SEQUENCE:";
+  private static final String BYTERANGE = "#EXT-X-BYTERANGE:";
+  private static final String KEY = "#EXT-X-KEY:";
+  private static final String DISCONTINUITY = "#EXT-X-DISCONTINUITY";
+  private static final String ENDLIST = "#EXT-X-ENDLIST";
+  private static final String PLAYLIST_TYPE = "#EXT-X-PLAYLIST-TYPE:";
+
+  public interface Listener {
+    /**
+     * Called on the parsing thread, before the next line is read.
+     */
+    public void onSegment(Playlist playlist, Playlist.Segment segment);
+
+    public void onVariant(Playlist playlist, Playlist.Variant variant);
+  }
+
+  private PlaylistParser() {
+  }
+
+  /**
+   * @param uri      the uri of the playlist, to resolve the relative uris
+   * @param listener may be null
+   */
+  public static Playlist parse(InputStream in, String uri, Listener listener) throws IOException {
+    Playlist playlist = new Playlist(uri);
+    parse(in, playlist, listener);
+    return playlist;
+  }
+
+  static void parse(InputStream in, Playlist playlist, Listener listener) throws IOException {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+    URI base = URI.create(playlist.getUri());
+    String line = reader.readLine();
+    if (line != null && line.length() > 0 && line.charAt(0) == '\uFEFF')
+      line = line.substring(1);
+    if (line == null || !line.trim().equals(HEADER))
+      throw new IOException("Not an HLS playlist: " + playlist.getUri());
+
+    long sequence = 0;
+    long duration = -1;
+    String title = null;
+    boolean discontinuity = false;
+    boolean encrypted = false;
+    long offset = -1;
+    long length = -1;
+    long nextOffset = 0;
+    String previousUri = null;
+    Map<String, String> streamInf = null;
+    while ((line = reader.readLine()) != null) {
+      line = line.trim();
+      if (line.length() == 0)
+        continue;
+      try {
+        if (line.startsWith(INF)) {
+          int comma = line.indexOf(',', INF.length());
+          duration = Math.round(Double.parseDouble(line.substring(INF.length(), comma < 0 ? line.length() : comma)) * 1000);
+          title = comma < 0 || comma == line.length() - 1 ? null : line.substring(comma + 1);
+        } else if (line.startsWith(STREAM_INF)) {
+          streamInf = parseAttributes(line.substring(STREAM_INF.length()));
+        } else if (line.startsWith(TARGET_DURATION)) {
+          playlist.setTargetDuration(Long.parseLong(line.substring(TARGET_DURATION.length())) * 1000);
+        } else if (line.startsWith(MEDIA_SEQUENCE)) {
+          sequence = Long.parseLong(line.substring(MEDIA_SEQUENCE.length()));
+          playlist.setMediaSequence(sequence);
+        } else if (line.startsWith(BYTERANGE)) {
+          String range = line.substring(BYTERANGE.length());
+          int at = range.indexOf('@');
+          length = Long.parseLong(at < 0 ? range : range.substring(0, at));
+          offset = at < 0 ? -2 : Long.parseLong(range.substring(at + 1));
+        } else if (line.startsWith(KEY)) {
+          String method = parseAttributes(line.substring(KEY.length())).get("METHOD");
+          encrypted = method != null && !method.equals("NONE");
+        } else if (line.equals(DISCONTINUITY)) {
+          discontinuity = true;
+        } else if (line.equals(ENDLIST)) {
+          playlist.setEndList(true);
+        } else if (line.startsWith(PLAYLIST_TYPE)) {
+          if (line.substring(PLAYLIST_TYPE.length()).equals("VOD"))
+            playlist.setEndList(true);
+        } else if (!line.startsWith("#")) {
+          String resolved = base.resolve(line).toString();
+          if (streamInf != null) {
+            Playlist.Variant variant = new Playlist.Variant(resolved, parseInt(streamInf.get("BANDWIDTH")), parseInt(streamInf.get("AVERAGE-BANDWIDTH")), parseResolution(streamInf.get("RESOLUTION"), 0), parseResolution(streamInf.get("RESOLUTION"), 1), streamInf.get("CODECS"));
+            playlist.addVariant(variant);
+            if (listener != null)
+              listener.onVariant(playlist, variant);
+            streamInf = null;
+          } else if (duration >= 0) {
+            // a range without offset follows the previous one of the same resource
+            if (offset == -2)
+              offset = resolved.equals(previousUri) ? nextOffset : 0;
+            Playlist.Segment segment = new Playlist.Segment(resolved, duration, sequence++, title, discontinuity, encrypted, offset, length);
+            playlist.addSegment(segment);
+            if (listener != null)
+              listener.onSegment(playlist, segment);
+            nextOffset = length >= 0 ? offset + length : 0;
+            previousUri = resolved;
+            duration = -1;
+            title = null;
+            discontinuity = false;
+            offset = -1;
+            length = -1;
+          }
+        }
+      } catch (NumberFormatException e) {
+        throw new IOException("Malformed line in " + playlist.getUri() + ": " + line);
+      } catch (IllegalArgumentException e) {
+        throw new IOException("Malformed uri in " + playlist.getUri() + ": " + line);
+      }
+    }
+  }
+
+  /**
+   * Parse an attribute list, NAME=value,NAME="quoted, value".
+   */
+  static Map<String, String> parseAttributes(String list) {
+    HashMap<String, String> attributes = new HashMap<String, String>();
+    int i = 0;
+    int n = list.length();
+    while (i < n) {
+      int eq = list.indexOf('=', i);
+      if (eq < 0)
+        break;
+      String name = list.substring(i, eq).trim();
+      int end;
+      String value;
+      if (eq + 1 < n && list.charAt(eq + 1) == '"') {
+        int quote = list.indexOf('"', eq + 2);
+        if (quote < 0)
+          quote = n;
+        value = list.substring(eq + 2, quote);
+        end = list.indexOf(',', quote);
+      } else {
+        end = list.indexOf(',', eq + 1);
+        value = list.substring(eq + 1, end < 0 ? n : end).trim();
+      }
+      attributes.put(name, value);
+      if (end < 0)
+        break;
+      i = end + 1;
+    }
+    return attributes;
+  }
+
+  private static int parseInt(String value) {
+    if (value == null)
+      return 0;
+    long l = Long.parseLong(value);
+    return (int) Math.min(Integer.MAX_VALUE, l);
+  }
+
+  private static int parseResolution(String resolution, int index) {
+    if (resolution == null)
+      return 0;
+    String[] parts = resolution.split("x");
+    return parts.length == 2 ? parseInt(parts[index]) : 0;
+  }
+}
@@ -0,0 +1,565 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio.hls;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads an HLS playlist and prefetches its segments ahead of the playback
+ * position into a cache directory, for
+ * {@link io.vov.vitamio.MediaPlayer#setDataSegments(String[], String)}.
+ * <p/>
+ * The playlist is parsed while it's downloaded and the first segments are
+ * fetched in parallel with the rest of it. For a master playlist, the first
+ * variant is played, or the one selected by the {@link AbrController}, which
+ * is asked again after every segment fetched and may move the prefetch window
+ * to another variant. A live playlist is refreshed on its target duration
+ * cadence, and the segments it gains are reported to the {@link Listener}.
+ * At most {@code parallelism} segments are fetched at once. The encrypted
+ * segments, EXT-X-KEY other than NONE, are left to the player with their
+ * remote uris, the player fetches their keys and decrypts them itself.
+ * <p/>
+ * <pre>
+ * SegmentScheduler scheduler = new SegmentScheduler(url, cacheDir);
+ * scheduler.setListener(new SegmentScheduler.Listener() {
+ *   public void onReady(SegmentScheduler scheduler, String[] uris) {
+ *     mediaPlayer.setDataSegments(uris, null);
+ *     mediaPlayer.prepareAsync();
+ *   }
+ *   ...
+ * });
+ * scheduler.start();
+ * </pre>
+ * It only depends on java.net, and runs on a desktop JVM as well.
+ */
+public final class SegmentScheduler {
+  public static final int DEFAULT_PARALLELISM = 2;
+  public static final int DEFAULT_PREFETCH_SEGMENTS = 3;
+  private static final int TIMEOUT = 15000;
+  private final String mUri;
+  private final Map<String, String> mHeaders;
+  private final File mCacheDir;
+  private final int mPrefetchSegments;
+  private final ThreadPoolExecutor mExecutor;
+  private final ConcurrentHashMap<String, FutureTask<Void>> mFetches = new ConcurrentHashMap<String, FutureTask<Void>>();
+  private final AtomicBoolean mSwitching = new AtomicBoolean();
+  private volatile Listener mListener;
+  private volatile AbrController mAbrController;
+  private volatile Playlist mMasterPlaylist;
+  private volatile Playlist mPlaylist;
+  private volatile int mPosition;
+  private volatile long mPositionTime;
+  private volatile boolean mStopped;
+  private Thread mThread;
+  private final AtomicLong mBytesFetched = new AtomicLong();
+  private final AtomicLong mFetchNanos = new AtomicLong();
+  private final AtomicInteger mFetchedCount = new AtomicInteger();
+  private final AtomicInteger mErrorCount = new AtomicInteger();
+
+  public interface Listener {
+    /**
+     * Called on the scheduler thread once the media playlist is read, the
+     * current window of a live one, and the first segment is fetched.
+     *
+     * @param uris the paths of the segments fetched, the remote uris of the
+     *             others and of the encrypted ones
+     */
+    public void onReady(SegmentScheduler scheduler, String[] uris);
+
+    /**
+     * Called on the scheduler thread when a refresh of a live playlist added
+     * segments.
+     */
+    public void onSegmentsAdded(SegmentScheduler scheduler, int from, int count);
+
+    /**
+     * Called on a fetch thread when the {@link AbrController} switched to
+     * another variant, {@link #getPlaylist()} and {@link #getSegmentUris()}
+     * are those of the new variant.
+     */
+    public void onVariantChanged(SegmentScheduler scheduler, Playlist.Variant variant);
+
+    /**
+     * Called on the scheduler thread when a playlist can't be read, the
+     * scheduler stops if it's the first read, and retries otherwise.
+     */
+    public void onError(SegmentScheduler scheduler, IOException e);
+  }
+
+  public SegmentScheduler(String uri, File cacheDir) {
+    this(uri, null, cacheDir, DEFAULT_PARALLELISM, DEFAULT_PREFETCH_SEGMENTS);
+  }
+
+  /**
+   * @param headers          sent with every request, may be null
+   * @param cacheDir         the directory of the segments, dedicated to the
+   *                         stream
+   * @param parallelism      the maximum number of segments fetched at once
+   * @param prefetchSegments how many segments are fetched from the playback
+   *                         position
+   */
+  public SegmentScheduler(String uri, Map<String, String> headers, File cacheDir, int parallelism, int prefetchSegments) {
+    if (parallelism < 1 || prefetchSegments < 1)
+      throw new IllegalArgumentException("parallelism and prefetchSegments must be at least 1");
+    mUri = uri;
+    mHeaders = headers == null ? Collections.<String, String>emptyMap() : new HashMap<String, String>(headers);
+    mCacheDir = cacheDir;
+    mPrefetchSegments = prefetchSegments;
+    mExecutor = new ThreadPoolExecutor(parallelism, parallelism, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+      private final AtomicInteger mCount = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "Vitamio-HLS-Fetch-" + mCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    mExecutor.allowCoreThreadTimeOut(true);
+  }
+
+  public void setListener(Listener listener) {
+    mListener = listener;
+  }
+
+  /**
+   * Select the variant of a master playlist with controller, fed with the
+   * segment downloads and asked again after each of them with the duration
+   * fetched ahead of the playback position. Set it before {@link #start()}.
+   */
+  public void setAbrController(AbrController controller) {
+    mAbrController = controller;
+  }
+
+  public synchronized void start() {
+    if (mThread != null)
+      throw new IllegalStateException("SegmentScheduler already started");
+    mThread = new Thread("Vitamio-HLS") {
+      @Override
+      public void run() {
+        schedule();
+      }
+    };
+    mThread.setDaemon(true);
+    mThread.start();
+  }
+
+  /**
+   * Stop the refreshes and the fetches, the segments fetched are kept.
+   */
+  public synchronized void stop() {
+    mStopped = true;
+    if (mThread != null)
+      mThread.interrupt();
+    mExecutor.shutdownNow();
+  }
+
+  /**
+   * @return the master playlist, null if the uri is a media playlist or it
+   *         isn't read yet
+   */
+  public Playlist getMasterPlaylist() {
+    return mMasterPlaylist;
+  }
+
+  /**
+   * @return the media playlist played, null until its first line is read
+   */
+  public Playlist getPlaylist() {
+    return mPlaylist;
+  }
+
+  /**
+   * Move the prefetch window, call it as the playback progresses or after a
+   * seek.
+   *
+   * @param time the playback position in milliseconds
+   */
+  public void setPlaybackPosition(long time) {
+    Playlist playlist = mPlaylist;
+    if (playlist == null)
+      return;
+    mPositionTime = time;
+    mPosition = Math.max(0, playlist.getSegmentIndex(time));
+    prefetchWindow(playlist);
+  }
+
+  /**
+   * @return the paths of the segments fetched and the remote uris of the others.
+   *         A segment which is a byte range of its uri is only played right
+   *         once fetched. An encrypted segment is never fetched.
+   */
+  public String[] getSegmentUris() {
+    Playlist playlist = mPlaylist;
+    if (playlist == null)
+      return new String[0];
+    String[] uris = new String[playlist.getSegmentCount()];
+    for (int i = 0; i < uris.length; i++) {
+      Playlist.Segment segment = playlist.getSegment(i);
+      File file = segmentFile(segment);
+      uris[i] = !segment.isEncrypted() && file.isFile() ? file.getPath() : segment.getUri();
+    }
+    return uris;
+  }
+
+  /**
+   * @return the segment bytes downloaded
+   */
+  public long getBytesFetched() {
+    return mBytesFetched.get();
+  }
+
+  /**
+   * @return the download speed in bytes per second, measured while fetching
+   */
+  public long getFetchThroughput() {
+    long nanos = mFetchNanos.get();
+    return nanos == 0 ? 0 : mBytesFetched.get() * 1000000000L / nanos;
+  }
+
+  public int getFetchedCount() {
+    return mFetchedCount.get();
+  }
+
+  public int getErrorCount() {
+    return mErrorCount.get();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("SegmentScheduler[%s, fetched=%d segments/%d bytes, throughput=%d B/s, errors=%d]", mPlaylist, getFetchedCount(), getBytesFetched(), getFetchThroughput(), getErrorCount());
+  }
+
+  private void schedule() {
+    Playlist playlist;
+    try {
+      Playlist first = load(mUri, new Playlist(mUri), null, true);
+      if (first.isMaster()) {
+        mMasterPlaylist = first;
+        Playlist.Variant variant = first.getVariants().get(0);
+        AbrController controller = mAbrController;
+        if (controller != null) {
+          controller.setVariants(first.getVariants());
+          variant = controller.select(0, System.currentTimeMillis());
+        }
+        String uri = variant.getUri();
+        playlist = load(uri, new Playlist(uri), null, true);
+      } else {
+        playlist = first;
+      }
+      if (playlist.getSegmentCount() > 0)
+        await(mFetches.get(segmentFile(playlist.getSegment(0)).getName()));
+    } catch (IOException e) {
+      mErrorCount.incrementAndGet();
+      Listener listener = mListener;
+      if (listener != null && !mStopped)
+        listener.onError(this, e);
+      return;
+    }
+    Listener listener = mListener;
+    if (listener != null && !mStopped)
+      listener.onReady(this, getSegmentUris());
+
+    // RFC 8216 6.3.4, reload after the target duration, or half of it when the
+    // playlist didn't change
+    boolean changed = true;
+    while (!mStopped && !playlist.isEndList()) {
+      // the variant may have been switched meanwhile
+      playlist = mPlaylist;
+      long target = Math.max(1000, playlist.getTargetDuration());
+      try {
+        Thread.sleep(changed ? target : target / 2);
+      } catch (InterruptedException e) {
+        return;
+      }
+      int from = playlist.getSegmentCount();
+      try {
+        load(playlist.getUri(), new Playlist(playlist.getUri()), playlist, true);
+      } catch (IOException e) {
+        mErrorCount.incrementAndGet();
+        listener = mListener;
+        if (listener != null && !mStopped)
+          listener.onError(this, e);
+        changed = false;
+        continue;
+      }
+      int count = playlist.getSegmentCount() - from;
+      changed = count > 0;
+      listener = mListener;
+      if (changed && listener != null && !mStopped)
+        listener.onSegmentsAdded(this, from, count);
+    }
+  }
+
+  /**
+   * Read a playlist into target, or append the new segments of a refresh of
+   * current to it.
+   *
+   * @param play if target is played and prefetched as it's read
+   */
+  private Playlist load(String uri, final Playlist target, final Playlist current, boolean play) throws IOException {
+    URLConnection conn = open(uri);
+    InputStream in = conn.getInputStream();
+    try {
+      if (!play) {
+        PlaylistParser.parse(in, target, null);
+      } else if (current == null) {
+        PlaylistParser.parse(in, target, new PlaylistParser.Listener() {
+          @Override
+          public void onSegment(Playlist playlist, Playlist.Segment segment) {
+            // unless the controller already switched to another variant
+            if (mPlaylist == null)
+              mPlaylist = playlist;
+            if (mPlaylist == playlist)
+              prefetch(playlist, playlist.getSegmentCount() - 1);
+          }
+
+          @Override
+          public void onVariant(Playlist playlist, Playlist.Variant variant) {
+          }
+        });
+      } else {
+        final int count = current.getSegmentCount();
+        final long last = count == 0 ? -1 : current.getSegment(count - 1).getSequence();
+        PlaylistParser.parse(in, target, new PlaylistParser.Listener() {
+          @Override
+          public void onSegment(Playlist playlist, Playlist.Segment segment) {
+            if (segment.getSequence() > last) {
+              current.addSegment(segment);
+              if (mPlaylist == current)
+                prefetch(current, current.getSegmentCount() - 1);
+            }
+          }
+
+          @Override
+          public void onVariant(Playlist playlist, Playlist.Variant variant) {
+          }
+        });
+        if (target.isEndList())
+          current.setEndList(true);
+      }
+    } finally {
+      in.close();
+    }
+    if (play && current == null && mPlaylist == null && !target.isMaster())
+      mPlaylist = target;
+    return target;
+  }
+
+  /**
+   * Ask the controller for the variant to play after a segment fetched, and
+   * switch to it if it changed. Runs on a fetch thread, one switch at a time.
+   */
+  private void select(AbrController controller) {
+    Playlist playlist = mPlaylist;
+    if (mMasterPlaylist == null || playlist == null || mStopped)
+      return;
+    Playlist.Variant variant = controller.select(getBufferedDuration(playlist), System.currentTimeMillis());
+    if (variant == null || variant.getUri().equals(playlist.getUri()) || !mSwitching.compareAndSet(false, true))
+      return;
+    try {
+      Playlist next = load(variant.getUri(), new Playlist(variant.getUri()), null, false);
+      if (mStopped)
+        return;
+      mPosition = Math.max(0, next.getSegmentIndex(mPositionTime));
+      mPlaylist = next;
+      prefetchWindow(next);
+    } catch (IOException e) {
+      // the current variant is played on, the next selection retries
+      mErrorCount.incrementAndGet();
+      return;
+    } finally {
+      mSwitching.set(false);
+    }
+    Listener listener = mListener;
+    if (listener != null)
+      listener.onVariantChanged(this, variant);
+  }
+
+  /**
+   * @return the duration of the segments fetched in a row from the playback
+   *         position, in milliseconds
+   */
+  private long getBufferedDuration(Playlist playlist) {
+    int count = playlist.getSegmentCount();
+    int i = mPosition;
+    long end = -1;
+    while (i < count) {
+      Playlist.Segment segment = playlist.getSegment(i);
+      if (segment.isEncrypted() || !segmentFile(segment).isFile())
+        break;
+      end = segment.getStartTime() + segment.getDuration();
+      i++;
+    }
+    return end < 0 ? 0 : Math.max(0, end - mPositionTime);
+  }
+
+  private void prefetchWindow(Playlist playlist) {
+    int end = Math.min(playlist.getSegmentCount(), mPosition + mPrefetchSegments);
+    for (int i = mPosition; i < end; i++)
+      prefetch(playlist, i);
+  }
+
+  private void prefetch(final Playlist playlist, final int index) {
+    int position = mPosition;
+    if (index < position || index >= position + mPrefetchSegments || mStopped)
+      return;
+    final Playlist.Segment segment = playlist.getSegment(index);
+    File file = segmentFile(segment);
+    final String key = file.getName();
+    if (segment.isEncrypted() || file.isFile() || mFetches.containsKey(key))
+      return;
+    FutureTask<Void> fetch = new FutureTask<Void>(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          fetch(segment);
+        } catch (IOException e) {
+          mErrorCount.incrementAndGet();
+        }
+      }
+    }, null) {
+      @Override
+      protected void done() {
+        mFetches.remove(key, this);
+      }
+    };
+    if (mFetches.putIfAbsent(key, fetch) != null)
+      return;
+    try {
+      mExecutor.execute(fetch);
+    } catch (RejectedExecutionException e) {
+      fetch.cancel(false);
+    }
+  }
+
+  private void fetch(Playlist.Segment segment) throws IOException {
+    long begin = System.nanoTime();
+    URLConnection conn = open(segment.getUri());
+    long offset = Math.max(0, segment.getOffset());
+    long length = segment.getLength();
+    boolean ranged = false;
+    if (length >= 0)
+      conn.setRequestProperty("Range", "bytes=" + offset + "-" + (offset + length - 1));
+    if (conn instanceof HttpURLConnection) {
+      int code = ((HttpURLConnection) conn).getResponseCode();
+      if (code != HttpURLConnection.HTTP_OK && code != HttpURLConnection.HTTP_PARTIAL)
+        throw new IOException("HTTP " + code + " for " + segment.getUri());
+      ranged = code == HttpURLConnection.HTTP_PARTIAL;
+    }
+    mCacheDir.mkdirs();
+    File file = segmentFile(segment);
+    File tmp = new File(mCacheDir, file.getName() + ".tmp");
+    InputStream in = conn.getInputStream();
+    OutputStream out = new FileOutputStream(tmp);
+    long bytes = 0;
+    try {
+      if (length >= 0 && !ranged)
+        skip(in, offset);
+      byte[] buffer = new byte[16 * 1024];
+      long remaining = length >= 0 ? length : Long.MAX_VALUE;
+      int n;
+      while (remaining > 0 && (n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) >= 0) {
+        out.write(buffer, 0, n);
+        bytes += n;
+        remaining -= n;
+        if (mStopped)
+          throw new IOException("Stopped");
+      }
+      if (length >= 0 && remaining > 0)
+        throw new IOException("Short read of " + segment);
+    } finally {
+      in.close();
+      out.close();
+      mBytesFetched.addAndGet(bytes);
+      mFetchNanos.addAndGet(System.nanoTime() - begin);
+    }
+    if (!tmp.renameTo(file)) {
+      tmp.delete();
+      throw new IOException("Can't rename " + tmp);
+    }
+    mFetchedCount.incrementAndGet();
+    AbrController controller = mAbrController;
+    if (controller != null) {
+      controller.addSample(bytes, Math.max(1, (System.nanoTime() - begin) / 1000000));
+      select(controller);
+    }
+  }
+
+  private URLConnection open(String uri) throws IOException {
+    URLConnection conn = new URL(uri).openConnection();
+    conn.setConnectTimeout(TIMEOUT);
+    conn.setReadTimeout(TIMEOUT);
+    for (Map.Entry<String, String> header : mHeaders.entrySet())
+      conn.setRequestProperty(header.getKey(), header.getValue());
+    return conn;
+  }
+
+  /**
+   * @return the file of a segment, named after its sequence number and uri so
+   *         the segments of different variants don't collide
+   */
+  private File segmentFile(Playlist.Segment segment) {
+    return new File(mCacheDir, "segment-" + segment.getSequence() + "-" + Integer.toHexString(segment.getUri().hashCode()));
+  }
+
+  private static void await(FutureTask<Void> fetch) {
+    if (fetch == null)
+      return;
+    try {
+      fetch.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+    } catch (CancellationException e) {
+    }
+  }
+
+  private static void skip(InputStream in, long bytes) throws IOException {
+    while (bytes > 0) {
+      long n = in.skip(bytes);
+      if (n <= 0) {
+        if (in.read() < 0)
+          throw new IOException("Unexpected end of stream");
+        n = 1;
+      }
+      bytes -= n;
+    }
+  }
+}
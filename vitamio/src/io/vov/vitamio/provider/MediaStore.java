@@ -176,11 +176,22 @@ public final class MediaStore {
       }
 
       public static Bitmap getThumbnail(Context ctx, ContentResolver cr, long origId, int kind, BitmapFactory.Options options) {
-        return InternalThumbnails.getThumbnail(ctx, cr, origId, InternalThumbnails.DEFAULT_GROUP_ID, kind, options, CONTENT_URI);
+        return InternalThumbnails.getThumbnail(ctx, cr, origId, InternalThumbnails.DEFAULT_GROUP_ID, kind, options, CONTENT_URI, false);
       }
 
       public static Bitmap getThumbnail(Context ctx, ContentResolver cr, long origId, long groupId, int kind, BitmapFactory.Options options) {
-        return InternalThumbnails.getThumbnail(ctx, cr, origId, groupId, kind, options, CONTENT_URI);
+        return InternalThumbnails.getThumbnail(ctx, cr, origId, groupId, kind, options, CONTENT_URI, false);
+      }
+
+      /**
+       * @param cached true to look the thumbnail up in and add it to
+       *          {@link #getThumbnailCache()}: the bitmap is then shared with
+       *          other callers and must not be recycled or modified. false
+       *          decodes a new bitmap owned by the caller, as the other
+       *          overloads do
+       */
+      public static Bitmap getThumbnail(Context ctx, ContentResolver cr, long origId, long groupId, int kind, BitmapFactory.Options options, boolean cached) {
+        return InternalThumbnails.getThumbnail(ctx, cr, origId, groupId, kind, options, CONTENT_URI, cached);
       }
 
       public static String getThumbnailPath(Context ctx, ContentResolver cr, long origId) {
@@ -190,6 +201,15 @@ public final class MediaStore {
       public static void cancelThumbnailRequest(ContentResolver cr, long origId, long groupId) {
         InternalThumbnails.cancelThumbnailRequest(cr, origId, CONTENT_URI, groupId);
       }
+
+      /**
+       * @return the memory cache of {@link #getThumbnail(Context, ContentResolver, long, long, int, BitmapFactory.Options, boolean)}
+       *         called with cached true, the bitmaps it returns are shared and
+       *         must not be recycled
+       */
+      public static ThumbnailCache getThumbnailCache() {
+        return InternalThumbnails.sCache;
+      }
     }
   }
 
@@ -198,8 +218,44 @@ public final class MediaStore {
     private static final int MINI_KIND = 1;
     private static final int MICRO_KIND = 3;
     private static final String[] PROJECTION = new String[]{_ID, MediaColumns.DATA};
-    private static final Object sThumbBufLock = new Object();
-    private static byte[] sThumbBuf;
+    private static final int MAX_CACHE_SIZE = 8 * 1024 * 1024;
+    private static final ThumbnailCache sCache = new ThumbnailCache((int) Math.min(Runtime.getRuntime().maxMemory() / 16, MAX_CACHE_SIZE));
+    private static final ThreadLocal<byte[]> sThumbBuf = new ThreadLocal<byte[]>() {
+      @Override
+      protected byte[] initialValue() {
+        return new byte[MiniThumbFile.BYTES_PER_MINTHUMB];
+      }
+    };
+
+    private static Bitmap getMicroThumbFromFile(MiniThumbFile thumbFile, long origId) {
+      Bitmap bitmap = null;
+      byte[] buf = sThumbBuf.get();
+      int length = thumbFile.getMiniThumb(origId, buf);
+      if (length > 0) {
+        bitmap = BitmapFactory.decodeByteArray(buf, 0, length);
+        if (bitmap == null)
+          Log.d("couldn't decode byte array.");
+      }
+      return bitmap;
+    }
+
+    /**
+     * @return the cache slot of a thumbnail decoded with these options, -1 if
+     *         the bitmap can't be shared
+     */
+    private static int cacheVariant(int kind, BitmapFactory.Options options) {
+      if (kind == MICRO_KIND || options == null)
+        return 0;
+      if (kind != MINI_KIND || options.inJustDecodeBounds || options.inMutable || options.inBitmap != null)
+        return -1;
+      int config = options.inPreferredConfig == null ? 0 : options.inPreferredConfig.ordinal() + 1;
+      return (options.inSampleSize << 4) | config;
+    }
+
+    private static void cache(long origId, int kind, int variant, long magic, Bitmap bitmap) {
+      if (bitmap != null && variant >= 0 && magic != 0)
+        sCache.put(origId, kind, variant, magic, bitmap);
+    }
 
     private static Bitmap getMiniThumbFromFile(Cursor c, Uri baseUri, ContentResolver cr, BitmapFactory.Options options) {
       Bitmap bitmap = null;
@@ -247,21 +303,22 @@ public final class MediaStore {
       return path;
     }
 
-    static Bitmap getThumbnail(Context ctx, ContentResolver cr, long origId, long groupId, int kind, BitmapFactory.Options options, Uri baseUri) {
+    static Bitmap getThumbnail(Context ctx, ContentResolver cr, long origId, long groupId, int kind, BitmapFactory.Options options, Uri baseUri, boolean cached) {
       Bitmap bitmap = null;
       MiniThumbFile thumbFile = MiniThumbFile.instance(baseUri);
+      // read from the map shared by all readers, a cache hit maps nothing
       long magic = thumbFile.getMagic(origId);
+      int variant = cached ? cacheVariant(kind, options) : -1;
       if (magic != 0) {
+        if (variant >= 0) {
+          bitmap = sCache.get(origId, kind, variant, magic);
+          if (bitmap != null)
+            return bitmap;
+        }
+
         if (kind == MICRO_KIND) {
-          synchronized (sThumbBufLock) {
-            if (sThumbBuf == null)
-              sThumbBuf = new byte[MiniThumbFile.BYTES_PER_MINTHUMB];
-            if (thumbFile.getMiniThumbFromFile(origId, sThumbBuf) != null) {
-              bitmap = BitmapFactory.decodeByteArray(sThumbBuf, 0, sThumbBuf.length);
-              if (bitmap == null)
-                Log.d("couldn't decode byte array.");
-            }
-          }
+          bitmap = getMicroThumbFromFile(thumbFile, origId);
+          cache(origId, kind, variant, magic, bitmap);
           return bitmap;
         } else if (kind == MINI_KIND) {
           String column = "video_id=";
@@ -270,8 +327,10 @@ public final class MediaStore {
             c = cr.query(baseUri, PROJECTION, column + origId, null, null);
             if (c != null && c.moveToFirst()) {
               bitmap = getMiniThumbFromFile(c, baseUri, cr, options);
-              if (bitmap != null)
+              if (bitmap != null) {
+                cache(origId, kind, variant, magic, bitmap);
                 return bitmap;
+              }
             }
           } finally {
             if (c != null)
@@ -288,21 +347,14 @@ public final class MediaStore {
           return null;
 
         if (kind == MICRO_KIND) {
-          synchronized (sThumbBufLock) {
-            if (sThumbBuf == null)
-              sThumbBuf = new byte[MiniThumbFile.BYTES_PER_MINTHUMB];
-            if (thumbFile.getMiniThumbFromFile(origId, sThumbBuf) != null) {
-              bitmap = BitmapFactory.decodeByteArray(sThumbBuf, 0, sThumbBuf.length);
-              if (bitmap == null)
-                Log.d("couldn't decode byte array.");
-            }
-          }
+          bitmap = getMicroThumbFromFile(thumbFile, origId);
         } else if (kind == MINI_KIND) {
           if (c.moveToFirst())
             bitmap = getMiniThumbFromFile(c, baseUri, cr, options);
         } else {
           throw new IllegalArgumentException("Unsupported kind: " + kind);
         }
+        cache(origId, kind, variant, thumbFile.getMagic(origId), bitmap);
       } catch (SQLiteException ex) {
         Log.e("getThumbnail", ex);
       } finally {
@@ -28,22 +28,43 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.channels.FileLock;
 import java.util.Hashtable;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+/**
+ * The .thumbdata file holds one slot of {@link #BYTES_PER_MINTHUMB} bytes per
+ * video id: a used flag, the magic, the length and the JPEG bytes of the micro
+ * thumbnail.
+ * <p/>
+ * The whole file is mapped read-only once, and mapped again only after a
+ * write grew it. The file grows by {@link #GROWTH_SLOTS} slots at a time so
+ * that a scan writing thumbnails in id order doesn't remap for each of them.
+ * The map is published through a volatile field, so reads take no monitor,
+ * only the read lock of the slot's stripe: readers never wait for each other,
+ * only for a writer of a slot in the same stripe.
+ */
 public class MiniThumbFile {
   protected static final int BYTES_PER_MINTHUMB = 10000;
   private static final int MINI_THUMB_DATA_FILE_VERSION = 7;
   private static final int HEADER_SIZE = 1 + 8 + 4;
+  private static final int STRIPES = 8;
+  private static final int GROWTH_SLOTS = 64;
+  private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
   private static Hashtable<String, MiniThumbFile> sThumbFiles = new Hashtable<String, MiniThumbFile>();
   private Uri mUri;
   private RandomAccessFile mMiniThumbFile;
   private FileChannel mChannel;
-  private ByteBuffer mBuffer;
+  private final Object mFileLock = new Object();
+  // null until the first read, or after the file grew
+  private volatile ByteBuffer mMap;
+  private final ReentrantReadWriteLock[] mLocks = new ReentrantReadWriteLock[STRIPES];
+  private final ByteBuffer[] mWriteBuffers = new ByteBuffer[STRIPES];
 
   public MiniThumbFile(Uri uri) {
     mUri = uri;
-    mBuffer = ByteBuffer.allocateDirect(BYTES_PER_MINTHUMB);
+    for (int i = 0; i < STRIPES; i++)
+      mLocks[i] = new ReentrantReadWriteLock();
   }
 
   protected static synchronized void reset() {
@@ -79,7 +100,10 @@ public class MiniThumbFile {
     }
   }
 
-  private RandomAccessFile miniThumbDataFile() {
+  /**
+   * Called with mFileLock held.
+   */
+  private FileChannel miniThumbDataChannel() {
     if (mMiniThumbFile == null) {
       removeOldFile();
       String path = randomAccessFilePath(MINI_THUMB_DATA_FILE_VERSION);
@@ -101,116 +125,150 @@ public class MiniThumbFile {
       if (mMiniThumbFile != null)
         mChannel = mMiniThumbFile.getChannel();
     }
-    return mMiniThumbFile;
+    return mChannel;
   }
 
-  protected synchronized void deactivate() {
-    if (mMiniThumbFile != null) {
-      try {
-        mMiniThumbFile.close();
-        mMiniThumbFile = null;
-      } catch (IOException ex) {
+  /**
+   * @return the read-only map of the whole file, null if it can't be opened
+   */
+  private ByteBuffer map() throws IOException {
+    ByteBuffer map = mMap;
+    if (map != null)
+      return map;
+    synchronized (mFileLock) {
+      if (mMap == null) {
+        FileChannel channel = miniThumbDataChannel();
+        if (channel == null)
+          return null;
+        long size = Math.min(channel.size(), Integer.MAX_VALUE);
+        mMap = size == 0 ? EMPTY : channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
       }
+      return mMap;
     }
   }
 
-  protected synchronized long getMagic(long id) {
-    RandomAccessFile r = miniThumbDataFile();
-    if (r != null) {
-      long pos = id * BYTES_PER_MINTHUMB;
-      FileLock lock = null;
-      try {
-        mBuffer.clear();
-        mBuffer.limit(1 + 8);
-
-        lock = mChannel.lock(pos, 1 + 8, true);
-        if (mChannel.read(mBuffer, pos) == 9) {
-          mBuffer.position(0);
-          if (mBuffer.get() == 1)
-            return mBuffer.getLong();
-        }
-      } catch (IOException ex) {
-        Log.e("Got exception checking file magic: ", ex);
-      } catch (RuntimeException ex) {
-        Log.e("Got exception when reading magic, id = %d, disk full or mount read-only? %s", id, ex.getClass().toString());
-      } finally {
+  /**
+   * @return the position of the slot of id in map, -1 if the file doesn't
+   *         hold its header
+   */
+  private static int slot(ByteBuffer map, long id) {
+    long pos = id * BYTES_PER_MINTHUMB;
+    return pos + HEADER_SIZE <= map.capacity() ? (int) pos : -1;
+  }
+
+  private static int stripe(long id) {
+    return (int) (id % STRIPES);
+  }
+
+  protected void deactivate() {
+    synchronized (mFileLock) {
+      mMap = null;
+      mChannel = null;
+      if (mMiniThumbFile != null) {
         try {
-          if (lock != null)
-            lock.release();
+          mMiniThumbFile.close();
+          mMiniThumbFile = null;
         } catch (IOException ex) {
         }
       }
     }
-    return 0;
   }
 
-  protected synchronized void saveMiniThumbToFile(byte[] data, long id, long magic) throws IOException {
-    RandomAccessFile r = miniThumbDataFile();
-    if (r == null)
-      return;
-
-    long pos = id * BYTES_PER_MINTHUMB;
-    FileLock lock = null;
+  protected long getMagic(long id) {
+    Lock lock = mLocks[stripe(id)].readLock();
+    lock.lock();
     try {
-      if (data != null) {
-        if (data.length > BYTES_PER_MINTHUMB - HEADER_SIZE)
-          return;
-
-        mBuffer.clear();
-        mBuffer.put((byte) 1);
-        mBuffer.putLong(magic);
-        mBuffer.putInt(data.length);
-        mBuffer.put(data);
-        mBuffer.flip();
-
-        lock = mChannel.lock(pos, BYTES_PER_MINTHUMB, false);
-        mChannel.write(mBuffer, pos);
-      }
+      ByteBuffer map = map();
+      int pos = map == null ? -1 : slot(map, id);
+      if (pos >= 0 && map.get(pos) == 1)
+        return map.getLong(pos + 1);
     } catch (IOException ex) {
-      Log.e("couldn't save mini thumbnail data for %d; %s", id, ex.getMessage());
-      throw ex;
+      Log.e("Got exception when reading magic, id = %d; %s", id, ex.getMessage());
     } catch (RuntimeException ex) {
-      Log.e("couldn't save mini thumbnail data for %d, disk full or mount read-only? %s", id, ex.getClass().toString());
+      Log.e("Got exception when reading magic, id = %d, disk full or mount read-only? %s", id, ex.getClass().toString());
     } finally {
-      try {
-        if (lock != null)
-          lock.release();
-      } catch (IOException ex) {
-      }
+      lock.unlock();
     }
+    return 0;
   }
 
-  protected synchronized byte[] getMiniThumbFromFile(long id, byte[] data) {
-    RandomAccessFile r = miniThumbDataFile();
-    if (r == null)
-      return null;
-
+  protected void saveMiniThumbToFile(byte[] data, long id, long magic) throws IOException {
+    if (data == null || data.length > BYTES_PER_MINTHUMB - HEADER_SIZE)
+      return;
     long pos = id * BYTES_PER_MINTHUMB;
-    FileLock lock = null;
+    FileChannel channel;
+    synchronized (mFileLock) {
+      channel = miniThumbDataChannel();
+      if (channel == null)
+        return;
+      // grow the file ahead, the map is stale once it did
+      long size = channel.size();
+      if (pos + BYTES_PER_MINTHUMB > size) {
+        mMiniThumbFile.setLength(Math.max(size, (id + GROWTH_SLOTS) * BYTES_PER_MINTHUMB));
+        mMap = null;
+      }
+    }
+
+    int stripe = stripe(id);
+    Lock lock = mLocks[stripe].writeLock();
+    lock.lock();
     try {
-      mBuffer.clear();
-      lock = mChannel.lock(pos, BYTES_PER_MINTHUMB, true);
-      int size = mChannel.read(mBuffer, pos);
-      if (size > 1 + 8 + 4) {
-        mBuffer.position(9);
-        int length = mBuffer.getInt();
-
-        if (size >= 1 + 8 + 4 + length && data.length >= length) {
-          mBuffer.get(data, 0, length);
-          return data;
+      try {
+        ByteBuffer buffer = mWriteBuffers[stripe];
+        if (buffer == null) {
+          buffer = ByteBuffer.allocateDirect(BYTES_PER_MINTHUMB);
+          mWriteBuffers[stripe] = buffer;
         }
+        buffer.clear();
+        buffer.put((byte) 1);
+        buffer.putLong(magic);
+        buffer.putInt(data.length);
+        buffer.put(data);
+        buffer.flip();
+        while (buffer.hasRemaining())
+          pos += channel.write(buffer, pos);
+      } catch (IOException ex) {
+        Log.e("couldn't save mini thumbnail data for %d; %s", id, ex.getMessage());
+        throw ex;
+      } catch (RuntimeException ex) {
+        Log.e("couldn't save mini thumbnail data for %d, disk full or mount read-only? %s", id, ex.getClass().toString());
       }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Copy the JPEG bytes of the micro thumbnail of id into data, straight from
+   * the map of the file.
+   *
+   * @param id   the video id
+   * @param data at least {@link #BYTES_PER_MINTHUMB} bytes
+   * @return the length of the thumbnail, -1 if there's none
+   */
+  protected int getMiniThumb(long id, byte[] data) {
+    Lock lock = mLocks[stripe(id)].readLock();
+    lock.lock();
+    try {
+      ByteBuffer map = map();
+      int pos = map == null ? -1 : slot(map, id);
+      if (pos < 0)
+        return -1;
+      int length = map.getInt(pos + 1 + 8);
+      if (length <= 0 || length > BYTES_PER_MINTHUMB - HEADER_SIZE || pos + HEADER_SIZE + length > map.capacity() || length > data.length)
+        return -1;
+      // a view of its own, the position of the map is shared by the readers
+      ByteBuffer slot = map.duplicate();
+      slot.position(pos + HEADER_SIZE);
+      slot.get(data, 0, length);
+      return length;
     } catch (IOException ex) {
-      Log.e("got exception when reading thumbnail id = %d, exception: %s", id, ex.getMessage());
+      Log.e("Got exception when reading thumbnail, id = %d; %s", id, ex.getMessage());
     } catch (RuntimeException ex) {
       Log.e("Got exception when reading thumbnail, id = %d, disk full or mount read-only? %s", id, ex.getClass().toString());
     } finally {
-      try {
-        if (lock != null)
-          lock.release();
-      } catch (IOException ex) {
-      }
+      lock.unlock();
     }
-    return null;
+    return -1;
   }
-}
\ No newline at end of file
+}
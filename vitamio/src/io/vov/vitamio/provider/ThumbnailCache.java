@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio.provider;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Memory cache of the decoded thumbnails returned by
+ * {@link MediaStore.Video.Thumbnails#getThumbnail}, bounded by the byte count
+ * of the bitmaps it holds.
+ * <p/>
+ * An entry belongs to a video id, a kind and the mini_thumb_magic of the
+ * thumbnail it was decoded from, it's dropped as soon as the magic changes.
+ * Hits don't take any lock, the least recently used entries are evicted when
+ * a new one doesn't fit.
+ * <p/>
+ * The bitmaps are shared between callers, they must not be recycled or
+ * modified.
+ */
+public final class ThumbnailCache {
+  private final ConcurrentHashMap<Key, Entry> mEntries = new ConcurrentHashMap<Key, Entry>();
+  private final Object mEvictLock = new Object();
+  private final AtomicLong mClock = new AtomicLong();
+  private final AtomicInteger mSize = new AtomicInteger();
+  private volatile int mMaxSize;
+  private final AtomicLong mHitCount = new AtomicLong();
+  private final AtomicLong mMissCount = new AtomicLong();
+  private final AtomicLong mEvictionCount = new AtomicLong();
+  private final AtomicLong mInvalidationCount = new AtomicLong();
+
+  ThumbnailCache(int maxSize) {
+    mMaxSize = maxSize;
+  }
+
+  Bitmap get(long origId, int kind, int variant, long magic) {
+    Key key = new Key(origId, kind, variant);
+    Entry entry = mEntries.get(key);
+    if (entry == null) {
+      mMissCount.incrementAndGet();
+      return null;
+    }
+    if (entry.mMagic != magic || entry.mBitmap.isRecycled()) {
+      if (mEntries.remove(key, entry)) {
+        mSize.addAndGet(-entry.mBytes);
+        mInvalidationCount.incrementAndGet();
+      }
+      mMissCount.incrementAndGet();
+      return null;
+    }
+    entry.mLastAccess = mClock.incrementAndGet();
+    mHitCount.incrementAndGet();
+    return entry.mBitmap;
+  }
+
+  void put(long origId, int kind, int variant, long magic, Bitmap bitmap) {
+    int bytes = bitmap.getRowBytes() * bitmap.getHeight();
+    if (bytes > mMaxSize)
+      return;
+
+    Key key = new Key(origId, kind, variant);
+    Entry entry = new Entry(key, magic, bitmap, bytes, mClock.incrementAndGet());
+    Entry old = mEntries.put(key, entry);
+    if (old != null)
+      mSize.addAndGet(-old.mBytes);
+    if (mSize.addAndGet(bytes) > mMaxSize)
+      trimToSize();
+  }
+
+  /**
+   * Drop all the thumbnails of a video.
+   */
+  public void invalidate(long origId) {
+    Iterator<Map.Entry<Key, Entry>> it = mEntries.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<Key, Entry> e = it.next();
+      if (e.getKey().mOrigId == origId && mEntries.remove(e.getKey(), e.getValue())) {
+        mSize.addAndGet(-e.getValue().mBytes);
+        mInvalidationCount.incrementAndGet();
+      }
+    }
+  }
+
+  public void evictAll() {
+    synchronized (mEvictLock) {
+      for (Map.Entry<Key, Entry> e : mEntries.entrySet()) {
+        if (mEntries.remove(e.getKey(), e.getValue())) {
+          mSize.addAndGet(-e.getValue().mBytes);
+          mEvictionCount.incrementAndGet();
+        }
+      }
+    }
+  }
+
+  /**
+   * @param maxSize the byte budget of the cache, 0 disables it
+   */
+  public void setMaxSize(int maxSize) {
+    if (maxSize < 0)
+      throw new IllegalArgumentException("maxSize < 0: " + maxSize);
+    mMaxSize = maxSize;
+    trimToSize();
+  }
+
+  public int getMaxSize() {
+    return mMaxSize;
+  }
+
+  /**
+   * @return the byte count of the cached bitmaps
+   */
+  public int getSize() {
+    return mSize.get();
+  }
+
+  public int getCount() {
+    return mEntries.size();
+  }
+
+  public long getHitCount() {
+    return mHitCount.get();
+  }
+
+  public long getMissCount() {
+    return mMissCount.get();
+  }
+
+  public long getEvictionCount() {
+    return mEvictionCount.get();
+  }
+
+  /**
+   * @return entries dropped because their thumbnail was regenerated,
+   *         recycled or explicitly invalidated
+   */
+  public long getInvalidationCount() {
+    return mInvalidationCount.get();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("ThumbnailCache[size=%d/%d, count=%d, hits=%d, misses=%d, evictions=%d, invalidations=%d]", getSize(), mMaxSize, getCount(), getHitCount(), getMissCount(), getEvictionCount(), getInvalidationCount());
+  }
+
+  private void trimToSize() {
+    synchronized (mEvictLock) {
+      if (mSize.get() <= mMaxSize)
+        return;
+
+      // hits keep touching mLastAccess, sort on a snapshot of it
+      ArrayList<Entry> entries = new ArrayList<Entry>(mEntries.values());
+      for (Entry e : entries)
+        e.mEvictOrder = e.mLastAccess;
+      Collections.sort(entries, LEAST_RECENTLY_USED);
+      for (Entry e : entries) {
+        if (mSize.get() <= mMaxSize)
+          break;
+        if (mEntries.remove(e.mKey, e)) {
+          mSize.addAndGet(-e.mBytes);
+          mEvictionCount.incrementAndGet();
+        }
+      }
+    }
+  }
+
+  private static final Comparator<Entry> LEAST_RECENTLY_USED = new Comparator<Entry>() {
+    @Override
+    public int compare(Entry lhs, Entry rhs) {
+      long l = lhs.mEvictOrder;
+      long r = rhs.mEvictOrder;
+      return l < r ? -1 : (l == r ? 0 : 1);
+    }
+  };
+
+  private static final class Key {
+    final long mOrigId;
+    final int mKind;
+    final int mVariant;
+
+    Key(long origId, int kind, int variant) {
+      mOrigId = origId;
+      mKind = kind;
+      mVariant = variant;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key))
+        return false;
+      Key k = (Key) o;
+      return mOrigId == k.mOrigId && mKind == k.mKind && mVariant == k.mVariant;
+    }
+
+    @Override
+    public int hashCode() {
+      int h = (int) (mOrigId ^ (mOrigId >>> 32));
+      h = 31 * h + mKind;
+      return 31 * h + mVariant;
+    }
+  }
+
+  private static final class Entry {
+    final Key mKey;
+    final long mMagic;
+    final Bitmap mBitmap;
+    final int mBytes;
+    volatile long mLastAccess;
+    long mEvictOrder;
+
+    Entry(Key key, long magic, Bitmap bitmap, int bytes, long lastAccess) {
+      mKey = key;
+      mMagic = magic;
+      mBitmap = bitmap;
+      mBytes = bytes;
+      mLastAccess = lastAccess;
+    }
+  }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio.proxy;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * The chunks of the streams served by {@link HttpProxy}, on disk. A stream
+ * gets a directory named after the MD5 of its url, holding a "length" file
+ * and one file per chunk of {@link #CHUNK_SIZE} bytes. Everything is written
+ * to a temporary file first and renamed, a file present is complete.
+ * <p/>
+ * The chunks are kept within a byte budget: reading a chunk touches its last
+ * modified time, and once a write goes over the budget the least recently
+ * used chunks of all the streams are deleted, down to 7/8 of it.
+ */
+final class ChunkCache {
+  static final int CHUNK_SIZE = 256 * 1024;
+  private static final String LENGTH = "length";
+  private static final String TMP_SUFFIX = ".tmp";
+  private final File mDirectory;
+  private final long mMaxSize;
+  private long mSize = -1; // measured on the first write
+  private long mEvictionCount;
+
+  ChunkCache(File directory, long maxSize) {
+    mDirectory = directory;
+    mMaxSize = maxSize;
+  }
+
+  File getDirectory(String url) {
+    return new File(mDirectory, md5(url));
+  }
+
+  /**
+   * @return the length of the stream, -1 if it isn't known yet
+   */
+  long readLength(File dir) {
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new FileInputStream(new File(dir, LENGTH)));
+      return in.readLong();
+    } catch (IOException e) {
+      return -1;
+    } finally {
+      close(in);
+    }
+  }
+
+  void writeLength(File dir, long length) throws IOException {
+    dir.mkdirs();
+    File tmp = new File(dir, LENGTH + TMP_SUFFIX);
+    DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp));
+    try {
+      out.writeLong(length);
+    } finally {
+      out.close();
+    }
+    rename(tmp, new File(dir, LENGTH));
+  }
+
+  /**
+   * @param expected the length of a complete chunk
+   * @return the chunk, null if it isn't cached
+   */
+  byte[] read(File dir, int index, int expected) {
+    File file = new File(dir, Integer.toString(index));
+    if (file.length() != expected)
+      return null;
+    FileInputStream in = null;
+    try {
+      in = new FileInputStream(file);
+      byte[] chunk = new byte[expected];
+      new DataInputStream(in).readFully(chunk);
+      file.setLastModified(System.currentTimeMillis());
+      return chunk;
+    } catch (IOException e) {
+      return null;
+    } finally {
+      close(in);
+    }
+  }
+
+  boolean isCached(File dir, int index, int expected) {
+    return new File(dir, Integer.toString(index)).length() == expected;
+  }
+
+  void write(File dir, int index, byte[] chunk, int length) throws IOException {
+    dir.mkdirs();
+    File tmp = new File(dir, index + TMP_SUFFIX);
+    FileOutputStream out = new FileOutputStream(tmp);
+    try {
+      out.write(chunk, 0, length);
+    } finally {
+      out.close();
+    }
+    rename(tmp, new File(dir, Integer.toString(index)));
+    added(length);
+  }
+
+  /**
+   * @return the bytes of the chunks, -1 before the first write
+   */
+  synchronized long getSize() {
+    return mSize;
+  }
+
+  synchronized long getEvictionCount() {
+    return mEvictionCount;
+  }
+
+  private synchronized void added(int length) {
+    if (mSize < 0) {
+      mSize = trim(Long.MAX_VALUE);
+    } else {
+      mSize += length;
+    }
+    if (mSize > mMaxSize)
+      mSize = trim(mMaxSize - mMaxSize / 8);
+  }
+
+  /**
+   * Delete the least recently used chunks until they fit in maxSize, and the
+   * directories left without any.
+   *
+   * @return the bytes of the chunks left
+   */
+  private long trim(long maxSize) {
+    ArrayList<Chunk> chunks = new ArrayList<Chunk>();
+    long size = 0;
+    File[] dirs = mDirectory.listFiles();
+    if (dirs == null)
+      return 0;
+    for (File dir : dirs) {
+      File[] files = dir.listFiles();
+      if (files == null)
+        continue;
+      for (File file : files) {
+        String name = file.getName();
+        if (name.equals(LENGTH) || name.endsWith(TMP_SUFFIX))
+          continue;
+        Chunk chunk = new Chunk(file);
+        chunks.add(chunk);
+        size += chunk.mLength;
+      }
+    }
+    if (size <= maxSize)
+      return size;
+
+    Collections.sort(chunks);
+    for (Chunk chunk : chunks) {
+      if (size <= maxSize)
+        break;
+      if (chunk.mFile.delete()) {
+        size -= chunk.mLength;
+        mEvictionCount++;
+      }
+    }
+    for (File dir : dirs) {
+      String[] names = dir.list();
+      if (names != null && names.length == 1 && names[0].equals(LENGTH)) {
+        new File(dir, LENGTH).delete();
+        dir.delete();
+      }
+    }
+    return size;
+  }
+
+  private static void rename(File from, File to) throws IOException {
+    if (!from.renameTo(to)) {
+      from.delete();
+      throw new IOException("Can't rename " + from);
+    }
+  }
+
+  private static void close(Closeable c) {
+    if (c != null) {
+      try {
+        c.close();
+      } catch (IOException e) {
+      }
+    }
+  }
+
+  private static final class Chunk implements Comparable<Chunk> {
+    final File mFile;
+    final long mLastModified;
+    final long mLength;
+
+    Chunk(File file) {
+      mFile = file;
+      mLastModified = file.lastModified();
+      mLength = file.length();
+    }
+
+    @Override
+    public int compareTo(Chunk another) {
+      return mLastModified < another.mLastModified ? -1 : (mLastModified == another.mLastModified ? 0 : 1);
+    }
+  }
+
+  private static String md5(String s) {
+    try {
+      byte[] digest = MessageDigest.getInstance("MD5").digest(s.getBytes("UTF-8"));
+      String hex = new BigInteger(1, digest).toString(16);
+      while (hex.length() < 32)
+        hex = "0" + hex;
+      return hex;
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError(e);
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+  }
+}
@@ -0,0 +1,736 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio.proxy;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URL;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A loopback HTTP server the player reads network streams through, so that
+ * what was downloaded once is served again from disk: after a seek back, a
+ * replay, or when a preloader fetched it first.
+ * <p/>
+ * The streams are split in chunks cached on disk, within a byte budget. A
+ * chunk missing is fetched
+ * from the origin with a range request, on a kept-alive connection, and the
+ * next ones are prefetched in parallel ahead of the read position. A stream
+ * whose origin doesn't report its length is relayed without caching, one
+ * whose origin ignores ranges is relayed in a single pass and cached on the
+ * way.
+ * <p/>
+ * The path of a registered stream is a random token, so that other apps on
+ * the device can't guess it and read through the proxy.
+ * <p/>
+ * <pre>
+ * HttpProxy proxy = new HttpProxy(new File(getCacheDir(), "proxy"));
+ * proxy.start();
+ * mediaPlayer.setDataSource(proxy.register(url, headers));
+ * </pre>
+ * It only depends on java.net, and runs on a desktop JVM as well.
+ */
+public final class HttpProxy {
+  public static final int DEFAULT_FETCH_THREADS = 2;
+  public static final int DEFAULT_PREFETCH_CHUNKS = 4;
+  public static final long DEFAULT_CACHE_SIZE = 256 * 1024 * 1024;
+  private static final int TIMEOUT = 15000;
+  private static final int MAX_HEADER_LINE = 8192;
+  private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+  private static final Pattern CONTENT_RANGE = Pattern.compile("bytes \\d+-\\d+/(\\d+)");
+  private final ChunkCache mCache;
+  private final int mPrefetchChunks;
+  private final ThreadPoolExecutor mFetchExecutor;
+  private final ExecutorService mClientExecutor;
+  private final Map<String, Source> mSourcesById = new ConcurrentHashMap<String, Source>();
+  private final Map<String, Source> mSourcesByUrl = new HashMap<String, Source>();
+  private final ConcurrentHashMap<String, FutureTask<byte[]>> mFetches = new ConcurrentHashMap<String, FutureTask<byte[]>>();
+  private final SecureRandom mRandom = new SecureRandom();
+  private ServerSocket mServerSocket;
+  private Thread mAcceptThread;
+  private final AtomicLong mBytesServed = new AtomicLong();
+  private final AtomicLong mBytesFetched = new AtomicLong();
+  private final AtomicLong mFetchNanos = new AtomicLong();
+  private final AtomicLong mHitCount = new AtomicLong();
+  private final AtomicLong mMissCount = new AtomicLong();
+  private final AtomicLong mPrefetchCount = new AtomicLong();
+  private final AtomicLong mErrorCount = new AtomicLong();
+
+  public HttpProxy(File cacheDir) {
+    this(cacheDir, DEFAULT_CACHE_SIZE, DEFAULT_FETCH_THREADS, DEFAULT_PREFETCH_CHUNKS);
+  }
+
+  public HttpProxy(File cacheDir, int fetchThreads, int prefetchChunks) {
+    this(cacheDir, DEFAULT_CACHE_SIZE, fetchThreads, prefetchChunks);
+  }
+
+  /**
+   * @param cacheDir       the directory of the chunks, nothing else should be
+   *                       stored in it
+   * @param maxCacheSize   the byte budget of the chunks, the least recently
+   *                       used ones are deleted beyond it
+   * @param fetchThreads   the maximum number of chunks fetched in parallel for
+   *                       the prefetch
+   * @param prefetchChunks how many chunks are fetched ahead of the read
+   *                       position
+   */
+  public HttpProxy(File cacheDir, long maxCacheSize, int fetchThreads, int prefetchChunks) {
+    if (maxCacheSize < 0)
+      throw new IllegalArgumentException("maxCacheSize < 0: " + maxCacheSize);
+    if (fetchThreads < 1 || prefetchChunks < 0)
+      throw new IllegalArgumentException("fetchThreads must be at least 1 and prefetchChunks positive");
+    mCache = new ChunkCache(cacheDir, maxCacheSize);
+    mPrefetchChunks = prefetchChunks;
+    mFetchExecutor = new ThreadPoolExecutor(fetchThreads, fetchThreads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("Vitamio-Proxy-Fetch-"));
+    mFetchExecutor.allowCoreThreadTimeOut(true);
+    mClientExecutor = Executors.newCachedThreadPool(new NamedThreadFactory("Vitamio-Proxy-Client-"));
+  }
+
+  /**
+   * Listen on a free port of the loopback interface.
+   */
+  public synchronized void start() throws IOException {
+    if (mServerSocket != null)
+      return;
+    mServerSocket = new ServerSocket(0, 8, InetAddress.getByName("127.0.0.1"));
+    final ServerSocket serverSocket = mServerSocket;
+    mAcceptThread = new Thread("Vitamio-Proxy") {
+      @Override
+      public void run() {
+        while (!serverSocket.isClosed()) {
+          try {
+            final Socket socket = serverSocket.accept();
+            mClientExecutor.execute(new Runnable() {
+              @Override
+              public void run() {
+                serve(socket);
+              }
+            });
+          } catch (IOException e) {
+            // closed by shutdown()
+          } catch (RejectedExecutionException e) {
+            return;
+          }
+        }
+      }
+    };
+    mAcceptThread.setDaemon(true);
+    mAcceptThread.start();
+  }
+
+  /**
+   * Close the server and stop the fetches, the cached chunks are kept.
+   */
+  public synchronized void shutdown() {
+    if (mServerSocket != null) {
+      try {
+        mServerSocket.close();
+      } catch (IOException e) {
+      }
+    }
+    mClientExecutor.shutdownNow();
+    mFetchExecutor.shutdownNow();
+  }
+
+  public synchronized int getPort() {
+    if (mServerSocket == null)
+      throw new IllegalStateException("HttpProxy isn't started");
+    return mServerSocket.getLocalPort();
+  }
+
+  public String register(String url) {
+    return register(url, null);
+  }
+
+  /**
+   * @param headers sent to the origin with every request, may be null
+   * @return the url to play url through the proxy
+   */
+  public String register(String url, Map<String, String> headers) {
+    return "http://127.0.0.1:" + getPort() + "/" + source(url, headers).mId;
+  }
+
+  /**
+   * Fetch the first bytes of url in the background, so that a player opening
+   * it later starts from the cache.
+   */
+  public void preload(String url, final long bytes) {
+    final Source source = source(url, null);
+    try {
+      mFetchExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            getChunk(source, 0, true);
+            int chunks = (int) Math.min(source.chunkCount(), (bytes + ChunkCache.CHUNK_SIZE - 1) / ChunkCache.CHUNK_SIZE);
+            for (int i = 1; i < chunks; i++)
+              prefetch(source, i);
+          } catch (IOException e) {
+            mErrorCount.incrementAndGet();
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+    }
+  }
+
+  /**
+   * @return the bytes sent to the players
+   */
+  public long getBytesServed() {
+    return mBytesServed.get();
+  }
+
+  /**
+   * @return the bytes downloaded from the origins
+   */
+  public long getBytesFetched() {
+    return mBytesFetched.get();
+  }
+
+  /**
+   * @return the download speed from the origins in bytes per second, measured
+   *         while fetching, 0 before the first fetch
+   */
+  public long getFetchThroughput() {
+    long nanos = mFetchNanos.get();
+    return nanos == 0 ? 0 : mBytesFetched.get() * 1000000000L / nanos;
+  }
+
+  /**
+   * @return the chunks served from the cache, or from a prefetch in progress
+   */
+  public long getHitCount() {
+    return mHitCount.get();
+  }
+
+  /**
+   * @return the chunks the players had to wait for a fetch of
+   */
+  public long getMissCount() {
+    return mMissCount.get();
+  }
+
+  public float getHitRatio() {
+    long hits = mHitCount.get();
+    long total = hits + mMissCount.get();
+    return total == 0 ? 0 : hits / (float) total;
+  }
+
+  public long getPrefetchCount() {
+    return mPrefetchCount.get();
+  }
+
+  /**
+   * @return the requests which failed on the origin side
+   */
+  public long getErrorCount() {
+    return mErrorCount.get();
+  }
+
+  /**
+   * @return the chunks deleted to keep the cache within its budget
+   */
+  public long getEvictionCount() {
+    return mCache.getEvictionCount();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("HttpProxy[served=%d, fetched=%d, throughput=%d B/s, hits=%d, misses=%d, prefetches=%d, errors=%d, evictions=%d]", getBytesServed(), getBytesFetched(), getFetchThroughput(), getHitCount(), getMissCount(), getPrefetchCount(), getErrorCount(), getEvictionCount());
+  }
+
+  private Source source(String url, Map<String, String> headers) {
+    synchronized (mSourcesByUrl) {
+      Source source = mSourcesByUrl.get(url);
+      if (source == null) {
+        File dir = mCache.getDirectory(url);
+        String id;
+        do {
+          id = new BigInteger(130, mRandom).toString(32);
+        } while (mSourcesById.containsKey(id));
+        source = new Source(id, url, dir, mCache.readLength(dir));
+        mSourcesByUrl.put(url, source);
+        mSourcesById.put(source.mId, source);
+      }
+      if (headers != null)
+        source.mHeaders = new HashMap<String, String>(headers);
+      return source;
+    }
+  }
+
+  private void serve(Socket socket) {
+    try {
+      socket.setSoTimeout(TIMEOUT);
+      InputStream in = socket.getInputStream();
+      OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 16 * 1024);
+      String requestLine = readLine(in);
+      if (requestLine == null)
+        return;
+      String range = null;
+      String line;
+      while ((line = readLine(in)) != null && line.length() > 0) {
+        int colon = line.indexOf(':');
+        if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Range"))
+          range = line.substring(colon + 1).trim();
+      }
+
+      String[] parts = requestLine.split(" ");
+      boolean head = parts[0].equals("HEAD");
+      if (parts.length < 2 || !(head || parts[0].equals("GET"))) {
+        writeStatus(out, "405 Method Not Allowed");
+        return;
+      }
+      Source source = mSourcesById.get(parts[1].substring(1));
+      if (source == null) {
+        writeStatus(out, "404 Not Found");
+        return;
+      }
+
+      long start = 0;
+      long end = -1;
+      if (range != null) {
+        Matcher m = RANGE.matcher(range);
+        if (m.matches()) {
+          start = Long.parseLong(m.group(1));
+          if (m.group(2).length() > 0)
+            end = Long.parseLong(m.group(2));
+        } else {
+          range = null;
+        }
+      }
+
+      int first = (int) (start / ChunkCache.CHUNK_SIZE);
+      byte[] firstChunk = null;
+      if (!source.mRangeless && (source.mLength < 0 || (start < source.mLength && !isCached(source, first, first)))) {
+        // learn the length, and whether the origin takes ranges, before
+        // answering
+        try {
+          firstChunk = getChunk(source, first, false);
+        } catch (IOException e) {
+          if (!source.mRangeless) {
+            mErrorCount.incrementAndGet();
+            writeStatus(out, "502 Bad Gateway");
+            return;
+          }
+        }
+      }
+      long length = source.mLength;
+      if (length < 0) {
+        relay(source, range, head, out);
+        return;
+      }
+      if (start >= length) {
+        out.write(("HTTP/1.1 416 Requested Range Not Satisfiable\r\nContent-Range: bytes */" + length + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n").getBytes("ISO-8859-1"));
+        out.flush();
+        return;
+      }
+      if (end < 0 || end >= length)
+        end = length - 1;
+      int last = (int) (end / ChunkCache.CHUNK_SIZE);
+      if (source.mRangeless && !isCached(source, first, last)) {
+        relay(source, range, head, out);
+        return;
+      }
+
+      StringBuilder headers = new StringBuilder();
+      headers.append(range != null ? "HTTP/1.1 206 Partial Content\r\n" : "HTTP/1.1 200 OK\r\n");
+      headers.append("Content-Type: ").append(source.mContentType).append("\r\n");
+      headers.append("Accept-Ranges: bytes\r\n");
+      headers.append("Content-Length: ").append(end - start + 1).append("\r\n");
+      if (range != null)
+        headers.append("Content-Range: bytes ").append(start).append('-').append(end).append('/').append(length).append("\r\n");
+      headers.append("Connection: close\r\n\r\n");
+      out.write(headers.toString().getBytes("ISO-8859-1"));
+      if (head) {
+        out.flush();
+        return;
+      }
+
+      for (int i = first; i <= last; i++) {
+        for (int p = i + 1; p <= i + mPrefetchChunks && p < source.chunkCount(); p++)
+          prefetch(source, p);
+        byte[] chunk = i == first && firstChunk != null ? firstChunk : getChunk(source, i, false);
+        long chunkStart = (long) i * ChunkCache.CHUNK_SIZE;
+        int from = (int) (Math.max(start, chunkStart) - chunkStart);
+        int to = (int) (Math.min(end + 1, chunkStart + chunk.length) - chunkStart);
+        out.write(chunk, from, to - from);
+        mBytesServed.addAndGet(to - from);
+      }
+      out.flush();
+    } catch (SocketException e) {
+      // the player closed the connection, after a seek
+    } catch (IOException e) {
+      mErrorCount.incrementAndGet();
+    } finally {
+      try {
+        socket.close();
+      } catch (IOException e) {
+      }
+    }
+  }
+
+  /**
+   * @return the chunk index of source, from the cache, a fetch in progress or
+   *         the origin
+   */
+  private byte[] getChunk(Source source, int index, boolean prefetch) throws IOException {
+    int expected = source.chunkLength(index);
+    if (expected > 0) {
+      byte[] chunk = mCache.read(source.mDir, index, expected);
+      if (chunk != null) {
+        if (!prefetch)
+          mHitCount.incrementAndGet();
+        return chunk;
+      }
+    }
+
+    FutureTask<byte[]> fetch = mFetches.get(source.mId + ":" + index);
+    if (!prefetch) {
+      if (fetch != null)
+        mHitCount.incrementAndGet();
+      else
+        mMissCount.incrementAndGet();
+    }
+    if (fetch == null)
+      fetch = fetchTask(source, index);
+    // runs the fetch here unless it's already running, a queued prefetch is
+    // then a no-op
+    fetch.run();
+    try {
+      return fetch.get();
+    } catch (CancellationException e) {
+      return fetch(source, index);
+    } catch (InterruptedException e) {
+      throw new IOException("Interrupted");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException)
+        throw (IOException) cause;
+      throw new IOException(String.valueOf(cause));
+    }
+  }
+
+  private boolean isCached(Source source, int first, int last) {
+    for (int i = first; i <= last; i++) {
+      int expected = source.chunkLength(i);
+      if (expected <= 0 || !mCache.isCached(source.mDir, i, expected))
+        return false;
+    }
+    return true;
+  }
+
+  private void prefetch(final Source source, final int index) {
+    int expected = source.chunkLength(index);
+    if (source.mRangeless || expected <= 0 || mCache.isCached(source.mDir, index, expected) || mFetches.containsKey(source.mId + ":" + index))
+      return;
+    FutureTask<byte[]> fetch = fetchTask(source, index);
+    try {
+      mFetchExecutor.execute(fetch);
+      mPrefetchCount.incrementAndGet();
+    } catch (RejectedExecutionException e) {
+      fetch.cancel(false);
+    }
+  }
+
+  /**
+   * @return the fetch of a chunk, shared with the other readers of the chunk
+   */
+  private FutureTask<byte[]> fetchTask(final Source source, final int index) {
+    final String key = source.mId + ":" + index;
+    FutureTask<byte[]> fetch = mFetches.get(key);
+    if (fetch != null)
+      return fetch;
+    fetch = new FutureTask<byte[]>(new Callable<byte[]>() {
+      @Override
+      public byte[] call() throws IOException {
+        return fetch(source, index);
+      }
+    }) {
+      @Override
+      protected void done() {
+        mFetches.remove(key, this);
+      }
+    };
+    FutureTask<byte[]> existing = mFetches.putIfAbsent(key, fetch);
+    return existing != null ? existing : fetch;
+  }
+
+  /**
+   * Download a chunk with a range request, and cache it.
+   */
+  private byte[] fetch(Source source, int index) throws IOException {
+    long start = (long) index * ChunkCache.CHUNK_SIZE;
+    long begin = System.nanoTime();
+    HttpURLConnection conn = open(source, "bytes=" + start + "-" + (start + ChunkCache.CHUNK_SIZE - 1));
+    InputStream in = null;
+    try {
+      int code = conn.getResponseCode();
+      long length = -1;
+      if (code == HttpURLConnection.HTTP_PARTIAL) {
+        Matcher m = CONTENT_RANGE.matcher(String.valueOf(conn.getHeaderField("Content-Range")));
+        if (m.matches())
+          length = Long.parseLong(m.group(1));
+      } else if (code == HttpURLConnection.HTTP_OK) {
+        // no range support, the stream is relayed from now on instead of
+        // downloading it from the start for every chunk
+        source.mRangeless = true;
+        length = contentLength(conn);
+      } else {
+        throw new IOException("HTTP " + code + " for " + source.mUrl);
+      }
+      if (source.mLength < 0 && length >= 0) {
+        source.mLength = length;
+        String type = conn.getContentType();
+        if (type != null)
+          source.mContentType = type;
+        try {
+          mCache.writeLength(source.mDir, length);
+        } catch (IOException e) {
+          // served from the origin until it's written
+        }
+      }
+
+      if (code == HttpURLConnection.HTTP_OK && index > 0)
+        throw new IOException("No range support for " + source.mUrl);
+      in = conn.getInputStream();
+      int expected = source.chunkLength(index);
+      byte[] chunk = new byte[expected > 0 ? expected : ChunkCache.CHUNK_SIZE];
+      int read = 0;
+      while (read < chunk.length) {
+        int n = in.read(chunk, read, chunk.length - read);
+        if (n < 0)
+          break;
+        read += n;
+      }
+      if (code == HttpURLConnection.HTTP_PARTIAL)
+        drain(in);
+      mBytesFetched.addAndGet(read);
+      mFetchNanos.addAndGet(System.nanoTime() - begin);
+      if (expected > 0 && read < expected)
+        throw new IOException("Short read of chunk " + index + " of " + source.mUrl);
+      if (expected > 0) {
+        try {
+          mCache.write(source.mDir, index, chunk, read);
+        } catch (IOException e) {
+          // storage full, fetched again next time
+        }
+      }
+      return read == chunk.length ? chunk : Arrays.copyOf(chunk, read);
+    } finally {
+      if (in != null)
+        in.close();
+      else
+        conn.disconnect();
+    }
+  }
+
+  /**
+   * Pipe a stream of unknown length, or of an origin which ignores ranges. The
+   * chunks of a whole stream of known length are cached on the way.
+   */
+  private void relay(Source source, String range, boolean head, OutputStream out) throws IOException {
+    HttpURLConnection conn = open(source, range);
+    InputStream in = null;
+    try {
+      int code = conn.getResponseCode();
+      StringBuilder headers = new StringBuilder("HTTP/1.1 ").append(code).append(' ').append(conn.getResponseMessage()).append("\r\n");
+      String type = conn.getContentType();
+      if (type != null)
+        headers.append("Content-Type: ").append(type).append("\r\n");
+      String contentLength = conn.getHeaderField("Content-Length");
+      if (contentLength != null)
+        headers.append("Content-Length: ").append(contentLength).append("\r\n");
+      String contentRange = conn.getHeaderField("Content-Range");
+      if (contentRange != null)
+        headers.append("Content-Range: ").append(contentRange).append("\r\n");
+      headers.append("Connection: close\r\n\r\n");
+      out.write(headers.toString().getBytes("ISO-8859-1"));
+      if (head || code >= 400) {
+        out.flush();
+        return;
+      }
+      in = conn.getInputStream();
+      boolean caching = code == HttpURLConnection.HTTP_OK && source.mLength >= 0;
+      byte[] buffer = new byte[caching ? ChunkCache.CHUNK_SIZE : 16 * 1024];
+      long begin = System.nanoTime();
+      int index = 0;
+      int filled = 0;
+      int n;
+      while ((n = in.read(buffer, filled, buffer.length - filled)) >= 0) {
+        out.write(buffer, filled, n);
+        mBytesFetched.addAndGet(n);
+        mBytesServed.addAndGet(n);
+        if (!caching)
+          continue;
+        filled += n;
+        int expected = source.chunkLength(index);
+        if (filled == expected || filled == buffer.length) {
+          if (filled == expected)
+            cacheChunk(source, index, buffer, filled);
+          index++;
+          filled = 0;
+        }
+      }
+      mFetchNanos.addAndGet(System.nanoTime() - begin);
+      out.flush();
+    } finally {
+      if (in != null)
+        in.close();
+      else
+        conn.disconnect();
+    }
+  }
+
+  private void cacheChunk(Source source, int index, byte[] chunk, int length) {
+    if (mCache.isCached(source.mDir, index, length))
+      return;
+    try {
+      mCache.write(source.mDir, index, chunk, length);
+    } catch (IOException e) {
+      // storage full, relayed again next time
+    }
+  }
+
+  private static HttpURLConnection open(Source source, String range) throws IOException {
+    HttpURLConnection conn = (HttpURLConnection) new URL(source.mUrl).openConnection();
+    conn.setConnectTimeout(TIMEOUT);
+    conn.setReadTimeout(TIMEOUT);
+    Map<String, String> headers = source.mHeaders;
+    for (Map.Entry<String, String> header : headers.entrySet())
+      conn.setRequestProperty(header.getKey(), header.getValue());
+    if (range != null)
+      conn.setRequestProperty("Range", range);
+    return conn;
+  }
+
+  private static long contentLength(HttpURLConnection conn) {
+    String length = conn.getHeaderField("Content-Length");
+    try {
+      return length == null ? -1 : Long.parseLong(length.trim());
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Read to the end, so that the connection goes back to the keep-alive pool.
+   */
+  private static void drain(InputStream in) throws IOException {
+    byte[] buffer = new byte[1024];
+    while (in.read(buffer) >= 0) {
+    }
+  }
+
+  private static String readLine(InputStream in) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    int c;
+    while ((c = in.read()) >= 0) {
+      if (c == '\n')
+        break;
+      if (c != '\r')
+        sb.append((char) c);
+      if (sb.length() > MAX_HEADER_LINE)
+        throw new IOException("Header line too long");
+    }
+    return c < 0 && sb.length() == 0 ? null : sb.toString();
+  }
+
+  private static void writeStatus(OutputStream out, String status) throws IOException {
+    out.write(("HTTP/1.1 " + status + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n").getBytes("ISO-8859-1"));
+    out.flush();
+  }
+
+  private static final class Source {
+    final String mId;
+    final String mUrl;
+    final File mDir;
+    volatile Map<String, String> mHeaders = Collections.emptyMap();
+    volatile long mLength;
+    volatile String mContentType = "application/octet-stream";
+    // the origin answered a range request with the whole stream
+    volatile boolean mRangeless;
+
+    Source(String id, String url, File dir, long length) {
+      mId = id;
+      mUrl = url;
+      mDir = dir;
+      mLength = length;
+    }
+
+    int chunkCount() {
+      long length = mLength;
+      return length < 0 ? 0 : (int) ((length + ChunkCache.CHUNK_SIZE - 1) / ChunkCache.CHUNK_SIZE);
+    }
+
+    /**
+     * @return the length of a complete chunk, -1 if the stream length isn't
+     *         known
+     */
+    int chunkLength(int index) {
+      long length = mLength;
+      if (length < 0)
+        return -1;
+      return (int) Math.max(0, Math.min(ChunkCache.CHUNK_SIZE, length - (long) index * ChunkCache.CHUNK_SIZE));
+    }
+  }
+
+  private static final class NamedThreadFactory implements ThreadFactory {
+    private final String mPrefix;
+    private final AtomicInteger mCount = new AtomicInteger();
+
+    NamedThreadFactory(String prefix) {
+      mPrefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, mPrefix + mCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
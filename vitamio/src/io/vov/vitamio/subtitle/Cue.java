@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio.subtitle;
+
+/**
+ * A subtitle text shown from its start time, inclusive, to its end time,
+ * exclusive, both in milliseconds.
+ */
+public final class Cue {
+  private final long mStartTime;
+  private final long mEndTime;
+  private final String mText;
+
+  public Cue(long startTime, long endTime, String text) {
+    mStartTime = startTime;
+    mEndTime = endTime;
+    mText = text;
+  }
+
+  public long getStartTime() {
+    return mStartTime;
+  }
+
+  public long getEndTime() {
+    return mEndTime;
+  }
+
+  /**
+   * @return the plain text, lines separated by '\n'
+   */
+  public String getText() {
+    return mText;
+  }
+
+  public boolean isActive(long time) {
+    return mStartTime <= time && time < mEndTime;
+  }
+
+  @Override
+  public String toString() {
+    return mStartTime + "-" + mEndTime + ": " + mText;
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio.subtitle;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable interval index of cues. The cues are sorted by start time and
+ * seen as an implicit balanced tree, the middle of each range being the
+ * root of its sub tree, which knows the latest end time below it. Finding
+ * the k cues active at a time costs O(log n + k).
+ */
+public final class CueIndex {
+  public static final CueIndex EMPTY = new CueIndex(Arrays.<Cue>asList());
+  private final Cue[] mCues;
+  private final long[] mStarts;
+  private final long[] mEnds;
+  private final long[] mMaxEnds;
+
+  public CueIndex(Collection<Cue> cues) {
+    mCues = cues.toArray(new Cue[cues.size()]);
+    Arrays.sort(mCues, BY_START_TIME);
+    mStarts = new long[mCues.length];
+    mEnds = new long[mCues.length];
+    mMaxEnds = new long[mCues.length];
+    for (int i = 0; i < mCues.length; i++) {
+      mStarts[i] = mCues[i].getStartTime();
+      mEnds[i] = mCues[i].getEndTime();
+    }
+    buildMaxEnds(0, mCues.length - 1);
+  }
+
+  private long buildMaxEnds(int lo, int hi) {
+    if (lo > hi)
+      return Long.MIN_VALUE;
+    int mid = (lo + hi) >>> 1;
+    long max = Math.max(mEnds[mid], Math.max(buildMaxEnds(lo, mid - 1), buildMaxEnds(mid + 1, hi)));
+    mMaxEnds[mid] = max;
+    return max;
+  }
+
+  public int size() {
+    return mCues.length;
+  }
+
+  /**
+   * @param i between 0 and size() - 1, in start time order
+   */
+  public Cue get(int i) {
+    return mCues[i];
+  }
+
+  /**
+   * Add the cues active at time to out, in start time order.
+   */
+  public void getCues(long time, List<Cue> out) {
+    collect(0, mCues.length - 1, time, out);
+  }
+
+  private void collect(int lo, int hi, long time, List<Cue> out) {
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      if (mMaxEnds[mid] <= time)
+        return;
+      collect(lo, mid - 1, time, out);
+      if (mStarts[mid] > time)
+        return;
+      if (mEnds[mid] > time)
+        out.add(mCues[mid]);
+      lo = mid + 1;
+    }
+  }
+
+  /**
+   * @return the first start time after time, Long.MAX_VALUE if there's none
+   */
+  public long getNextStartTime(long time) {
+    int lo = 0;
+    int hi = mStarts.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (mStarts[mid] <= time)
+        lo = mid + 1;
+      else
+        hi = mid;
+    }
+    return lo < mStarts.length ? mStarts[lo] : Long.MAX_VALUE;
+  }
+
+  private static final Comparator<Cue> BY_START_TIME = new Comparator<Cue>() {
+    @Override
+    public int compare(Cue lhs, Cue rhs) {
+      if (lhs.getStartTime() != rhs.getStartTime())
+        return lhs.getStartTime() < rhs.getStartTime() ? -1 : 1;
+      return lhs.getEndTime() < rhs.getEndTime() ? -1 : (lhs.getEndTime() == rhs.getEndTime() ? 0 : 1);
+    }
+  };
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio.subtitle;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+/**
+ * MicroDVD: "{start frame}{end frame}text|second line". The frame rate is
+ * taken from a leading "{1}{1}23.976" cue when there's one.
+ */
+class MicroDvdParser extends SubtitleParser {
+  private static final double DEFAULT_FRAME_RATE = 23.976;
+  private double mFrameRate = DEFAULT_FRAME_RATE;
+  private boolean mFirstCue = true;
+
+  MicroDvdParser(BufferedReader reader) {
+    super(reader);
+  }
+
+  @Override
+  public Cue next() throws IOException {
+    String line;
+    while ((line = readLine()) != null) {
+      line = line.trim();
+      int startEnd = line.indexOf('}');
+      if (!line.startsWith("{") || startEnd < 0 || startEnd + 1 >= line.length() || line.charAt(startEnd + 1) != '{')
+        continue;
+      int endEnd = line.indexOf('}', startEnd + 1);
+      if (endEnd < 0)
+        continue;
+      long startFrame = parseFrame(line, 1, startEnd);
+      long endFrame = parseFrame(line, startEnd + 2, endEnd);
+      if (startFrame < 0)
+        continue;
+      String text = line.substring(endEnd + 1);
+
+      if (mFirstCue) {
+        mFirstCue = false;
+        if (startFrame == 1 && endFrame == 1) {
+          try {
+            double rate = Double.parseDouble(text.trim());
+            if (rate > 0) {
+              mFrameRate = rate;
+              continue;
+            }
+          } catch (NumberFormatException e) {
+          }
+        }
+      }
+
+      long start = (long) (startFrame * 1000 / mFrameRate);
+      long end = endFrame < 0 ? start + DEFAULT_DURATION : (long) (endFrame * 1000 / mFrameRate);
+      if (end > start)
+        return new Cue(start, end, cleanText(stripStyles(text).replace('|', '\n')));
+    }
+    return null;
+  }
+
+  private static long parseFrame(String line, int start, int end) {
+    if (start >= end)
+      return -1;
+    long frame = 0;
+    for (int i = start; i < end; i++) {
+      char c = line.charAt(i);
+      if (!isDigit(c))
+        return -1;
+      frame = frame * 10 + (c - '0');
+    }
+    return frame;
+  }
+
+  /**
+   * Remove the {y:i} like control codes.
+   */
+  private static String stripStyles(String text) {
+    while (text.startsWith("{")) {
+      int close = text.indexOf('}');
+      if (close < 0)
+        break;
+      text = text.substring(close + 1);
+    }
+    return text;
+  }
+}
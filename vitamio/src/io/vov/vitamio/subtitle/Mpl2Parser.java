@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio.subtitle;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+/**
+ * MPL2: "[start][end]text|second line", times in tenths of second, a leading
+ * '/' on a line marks it italic.
+ */
+class Mpl2Parser extends SubtitleParser {
+
+  Mpl2Parser(BufferedReader reader) {
+    super(reader);
+  }
+
+  @Override
+  public Cue next() throws IOException {
+    String line;
+    while ((line = readLine()) != null) {
+      line = line.trim();
+      int startEnd = line.indexOf(']');
+      if (!line.startsWith("[") || startEnd < 0 || startEnd + 1 >= line.length() || line.charAt(startEnd + 1) != '[')
+        continue;
+      int endEnd = line.indexOf(']', startEnd + 1);
+      if (endEnd < 0)
+        continue;
+      long start = parseDeciseconds(line, 1, startEnd);
+      long end = parseDeciseconds(line, startEnd + 2, endEnd);
+      if (start < 0)
+        continue;
+      if (end < 0)
+        end = start + DEFAULT_DURATION;
+      if (end <= start)
+        continue;
+
+      String text = line.substring(endEnd + 1).replace('|', '\n').replace("\n/", "\n");
+      if (text.startsWith("/"))
+        text = text.substring(1);
+      return new Cue(start, end, cleanText(text));
+    }
+    return null;
+  }
+
+  private static long parseDeciseconds(String line, int start, int end) {
+    if (start >= end)
+      return -1;
+    long value = 0;
+    for (int i = start; i < end; i++) {
+      char c = line.charAt(i);
+      if (!isDigit(c))
+        return -1;
+      value = value * 10 + (c - '0');
+    }
+    return value * 100;
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio.subtitle;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+/**
+ * SAMI: each &lt;SYNC Start=ms&gt; block shows its text until the next one.
+ * When the file holds several languages, only the paragraphs of the first
+ * class met, and those without a class, are kept.
+ */
+class SamiParser extends SubtitleParser {
+  private static final String SYNC = "<sync";
+  private static final String PARAGRAPH = "<p";
+  private final StringBuilder mBuffer = new StringBuilder();
+  private boolean mEndOfFile;
+  private long mPendingStart = -1;
+  private String mPendingText;
+  private String mClass;
+
+  SamiParser(BufferedReader reader) {
+    super(reader);
+  }
+
+  @Override
+  public Cue next() throws IOException {
+    while (true) {
+      int sync = indexOf(mBuffer, SYNC, 0);
+      if (sync < 0) {
+        if (mEndOfFile)
+          return flush();
+        // keep what could be the start of a tag split across lines
+        mBuffer.delete(0, Math.max(0, mBuffer.length() - SYNC.length()));
+        fill();
+        continue;
+      }
+      int nextSync = indexOf(mBuffer, SYNC, sync + SYNC.length());
+      if (nextSync < 0 && !mEndOfFile) {
+        fill();
+        continue;
+      }
+
+      int blockEnd = nextSync < 0 ? mBuffer.length() : nextSync;
+      String block = mBuffer.substring(sync, blockEnd);
+      mBuffer.delete(0, blockEnd);
+
+      long start = parseStart(block);
+      if (start < 0)
+        continue;
+      Cue cue = null;
+      if (mPendingText != null && start > mPendingStart)
+        cue = new Cue(mPendingStart, start, mPendingText);
+      String text = parseText(block);
+      mPendingStart = start;
+      mPendingText = text.length() > 0 ? text : null;
+      if (cue != null)
+        return cue;
+    }
+  }
+
+  private void fill() throws IOException {
+    String line = readLine();
+    if (line == null)
+      mEndOfFile = true;
+    else
+      mBuffer.append(line).append(' ');
+  }
+
+  private Cue flush() {
+    if (mPendingText == null)
+      return null;
+    Cue cue = new Cue(mPendingStart, mPendingStart + DEFAULT_DURATION, mPendingText);
+    mPendingText = null;
+    return cue;
+  }
+
+  private static long parseStart(String block) {
+    int tagEnd = block.indexOf('>');
+    if (tagEnd < 0)
+      return -1;
+    int attr = indexOf(block, "start", 0);
+    if (attr < 0 || attr > tagEnd)
+      return -1;
+    int i = block.indexOf('=', attr);
+    if (i < 0 || i > tagEnd)
+      return -1;
+    for (i++; i < tagEnd && (block.charAt(i) == ' ' || block.charAt(i) == '"' || block.charAt(i) == '\''); i++)
+      ;
+    long start = -1;
+    for (; i < tagEnd && isDigit(block.charAt(i)); i++)
+      start = (start < 0 ? 0 : start * 10) + (block.charAt(i) - '0');
+    return start;
+  }
+
+  private String parseText(String block) {
+    int p = indexOf(block, PARAGRAPH, 0);
+    if (p < 0)
+      return cleanText(block.substring(block.indexOf('>') + 1));
+
+    StringBuilder sb = new StringBuilder();
+    while (p >= 0) {
+      int next = indexOf(block, PARAGRAPH, p + PARAGRAPH.length());
+      // don't take <pre> and the like for a paragraph
+      if (p + 2 < block.length() && Character.isLetter(block.charAt(p + 2))) {
+        p = next;
+        continue;
+      }
+      int tagEnd = block.indexOf('>', p);
+      if (tagEnd < 0)
+        break;
+      String clazz = parseClass(block, p, tagEnd);
+      if (mClass == null && clazz.length() > 0)
+        mClass = clazz;
+      if (clazz.length() == 0 || clazz.equalsIgnoreCase(mClass)) {
+        String text = cleanText(block.substring(tagEnd + 1, next < 0 ? block.length() : next));
+        if (text.length() > 0) {
+          if (sb.length() > 0)
+            sb.append('\n');
+          sb.append(text);
+        }
+      }
+      p = next;
+    }
+    return sb.toString();
+  }
+
+  private static String parseClass(String block, int tagStart, int tagEnd) {
+    int attr = indexOf(block, "class", tagStart);
+    if (attr < 0 || attr > tagEnd)
+      return "";
+    int i = block.indexOf('=', attr);
+    if (i < 0 || i > tagEnd)
+      return "";
+    for (i++; i < tagEnd && (block.charAt(i) == ' ' || block.charAt(i) == '"' || block.charAt(i) == '\''); i++)
+      ;
+    int end = i;
+    while (end < tagEnd && block.charAt(end) != ' ' && block.charAt(end) != '"' && block.charAt(end) != '\'')
+      end++;
+    return block.substring(i, end);
+  }
+
+  /**
+   * Case insensitive indexOf of a lower case ASCII needle.
+   */
+  private static int indexOf(CharSequence s, String needle, int from) {
+    int last = s.length() - needle.length();
+    for (int i = from; i <= last; i++) {
+      int j = 0;
+      while (j < needle.length() && Character.toLowerCase(s.charAt(i + j)) == needle.charAt(j))
+        j++;
+      if (j == needle.length())
+        return i;
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio.subtitle;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+/**
+ * SubRip and WebVTT: a "start --> end" line, optionally followed by cue
+ * settings, then the text lines up to a blank line. Counters, the WEBVTT
+ * header, NOTE and STYLE blocks are skipped as they have no timing line.
+ */
+class SrtParser extends SubtitleParser {
+  private static final String ARROW = "-->";
+  private final StringBuilder mText = new StringBuilder();
+
+  SrtParser(BufferedReader reader) {
+    super(reader);
+  }
+
+  @Override
+  public Cue next() throws IOException {
+    String line;
+    while ((line = readLine()) != null) {
+      int arrow = line.indexOf(ARROW);
+      if (arrow < 0)
+        continue;
+
+      long start = parseTime(line, 0, arrow);
+      int endStart = arrow + ARROW.length();
+      while (endStart < line.length() && line.charAt(endStart) == ' ')
+        endStart++;
+      int endEnd = endStart;
+      while (endEnd < line.length() && line.charAt(endEnd) != ' ' && line.charAt(endEnd) != '\t')
+        endEnd++;
+      long end = parseTime(line, endStart, endEnd);
+
+      mText.setLength(0);
+      while ((line = readLine()) != null && line.trim().length() > 0) {
+        if (mText.length() > 0)
+          mText.append('\n');
+        mText.append(line);
+      }
+      if (start >= 0 && end > start)
+        return new Cue(start, end, cleanText(mText.toString()));
+    }
+    return null;
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio.subtitle;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+/**
+ * SubStation Alpha and Advanced SubStation Alpha: the Dialogue lines of the
+ * [Events] section, laid out by its Format line. Styles and positioning are
+ * dropped, only the text is kept.
+ */
+class SsaParser extends SubtitleParser {
+  private static final String FORMAT = "Format:";
+  private static final String DIALOGUE = "Dialogue:";
+  private boolean mInEvents;
+  // the Format line both formats use when the file has none
+  private int mFieldCount = 10;
+  private int mStartField = 1;
+  private int mEndField = 2;
+  private int mTextField = 9;
+
+  SsaParser(BufferedReader reader) {
+    super(reader);
+  }
+
+  @Override
+  public Cue next() throws IOException {
+    String line;
+    while ((line = readLine()) != null) {
+      line = line.trim();
+      if (line.startsWith("[")) {
+        mInEvents = line.equalsIgnoreCase("[Events]");
+      } else if (mInEvents && line.startsWith(FORMAT)) {
+        parseFormat(line);
+      } else if (mInEvents && line.startsWith(DIALOGUE)) {
+        Cue cue = parseDialogue(line);
+        if (cue != null)
+          return cue;
+      }
+    }
+    return null;
+  }
+
+  private void parseFormat(String line) {
+    int field = 0;
+    int start = FORMAT.length();
+    while (start <= line.length()) {
+      int comma = line.indexOf(',', start);
+      if (comma < 0)
+        comma = line.length();
+      String name = line.substring(start, comma).trim();
+      if (name.equalsIgnoreCase("Start"))
+        mStartField = field;
+      else if (name.equalsIgnoreCase("End"))
+        mEndField = field;
+      else if (name.equalsIgnoreCase("Text"))
+        mTextField = field;
+      field++;
+      start = comma + 1;
+    }
+    mFieldCount = field;
+  }
+
+  private Cue parseDialogue(String line) {
+    long start = -1;
+    long end = -1;
+    int field = 0;
+    int position = DIALOGUE.length();
+    // the text is the last field and may contain commas
+    while (field < mFieldCount - 1) {
+      int comma = line.indexOf(',', position);
+      if (comma < 0)
+        return null;
+      if (field == mStartField)
+        start = parseTime(line, position, comma);
+      else if (field == mEndField)
+        end = parseTime(line, position, comma);
+      field++;
+      position = comma + 1;
+    }
+    if (mTextField != mFieldCount - 1 || start < 0 || end <= start)
+      return null;
+    return new Cue(start, end, cleanText(line.substring(position)));
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio.subtitle;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+/**
+ * SubViewer: a "hh:mm:ss.cc,hh:mm:ss.cc" line followed by the text, "[br]"
+ * separating its lines. The [INFORMATION] header is skipped.
+ */
+class SubViewerParser extends SubtitleParser {
+  private final StringBuilder mText = new StringBuilder();
+
+  SubViewerParser(BufferedReader reader) {
+    super(reader);
+  }
+
+  static boolean isTimeLine(String line) {
+    int comma = line.indexOf(',');
+    return comma > 0 && parseTime(line, 0, comma) >= 0 && parseTime(line, comma + 1, line.length()) >= 0;
+  }
+
+  @Override
+  public Cue next() throws IOException {
+    String line;
+    while ((line = readLine()) != null) {
+      line = line.trim();
+      int comma = line.indexOf(',');
+      if (comma < 0)
+        continue;
+      long start = parseTime(line, 0, comma);
+      long end = parseTime(line, comma + 1, line.length());
+      if (start < 0 || end <= start)
+        continue;
+
+      mText.setLength(0);
+      while ((line = readLine()) != null && line.trim().length() > 0) {
+        if (mText.length() > 0)
+          mText.append('\n');
+        mText.append(line);
+      }
+      return new Cue(start, end, cleanText(mText.toString().replace("[br]", "\n").replace("[BR]", "\n")));
+    }
+    return null;
+  }
+}
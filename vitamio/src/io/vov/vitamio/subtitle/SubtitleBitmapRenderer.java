@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio.subtitle;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Copies the RGBA pixels of bitmap subtitles into reused {@link Bitmap}s, one
+ * per size, and only the region which differs from the previous cue.
+ * <p/>
+ * Not thread safe, use it from the thread which draws the bitmaps.
+ */
+public class SubtitleBitmapRenderer {
+  private static final int MAX_POOLED = 4;
+  private final LinkedHashMap<Long, Bitmap> mPool = new LinkedHashMap<Long, Bitmap>(MAX_POOLED, 0.75f, true);
+  private final Rect mDirty = new Rect();
+  private Bitmap mTarget;
+  private Bitmap mBitmap;
+  private byte[] mPixels;
+  private int[] mScratch;
+
+  /**
+   * Render into this bitmap rather than a pooled one when a cue has its size.
+   *
+   * @param bitmap a mutable ARGB_8888 bitmap, null to only use the pool
+   */
+  public void setTarget(Bitmap bitmap) {
+    if (bitmap != null && (!bitmap.isMutable() || bitmap.getConfig() != Bitmap.Config.ARGB_8888))
+      throw new IllegalArgumentException("The bitmap must be mutable and ARGB_8888");
+    mTarget = bitmap;
+  }
+
+  /**
+   * @param pixels the RGBA pixels of the cue, 4 bytes per pixel
+   * @param width  the width of the cue
+   * @param height the height of the cue
+   * @return the region of {@link #getBitmap()} which changed, null if
+   *         nothing did
+   */
+  public Rect update(byte[] pixels, int width, int height) {
+    if (pixels == null || width <= 0 || height <= 0 || pixels.length < width * height * 4) {
+      boolean shown = mBitmap != null;
+      mBitmap = null;
+      mPixels = null;
+      if (!shown)
+        return null;
+      mDirty.setEmpty();
+      return mDirty;
+    }
+
+    Bitmap bitmap = obtain(width, height);
+    if (bitmap == mBitmap && mPixels != null && mPixels.length == pixels.length) {
+      if (!diff(mPixels, pixels, width, height, mDirty))
+        return null;
+    } else {
+      mDirty.set(0, 0, width, height);
+    }
+    copy(pixels, width, bitmap, mDirty);
+    mBitmap = bitmap;
+    mPixels = pixels;
+    return mDirty;
+  }
+
+  /**
+   * @return the bitmap of the current cue, null if there is none. It's
+   *         overwritten by the next cues of the same size.
+   */
+  public Bitmap getBitmap() {
+    return mBitmap;
+  }
+
+  /**
+   * Forget the current cue and the pooled bitmaps.
+   */
+  public void clear() {
+    mPool.clear();
+    mBitmap = null;
+    mPixels = null;
+    mScratch = null;
+  }
+
+  private Bitmap obtain(int width, int height) {
+    if (mTarget != null && !mTarget.isRecycled() && mTarget.getWidth() == width && mTarget.getHeight() == height)
+      return mTarget;
+
+    Long key = ((long) width << 32) | height;
+    Bitmap bitmap = mPool.get(key);
+    if (bitmap == null || bitmap.isRecycled()) {
+      bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+      mPool.put(key, bitmap);
+      if (mPool.size() > MAX_POOLED) {
+        Iterator<Map.Entry<Long, Bitmap>> eldest = mPool.entrySet().iterator();
+        eldest.next();
+        eldest.remove();
+      }
+    }
+    return bitmap;
+  }
+
+  /**
+   * Bound the pixels which differ between two cues of the same size.
+   */
+  private static boolean diff(byte[] old, byte[] pixels, int width, int height, Rect dirty) {
+    int stride = width * 4;
+    int top = 0;
+    while (top < height && rowEquals(old, pixels, top * stride, stride))
+      top++;
+    if (top == height)
+      return false;
+    int bottom = height;
+    while (rowEquals(old, pixels, (bottom - 1) * stride, stride))
+      bottom--;
+
+    int left = width;
+    int right = 0;
+    for (int y = top; y < bottom; y++) {
+      int row = y * stride;
+      for (int x = 0; x < left; x++) {
+        if (!pixelEquals(old, pixels, row + x * 4)) {
+          left = x;
+          break;
+        }
+      }
+      for (int x = width - 1; x >= right; x--) {
+        if (!pixelEquals(old, pixels, row + x * 4)) {
+          right = x + 1;
+          break;
+        }
+      }
+    }
+    dirty.set(left, top, right, bottom);
+    return true;
+  }
+
+  private static boolean rowEquals(byte[] a, byte[] b, int offset, int length) {
+    for (int i = offset, end = offset + length; i < end; i++) {
+      if (a[i] != b[i])
+        return false;
+    }
+    return true;
+  }
+
+  private static boolean pixelEquals(byte[] a, byte[] b, int i) {
+    return a[i] == b[i] && a[i + 1] == b[i + 1] && a[i + 2] == b[i + 2] && a[i + 3] == b[i + 3];
+  }
+
+  private void copy(byte[] pixels, int width, Bitmap bitmap, Rect dirty) {
+    int w = dirty.width();
+    int h = dirty.height();
+    if (mScratch == null || mScratch.length < w * h)
+      mScratch = new int[w * h];
+    int[] colors = mScratch;
+    for (int y = 0; y < h; y++) {
+      int i = ((dirty.top + y) * width + dirty.left) * 4;
+      int o = y * w;
+      for (int x = 0; x < w; x++, i += 4) {
+        colors[o + x] = (pixels[i + 3] & 0xff) << 24 | (pixels[i] & 0xff) << 16 | (pixels[i + 1] & 0xff) << 8 | (pixels[i + 2] & 0xff);
+      }
+    }
+    bitmap.setPixels(colors, 0, w, dirty.left, dirty.top, w, h);
+  }
+}
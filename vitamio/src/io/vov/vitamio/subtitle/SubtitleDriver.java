@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio.subtitle;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import io.vov.vitamio.MediaPlayer;
+import io.vov.vitamio.MediaPlayer.OnTimedTextListener;
+
+/**
+ * Shows a {@link SubtitleTrack} through an {@link OnTimedTextListener}. The
+ * player position is polled on the given looper, waking up right when the
+ * next cue starts or ends while playing, and every {@link #IDLE_INTERVAL}
+ * milliseconds to notice seeks and pauses.
+ */
+public class SubtitleDriver {
+  public static final int IDLE_INTERVAL = 200;
+  private static final int MIN_INTERVAL = 10;
+  private final MediaPlayer mPlayer;
+  private final SubtitleScheduler mScheduler;
+  private final OnTimedTextListener mListener;
+  private final Handler mHandler;
+  private boolean mStarted;
+
+  private final Runnable mTick = new Runnable() {
+    @Override
+    public void run() {
+      tick();
+    }
+  };
+
+  public SubtitleDriver(MediaPlayer player, SubtitleTrack track, Looper looper, OnTimedTextListener listener) {
+    mPlayer = player;
+    mScheduler = new SubtitleScheduler(track);
+    mListener = listener;
+    mHandler = new Handler(looper);
+  }
+
+  public void start() {
+    if (mStarted)
+      return;
+    mStarted = true;
+    mScheduler.reset();
+    mHandler.post(mTick);
+  }
+
+  /**
+   * Stop polling and clear the text shown.
+   */
+  public void stop() {
+    if (!mStarted)
+      return;
+    mStarted = false;
+    mHandler.removeCallbacks(mTick);
+    if (mScheduler.isShowing() && mListener != null)
+      mListener.onTimedText("");
+    mScheduler.reset();
+  }
+
+  private void tick() {
+    if (!mStarted)
+      return;
+    long position;
+    boolean playing;
+    try {
+      position = mPlayer.getCurrentPosition();
+      playing = mPlayer.isPlaying();
+    } catch (IllegalStateException e) {
+      mHandler.postDelayed(mTick, IDLE_INTERVAL);
+      return;
+    }
+
+    String text = mScheduler.update(position);
+    if (text != null && mListener != null)
+      mListener.onTimedText(text);
+
+    long delay = IDLE_INTERVAL;
+    if (playing)
+      delay = Math.max(MIN_INTERVAL, Math.min(IDLE_INTERVAL, mScheduler.getNextUpdateTime() - position));
+    mHandler.postDelayed(mTick, delay);
+  }
+}
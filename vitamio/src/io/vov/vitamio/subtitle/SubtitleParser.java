@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio.subtitle;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Locale;
+
+/**
+ * Pull parser of a subtitle file, cues are read one at a time so a large file
+ * never has to be held in memory as text.
+ *
+ * @see #create(String, Reader)
+ */
+public abstract class SubtitleParser implements Closeable {
+  /**
+   * Duration of the cues whose format doesn't give an end time
+   */
+  protected static final long DEFAULT_DURATION = 3000;
+  private static final int SNIFF_LINES = 32;
+  private static final int SNIFF_LIMIT = 16 * 1024;
+  private final BufferedReader mReader;
+  private boolean mFirstLine = true;
+
+  protected SubtitleParser(BufferedReader reader) {
+    mReader = reader;
+  }
+
+  /**
+   * @return the next cue in file order, null at the end of the file
+   */
+  public abstract Cue next() throws IOException;
+
+  @Override
+  public void close() throws IOException {
+    mReader.close();
+  }
+
+  /**
+   * @return the next line without its byte order mark, null at the end of the
+   *         file
+   */
+  protected String readLine() throws IOException {
+    String line = mReader.readLine();
+    if (mFirstLine && line != null) {
+      mFirstLine = false;
+      if (line.length() > 0 && line.charAt(0) == '\uFEFF')
+        line = line.substring(1);
+    }
+    return line;
+  }
+
+  /**
+   * Create the parser of a file from its name: .srt, .webvtt, .vtt, .ssa,
+   * .ass, .smi, .sub and .txt. As .sub and .txt are used by several formats,
+   * the first lines are looked at to tell which one.
+   *
+   * @param name   the file name or path
+   * @param reader the content of the file
+   * @return the parser, null if the format isn't supported
+   */
+  public static SubtitleParser create(String name, Reader reader) throws IOException {
+    BufferedReader in = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+    String lower = name.toLowerCase(Locale.US);
+    if (lower.endsWith(".srt") || lower.endsWith(".webvtt") || lower.endsWith(".vtt"))
+      return new SrtParser(in);
+    if (lower.endsWith(".ssa") || lower.endsWith(".ass"))
+      return new SsaParser(in);
+    if (lower.endsWith(".smi") || lower.endsWith(".sami"))
+      return new SamiParser(in);
+    if (lower.endsWith(".sub") || lower.endsWith(".txt"))
+      return sniff(in);
+    return null;
+  }
+
+  private static SubtitleParser sniff(BufferedReader in) throws IOException {
+    in.mark(SNIFF_LIMIT);
+    int read = 0;
+    SubtitleParser parser = null;
+    try {
+      String line;
+      for (int i = 0; parser == null && i < SNIFF_LINES && (line = in.readLine()) != null; i++) {
+        read += line.length() + 1;
+        if (read >= SNIFF_LIMIT)
+          break;
+        line = line.trim();
+        if (line.length() > 0 && line.charAt(0) == '\uFEFF')
+          line = line.substring(1);
+        if (line.length() == 0)
+          continue;
+
+        if (line.startsWith("{"))
+          parser = new MicroDvdParser(in);
+        else if (line.startsWith("[") && line.length() > 1 && isDigit(line.charAt(1)))
+          parser = new Mpl2Parser(in);
+        else if (line.indexOf("-->") >= 0)
+          parser = new SrtParser(in);
+        else if (line.startsWith("[INFORMATION]") || SubViewerParser.isTimeLine(line))
+          parser = new SubViewerParser(in);
+        else if (TmPlayerParser.isCueLine(line))
+          parser = new TmPlayerParser(in);
+      }
+    } finally {
+      in.reset();
+    }
+    return parser != null ? parser : new SrtParser(in);
+  }
+
+  static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  /**
+   * Parse [[hours:]minutes:]seconds[.|,fraction] into milliseconds.
+   *
+   * @return the time, -1 if it's malformed
+   */
+  static long parseTime(String s, int start, int end) {
+    while (start < end && s.charAt(start) == ' ')
+      start++;
+    while (end > start && s.charAt(end - 1) == ' ')
+      end--;
+
+    long total = 0;
+    long field = 0;
+    int digits = 0;
+    int i = start;
+    for (; i < end; i++) {
+      char c = s.charAt(i);
+      if (isDigit(c)) {
+        field = field * 10 + (c - '0');
+        digits++;
+      } else if (c == ':' && digits > 0) {
+        total = total * 60 + field;
+        field = 0;
+        digits = 0;
+      } else if ((c == '.' || c == ',') && digits > 0) {
+        break;
+      } else {
+        return -1;
+      }
+    }
+    if (digits == 0)
+      return -1;
+    total = (total * 60 + field) * 1000;
+
+    if (i < end) {
+      // fraction of second, 1 digit means tenths, 2 hundredths...
+      int scale = 100;
+      int fractionDigits = 0;
+      for (i++; i < end; i++) {
+        char c = s.charAt(i);
+        if (!isDigit(c))
+          return -1;
+        total += (c - '0') * scale;
+        scale /= 10;
+        fractionDigits++;
+      }
+      if (fractionDigits == 0)
+        return -1;
+    }
+    return total;
+  }
+
+  /**
+   * Remove the markup of a cue text: HTML like tags, SSA override blocks and
+   * the usual entities.
+   */
+  static String cleanText(String text) {
+    StringBuilder sb = null;
+    int length = text.length();
+    for (int i = 0; i < length; i++) {
+      char c = text.charAt(i);
+      int skip = -1;
+      String replacement = null;
+      if (c == '<') {
+        int close = text.indexOf('>', i);
+        if (close > 0) {
+          skip = close;
+          if (text.regionMatches(true, i, "<br", 0, 3))
+            replacement = "\n";
+        }
+      } else if (c == '{' && i + 1 < length && text.charAt(i + 1) == '\\') {
+        int close = text.indexOf('}', i);
+        if (close > 0)
+          skip = close;
+      } else if (c == '\\' && i + 1 < length) {
+        char n = text.charAt(i + 1);
+        if (n == 'N' || n == 'n') {
+          skip = i + 1;
+          replacement = "\n";
+        } else if (n == 'h') {
+          skip = i + 1;
+          replacement = " ";
+        }
+      } else if (c == '&') {
+        int semi = text.indexOf(';', i);
+        if (semi > 0 && semi - i <= 6) {
+          replacement = entity(text.substring(i + 1, semi));
+          if (replacement != null)
+            skip = semi;
+        }
+      }
+
+      if (skip >= 0) {
+        if (sb == null)
+          sb = new StringBuilder(length).append(text, 0, i);
+        if (replacement != null)
+          sb.append(replacement);
+        i = skip;
+      } else if (sb != null) {
+        sb.append(c);
+      }
+    }
+    return (sb == null ? text : sb.toString()).trim();
+  }
+
+  private static String entity(String name) {
+    if (name.equalsIgnoreCase("nbsp"))
+      return " ";
+    if (name.equalsIgnoreCase("amp"))
+      return "&";
+    if (name.equalsIgnoreCase("lt"))
+      return "<";
+    if (name.equalsIgnoreCase("gt"))
+      return ">";
+    if (name.equalsIgnoreCase("quot"))
+      return "\"";
+    return null;
+  }
+}
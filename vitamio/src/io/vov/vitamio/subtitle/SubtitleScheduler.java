@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio.subtitle;
+
+import java.util.ArrayList;
+
+/**
+ * Turns playback positions into subtitle text changes. Between two changes
+ * a position is answered without looking at the index, and the time of the
+ * next change tells the caller when to ask again.
+ */
+public class SubtitleScheduler {
+  private final SubtitleTrack mTrack;
+  private CueIndex mIndex;
+  private ArrayList<Cue> mActive = new ArrayList<Cue>();
+  private ArrayList<Cue> mScratch = new ArrayList<Cue>();
+  private long mValidFrom;
+  private long mNextUpdateTime = Long.MIN_VALUE;
+
+  public SubtitleScheduler(SubtitleTrack track) {
+    mTrack = track;
+  }
+
+  /**
+   * @param position the playback position in milliseconds
+   * @return the text to show if it changed since the previous call, "" when
+   *         it's cleared, null if it didn't change
+   */
+  public String update(long position) {
+    CueIndex index = mTrack.getIndex();
+    if (index == mIndex && position >= mValidFrom && position < mNextUpdateTime)
+      return null;
+
+    mIndex = index;
+    mScratch.clear();
+    index.getCues(position, mScratch);
+    long next = index.getNextStartTime(position);
+    for (Cue cue : mScratch)
+      next = Math.min(next, cue.getEndTime());
+    mValidFrom = position;
+    mNextUpdateTime = next;
+
+    if (mScratch.equals(mActive))
+      return null;
+    ArrayList<Cue> active = mScratch;
+    mScratch = mActive;
+    mActive = active;
+
+    if (active.size() == 1)
+      return active.get(0).getText();
+    StringBuilder sb = new StringBuilder();
+    for (Cue cue : active) {
+      if (sb.length() > 0)
+        sb.append('\n');
+      sb.append(cue.getText());
+    }
+    return sb.toString();
+  }
+
+  /**
+   * @return the position at which the text may change next, after the last
+   *         {@link #update(long)}, Long.MAX_VALUE if it won't
+   */
+  public long getNextUpdateTime() {
+    return mNextUpdateTime;
+  }
+
+  /**
+   * @return true if some text is shown
+   */
+  public boolean isShowing() {
+    return !mActive.isEmpty();
+  }
+
+  /**
+   * Forget the text shown, the next update reports it again.
+   */
+  public void reset() {
+    mIndex = null;
+    mActive.clear();
+    mNextUpdateTime = Long.MIN_VALUE;
+  }
+}
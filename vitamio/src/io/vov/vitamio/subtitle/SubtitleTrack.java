@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio.subtitle;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+/**
+ * The cues of an out-of-band subtitle file. The file is parsed incrementally:
+ * {@link #getIndex()} returns the cues parsed so far, republished each time
+ * their count doubles, so playback can start before a large file is done.
+ * <p/>
+ * <pre>
+ * SubtitleTrack track = SubtitleTrack.open(new File(path), "GBK");
+ * mediaPlayer.setSubtitleTrack(track);
+ * </pre>
+ */
+public class SubtitleTrack {
+  private static final int FIRST_PUBLISH = 64;
+  private final SubtitleParser mParser;
+  private volatile CueIndex mIndex = CueIndex.EMPTY;
+  private volatile boolean mLoaded;
+  private volatile boolean mClosed;
+  private volatile IOException mError;
+
+  public SubtitleTrack(SubtitleParser parser) {
+    mParser = parser;
+  }
+
+  /**
+   * Open a subtitle file and parse it on a background thread.
+   *
+   * @param file     a file of one of the {@link io.vov.vitamio.MediaPlayer#SUB_TYPES}
+   * @param encoding the charset of the file, null to detect a byte order mark
+   *                 and use UTF-8 otherwise
+   * @throws IOException if the file can't be opened or its format isn't
+   *                     supported
+   */
+  public static SubtitleTrack open(File file, String encoding) throws IOException {
+    InputStream in = new BufferedInputStream(new FileInputStream(file));
+    SubtitleParser parser;
+    try {
+      Charset charset = encoding != null ? Charset.forName(encoding) : detectCharset(in);
+      parser = SubtitleParser.create(file.getName(), new BufferedReader(new InputStreamReader(in, charset)));
+    } catch (RuntimeException e) {
+      in.close();
+      throw new IOException("Unsupported encoding " + encoding);
+    } catch (IOException e) {
+      in.close();
+      throw e;
+    }
+    if (parser == null) {
+      in.close();
+      throw new IOException("Unsupported subtitle " + file);
+    }
+
+    final SubtitleTrack track = new SubtitleTrack(parser);
+    Thread loader = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        track.load();
+      }
+    }, "Vitamio-Subtitle");
+    loader.setDaemon(true);
+    loader.start();
+    return track;
+  }
+
+  private static Charset detectCharset(InputStream in) throws IOException {
+    in.mark(2);
+    int b0 = in.read();
+    int b1 = in.read();
+    in.reset();
+    if (b0 == 0xFE && b1 == 0xFF)
+      return Charset.forName("UTF-16BE");
+    if (b0 == 0xFF && b1 == 0xFE)
+      return Charset.forName("UTF-16LE");
+    // A UTF-8 byte order mark is dropped by SubtitleParser.readLine()
+    return Charset.forName("UTF-8");
+  }
+
+  /**
+   * Parse the whole file on the calling thread, publishing the cues as they
+   * come. The parser is closed at the end.
+   */
+  public void load() {
+    ArrayList<Cue> cues = new ArrayList<Cue>();
+    int publishAt = FIRST_PUBLISH;
+    try {
+      Cue cue;
+      while (!mClosed && (cue = mParser.next()) != null) {
+        cues.add(cue);
+        if (cues.size() >= publishAt) {
+          mIndex = new CueIndex(cues);
+          publishAt *= 2;
+        }
+      }
+    } catch (IOException e) {
+      mError = e;
+    } finally {
+      mIndex = new CueIndex(cues);
+      mLoaded = true;
+      try {
+        mParser.close();
+      } catch (IOException e) {
+      }
+    }
+  }
+
+  /**
+   * @return the cues parsed so far
+   */
+  public CueIndex getIndex() {
+    return mIndex;
+  }
+
+  /**
+   * @return true once the whole file has been parsed, or the parsing failed
+   */
+  public boolean isLoaded() {
+    return mLoaded;
+  }
+
+  /**
+   * @return the error which stopped the parsing, null if there was none
+   */
+  public IOException getError() {
+    return mError;
+  }
+
+  /**
+   * Stop parsing, the cues parsed so far stay available.
+   */
+  public void close() {
+    mClosed = true;
+  }
+}
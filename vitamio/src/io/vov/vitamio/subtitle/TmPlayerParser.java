@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio.subtitle;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+/**
+ * TMPlayer: "hh:mm:ss:text" or "hh:mm:ss=text", '|' separating the lines.
+ * There's no end time, a cue lasts until the next one, at most
+ * {@link #DEFAULT_DURATION}.
+ */
+class TmPlayerParser extends SubtitleParser {
+  private long mPendingStart = -1;
+  private String mPendingText;
+
+  TmPlayerParser(BufferedReader reader) {
+    super(reader);
+  }
+
+  static boolean isCueLine(String line) {
+    return separator(line) > 0;
+  }
+
+  /**
+   * @return the index of the ':' or '=' after the time, -1 if line isn't a cue
+   */
+  private static int separator(String line) {
+    int colons = 0;
+    for (int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (c == ':' && colons < 2) {
+        colons++;
+      } else if ((c == ':' || c == '=') && colons == 2) {
+        return i;
+      } else if (!isDigit(c)) {
+        return -1;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public Cue next() throws IOException {
+    String line;
+    while ((line = readLine()) != null) {
+      line = line.trim();
+      int separator = separator(line);
+      if (separator < 0)
+        continue;
+      long start = parseTime(line, 0, separator);
+      if (start < 0)
+        continue;
+
+      Cue cue = null;
+      if (mPendingText != null && start > mPendingStart)
+        cue = new Cue(mPendingStart, Math.min(start, mPendingStart + DEFAULT_DURATION), mPendingText);
+      String text = cleanText(line.substring(separator + 1).replace('|', '\n'));
+      mPendingStart = start;
+      mPendingText = text.length() > 0 ? text : null;
+      if (cue != null)
+        return cue;
+    }
+
+    if (mPendingText == null)
+      return null;
+    Cue cue = new Cue(mPendingStart, mPendingStart + DEFAULT_DURATION, mPendingText);
+    mPendingText = null;
+    return cue;
+  }
+}
@@ -66,13 +66,13 @@ public class StringUtils {
 		}
 	}
 
+	/**
+	 * @see TimeFormatter, which avoids the String
+	 */
 	public static String generateTime(long time) {
-		int totalSeconds = (int) (time / 1000);
-		int seconds = totalSeconds % 60;
-		int minutes = (totalSeconds / 60) % 60;
-		int hours = totalSeconds / 3600;
-
-		return hours > 0 ? String.format("%02d:%02d:%02d", hours, minutes, seconds) : String.format("%02d:%02d", minutes, seconds);
+		TimeFormatter formatter = new TimeFormatter();
+		formatter.format(time);
+		return formatter.toString();
 	}
 
 }
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.vov.vitamio.utils;
+
+/**
+ * Formats a time like {@link StringUtils#generateTime(long)}, "mm:ss" or
+ * "hh:mm:ss", into a reused char buffer, and tells whether the text changed
+ * since the previous time formatted.
+ * <p/>
+ * <pre>
+ * if (mFormatter.format(position))
+ *   textView.setText(mFormatter.getChars(), 0, mFormatter.length());
+ * </pre>
+ */
+public class TimeFormatter {
+	private final char[] mChars = new char[32];
+	private int mLength;
+	private long mSeconds = -1;
+
+	/**
+	 * @param time the time in milliseconds, negative times are formatted as 0
+	 * @return true if the text changed
+	 */
+	public boolean format(long time) {
+		long totalSeconds = Math.max(0, time / 1000);
+		if (totalSeconds == mSeconds)
+			return false;
+		mSeconds = totalSeconds;
+
+		long hours = totalSeconds / 3600;
+		int minutes = (int) (totalSeconds / 60 % 60);
+		int seconds = (int) (totalSeconds % 60);
+		int i = mChars.length;
+		i = putTwoDigits(seconds, i);
+		mChars[--i] = ':';
+		i = putTwoDigits(minutes, i);
+		if (hours > 0) {
+			mChars[--i] = ':';
+			if (hours < 100) {
+				i = putTwoDigits((int) hours, i);
+			} else {
+				for (; hours > 0; hours /= 10)
+					mChars[--i] = (char) ('0' + hours % 10);
+			}
+		}
+		mLength = mChars.length - i;
+		System.arraycopy(mChars, i, mChars, 0, mLength);
+		return true;
+	}
+
+	private int putTwoDigits(int value, int i) {
+		mChars[--i] = (char) ('0' + value % 10);
+		mChars[--i] = (char) ('0' + value / 10);
+		return i;
+	}
+
+	/**
+	 * @return the text, valid up to {@link #length()}
+	 */
+	public char[] getChars() {
+		return mChars;
+	}
+
+	public int length() {
+		return mLength;
+	}
+
+	/**
+	 * Forget the last time, the next {@link #format(long)} reports a change.
+	 */
+	public void reset() {
+		mSeconds = -1;
+	}
+
+	@Override
+	public String toString() {
+		return new String(mChars, 0, mLength);
+	}
+}
@@ -20,11 +20,13 @@ package io.vov.vitamio.widget;
 import android.annotation.SuppressLint;
 import android.annotation.TargetApi;
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Rect;
 import android.media.AudioManager;
 import android.os.Build;
 import android.os.Handler;
 import android.os.Message;
+import android.view.Choreographer;
 import android.util.AttributeSet;
 import android.view.Gravity;
 import android.view.KeyEvent;
@@ -34,6 +36,7 @@ import android.view.View;
 import android.view.WindowManager;
 import android.widget.FrameLayout;
 import android.widget.ImageButton;
+import android.widget.ImageView;
 import android.widget.PopupWindow;
 import android.widget.SeekBar;
 import android.widget.SeekBar.OnSeekBarChangeListener;
@@ -41,8 +44,9 @@ import android.widget.TextView;
 
 import java.lang.reflect.Method;
 
+import io.vov.vitamio.SeekPreview;
 import io.vov.vitamio.utils.Log;
-import io.vov.vitamio.utils.StringUtils;
+import io.vov.vitamio.utils.TimeFormatter;
 
 /**
  * A view containing controls for a MediaPlayer. Typically contains the buttons
@@ -87,6 +91,8 @@ public class MediaController extends FrameLayout {
   private TextView mEndTime, mCurrentTime;
   private TextView mFileName;
   private OutlineTextView mInfoView;
+  private ImageView mPreviewView;
+  private SeekPreview mSeekPreview;
   private String mTitle;
   private long mDuration;
   private boolean mShowing;
@@ -97,6 +103,10 @@ public class MediaController extends FrameLayout {
   private AudioManager mAM;
   private OnShownListener mShownListener;
   private OnHiddenListener mHiddenListener;
+  private final TimeFormatter mCurrentTimeFormatter = new TimeFormatter();
+  private final TimeFormatter mEndTimeFormatter = new TimeFormatter();
+  private long mDragPosition = -1;
+  private Object mFrameCallback;
   @SuppressLint("HandlerLeak")
   private Handler mHandler = new Handler() {
     @Override
@@ -123,6 +133,12 @@ public class MediaController extends FrameLayout {
       show(sDefaultTimeout);
     }
   };
+  private SeekPreview.OnFrameListener mFrameListener = new SeekPreview.OnFrameListener() {
+    public void onFrame(SeekPreview preview, Bitmap frame) {
+      if (preview == mSeekPreview && mPreviewView != null)
+        mPreviewView.setImageBitmap(frame);
+    }
+  };
   private OnSeekBarChangeListener mSeekListener = new OnSeekBarChangeListener() {
     public void onStartTrackingTouch(SeekBar bar) {
       mDragging = true;
@@ -133,6 +149,12 @@ public class MediaController extends FrameLayout {
       if (mInfoView != null) {
         mInfoView.setText("");
         mInfoView.setVisibility(View.VISIBLE);
+        mCurrentTimeFormatter.reset();
+      }
+      if (mPreviewView != null && mSeekPreview != null) {
+        // still showing the last frame delivered, unless another one comes
+        mSeekPreview.requestFrame((mDuration * bar.getProgress()) / 1000, mFrameListener);
+        mPreviewView.setVisibility(View.VISIBLE);
       }
     }
 
@@ -140,23 +162,22 @@ public class MediaController extends FrameLayout {
       if (!fromuser)
         return;
 
-      long newposition = (mDuration * progress) / 1000;
-      String time = StringUtils.generateTime(newposition);
-      if (mInstantSeeking)
-        mPlayer.seekTo(newposition);
-      if (mInfoView != null)
-        mInfoView.setText(time);
-      if (mCurrentTime != null)
-        mCurrentTime.setText(time);
+      // touch events may come faster than frames, apply the last one per frame
+      boolean scheduled = mDragPosition >= 0;
+      mDragPosition = (mDuration * progress) / 1000;
+      if (!scheduled && !postDragFrame())
+        applyDragPosition();
     }
 
     public void onStopTrackingTouch(SeekBar bar) {
-      if (!mInstantSeeking)
-        mPlayer.seekTo((mDuration * bar.getProgress()) / 1000);
+      cancelDragFrame();
+      seekTo((mDuration * bar.getProgress()) / 1000, false);
       if (mInfoView != null) {
         mInfoView.setText("");
         mInfoView.setVisibility(View.GONE);
       }
+      if (mPreviewView != null)
+        mPreviewView.setVisibility(View.GONE);
       show(sDefaultTimeout);
       mHandler.removeMessages(SHOW_PROGRESS);
       mAM.setStreamMute(AudioManager.STREAM_MUSIC, false);
@@ -257,6 +278,8 @@ public class MediaController extends FrameLayout {
 
     mEndTime = (TextView) v.findViewById(getResources().getIdentifier("mediacontroller_time_total", "id", mContext.getPackageName()));
     mCurrentTime = (TextView) v.findViewById(getResources().getIdentifier("mediacontroller_time_current", "id", mContext.getPackageName()));
+    mEndTimeFormatter.reset();
+    mCurrentTimeFormatter.reset();
     mFileName = (TextView) v.findViewById(getResources().getIdentifier("mediacontroller_file_name", "id", mContext.getPackageName()));
     if (mFileName != null)
       mFileName.setText(mTitle);
@@ -301,6 +324,28 @@ public class MediaController extends FrameLayout {
     mInfoView = v;
   }
 
+  /**
+   * Set the View showing the frame at the position of the SeekBar while it's
+   * dragged, see {@link #setSeekPreview(SeekPreview)}
+   *
+   * @param v
+   */
+  public void setPreviewView(ImageView v) {
+    mPreviewView = v;
+  }
+
+  /**
+   * Set the frames shown in the preview view while the SeekBar is dragged.
+   *
+   * @param preview generated by {@link io.vov.vitamio.SeekPreviewGenerator},
+   *                null to show no preview
+   */
+  public void setSeekPreview(SeekPreview preview) {
+    if (mSeekPreview != null && mSeekPreview != preview)
+      mSeekPreview.release();
+    mSeekPreview = preview;
+  }
+
   /**
    * <p>
    * Change the animation style resource for this controller.
@@ -396,19 +441,22 @@ public class MediaController extends FrameLayout {
     long duration = mPlayer.getDuration();
     if (mProgress != null) {
       if (duration > 0) {
-        long pos = 1000L * position / duration;
-        mProgress.setProgress((int) pos);
+        int pos = (int) (1000L * position / duration);
+        if (pos != mProgress.getProgress())
+          mProgress.setProgress(pos);
       }
-      int percent = mPlayer.getBufferPercentage();
-      mProgress.setSecondaryProgress(percent * 10);
+      int secondary = mPlayer.getBufferPercentage() * 10;
+      if (secondary != mProgress.getSecondaryProgress())
+        mProgress.setSecondaryProgress(secondary);
     }
 
     mDuration = duration;
 
-    if (mEndTime != null)
-      mEndTime.setText(StringUtils.generateTime(mDuration));
-    if (mCurrentTime != null)
-      mCurrentTime.setText(StringUtils.generateTime(position));
+    // only touch the views when the seconds shown change
+    if (mEndTime != null && mEndTimeFormatter.format(mDuration))
+      mEndTime.setText(mEndTimeFormatter.getChars(), 0, mEndTimeFormatter.length());
+    if (mCurrentTime != null && mCurrentTimeFormatter.format(position))
+      mCurrentTime.setText(mCurrentTimeFormatter.getChars(), 0, mCurrentTimeFormatter.length());
 
     return position;
   }
@@ -484,6 +532,58 @@ public class MediaController extends FrameLayout {
     public void onHidden();
   }
 
+  private void applyDragPosition() {
+    long position = mDragPosition;
+    mDragPosition = -1;
+    if (position < 0 || !mDragging)
+      return;
+
+    if (mInstantSeeking)
+      seekTo(position, true);
+    if (mCurrentTimeFormatter.format(position)) {
+      if (mInfoView != null)
+        mInfoView.setText(mCurrentTimeFormatter.toString());
+      if (mCurrentTime != null)
+        mCurrentTime.setText(mCurrentTimeFormatter.getChars(), 0, mCurrentTimeFormatter.length());
+    }
+    if (mPreviewView != null && mSeekPreview != null)
+      mSeekPreview.requestFrame(position, mFrameListener);
+  }
+
+  /**
+   * @return false if there is no Choreographer, the drag position must then be
+   *         applied right away
+   */
+  @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+  private boolean postDragFrame() {
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN)
+      return false;
+    if (mFrameCallback == null) {
+      mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+          applyDragPosition();
+        }
+      };
+    }
+    Choreographer.getInstance().postFrameCallback((Choreographer.FrameCallback) mFrameCallback);
+    return true;
+  }
+
+  @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+  private void cancelDragFrame() {
+    if (mFrameCallback != null)
+      Choreographer.getInstance().removeFrameCallback((Choreographer.FrameCallback) mFrameCallback);
+    mDragPosition = -1;
+  }
+
+  private void seekTo(long pos, boolean scrubbing) {
+    if (mPlayer instanceof ScrubbingControl)
+      ((ScrubbingControl) mPlayer).seekTo(pos, scrubbing);
+    else if (scrubbing || !mInstantSeeking)
+      mPlayer.seekTo(pos);
+  }
+
   public interface MediaPlayerControl {
     void start();
 
@@ -500,4 +600,18 @@ public class MediaController extends FrameLayout {
     int getBufferPercentage();
   }
 
+  /**
+   * Implemented by a {@link MediaPlayerControl} which coalesces the seeks made
+   * while the seek bar is dragged, see
+   * {@link io.vov.vitamio.MediaPlayer#requestSeek(long, boolean)}.
+   */
+  public interface ScrubbingControl {
+    /**
+     * @param pos       the position to seek to
+     * @param scrubbing true while the seek bar is dragged, false for the seek
+     *                  which ends the drag
+     */
+    void seekTo(long pos, boolean scrubbing);
+  }
+
 }
@@ -17,7 +17,9 @@
 package io.vov.vitamio.widget;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Typeface;
 import android.text.Layout;
@@ -30,6 +32,10 @@ import android.widget.TextView;
  * Display text with border, use the same XML attrs as
  * {@link android.widget.TextView}, except that {@link OutlineTextView} will
  * transform the shadow to border
+ * <p/>
+ * The layouts of the text are kept until the text, the width or the paints
+ * change. With {@link #setPrerendered(boolean)}, the outlined text is also
+ * drawn once into a bitmap which is then blitted by each draw.
  */
 public class OutlineTextView extends TextView {
   private TextPaint mTextPaint;
@@ -42,6 +48,12 @@ public class OutlineTextView extends TextView {
   private float mSpacingMult = 1.0f;
   private float mSpacingAdd = 0;
   private boolean mIncludePad = true;
+  private CachedLayout mMeasureLayout;
+  private CachedLayout mOutlineLayout;
+  private CachedLayout mFillLayout;
+  private boolean mPrerendered;
+  private Bitmap mBitmap;
+  private boolean mBitmapDirty = true;
 
   public OutlineTextView(Context context) {
     super(context);
@@ -73,9 +85,54 @@ public class OutlineTextView extends TextView {
     mTextPaintOutline.setStyle(Paint.Style.STROKE);
     mTextPaintOutline.setTypeface(getTypeface());
     mTextPaintOutline.setStrokeWidth(mBorderSize);
+    invalidateLayouts();
+  }
+
+  /**
+   * Draw the outlined text into a bitmap once and blit it until the text or
+   * the style change, instead of drawing two layouts each frame. It costs a
+   * bitmap of the size of the view, so it's off by default.
+   *
+   * @param prerendered true to enable
+   */
+  public void setPrerendered(boolean prerendered) {
+    if (mPrerendered == prerendered)
+      return;
+    mPrerendered = prerendered;
+    if (!prerendered)
+      recycleBitmap();
+    mBitmapDirty = true;
+    invalidate();
+  }
+
+  public boolean isPrerendered() {
+    return mPrerendered;
+  }
+
+  private void invalidateLayouts() {
+    // initPaint() runs from the setters called by the TextView constructor,
+    // before the fields of this class are initialized
+    if (mMeasureLayout == null) {
+      mMeasureLayout = new CachedLayout();
+      mOutlineLayout = new CachedLayout();
+      mFillLayout = new CachedLayout();
+    }
+    mMeasureLayout.clear();
+    mOutlineLayout.clear();
+    mFillLayout.clear();
+    mBitmapDirty = true;
+  }
+
+  private void recycleBitmap() {
+    if (mBitmap != null) {
+      mBitmap.recycle();
+      mBitmap = null;
+    }
   }
 
   public void setText(String text) {
+    if (text.equals(mText) && text.equals(getText()))
+      return;
     super.setText(text);
     mText = text.toString();
     requestLayout();
@@ -121,17 +178,47 @@ public class OutlineTextView extends TextView {
 
   @Override
   protected void onDraw(Canvas canvas) {
-    Layout layout = new StaticLayout(getText(), mTextPaintOutline, getWidth(), Layout.Alignment.ALIGN_CENTER, mSpacingMult, mSpacingAdd, mIncludePad);
-    layout.draw(canvas);
-    layout = new StaticLayout(getText(), mTextPaint, getWidth(), Layout.Alignment.ALIGN_CENTER, mSpacingMult, mSpacingAdd, mIncludePad);
-    layout.draw(canvas);
+    CharSequence text = getText();
+    int width = getWidth();
+    Layout outline = mOutlineLayout.get(text, mTextPaintOutline, width);
+    Layout fill = mFillLayout.get(text, mTextPaint, width);
+    if (!mPrerendered) {
+      outline.draw(canvas);
+      fill.draw(canvas);
+      return;
+    }
+
+    int height = Math.max(outline.getHeight(), getHeight());
+    if (width <= 0 || height <= 0)
+      return;
+    if (mBitmap == null || mBitmap.getWidth() != width || mBitmap.getHeight() < height) {
+      recycleBitmap();
+      mBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+      mBitmapDirty = true;
+    }
+    if (mBitmapDirty) {
+      mBitmap.eraseColor(Color.TRANSPARENT);
+      Canvas bitmapCanvas = new Canvas(mBitmap);
+      outline.draw(bitmapCanvas);
+      fill.draw(bitmapCanvas);
+      mBitmapDirty = false;
+    }
+    canvas.drawBitmap(mBitmap, 0, 0, null);
   }
 
   @Override
   protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
-    Layout layout = new StaticLayout(getText(), mTextPaintOutline, measureWidth(widthMeasureSpec), Layout.Alignment.ALIGN_CENTER, mSpacingMult, mSpacingAdd, mIncludePad);
+    int width = measureWidth(widthMeasureSpec);
+    Layout layout = mMeasureLayout.get(getText(), mTextPaintOutline, width);
     int ex = (int) (mBorderSize * 2 + 1);
-    setMeasuredDimension(measureWidth(widthMeasureSpec) + ex, measureHeight(heightMeasureSpec) * layout.getLineCount() + ex);
+    setMeasuredDimension(width + ex, measureHeight(heightMeasureSpec) * layout.getLineCount() + ex);
+  }
+
+  @Override
+  protected void onDetachedFromWindow() {
+    super.onDetachedFromWindow();
+    recycleBitmap();
+    mBitmapDirty = true;
   }
 
   private int measureWidth(int measureSpec) {
@@ -167,4 +254,38 @@ public class OutlineTextView extends TextView {
     }
     return result;
   }
-}
\ No newline at end of file
+
+  /**
+   * A {@link StaticLayout} kept until it's asked for another text, paint or
+   * width.
+   */
+  private final class CachedLayout {
+    private Layout mLayout;
+    private CharSequence mText;
+    private TextPaint mPaint;
+    private int mWidth;
+
+    Layout get(CharSequence text, TextPaint paint, int width) {
+      if (mLayout == null || paint != mPaint || width != mWidth || !sameText(text)) {
+        mLayout = new StaticLayout(text, paint, Math.max(0, width), Layout.Alignment.ALIGN_CENTER, mSpacingMult, mSpacingAdd, mIncludePad);
+        mText = text;
+        mPaint = paint;
+        mWidth = width;
+        if (this == mOutlineLayout || this == mFillLayout)
+          mBitmapDirty = true;
+      }
+      return mLayout;
+    }
+
+    private boolean sameText(CharSequence text) {
+      // spanned text is compared by identity, its spans may differ
+      return text == mText || (text instanceof String && text.equals(mText));
+    }
+
+    void clear() {
+      mLayout = null;
+      mText = null;
+      mPaint = null;
+    }
+  }
+}
@@ -45,9 +45,11 @@ import io.vov.vitamio.MediaPlayer.OnErrorListener;
 import io.vov.vitamio.MediaPlayer.OnInfoListener;
 import io.vov.vitamio.MediaPlayer.OnPreparedListener;
 import io.vov.vitamio.MediaPlayer.OnSeekCompleteListener;
+import io.vov.vitamio.MediaPlayer.OnTimedTextBitmapListener;
 import io.vov.vitamio.MediaPlayer.OnTimedTextListener;
 import io.vov.vitamio.MediaPlayer.OnVideoSizeChangedListener;
 import io.vov.vitamio.MediaPlayer.TrackInfo;
+import io.vov.vitamio.StreamCache;
 import io.vov.vitamio.Vitamio;
 import io.vov.vitamio.utils.Log;
 import io.vov.vitamio.utils.ScreenResolution;
@@ -66,7 +68,7 @@ import java.util.Map;
  * {@link io.vov.vitamio.MediaPlayer}, such as {@link #getVideoWidth()},
  * {@link #setTimedTextShown(boolean)}
  */
-public class VideoView extends SurfaceView implements MediaController.MediaPlayerControl {
+public class VideoView extends SurfaceView implements MediaController.MediaPlayerControl, MediaController.ScrubbingControl {
   public static final int VIDEO_LAYOUT_ORIGIN = 0;
   public static final int VIDEO_LAYOUT_SCALE = 1;
   public static final int VIDEO_LAYOUT_STRETCH = 2;
@@ -186,6 +188,7 @@ public class VideoView extends SurfaceView implements MediaController.MediaPlaye
   private OnErrorListener mOnErrorListener;
   private OnSeekCompleteListener mOnSeekCompleteListener;
   private OnTimedTextListener mOnTimedTextListener;
+  private OnTimedTextBitmapListener mOnTimedTextBitmapListener;
   private OnInfoListener mOnInfoListener;
   private OnBufferingUpdateListener mOnBufferingUpdateListener;
   private int mCurrentBufferPercentage;
@@ -193,6 +196,7 @@ public class VideoView extends SurfaceView implements MediaController.MediaPlaye
   private Context mContext;
   private Map<String, String> mHeaders;
   private int mBufSize;
+  private StreamCache mStreamCache;
   private OnCompletionListener mCompletionListener = new OnCompletionListener() {
     public void onCompletion(MediaPlayer mp) {
       Log.d("onCompletion");
@@ -418,6 +422,8 @@ public class VideoView extends SurfaceView implements MediaController.MediaPlaye
       mMediaPlayer.setOnInfoListener(mInfoListener);
       mMediaPlayer.setOnSeekCompleteListener(mSeekCompleteListener);
       mMediaPlayer.setOnTimedTextListener(mTimedTextListener);
+      mMediaPlayer.setOnTimedTextBitmapListener(mOnTimedTextBitmapListener);
+      mMediaPlayer.setStreamCache(mStreamCache);
       mMediaPlayer.setDataSource(mContext, mUri, mHeaders);
       mMediaPlayer.setDisplay(mSurfaceHolder);
       mMediaPlayer.setBufferSize(mBufSize);
@@ -493,6 +499,12 @@ public class VideoView extends SurfaceView implements MediaController.MediaPlaye
     mOnTimedTextListener = l;
   }
 
+  public void setOnTimedTextBitmapListener(OnTimedTextBitmapListener l) {
+    mOnTimedTextBitmapListener = l;
+    if (mMediaPlayer != null)
+      mMediaPlayer.setOnTimedTextBitmapListener(l);
+  }
+
   public void setOnInfoListener(OnInfoListener l) {
     mOnInfoListener = l;
   }
@@ -615,8 +627,12 @@ public class VideoView extends SurfaceView implements MediaController.MediaPlaye
   }
 
   public void seekTo(long msec) {
+    seekTo(msec, false);
+  }
+
+  public void seekTo(long msec, boolean scrubbing) {
     if (isInPlaybackState()) {
-      mMediaPlayer.seekTo(msec);
+      mMediaPlayer.requestSeek(msec, scrubbing);
       mSeekWhenPrepared = 0;
     } else {
       mSeekWhenPrepared = msec;
@@ -672,6 +688,14 @@ public class VideoView extends SurfaceView implements MediaController.MediaPlaye
     mBufSize = bufSize;
   }
 
+  /**
+   * Cache the network videos opened afterwards in cache, see
+   * {@link MediaPlayer#setStreamCache(StreamCache)}.
+   */
+  public void setStreamCache(StreamCache cache) {
+    mStreamCache = cache;
+  }
+
   public boolean isBuffering() {
     if (mMediaPlayer != null)
       return mMediaPlayer.isBuffering();
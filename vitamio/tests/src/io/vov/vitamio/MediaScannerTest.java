@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import io.vov.vitamio.benchmark.VideoProviderStandIn;
+import io.vov.vitamio.engine.FakeScannerEngine;
+import io.vov.vitamio.provider.MediaStore.Video;
+
+/**
+ * The rows {@link MediaScanner#scan(String[], boolean)} writes for the files
+ * and tags of a {@link FakeScannerEngine}, into a provider stand-in.
+ */
+public class MediaScannerTest extends AndroidTestCase {
+  private static final String ROOT = "/fake";
+  private Context mContext;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    mContext = VideoProviderStandIn.newContext(getContext());
+  }
+
+  public void testScanInsertsTaggedVideos() {
+    FakeScannerEngine engine = FakeScannerEngine.generate(ROOT, 3, 5, 1);
+    MediaScanner.ScanResult result = new MediaScanner(mContext, engine).scan(new String[]{ROOT}, false);
+    assertEquals(15, engine.getFilesReported());
+    assertEquals(15, result.getFilesProcessed());
+    assertEquals(15, result.getRowsWritten());
+    // one batch
+    assertEquals(1, result.getProviderCalls());
+    assertEquals(15, count());
+    assertEquals("Video 1-2", title(ROOT + "/dir1/video2."));
+  }
+
+  public void testBatchSizeOne() {
+    MediaScanner scanner = new MediaScanner(mContext, FakeScannerEngine.generate(ROOT, 3, 5, 1));
+    scanner.setBatchSize(1);
+    MediaScanner.ScanResult result = scanner.scan(new String[]{ROOT}, false);
+    assertEquals(15, result.getRowsWritten());
+    assertEquals(15, result.getProviderCalls());
+    assertEquals(15, count());
+  }
+
+  public void testRescanWritesOnlyChanges() {
+    FakeScannerEngine engine = new FakeScannerEngine();
+    video(engine, ROOT + "/a.mp4", 1000, "A");
+    video(engine, ROOT + "/b.mkv", 1000, "B");
+    video(engine, ROOT + "/c.avi", 1000, "C");
+    new MediaScanner(mContext, engine).scan(new String[]{ROOT}, false);
+    assertEquals(3, count());
+
+    // b is modified and c is gone, the files don't exist on storage
+    engine = new FakeScannerEngine();
+    video(engine, ROOT + "/a.mp4", 1000, "A");
+    video(engine, ROOT + "/b.mkv", 2000, "B2");
+    MediaScanner.ScanResult result = new MediaScanner(mContext, engine).scan(new String[]{ROOT}, false);
+    assertEquals(1, result.getFilesProcessed());
+    assertEquals(1, result.getFilesDeleted());
+    assertEquals(2, result.getRowsWritten());
+    assertEquals(2, count());
+    assertEquals("B2", title(ROOT + "/b."));
+  }
+
+  private static void video(FakeScannerEngine engine, String path, long lastModified, String title) {
+    engine.addFile(path, lastModified, 1000000, null);
+    engine.putTag(path, "title", title);
+    engine.putTag(path, "width", "1280");
+    engine.putTag(path, "height", "720");
+  }
+
+  private int count() {
+    Cursor c = mContext.getContentResolver().query(Video.Media.CONTENT_URI, new String[]{Video.Media._ID}, null, null, null);
+    try {
+      return c.getCount();
+    } finally {
+      c.close();
+    }
+  }
+
+  private String title(String pathPrefix) {
+    Cursor c = mContext.getContentResolver().query(Video.Media.CONTENT_URI, new String[]{Video.Media.TITLE}, Video.Media.DATA + " LIKE ?", new String[]{pathPrefix + "%"}, null);
+    try {
+      assertTrue(c.moveToFirst());
+      return c.getString(0);
+    } finally {
+      c.close();
+    }
+  }
+}
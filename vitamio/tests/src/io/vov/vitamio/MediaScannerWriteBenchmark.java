@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.test.InstrumentationTestCase;
+
+import io.vov.vitamio.benchmark.BenchmarkState;
+import io.vov.vitamio.benchmark.VideoProviderStandIn;
+import io.vov.vitamio.engine.FakeScannerEngine;
+import io.vov.vitamio.provider.MediaStore.Video;
+
+/**
+ * Rows per second of a full {@link MediaScanner#scan(String[], boolean)} of
+ * a library of {@link #ROWS} new videos into a provider stand-in, with every
+ * row written on its own and in batches of
+ * {@link MediaScanner#DEFAULT_BATCH_SIZE}. The files and their tags come from
+ * a {@link FakeScannerEngine}, the native parsing needs real media and isn't
+ * part of the measure.
+ */
+public class MediaScannerWriteBenchmark extends InstrumentationTestCase {
+  private static final String ROOT = "/benchmark";
+  private static final int DIRECTORIES = 20;
+  private static final int FILES_PER_DIRECTORY = 50;
+  private static final int ROWS = DIRECTORIES * FILES_PER_DIRECTORY;
+  private Context mContext;
+  private FakeScannerEngine mEngine;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    mContext = VideoProviderStandIn.newContext(getInstrumentation().getTargetContext());
+    mEngine = FakeScannerEngine.generate(ROOT, DIRECTORIES, FILES_PER_DIRECTORY, 5);
+  }
+
+  public void testWriteOneByOne() {
+    measure("scanWriteOneByOne", 1);
+  }
+
+  public void testWriteBatched() {
+    measure("scanWriteBatched", MediaScanner.DEFAULT_BATCH_SIZE);
+  }
+
+  private void measure(String name, int batchSize) {
+    MediaScanner scanner = new MediaScanner(mContext, mEngine);
+    scanner.setBatchSize(batchSize);
+    BenchmarkState state = new BenchmarkState();
+    MediaScanner.ScanResult result = null;
+    while (state.keepRunning()) {
+      // every scan inserts the whole library
+      state.pauseTiming();
+      mContext.getContentResolver().delete(Video.Media.CONTENT_URI, null, null);
+      state.resumeTiming();
+      result = scanner.scan(new String[]{ROOT}, false);
+    }
+    assertEquals(ROWS, result.getRowsWritten());
+    assertEquals((ROWS + batchSize - 1) / batchSize, result.getProviderCalls());
+    state.report(getInstrumentation(), name);
+    Bundle status = new Bundle();
+    status.putLong(name + "_rows_per_second", ROWS * 1000000000L / state.getMedianNanos());
+    getInstrumentation().sendStatus(0, status);
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.vov.vitamio;
+
+import android.test.AndroidTestCase;
+
+import io.vov.vitamio.utils.Crypto;
+import io.vov.vitamio.utils.FileUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * {@link StreamCache} eviction order, pinning and index reload.
+ */
+public class StreamCacheTest extends AndroidTestCase {
+  private static final int SIZE = 1000;
+  private File mDirectory;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    mDirectory = new File(getContext().getCacheDir(), "StreamCacheTest");
+    FileUtils.deleteDir(mDirectory);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtils.deleteDir(mDirectory);
+    super.tearDown();
+  }
+
+  public void testLeastRecentlyUsedEvictedFirst() throws Exception {
+    StreamCache cache = new StreamCache(mDirectory, 10 * SIZE);
+    StreamCache.Entry a = fill(cache, "a");
+    StreamCache.Entry b = fill(cache, "b");
+    StreamCache.Entry c = fill(cache, "c");
+    // a becomes the most recently used
+    cache.close(cache.open("a"));
+    cache.awaitIdle();
+    assertEquals(3 * SIZE, cache.getSize());
+
+    cache.setMaxSize(2 * SIZE);
+    cache.awaitIdle();
+    assertFalse(b.getDirectory().exists());
+    assertTrue(a.getDirectory().exists());
+    assertTrue(c.getDirectory().exists());
+    assertEquals(2, cache.getCount());
+    assertEquals(1, cache.getEvictionCount());
+    assertEquals(SIZE, cache.getEvictedBytes());
+
+    cache.setMaxSize(SIZE);
+    cache.awaitIdle();
+    assertFalse(c.getDirectory().exists());
+    assertTrue(a.getDirectory().exists());
+    cache.shutdown();
+  }
+
+  public void testPinnedEntriesAreKept() throws Exception {
+    StreamCache cache = new StreamCache(mDirectory, 10 * SIZE);
+    StreamCache.Entry pinned = cache.open("pinned");
+    write(pinned);
+    StreamCache.Entry other = fill(cache, "other");
+    cache.update(pinned);
+
+    cache.setMaxSize(0);
+    cache.awaitIdle();
+    assertTrue(pinned.getDirectory().exists());
+    assertFalse(other.getDirectory().exists());
+    assertEquals(SIZE, cache.getSize());
+
+    cache.evictAll();
+    cache.awaitIdle();
+    assertTrue(pinned.getDirectory().exists());
+
+    // once closed, it goes over the budget
+    cache.close(pinned);
+    cache.awaitIdle();
+    assertFalse(pinned.getDirectory().exists());
+    assertEquals(0, cache.getCount());
+    cache.shutdown();
+  }
+
+  public void testIndexReloaded() throws Exception {
+    StreamCache cache = new StreamCache(mDirectory, 10 * SIZE);
+    fill(cache, "a");
+    fill(cache, "b");
+    assertEquals(0, cache.getHitCount());
+    cache.shutdown();
+    cache.awaitIdle();
+    assertTrue(new File(mDirectory, StreamCache.INDEX).isFile());
+    // a directory the index doesn't know is added
+    File unknown = new File(mDirectory, "unknown");
+    unknown.mkdirs();
+    write(new File(unknown, "data"));
+
+    StreamCache reloaded = new StreamCache(mDirectory, 10 * SIZE);
+    reloaded.awaitIdle();
+    assertEquals(3, reloaded.getCount());
+    assertEquals(3 * SIZE, reloaded.getSize());
+    reloaded.close(reloaded.open("b"));
+    assertEquals(1, reloaded.getHitCount());
+
+    // a is the least recently used of the indexed entries
+    reloaded.setMaxSize(2 * SIZE);
+    reloaded.awaitIdle();
+    assertEquals(2, reloaded.getCount());
+    assertTrue(new File(mDirectory, Crypto.md5("b")).exists());
+    reloaded.shutdown();
+  }
+
+  public void testEntriesUsableAfterShutdown() throws Exception {
+    StreamCache cache = new StreamCache(mDirectory, 10 * SIZE);
+    StreamCache.Entry entry = cache.open("a");
+    write(entry);
+    cache.shutdown();
+    // the player still holding the entry updates and closes it
+    cache.update(entry);
+    cache.close(entry);
+    cache.setMaxSize(0);
+    cache.evictAll();
+    cache.awaitIdle();
+    assertTrue(entry.getDirectory().exists());
+  }
+
+  private static StreamCache.Entry fill(StreamCache cache, String uri) throws IOException, InterruptedException {
+    StreamCache.Entry entry = cache.open(uri);
+    write(entry);
+    cache.close(entry);
+    // distinct access times
+    Thread.sleep(10);
+    return entry;
+  }
+
+  private static void write(StreamCache.Entry entry) throws IOException {
+    write(new File(entry.getDirectory(), "data"));
+  }
+
+  private static void write(File file) throws IOException {
+    FileOutputStream out = new FileOutputStream(file);
+    try {
+      out.write(new byte[SIZE]);
+    } finally {
+      out.close();
+    }
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.vov.vitamio;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.test.InstrumentationTestCase;
+
+import io.vov.vitamio.benchmark.BenchmarkState;
+
+/**
+ * {@link ThumbnailUtils#extractThumbnail} scaling and cropping a frame into a
+ * mini and a micro thumbnail, as done for every video of a scan.
+ */
+public class ThumbnailUtilsBenchmark extends InstrumentationTestCase {
+  private Bitmap mFrame;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    mFrame = Bitmap.createBitmap(1280, 720, Bitmap.Config.ARGB_8888);
+    new Canvas(mFrame).drawColor(Color.DKGRAY);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    mFrame.recycle();
+    super.tearDown();
+  }
+
+  public void testExtractMiniThumbnail() {
+    measure("extractMiniThumbnail", ThumbnailUtils.TARGET_SIZE_MINI_THUMBNAIL_WIDTH, ThumbnailUtils.TARGET_SIZE_MINI_THUMBNAIL_HEIGHT);
+  }
+
+  public void testExtractMicroThumbnail() {
+    measure("extractMicroThumbnail", ThumbnailUtils.TARGET_SIZE_MICRO_THUMBNAIL_WIDTH, ThumbnailUtils.TARGET_SIZE_MICRO_THUMBNAIL_HEIGHT);
+  }
+
+  private void measure(String name, int width, int height) {
+    BenchmarkState state = new BenchmarkState();
+    while (state.keepRunning()) {
+      Bitmap thumbnail = ThumbnailUtils.extractThumbnail(mFrame, width, height);
+      state.pauseTiming();
+      assertEquals(width, thumbnail.getWidth());
+      if (thumbnail != mFrame)
+        thumbnail.recycle();
+      state.resumeTiming();
+    }
+    state.report(getInstrumentation(), name);
+  }
+}
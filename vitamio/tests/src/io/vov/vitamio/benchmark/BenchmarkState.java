@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio.benchmark;
+
+import android.os.Bundle;
+import android.app.Instrumentation;
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * Times the body of a loop on the device, in the manner of the androidx
+ * BenchmarkState: the loop runs until the timings are steady, then a few
+ * repeats of enough iterations to last about {@link #TARGET_NANOS} are
+ * measured.
+ * <pre>
+ * BenchmarkState state = new BenchmarkState();
+ * while (state.keepRunning())
+ *   codeUnderTest();
+ * state.report(getInstrumentation(), "codeUnderTest");
+ * </pre>
+ */
+public final class BenchmarkState {
+  private static final String TAG = "Benchmark";
+  private static final long WARMUP_NANOS = 250 * 1000 * 1000L;
+  private static final int WARMUP_MIN_ITERATIONS = 8;
+  private static final long TARGET_NANOS = 50 * 1000 * 1000L;
+  private static final int REPEATS = 10;
+  private static final int WARMUP = 0;
+  private static final int RUNNING = 1;
+  private static final int FINISHED = 2;
+  private int mState = WARMUP;
+  private long mWarmupStart = -1;
+  private int mWarmupIterations;
+  private int mIterations;
+  private int mIteration;
+  private int mRepeat;
+  private long mRepeatStart;
+  private long mPausedAt = -1;
+  private long mPausedNanos;
+  private final long[] mResults = new long[REPEATS];
+
+  public boolean keepRunning() {
+    long now = System.nanoTime();
+    switch (mState) {
+      case WARMUP:
+        if (mWarmupStart < 0) {
+          mWarmupStart = now;
+          mPausedNanos = 0;
+          return true;
+        }
+        mWarmupIterations++;
+        long elapsed = now - mWarmupStart - mPausedNanos;
+        if (elapsed < WARMUP_NANOS || mWarmupIterations < WARMUP_MIN_ITERATIONS)
+          return true;
+        mIterations = (int) Math.max(1, Math.min(Integer.MAX_VALUE, TARGET_NANOS * mWarmupIterations / Math.max(1, elapsed)));
+        mState = RUNNING;
+        startRepeat();
+        return true;
+      case RUNNING:
+        if (++mIteration < mIterations)
+          return true;
+        mResults[mRepeat] = (System.nanoTime() - mRepeatStart - mPausedNanos) / mIterations;
+        if (++mRepeat < REPEATS) {
+          startRepeat();
+          return true;
+        }
+        mState = FINISHED;
+        return false;
+      default:
+        throw new IllegalStateException("The benchmark is finished");
+    }
+  }
+
+  /**
+   * Stop the clock, for the setup of the next iteration.
+   */
+  public void pauseTiming() {
+    if (mPausedAt >= 0)
+      throw new IllegalStateException("Already paused");
+    mPausedAt = System.nanoTime();
+  }
+
+  public void resumeTiming() {
+    if (mPausedAt < 0)
+      throw new IllegalStateException("Not paused");
+    mPausedNanos += System.nanoTime() - mPausedAt;
+    mPausedAt = -1;
+  }
+
+  private void startRepeat() {
+    mIteration = 0;
+    mPausedNanos = 0;
+    mRepeatStart = System.nanoTime();
+  }
+
+  /**
+   * @return the median time of an iteration in nanoseconds
+   */
+  public long getMedianNanos() {
+    checkFinished();
+    long[] sorted = mResults.clone();
+    Arrays.sort(sorted);
+    return sorted[REPEATS / 2];
+  }
+
+  /**
+   * @return the fastest repeat, the time of an iteration in nanoseconds
+   */
+  public long getMinNanos() {
+    checkFinished();
+    long min = Long.MAX_VALUE;
+    for (long result : mResults)
+      min = Math.min(min, result);
+    return min;
+  }
+
+  /**
+   * Log the timings and add them to the instrumentation results, under name.
+   */
+  public void report(Instrumentation instrumentation, String name) {
+    Bundle status = new Bundle();
+    status.putLong(name + "_median_ns", getMedianNanos());
+    status.putLong(name + "_min_ns", getMinNanos());
+    status.putInt(name + "_iterations", mIterations);
+    instrumentation.sendStatus(0, status);
+    Log.i(TAG, String.format("%s: median %d ns, min %d ns, %d iterations x %d repeats", name, getMedianNanos(), getMinNanos(), mIterations, REPEATS));
+  }
+
+  private void checkFinished() {
+    if (mState != FINISHED)
+      throw new IllegalStateException("The benchmark isn't finished");
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.vov.vitamio.benchmark;
+
+import android.content.ContentProvider;
+import android.content.ContentResolver;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.net.Uri;
+import android.test.mock.MockContentResolver;
+
+import io.vov.vitamio.provider.MediaStore;
+import io.vov.vitamio.provider.MediaStore.Video;
+
+import java.util.ArrayList;
+
+/**
+ * Stand-in of the video table of the media provider an application declares,
+ * an in-memory SQLite table. A batch is applied in one transaction, as a
+ * media provider does.
+ */
+public class VideoProviderStandIn extends ContentProvider {
+  private static final String TABLE = "videos";
+  private SQLiteDatabase mDb;
+
+  /**
+   * @return a context whose content resolver serves the video table from a
+   *         new stand-in, e.g. for a {@link io.vov.vitamio.MediaScanner}
+   */
+  public static Context newContext(Context base) {
+    VideoProviderStandIn provider = new VideoProviderStandIn();
+    provider.attachInfo(base, null);
+    final MockContentResolver resolver = new MockContentResolver();
+    resolver.addProvider(MediaStore.AUTHORITY, provider);
+    return new ContextWrapper(base) {
+      @Override
+      public ContentResolver getContentResolver() {
+        return resolver;
+      }
+    };
+  }
+
+  @Override
+  public boolean onCreate() {
+    mDb = new SQLiteOpenHelper(getContext(), null, null, 1) {
+      @Override
+      public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE + " (" + Video.Media._ID + " INTEGER PRIMARY KEY, " + Video.Media.DATA + " TEXT UNIQUE, " + Video.Media.DATE_MODIFIED + " INTEGER, " + Video.Media.SIZE + " INTEGER, " + Video.Media.MIME_TYPE + " TEXT, " + Video.Media.TITLE + " TEXT, " + Video.Media.DURATION + " INTEGER, " + Video.Media.LANGUAGE + " TEXT, " + Video.Media.ALBUM + " TEXT, " + Video.Media.ARTIST + " TEXT, " + Video.Media.WIDTH + " INTEGER, " + Video.Media.HEIGHT + " INTEGER)");
+      }
+
+      @Override
+      public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+      }
+    }.getWritableDatabase();
+    return true;
+  }
+
+  @Override
+  public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+    return mDb.query(TABLE, projection, where(uri, selection), selectionArgs, null, null, sortOrder);
+  }
+
+  @Override
+  public Uri insert(Uri uri, ContentValues values) {
+    long id = mDb.insert(TABLE, null, values);
+    return id < 0 ? null : ContentUris.withAppendedId(Video.Media.CONTENT_URI, id);
+  }
+
+  @Override
+  public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+    return mDb.update(TABLE, values, where(uri, selection), selectionArgs);
+  }
+
+  @Override
+  public int delete(Uri uri, String selection, String[] selectionArgs) {
+    return mDb.delete(TABLE, where(uri, selection), selectionArgs);
+  }
+
+  @Override
+  public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations) throws OperationApplicationException {
+    mDb.beginTransaction();
+    try {
+      ContentProviderResult[] results = super.applyBatch(operations);
+      mDb.setTransactionSuccessful();
+      return results;
+    } finally {
+      mDb.endTransaction();
+    }
+  }
+
+  @Override
+  public String getType(Uri uri) {
+    return null;
+  }
+
+  private static String where(Uri uri, String selection) {
+    if (uri.getPathSegments().size() < 3)
+      return selection;
+    String id = Video.Media._ID + "=" + ContentUris.parseId(uri);
+    return selection == null ? id : id + " AND (" + selection + ")";
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.vov.vitamio.provider;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+
+/**
+ * The read path {@link MiniThumbFile} had before it mapped the file: one
+ * monitor and one direct buffer for all readers, a shared file lock and a
+ * channel read per slot. Kept as the baseline of
+ * {@link MiniThumbFileBenchmark}.
+ */
+class LegacyMiniThumbFile {
+  private static final int BYTES_PER_MINTHUMB = MiniThumbFile.BYTES_PER_MINTHUMB;
+  private final RandomAccessFile mFile;
+  private final FileChannel mChannel;
+  private final ByteBuffer mBuffer = ByteBuffer.allocateDirect(BYTES_PER_MINTHUMB);
+
+  LegacyMiniThumbFile(File file) throws IOException {
+    mFile = new RandomAccessFile(file, "r");
+    mChannel = mFile.getChannel();
+  }
+
+  void close() throws IOException {
+    mFile.close();
+  }
+
+  synchronized long getMagic(long id) throws IOException {
+    long pos = id * BYTES_PER_MINTHUMB;
+    FileLock lock = mChannel.lock(pos, 1 + 8, true);
+    try {
+      mBuffer.clear();
+      mBuffer.limit(1 + 8);
+      if (mChannel.read(mBuffer, pos) == 9) {
+        mBuffer.position(0);
+        if (mBuffer.get() == 1)
+          return mBuffer.getLong();
+      }
+      return 0;
+    } finally {
+      lock.release();
+    }
+  }
+
+  synchronized int getMiniThumb(long id, byte[] data) throws IOException {
+    long pos = id * BYTES_PER_MINTHUMB;
+    FileLock lock = mChannel.lock(pos, BYTES_PER_MINTHUMB, true);
+    try {
+      mBuffer.clear();
+      int size = mChannel.read(mBuffer, pos);
+      if (size > 1 + 8 + 4) {
+        mBuffer.position(9);
+        int length = mBuffer.getInt();
+        if (size >= 1 + 8 + 4 + length && data.length >= length) {
+          mBuffer.get(data, 0, length);
+          return length;
+        }
+      }
+      return -1;
+    } finally {
+      lock.release();
+    }
+  }
+}
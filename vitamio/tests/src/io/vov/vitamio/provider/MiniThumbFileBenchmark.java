@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2013 YIXIA.COM
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.vov.vitamio.provider;
+
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Environment;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import io.vov.vitamio.benchmark.BenchmarkState;
+import io.vov.vitamio.provider.MediaStore.Video;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The slot reads and writes of {@link MiniThumbFile} on the external storage,
+ * in a file of its own so the thumbnails of the real videos are left alone.
+ * The concurrent benchmarks compare the reads against
+ * {@link LegacyMiniThumbFile}, the monitor and file lock of the old read path,
+ * at 1 to 8 threads reading the same file.
+ */
+public class MiniThumbFileBenchmark extends InstrumentationTestCase {
+  private static final String TAG = "Benchmark";
+  private static final int SLOTS = 256;
+  private static final int[] THREADS = {1, 2, 4, 8};
+  private static final int READS = 2000;
+  private static final int REPEATS = 5;
+  private final Uri mUri = Uri.parse(MediaStore.CONTENT_AUTHORITY_SLASH + "benchmark/media");
+  private final byte[] mThumb = new byte[4096];
+  private final byte[] mBuffer = new byte[MiniThumbFile.BYTES_PER_MINTHUMB];
+  private MiniThumbFile mFile;
+  private int mNext;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    new Random(7).nextBytes(mThumb);
+    mFile = new MiniThumbFile(mUri);
+    for (int id = 0; id < SLOTS; id++)
+      mFile.saveMiniThumbToFile(mThumb, id, id + 1);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    mFile.deactivate();
+    File[] files = new File(Environment.getExternalStorageDirectory(), Video.Thumbnails.THUMBNAILS_DIRECTORY).listFiles();
+    if (files != null) {
+      for (File file : files) {
+        if (file.getName().endsWith("-" + mUri.hashCode()))
+          file.delete();
+      }
+    }
+    super.tearDown();
+  }
+
+  public void testGetMagic() {
+    BenchmarkState state = new BenchmarkState();
+    while (state.keepRunning())
+      mFile.getMagic(nextId());
+    state.report(getInstrumentation(), "miniThumbGetMagic");
+    assertEquals(8, mFile.getMagic(7));
+  }
+
+  public void testGetMiniThumb() {
+    BenchmarkState state = new BenchmarkState();
+    while (state.keepRunning())
+      mFile.getMiniThumb(nextId(), mBuffer);
+    state.report(getInstrumentation(), "miniThumbGetMiniThumb");
+    assertEquals(mThumb.length, mFile.getMiniThumb(7, mBuffer));
+  }
+
+  public void testSaveMiniThumbToFile() throws Exception {
+    BenchmarkState state = new BenchmarkState();
+    while (state.keepRunning()) {
+      int id = nextId();
+      mFile.saveMiniThumbToFile(mThumb, id, id + 1);
+    }
+    state.report(getInstrumentation(), "miniThumbSave");
+  }
+
+  public void testConcurrentGetMagic() throws Exception {
+    final LegacyMiniThumbFile legacy = new LegacyMiniThumbFile(dataFile());
+    try {
+      runConcurrent("miniThumbGetMagic", new Read() {
+        @Override
+        public void read(long id, byte[] data) throws Exception {
+          assertEquals(id + 1, legacy.getMagic(id));
+        }
+      }, new Read() {
+        @Override
+        public void read(long id, byte[] data) {
+          assertEquals(id + 1, mFile.getMagic(id));
+        }
+      });
+    } finally {
+      legacy.close();
+    }
+  }
+
+  public void testConcurrentGetMiniThumb() throws Exception {
+    final LegacyMiniThumbFile legacy = new LegacyMiniThumbFile(dataFile());
+    try {
+      runConcurrent("miniThumbGetMiniThumb", new Read() {
+        @Override
+        public void read(long id, byte[] data) throws Exception {
+          assertEquals(mThumb.length, legacy.getMiniThumb(id, data));
+        }
+      }, new Read() {
+        @Override
+        public void read(long id, byte[] data) {
+          assertEquals(mThumb.length, mFile.getMiniThumb(id, data));
+        }
+      });
+    } finally {
+      legacy.close();
+    }
+  }
+
+  private interface Read {
+    void read(long id, byte[] data) throws Exception;
+  }
+
+  /**
+   * Report the time per read of legacy and current at each of {@link #THREADS},
+   * the best of {@link #REPEATS} runs of {@link #READS} reads per thread.
+   */
+  private void runConcurrent(String name, Read legacy, Read current) throws Exception {
+    Bundle status = new Bundle();
+    for (int threads : THREADS) {
+      long legacyNanos = bestNanos(legacy, threads);
+      long currentNanos = bestNanos(current, threads);
+      status.putLong(name + "_legacy_" + threads + "_ns", legacyNanos);
+      status.putLong(name + "_" + threads + "_ns", currentNanos);
+      Log.i(TAG, String.format("%s, %d threads: legacy %d ns, mapped %d ns per read", name, threads, legacyNanos, currentNanos));
+    }
+    getInstrumentation().sendStatus(0, status);
+  }
+
+  private long bestNanos(Read read, int threads) throws Exception {
+    run(read, threads);
+    long best = Long.MAX_VALUE;
+    for (int i = 0; i < REPEATS; i++)
+      best = Math.min(best, run(read, threads));
+    return best;
+  }
+
+  /**
+   * @return the wall time per read, all threads reading at once
+   */
+  private long run(final Read read, int threads) throws Exception {
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(threads);
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    for (int t = 0; t < threads; t++) {
+      final Random random = new Random(t);
+      new Thread("MiniThumbFileBenchmark-" + t) {
+        @Override
+        public void run() {
+          byte[] data = new byte[MiniThumbFile.BYTES_PER_MINTHUMB];
+          try {
+            start.await();
+            for (int i = 0; i < READS; i++)
+              read.read(random.nextInt(SLOTS), data);
+          } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+          } finally {
+            done.countDown();
+          }
+        }
+      }.start();
+    }
+    long begin = System.nanoTime();
+    start.countDown();
+    done.await();
+    long elapsed = System.nanoTime() - begin;
+    if (failure.get() != null)
+      throw new AssertionError(failure.get());
+    return elapsed / ((long) threads * READS);
+  }
+
+  private File dataFile() {
+    File[] files = new File(Environment.getExternalStorageDirectory(), Video.Thumbnails.THUMBNAILS_DIRECTORY).listFiles();
+    if (files != null) {
+      for (File file : files) {
+        if (file.getName().endsWith("-" + mUri.hashCode()))
+          return file;
+      }
+    }
+    throw new AssertionError("no thumbnail file for " + mUri);
+  }
+
+  private int nextId() {
+    mNext = (mNext + 1) % SLOTS;
+    return mNext;
+  }
+}